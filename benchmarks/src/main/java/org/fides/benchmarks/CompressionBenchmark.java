@@ -0,0 +1,120 @@
+package org.fides.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.fides.compression.CompressionCodec;
+import org.fides.compression.CompressionUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures compressing and decompressing with {@link CompressionUtils}, for text and for random data that is stored
+ * without compression. The score is in MB of uncompressed data per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+
+	private static final int MEGABYTES = 16;
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	@Param({ "text", "random" })
+	private String content;
+
+	@Param({ "1", "6" })
+	private int level;
+
+	private byte[] data;
+
+	private byte[] compressed;
+
+	private byte[] buffer;
+
+	/**
+	 * Creates the data and its compression
+	 * 
+	 * @throws IOException
+	 */
+	@Setup
+	public void setup() throws IOException {
+		data = new byte[MEGABYTES * 1024 * 1024];
+		Random random = new Random(1);
+		if ("text".equals(content)) {
+			String[] words = { "the", "secure", "cloud", "storage", "encrypts", "every", "file", "on", "client", "side", "before", "upload",
+				"and", "key", "server", "never", "sees", "plain", "data", "user" };
+			StringBuilder builder = new StringBuilder(data.length + 16);
+			while (builder.length() < data.length) {
+				builder.append(words[random.nextInt(words.length)]).append(random.nextInt(10) == 0 ? ".\n" : " ");
+			}
+			byte[] text = builder.toString().getBytes(StandardCharsets.US_ASCII);
+			System.arraycopy(text, 0, data, 0, data.length);
+		} else {
+			random.nextBytes(data);
+		}
+		buffer = new byte[BUFFER_SIZE];
+
+		ByteArrayOutputStream byteOut = new ByteArrayOutputStream(data.length);
+		OutputStream out = CompressionUtils.getCompressionStream(byteOut, CompressionCodec.DEFLATE, level);
+		out.write(data);
+		out.close();
+		compressed = byteOut.toByteArray();
+	}
+
+	/**
+	 * Compresses the data
+	 * 
+	 * @throws IOException
+	 */
+	@Benchmark
+	@OperationsPerInvocation(MEGABYTES)
+	public void compress() throws IOException {
+		OutputStream out = CompressionUtils.getCompressionStream(new NullOutputStream(), CompressionCodec.DEFLATE, level);
+		for (int offset = 0; offset < data.length; offset += BUFFER_SIZE) {
+			out.write(data, offset, Math.min(BUFFER_SIZE, data.length - offset));
+		}
+		out.close();
+	}
+
+	/**
+	 * Decompresses the data
+	 * 
+	 * @param blackhole
+	 *            Consumes the decompressed bytes
+	 * @throws IOException
+	 */
+	@Benchmark
+	@OperationsPerInvocation(MEGABYTES)
+	public void decompress(Blackhole blackhole) throws IOException {
+		InputStream in = CompressionUtils.getDecompressionStream(new ByteArrayInputStream(compressed));
+		int bytesRead;
+		while ((bytesRead = in.read(buffer)) != -1) {
+			blackhole.consume(bytesRead);
+		}
+		in.close();
+	}
+
+}
@@ -0,0 +1,111 @@
+package org.fides.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.fides.encryption.EncryptionMode;
+import org.fides.encryption.EncryptionUtils;
+import org.fides.encryption.KeyGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures encrypting and decrypting with {@link EncryptionUtils} in every {@link EncryptionMode}. The score is in MB
+ * per second, {@link EncryptionMode#CBC} is the baseline for the segmented modes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncryptionBenchmark {
+
+	private static final int MEGABYTES = 16;
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	@Param({ "CBC", "CTR", "GCM" })
+	private EncryptionMode mode;
+
+	private Key key;
+
+	private byte[] data;
+
+	private byte[] encrypted;
+
+	private byte[] buffer;
+
+	/**
+	 * Creates the key, the data and its encryption
+	 * 
+	 * @throws NoSuchAlgorithmException
+	 * @throws IOException
+	 */
+	@Setup
+	public void setup() throws NoSuchAlgorithmException, IOException {
+		key = KeyGenerator.generateRandomKey(EncryptionUtils.ALGORITHM, EncryptionUtils.KEY_SIZE);
+		data = new byte[MEGABYTES * 1024 * 1024];
+		new Random(1).nextBytes(data);
+		buffer = new byte[BUFFER_SIZE];
+
+		ByteArrayOutputStream byteOut = new ByteArrayOutputStream(data.length + data.length / 64);
+		OutputStream out = EncryptionUtils.getEncryptionStream(byteOut, key, mode);
+		out.write(data);
+		out.close();
+		encrypted = byteOut.toByteArray();
+	}
+
+	/**
+	 * Encrypts the data
+	 * 
+	 * @throws IOException
+	 */
+	@Benchmark
+	@OperationsPerInvocation(MEGABYTES)
+	public void encrypt() throws IOException {
+		OutputStream out = EncryptionUtils.getEncryptionStream(new NullOutputStream(), key, mode);
+		for (int offset = 0; offset < data.length; offset += BUFFER_SIZE) {
+			out.write(data, offset, Math.min(BUFFER_SIZE, data.length - offset));
+		}
+		out.close();
+	}
+
+	/**
+	 * Decrypts the data
+	 * 
+	 * @param blackhole
+	 *            Consumes the decrypted bytes
+	 * @throws IOException
+	 */
+	@Benchmark
+	@OperationsPerInvocation(MEGABYTES)
+	public void decrypt(Blackhole blackhole) throws IOException {
+		InputStream in = EncryptionUtils.getDecryptionStream(new ByteArrayInputStream(encrypted), key);
+		int bytesRead;
+		while ((bytesRead = in.read(buffer)) != -1) {
+			blackhole.consume(bytesRead);
+		}
+		in.close();
+	}
+
+}
@@ -0,0 +1,82 @@
+package org.fides.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.RandomStringUtils;
+import org.fides.tools.HashUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures hashing with {@link HashUtils} and its hexadecimal conversions
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashUtilsBenchmark {
+
+	@Param({ "32", "1024", "65536" })
+	private int size;
+
+	private String text;
+
+	private byte[] bytes;
+
+	private String hex;
+
+	/**
+	 * Creates the text to hash and the bytes to convert
+	 */
+	@Setup
+	public void setup() {
+		Random random = new Random(1);
+		text = RandomStringUtils.random(size, 0, 0, true, true, null, random);
+		bytes = new byte[size];
+		random.nextBytes(bytes);
+		hex = HashUtils.toHex(bytes);
+	}
+
+	/**
+	 * Hashes a string
+	 * 
+	 * @return the hash
+	 */
+	@Benchmark
+	public String hash() {
+		return HashUtils.hash(text);
+	}
+
+	/**
+	 * Converts bytes to hexadecimal
+	 * 
+	 * @return the hexadecimal string
+	 */
+	@Benchmark
+	public String toHex() {
+		return HashUtils.toHex(bytes);
+	}
+
+	/**
+	 * Converts hexadecimal to bytes
+	 * 
+	 * @return the bytes
+	 */
+	@Benchmark
+	public byte[] fromHex() {
+		return HashUtils.fromHex(hex);
+	}
+
+}
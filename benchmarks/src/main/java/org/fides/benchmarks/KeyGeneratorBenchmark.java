@@ -0,0 +1,56 @@
+package org.fides.benchmarks;
+
+import java.security.Key;
+import java.util.concurrent.TimeUnit;
+
+import org.fides.encryption.EncryptionUtils;
+import org.fides.encryption.KeyGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the latency of deriving a key from a password with {@link KeyGenerator} for different numbers of rounds
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyGeneratorBenchmark {
+
+	private static final String PASSWORD = "correct horse battery staple";
+
+	@Param({ "1000", "10000", "100000" })
+	private int rounds;
+
+	private byte[] salt;
+
+	/**
+	 * Creates the salt
+	 */
+	@Setup
+	public void setup() {
+		salt = KeyGenerator.getSalt(16);
+	}
+
+	/**
+	 * Derives a key
+	 * 
+	 * @return the key, so it is not optimized away
+	 */
+	@Benchmark
+	public Key generateKey() {
+		return KeyGenerator.generateKey(PASSWORD, salt, rounds, EncryptionUtils.KEY_SIZE);
+	}
+
+}
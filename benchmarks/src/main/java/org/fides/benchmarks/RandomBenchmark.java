@@ -0,0 +1,119 @@
+package org.fides.benchmarks;
+
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.fides.encryption.EncryptionUtils;
+import org.fides.encryption.KeyGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures generating salts and keys on many threads at once. The shared benchmarks use a single {@link SecureRandom}
+ * like {@link KeyGenerator} did before it had a generator per thread. The score is in salts or keys per millisecond.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(16)
+@Fork(1)
+public class RandomBenchmark {
+
+	private static final int SALT_SIZE = 16;
+
+	private static final int BATCH_SIZE = 64;
+
+	private final SecureRandom shared = new SecureRandom();
+
+	/**
+	 * Makes sure the provider of the key algorithm is registered before the shared benchmark uses it
+	 */
+	@Setup
+	public void setup() {
+		KeyGenerator.getRounds();
+	}
+
+	/**
+	 * Generates a salt with the shared generator
+	 * 
+	 * @return the salt
+	 */
+	@Benchmark
+	public byte[] saltShared() {
+		byte[] salt = new byte[SALT_SIZE];
+		shared.nextBytes(salt);
+		return salt;
+	}
+
+	/**
+	 * Generates a salt with the generator of the thread
+	 * 
+	 * @return the salt
+	 */
+	@Benchmark
+	public byte[] saltThreadLocal() {
+		return KeyGenerator.getSalt(SALT_SIZE);
+	}
+
+	/**
+	 * Generates a batch of salts with the generator of the thread
+	 * 
+	 * @return the salts
+	 */
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public byte[][] saltBatch() {
+		return KeyGenerator.getSalts(BATCH_SIZE, SALT_SIZE);
+	}
+
+	/**
+	 * Generates a key with a new key generator and the shared generator
+	 * 
+	 * @return the key
+	 * @throws NoSuchAlgorithmException
+	 */
+	@Benchmark
+	public Key keyShared() throws NoSuchAlgorithmException {
+		javax.crypto.KeyGenerator generator = javax.crypto.KeyGenerator.getInstance(EncryptionUtils.ALGORITHM);
+		generator.init(EncryptionUtils.KEY_SIZE * 8, shared);
+		return generator.generateKey();
+	}
+
+	/**
+	 * Generates a key with the key generator and the generator of the thread
+	 * 
+	 * @return the key
+	 * @throws NoSuchAlgorithmException
+	 */
+	@Benchmark
+	public Key keyThreadLocal() throws NoSuchAlgorithmException {
+		return KeyGenerator.generateRandomKey(EncryptionUtils.ALGORITHM, EncryptionUtils.KEY_SIZE);
+	}
+
+	/**
+	 * Generates a batch of keys with the key generator and the generator of the thread
+	 * 
+	 * @return the keys
+	 * @throws NoSuchAlgorithmException
+	 */
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public Key[] keyBatch() throws NoSuchAlgorithmException {
+		return KeyGenerator.generateRandomKeys(EncryptionUtils.ALGORITHM, EncryptionUtils.KEY_SIZE, BATCH_SIZE);
+	}
+
+}
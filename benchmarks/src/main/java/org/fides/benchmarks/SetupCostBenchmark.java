@@ -0,0 +1,131 @@
+package org.fides.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.RandomStringUtils;
+import org.bouncycastle.crypto.engines.CamelliaEngine;
+import org.bouncycastle.crypto.io.CipherOutputStream;
+import org.bouncycastle.crypto.modes.CBCBlockCipher;
+import org.bouncycastle.crypto.paddings.PKCS7Padding;
+import org.bouncycastle.crypto.paddings.PaddedBufferedBlockCipher;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.fides.encryption.EncryptionUtils;
+import org.fides.encryption.KeyGenerator;
+import org.fides.tools.HashUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the cached ciphers and digests of the components with setting them up for every call, on payloads small
+ * enough for the setup to matter. The uncached benchmarks repeat what the components did before the caches.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SetupCostBenchmark {
+
+	/** The IV of the CBC mode of {@link EncryptionUtils} */
+	private static final byte[] IV = { 0x46, 0x69, 0x64, 0x65, 0x73, 0x2, 0x69, 0x73, 0x20, 0x53, 0x65, 0x63, 0x75, 0x72, 0x65, 0x21 };
+
+	@Param({ "64", "1024", "16384" })
+	private int size;
+
+	private Key key;
+
+	private byte[] data;
+
+	private String text;
+
+	private ByteArrayOutputStream byteOut;
+
+	/**
+	 * Creates the key and the payloads
+	 * 
+	 * @throws NoSuchAlgorithmException
+	 */
+	@Setup
+	public void setup() throws NoSuchAlgorithmException {
+		key = KeyGenerator.generateRandomKey(EncryptionUtils.ALGORITHM, EncryptionUtils.KEY_SIZE);
+		Random random = new Random(1);
+		data = new byte[size];
+		random.nextBytes(data);
+		text = RandomStringUtils.random(size, 0, 0, true, true, null, random);
+		byteOut = new ByteArrayOutputStream(size + 32);
+	}
+
+	/**
+	 * Encrypts with a pooled cipher
+	 * 
+	 * @return the encrypted size
+	 * @throws IOException
+	 */
+	@Benchmark
+	public int encryptCached() throws IOException {
+		byteOut.reset();
+		OutputStream out = EncryptionUtils.getEncryptionStream(byteOut, key);
+		out.write(data);
+		out.close();
+		return byteOut.size();
+	}
+
+	/**
+	 * Encrypts with a new cipher
+	 * 
+	 * @return the encrypted size
+	 * @throws IOException
+	 */
+	@Benchmark
+	public int encryptUncached() throws IOException {
+		byteOut.reset();
+		PaddedBufferedBlockCipher cipher = new PaddedBufferedBlockCipher(new CBCBlockCipher(new CamelliaEngine()), new PKCS7Padding());
+		cipher.init(true, new ParametersWithIV(new KeyParameter(key.getEncoded()), IV));
+		OutputStream out = new CipherOutputStream(byteOut, cipher);
+		out.write(data);
+		out.close();
+		return byteOut.size();
+	}
+
+	/**
+	 * Hashes with the digest of the thread
+	 * 
+	 * @return the hash
+	 */
+	@Benchmark
+	public String hashCached() {
+		return HashUtils.hash(text);
+	}
+
+	/**
+	 * Hashes with a new digest
+	 * 
+	 * @return the hash
+	 * @throws NoSuchAlgorithmException
+	 */
+	@Benchmark
+	public String hashUncached() throws NoSuchAlgorithmException {
+		MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+		messageDigest.update(text.getBytes());
+		return HashUtils.toHex(messageDigest.digest());
+	}
+
+}
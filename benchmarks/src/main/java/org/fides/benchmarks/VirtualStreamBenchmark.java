@@ -0,0 +1,117 @@
+package org.fides.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.fides.components.virtualstream.VirtualInputStream;
+import org.fides.components.virtualstream.VirtualOutputStream;
+import org.fides.components.virtualstream.VirtualStreamProtocol;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures a round trip through a {@link VirtualOutputStream} and a {@link VirtualInputStream} for different chunk
+ * sizes, with bulk writes and reads and byte at a time. The score is in MB per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VirtualStreamBenchmark {
+
+	private static final int MEGABYTES = 8;
+
+	/** The size of the writes and reads of the application, independent of the chunk size */
+	private static final int APPLICATION_BUFFER_SIZE = 8 * 1024;
+
+	@Param({ "V1", "V2" })
+	private VirtualStreamProtocol protocol;
+
+	@Param({ "1024", "16384", "32767" })
+	private int chunkSize;
+
+	private byte[] data;
+
+	private byte[] buffer;
+
+	private ByteArrayOutputStream byteOut;
+
+	/**
+	 * Creates the data to send
+	 */
+	@Setup
+	public void setup() {
+		data = new byte[MEGABYTES * 1024 * 1024];
+		new Random(1).nextBytes(data);
+		buffer = new byte[APPLICATION_BUFFER_SIZE];
+		byteOut = new ByteArrayOutputStream(data.length + data.length / 64);
+	}
+
+	/**
+	 * Writes the data to a virtual stream and reads it back
+	 * 
+	 * @param blackhole
+	 *            Consumes the read bytes
+	 * @throws IOException
+	 */
+	@Benchmark
+	@OperationsPerInvocation(MEGABYTES)
+	public void roundTrip(Blackhole blackhole) throws IOException {
+		byteOut.reset();
+		VirtualOutputStream out = new VirtualOutputStream(byteOut, chunkSize, protocol);
+		for (int offset = 0; offset < data.length; offset += APPLICATION_BUFFER_SIZE) {
+			out.write(data, offset, Math.min(APPLICATION_BUFFER_SIZE, data.length - offset));
+		}
+		out.close();
+
+		VirtualInputStream in = new VirtualInputStream(new ByteArrayInputStream(byteOut.toByteArray()), protocol);
+		int bytesRead;
+		while ((bytesRead = in.read(buffer)) != -1) {
+			blackhole.consume(bytesRead);
+		}
+		in.close();
+	}
+
+	/**
+	 * Writes the data to a virtual stream and reads it back a byte at a time, to compare with the bulk path of
+	 * {@link #roundTrip(Blackhole)}
+	 * 
+	 * @param blackhole
+	 *            Consumes the read bytes
+	 * @throws IOException
+	 */
+	@Benchmark
+	@OperationsPerInvocation(MEGABYTES)
+	public void roundTripSingleBytes(Blackhole blackhole) throws IOException {
+		byteOut.reset();
+		VirtualOutputStream out = new VirtualOutputStream(byteOut, chunkSize, protocol);
+		for (byte b : data) {
+			out.write(b);
+		}
+		out.close();
+
+		VirtualInputStream in = new VirtualInputStream(new ByteArrayInputStream(byteOut.toByteArray()), protocol);
+		int b;
+		while ((b = in.read()) != -1) {
+			blackhole.consume(b);
+		}
+		in.close();
+	}
+
+}
@@ -59,6 +59,37 @@ public final class Actions {
 	 */
 	public static final String REQUEST_LOCATIONS = "requestLocations";
 
+	/**
+	 * The action for getting several files, the locations follow in a batch
+	 */
+	public static final String GET_FILES = "getFiles";
+
+	/**
+	 * The action for uploading several files, the files follow in a batch
+	 */
+	public static final String UPLOAD_FILES = "uploadFiles";
+
+	/**
+	 * The action for removing several files, the locations follow in a batch
+	 */
+	public static final String REMOVE_FILES = "removeFiles";
+
+	/**
+	 * The action for asking which chunks the server has, the chunk ids follow in a batch. A file stored in chunks is
+	 * uploaded as its manifest, after the chunks the server does not have.
+	 */
+	public static final String HAS_CHUNKS = "hasChunks";
+
+	/**
+	 * The action for uploading chunks, the chunk ids and the encrypted chunks follow in a batch
+	 */
+	public static final String UPLOAD_CHUNKS = "uploadChunks";
+
+	/**
+	 * The action for getting chunks, the chunk ids follow in a batch
+	 */
+	public static final String GET_CHUNKS = "getChunks";
+
 	private Actions() {
 		// This class should not be instantiated
 	}
@@ -83,6 +114,26 @@ public final class Actions {
 		 */
 		public static final String LOCATION = "location";
 
+		/**
+		 * The property for the id of a request, copied into its response so pipelined responses can be matched
+		 */
+		public static final String REQUEST_ID = "requestId";
+
+		/**
+		 * The property for the cursor of a page of locations, the last location of the previous page
+		 */
+		public static final String CURSOR = "cursor";
+
+		/**
+		 * The property for the maximum number of locations in a page
+		 */
+		public static final String LIMIT = "limit";
+
+		/**
+		 * The property for a change token, which identifies a state of the locations to get the changes since
+		 */
+		public static final String CHANGE_TOKEN = "changeToken";
+
 		private Properties() {
 			// This class should not be instantiated
 		}
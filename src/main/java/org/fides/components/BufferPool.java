@@ -0,0 +1,300 @@
+package org.fides.components;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of heap arrays and direct {@link ByteBuffer}s, so streams that live as long as a request do not allocate
+ * their buffers for every request. Buffers are handed out in size classes, powers of two from {@link #MIN_SIZE} to
+ * {@link #MAX_SIZE}, so a buffer can be larger than requested. Larger requests are allocated without the pool. A
+ * released buffer is kept for the next request of its size class, unless that would make the idle buffers of the pool
+ * exceed its limit, then it is left to the garbage collector. A buffer that is never released is collected like any
+ * other, but keeps counting as in use. Only the idle buffers are bounded: the pool never refuses or delays a request,
+ * so the bytes in use are bounded by the callers, which borrow a fixed number of buffers per open stream, and are only
+ * reported by {@link #getInUseBytes()}. The contents of a borrowed buffer are undefined. This class is thread-safe.
+ */
+public final class BufferPool {
+
+	/** The smallest size class in bytes */
+	public static final int MIN_SIZE = 512;
+
+	/** The largest size class in bytes, larger buffers are not pooled */
+	public static final int MAX_SIZE = 4 * 1024 * 1024;
+
+	/** The default limit of the idle buffers of the default pool, an eighth of the heap up to 64 MB */
+	public static final long DEFAULT_MAX_IDLE_BYTES = Math.min(64L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 8);
+
+	private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SIZE);
+
+	private static final int CLASS_COUNT = Integer.numberOfTrailingZeros(MAX_SIZE) - MIN_SHIFT + 1;
+
+	private static volatile BufferPool defaultPool = new BufferPool(DEFAULT_MAX_IDLE_BYTES);
+
+	private final long maxIdleBytes;
+
+	/** The idle heap arrays per size class, every deque is its own lock */
+	private final ArrayDeque<byte[]>[] heap;
+
+	/** The idle direct buffers per size class, every deque is its own lock */
+	private final ArrayDeque<ByteBuffer>[] direct;
+
+	private final AtomicLong idleBytes = new AtomicLong();
+
+	private final AtomicLong inUseBytes = new AtomicLong();
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong discards = new AtomicLong();
+
+	/**
+	 * Constructor for BufferPool
+	 * 
+	 * @param maxIdleBytes
+	 *            The maximum number of bytes the idle heap and direct buffers of the pool can take together, 0 to never
+	 *            keep a buffer
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public BufferPool(long maxIdleBytes) {
+		if (maxIdleBytes < 0) {
+			throw new IllegalArgumentException("MaxIdleBytes can not be negative");
+		}
+		this.maxIdleBytes = maxIdleBytes;
+		heap = new ArrayDeque[CLASS_COUNT];
+		direct = new ArrayDeque[CLASS_COUNT];
+		for (int i = 0; i < CLASS_COUNT; i++) {
+			heap[i] = new ArrayDeque<>();
+			direct[i] = new ArrayDeque<>();
+		}
+	}
+
+	/**
+	 * Returns the pool shared by the streams of this package and of the encryption package
+	 * 
+	 * @return the default pool
+	 */
+	public static BufferPool getDefault() {
+		return defaultPool;
+	}
+
+	/**
+	 * Replaces the default pool, for example to set the limit of a node at startup. Streams that are open keep using the
+	 * pool they got their buffers from.
+	 * 
+	 * @param pool
+	 *            The new default pool
+	 */
+	public static void setDefault(BufferPool pool) {
+		if (pool == null) {
+			throw new NullPointerException("The default pool can not be null");
+		}
+		defaultPool = pool;
+	}
+
+	/**
+	 * Borrows a heap array
+	 * 
+	 * @param size
+	 *            The minimum length of the array
+	 * @return an array of at least the given length
+	 */
+	public byte[] acquire(int size) {
+		int sizeClass = sizeClass(size);
+		if (sizeClass < 0) {
+			return new byte[size];
+		}
+		byte[] array;
+		synchronized (heap[sizeClass]) {
+			array = heap[sizeClass].poll();
+		}
+		int length = MIN_SIZE << sizeClass;
+		if (array != null) {
+			hits.incrementAndGet();
+			idleBytes.addAndGet(-length);
+		} else {
+			misses.incrementAndGet();
+			array = new byte[length];
+		}
+		inUseBytes.addAndGet(length);
+		return array;
+	}
+
+	/**
+	 * Gives a borrowed heap array back, the array may not be used after this. Arrays that do not have the length of a
+	 * size class, for example ones that were too large for the pool, are ignored.
+	 * 
+	 * @param array
+	 *            The array
+	 */
+	public void release(byte[] array) {
+		int sizeClass = exactSizeClass(array.length);
+		if (sizeClass < 0) {
+			return;
+		}
+		inUseBytes.addAndGet(-array.length);
+		if (reserveIdle(array.length)) {
+			synchronized (heap[sizeClass]) {
+				heap[sizeClass].push(array);
+			}
+		}
+	}
+
+	/**
+	 * Borrows a direct buffer. Its position is 0 and its limit the requested size, the capacity can be larger.
+	 * 
+	 * @param size
+	 *            The minimum capacity of the buffer
+	 * @return a direct buffer of at least the given capacity
+	 */
+	public ByteBuffer acquireDirect(int size) {
+		int sizeClass = sizeClass(size);
+		if (sizeClass < 0) {
+			return ByteBuffer.allocateDirect(size);
+		}
+		ByteBuffer buffer;
+		synchronized (direct[sizeClass]) {
+			buffer = direct[sizeClass].poll();
+		}
+		int capacity = MIN_SIZE << sizeClass;
+		if (buffer != null) {
+			hits.incrementAndGet();
+			idleBytes.addAndGet(-capacity);
+		} else {
+			misses.incrementAndGet();
+			buffer = ByteBuffer.allocateDirect(capacity);
+		}
+		inUseBytes.addAndGet(capacity);
+		buffer.clear().limit(size);
+		return buffer;
+	}
+
+	/**
+	 * Gives a borrowed direct buffer back, the buffer may not be used after this. Buffers that are not direct or do not
+	 * have the capacity of a size class are ignored.
+	 * 
+	 * @param buffer
+	 *            The buffer
+	 */
+	public void release(ByteBuffer buffer) {
+		int sizeClass = exactSizeClass(buffer.capacity());
+		if (!buffer.isDirect() || sizeClass < 0) {
+			return;
+		}
+		inUseBytes.addAndGet(-buffer.capacity());
+		if (reserveIdle(buffer.capacity())) {
+			synchronized (direct[sizeClass]) {
+				direct[sizeClass].push(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Counts a released buffer as idle when the limit allows it
+	 * 
+	 * @param size
+	 *            The size of the buffer
+	 * @return true when the buffer can be kept
+	 */
+	private boolean reserveIdle(int size) {
+		long idle;
+		do {
+			idle = idleBytes.get();
+			if (idle + size > maxIdleBytes) {
+				discards.incrementAndGet();
+				return false;
+			}
+		} while (!idleBytes.compareAndSet(idle, idle + size));
+		return true;
+	}
+
+	/**
+	 * Returns the size class for a requested size
+	 * 
+	 * @param size
+	 *            The requested size
+	 * @return the index of the smallest class that fits, or -1 when the size is too large for the pool
+	 */
+	private static int sizeClass(int size) {
+		if (size < 0) {
+			throw new IllegalArgumentException("Size can not be negative");
+		}
+		if (size > MAX_SIZE) {
+			return -1;
+		}
+		if (size <= MIN_SIZE) {
+			return 0;
+		}
+		return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+	}
+
+	/**
+	 * Returns the size class a buffer belongs to
+	 * 
+	 * @param size
+	 *            The size of the buffer
+	 * @return the index of the class, or -1 when the size is not exactly a class
+	 */
+	private static int exactSizeClass(int size) {
+		if (size < MIN_SIZE || size > MAX_SIZE || Integer.bitCount(size) != 1) {
+			return -1;
+		}
+		return Integer.numberOfTrailingZeros(size) - MIN_SHIFT;
+	}
+
+	/**
+	 * Returns the limit of the idle buffers
+	 * 
+	 * @return the maximum number of idle bytes
+	 */
+	public long getMaxIdleBytes() {
+		return maxIdleBytes;
+	}
+
+	/**
+	 * Returns the number of bytes the idle buffers take
+	 * 
+	 * @return the number of idle bytes
+	 */
+	public long getIdleBytes() {
+		return idleBytes.get();
+	}
+
+	/**
+	 * Returns the number of bytes of the pooled buffers that are borrowed and not released
+	 * 
+	 * @return the number of bytes in use
+	 */
+	public long getInUseBytes() {
+		return inUseBytes.get();
+	}
+
+	/**
+	 * Returns the number of requests that got an idle buffer
+	 * 
+	 * @return the number of hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of requests of a pooled size that had to allocate a buffer
+	 * 
+	 * @return the number of misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the number of released buffers that were not kept because of the limit
+	 * 
+	 * @return the number of discarded buffers
+	 */
+	public long getDiscards() {
+		return discards.get();
+	}
+
+}
@@ -20,6 +20,11 @@ public final class Responses {
 	 */
 	public static final String LOCATIONS = "locations";
 
+	/**
+	 * The results response, used for a batch action. A result per item follows in a batch, in the order of the items.
+	 */
+	public static final String RESULTS = "results";
+
 	private Responses() {
 		// This class should not be instantiated
 	}
@@ -0,0 +1,72 @@
+package org.fides.components.protocol;
+
+import java.io.InputStream;
+
+/**
+ * An item of a batch read by a {@link BatchReader}. In a request it is a single action of the batch action, for example
+ * {@link Opcode#REMOVE_FILE} with a location, in a response it is the result of that action, {@link Opcode#SUCCESSFUL}
+ * or {@link Opcode#ERROR}.
+ */
+public final class BatchItem {
+
+	private final Opcode opcode;
+
+	private final String location;
+
+	private final InputStream payload;
+
+	/**
+	 * Constructor for BatchItem
+	 * 
+	 * @param opcode
+	 *            The action or result of the item
+	 * @param location
+	 *            The location of the item, or null
+	 * @param payload
+	 *            The payload of the item, or null
+	 */
+	BatchItem(Opcode opcode, String location, InputStream payload) {
+		this.opcode = opcode;
+		this.location = location;
+		this.payload = payload;
+	}
+
+	/**
+	 * Returns the action or result of the item
+	 * 
+	 * @return the opcode
+	 */
+	public Opcode getOpcode() {
+		return opcode;
+	}
+
+	/**
+	 * Returns the location of the item
+	 * 
+	 * @return the location, or null if the item has none
+	 */
+	public String getLocation() {
+		return location;
+	}
+
+	/**
+	 * Returns whether the item has a payload
+	 * 
+	 * @return true if there is a payload
+	 */
+	public boolean hasPayload() {
+		return payload != null;
+	}
+
+	/**
+	 * Returns the payload of the item, for example the contents of a file. It can only be read until the next item is
+	 * read. When the sender could not send the whole payload, reading its end throws a
+	 * {@link org.fides.components.virtualstream.VirtualStreamAbortedException}.
+	 * 
+	 * @return the payload, or null if the item has none
+	 */
+	public InputStream getPayload() {
+		return payload;
+	}
+
+}
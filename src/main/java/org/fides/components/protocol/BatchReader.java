@@ -0,0 +1,106 @@
+package org.fides.components.protocol;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.fides.components.virtualstream.VirtualInputStream;
+import org.fides.components.virtualstream.VirtualStreamProtocol;
+
+/**
+ * Reads the items a {@link BatchWriter} wrote. The payload of an item has to be read before the next item, whatever is
+ * left of it is skipped when the next item is read. This reader does not close the underlying {@link InputStream}.
+ */
+public final class BatchReader implements Closeable {
+
+	private final DataInputStream in;
+
+	private final VirtualStreamProtocol protocol;
+
+	private VirtualInputStream payload;
+
+	private boolean ended = false;
+
+	/**
+	 * Constructor for BatchReader with payloads in {@link VirtualStreamProtocol#V1}
+	 * 
+	 * @param in
+	 *            The stream to read the batch from
+	 */
+	public BatchReader(InputStream in) {
+		this(in, VirtualStreamProtocol.V1);
+	}
+
+	/**
+	 * Constructor for BatchReader
+	 * 
+	 * @param in
+	 *            The stream to read the batch from
+	 * @param protocol
+	 *            The protocol version of the payloads, the writing side has to use the same version
+	 */
+	public BatchReader(InputStream in, VirtualStreamProtocol protocol) {
+		this.in = new DataInputStream(in);
+		this.protocol = protocol;
+	}
+
+	/**
+	 * Reads the next item, skipping what is left of the payload of the previous item
+	 * 
+	 * @return the item, or null at the end of the batch
+	 * @throws IOException
+	 *             If reading fails, or the batch is malformed
+	 */
+	public BatchItem next() throws IOException {
+		if (ended) {
+			return null;
+		}
+		skipPayload();
+		try {
+			int code = in.readUnsignedByte();
+			if (code == BatchWriter.END_OF_BATCH) {
+				ended = true;
+				return null;
+			}
+			Opcode opcode = Opcode.fromCode((byte) code);
+			if (opcode == null) {
+				throw new ProtocolException("Unknown opcode " + code + " in a batch");
+			}
+			int flags = in.readUnsignedByte();
+			String location = null;
+			if ((flags & BatchWriter.HAS_LOCATION) != 0) {
+				byte[] locationBytes = new byte[in.readUnsignedShort()];
+				in.readFully(locationBytes);
+				location = new String(locationBytes, StandardCharsets.UTF_8);
+			}
+			if ((flags & BatchWriter.HAS_PAYLOAD) != 0) {
+				payload = new VirtualInputStream(in, protocol);
+			}
+			return new BatchItem(opcode, location, payload);
+		} catch (EOFException e) {
+			throw new ProtocolException("The stream ended in the middle of a batch");
+		}
+	}
+
+	private void skipPayload() throws IOException {
+		if (payload != null) {
+			// Also stops at the marker of an aborted payload, the next item follows right after it
+			payload.close();
+			payload = null;
+		}
+	}
+
+	/**
+	 * Skips the rest of the batch
+	 */
+	@Override
+	public void close() throws IOException {
+		while (next() != null) {
+			// Skipping the items and their payloads
+		}
+	}
+
+}
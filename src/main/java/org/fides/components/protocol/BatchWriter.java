@@ -0,0 +1,148 @@
+package org.fides.components.protocol;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.fides.components.virtualstream.VirtualOutputStream;
+import org.fides.components.virtualstream.VirtualStreamProtocol;
+
+/**
+ * Writes the items of a batch action, or of its results, one after the other on a single stream, so a whole batch
+ * takes one request and one response. Every item is laid out as follows:
+ * 
+ * <pre>
+ * opcode     1 byte   {@link Opcode#getCode()}, 0 marks the end of the batch
+ * flags      1 byte   1 when a location follows, 2 when a payload follows
+ * location   2 bytes length and UTF-8, only when the flag is set
+ * payload    a virtual stream, only when the flag is set
+ * </pre>
+ * 
+ * Because the payloads are virtual streams their length does not have to be known up front, and a payload that can not
+ * be sent completely can be aborted without breaking the rest of the batch. This writer does not close the underlying
+ * {@link OutputStream}.
+ */
+public final class BatchWriter implements Closeable {
+
+	/** The opcode byte that ends a batch */
+	static final int END_OF_BATCH = 0;
+
+	/** The flag for an item with a location */
+	static final int HAS_LOCATION = 1;
+
+	/** The flag for an item with a payload */
+	static final int HAS_PAYLOAD = 2;
+
+	private final OutputStream out;
+
+	private final VirtualStreamProtocol protocol;
+
+	private final byte[] header = new byte[4];
+
+	private VirtualOutputStream payload;
+
+	private boolean closed = false;
+
+	/**
+	 * Constructor for BatchWriter with payloads in {@link VirtualStreamProtocol#V1}
+	 * 
+	 * @param out
+	 *            The stream to write the batch to
+	 */
+	public BatchWriter(OutputStream out) {
+		this(out, VirtualStreamProtocol.V1);
+	}
+
+	/**
+	 * Constructor for BatchWriter
+	 * 
+	 * @param out
+	 *            The stream to write the batch to
+	 * @param protocol
+	 *            The protocol version of the payloads, the reading side has to use the same version
+	 */
+	public BatchWriter(OutputStream out, VirtualStreamProtocol protocol) {
+		this.out = out;
+		this.protocol = protocol;
+	}
+
+	/**
+	 * Writes an item without a payload
+	 * 
+	 * @param opcode
+	 *            The action or result of the item
+	 * @param location
+	 *            The location of the item, or null
+	 * @throws IOException
+	 */
+	public void write(Opcode opcode, String location) throws IOException {
+		writeHeader(opcode, location, false);
+	}
+
+	/**
+	 * Writes an item with a payload. The payload has to be written to the returned stream, and the stream closed or
+	 * aborted, before the next item. An open payload is closed by the next item.
+	 * 
+	 * @param opcode
+	 *            The action or result of the item
+	 * @param location
+	 *            The location of the item, or null
+	 * @return the stream to write the payload to
+	 * @throws IOException
+	 */
+	public VirtualOutputStream writeWithPayload(Opcode opcode, String location) throws IOException {
+		writeHeader(opcode, location, true);
+		payload = new VirtualOutputStream(out, protocol);
+		return payload;
+	}
+
+	private void writeHeader(Opcode opcode, String location, boolean hasPayload) throws IOException {
+		if (closed) {
+			throw new IOException("The batch is closed");
+		}
+		closePayload();
+		int flags = hasPayload ? HAS_PAYLOAD : 0;
+		byte[] locationBytes = null;
+		if (location != null) {
+			locationBytes = location.getBytes(StandardCharsets.UTF_8);
+			if (locationBytes.length > Message.MAX_VALUE_SIZE) {
+				throw new IllegalArgumentException("A location can not be longer than " + Message.MAX_VALUE_SIZE + " bytes");
+			}
+			flags |= HAS_LOCATION;
+		}
+		header[0] = opcode.getCode();
+		header[1] = (byte) flags;
+		if (locationBytes == null) {
+			out.write(header, 0, 2);
+			return;
+		}
+		header[2] = (byte) (locationBytes.length >>> 8);
+		header[3] = (byte) locationBytes.length;
+		out.write(header, 0, 4);
+		out.write(locationBytes);
+	}
+
+	private void closePayload() throws IOException {
+		if (payload != null) {
+			// Does nothing when the payload was closed or aborted already
+			payload.close();
+			payload = null;
+		}
+	}
+
+	/**
+	 * Ends the batch, an open payload is closed first
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closePayload();
+		out.write(END_OF_BATCH);
+		out.flush();
+		closed = true;
+	}
+
+}
@@ -0,0 +1,118 @@
+package org.fides.components.protocol;
+
+import org.fides.components.Actions;
+
+/**
+ * The typed fields of the binary protocol for the properties in {@link Actions.Properties}. Hash fields hold
+ * hexadecimal strings, which are sent as raw bytes, half their size. Number fields hold non-negative ints, which are
+ * sent as four bytes. The ids are part of the wire format, so existing ids may never change.
+ */
+public enum Field {
+
+	/** {@link Actions.Properties#USERNAME_HASH} */
+	USERNAME_HASH(0x01, Actions.Properties.USERNAME_HASH, Type.HASH),
+
+	/** {@link Actions.Properties#PASSWORD_HASH} */
+	PASSWORD_HASH(0x02, Actions.Properties.PASSWORD_HASH, Type.HASH),
+
+	/** {@link Actions.Properties#LOCATION} */
+	LOCATION(0x03, Actions.Properties.LOCATION, Type.TEXT),
+
+	/** {@link Actions.Properties#REQUEST_ID} */
+	REQUEST_ID(0x04, Actions.Properties.REQUEST_ID, Type.NUMBER),
+
+	/** {@link Actions.Properties#CURSOR} */
+	CURSOR(0x05, Actions.Properties.CURSOR, Type.TEXT),
+
+	/** {@link Actions.Properties#LIMIT} */
+	LIMIT(0x06, Actions.Properties.LIMIT, Type.NUMBER),
+
+	/** {@link Actions.Properties#CHANGE_TOKEN} */
+	CHANGE_TOKEN(0x07, Actions.Properties.CHANGE_TOKEN, Type.TEXT);
+
+	/**
+	 * The types of values a field can hold
+	 */
+	public enum Type {
+
+		/** Any string, sent as UTF-8 */
+		TEXT,
+
+		/** A string of hexadecimal characters, sent as raw bytes when it is lowercase */
+		HASH,
+
+		/** A non-negative int, sent as four bytes when it is written without leading zeros */
+		NUMBER
+	}
+
+	/** The highest id a field can have, the high bit of the id byte marks a packed value */
+	static final int MAX_ID = 0x7F;
+
+	private static final Field[] BY_ID = new Field[MAX_ID + 1];
+
+	static {
+		for (Field field : values()) {
+			BY_ID[field.id] = field;
+		}
+	}
+
+	private final int id;
+
+	private final String name;
+
+	private final Type type;
+
+	private Field(int id, String name, Type type) {
+		this.id = id;
+		this.name = name;
+		this.type = type;
+	}
+
+	/**
+	 * Returns the id of this field on the wire
+	 * 
+	 * @return the id
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the name of the property in the text protocol
+	 * 
+	 * @return the constant from {@link Actions.Properties}
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the type of value the field holds
+	 * 
+	 * @return the type
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Returns whether the field holds a hexadecimal hash
+	 * 
+	 * @return true for a hash
+	 */
+	public boolean isHash() {
+		return type == Type.HASH;
+	}
+
+	/**
+	 * Returns the field with an id
+	 * 
+	 * @param id
+	 *            The id on the wire
+	 * @return the field, or null if the id is unknown
+	 */
+	static Field fromId(int id) {
+		return BY_ID[id];
+	}
+
+}
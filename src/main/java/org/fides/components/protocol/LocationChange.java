@@ -0,0 +1,48 @@
+package org.fides.components.protocol;
+
+/**
+ * A location that was added or removed, read by a {@link LocationReader}. The locations of a page are all added.
+ */
+public final class LocationChange {
+
+	private final String location;
+
+	private final boolean added;
+
+	/**
+	 * Constructor for LocationChange
+	 * 
+	 * @param location
+	 *            The location
+	 * @param added
+	 *            true if the location was added, false if it was removed
+	 */
+	public LocationChange(String location, boolean added) {
+		this.location = location;
+		this.added = added;
+	}
+
+	/**
+	 * Returns the location
+	 * 
+	 * @return the location
+	 */
+	public String getLocation() {
+		return location;
+	}
+
+	/**
+	 * Returns whether the location was added, otherwise it was removed
+	 * 
+	 * @return true if the location was added
+	 */
+	public boolean isAdded() {
+		return added;
+	}
+
+	@Override
+	public String toString() {
+		return (added ? "+" : "-") + location;
+	}
+
+}
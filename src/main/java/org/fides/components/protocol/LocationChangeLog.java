@@ -0,0 +1,237 @@
+package org.fides.components.protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.fides.encryption.RandomSource;
+
+/**
+ * The locations of the files of a user, with a log of the recent changes. It answers {@link Opcode#REQUEST_LOCATIONS}
+ * in pages, so a list of millions of locations is never built in memory, and with the changes since a change token, so
+ * a client that synchronizes regularly only receives what changed. A client lists all pages once, keeping the change
+ * token of the first page, and from then on asks for the changes since its last token. Changes made while the pages
+ * were listed are in the changes since that first token. The log only keeps a limited number of changes, for an older
+ * token the client has to list all pages again. This class is thread-safe.
+ */
+public final class LocationChangeLog {
+
+	/** The number of locations in a page when the request has no limit */
+	public static final int DEFAULT_PAGE_SIZE = 1000;
+
+	/** The largest page a request can ask for */
+	public static final int MAX_PAGE_SIZE = 10000;
+
+	/** The default number of changes kept */
+	public static final int DEFAULT_MAX_CHANGES = 100000;
+
+	private final TreeSet<String> locations = new TreeSet<>();
+
+	/** The recent changes, the oldest first */
+	private final List<LocationChange> changes = new ArrayList<>();
+
+	/** The number of the first change in the list, changes are numbered from the creation of the log */
+	private long firstChange = 0;
+
+	private final int maxChanges;
+
+	/** Tells the tokens of this log apart from the tokens of an earlier log of the same user */
+	private final String epoch = Long.toHexString(RandomSource.current().nextLong() & Long.MAX_VALUE);
+
+	/**
+	 * Constructor for an empty LocationChangeLog
+	 */
+	public LocationChangeLog() {
+		this(new ArrayList<String>(), DEFAULT_MAX_CHANGES);
+	}
+
+	/**
+	 * Constructor for LocationChangeLog
+	 * 
+	 * @param locations
+	 *            The locations that exist, they are not logged as changes
+	 * @param maxChanges
+	 *            The number of changes to keep
+	 */
+	public LocationChangeLog(Collection<String> locations, int maxChanges) {
+		if (maxChanges < 1) {
+			throw new IllegalArgumentException("The log has to keep at least 1 change");
+		}
+		this.locations.addAll(locations);
+		this.maxChanges = maxChanges;
+	}
+
+	/**
+	 * Adds a location
+	 * 
+	 * @param location
+	 *            The location
+	 * @return true if the location did not exist yet
+	 */
+	public synchronized boolean add(String location) {
+		if (!locations.add(location)) {
+			return false;
+		}
+		log(new LocationChange(location, true));
+		return true;
+	}
+
+	/**
+	 * Removes a location
+	 * 
+	 * @param location
+	 *            The location
+	 * @return true if the location existed
+	 */
+	public synchronized boolean remove(String location) {
+		if (!locations.remove(location)) {
+			return false;
+		}
+		log(new LocationChange(location, false));
+		return true;
+	}
+
+	private void log(LocationChange change) {
+		changes.add(change);
+		if (changes.size() > 2 * maxChanges) {
+			// Trimmed in halves, so removing from the front of the list does not happen for every change
+			int trimmed = changes.size() - maxChanges;
+			changes.subList(0, trimmed).clear();
+			firstChange += trimmed;
+		}
+	}
+
+	/**
+	 * Returns whether a location exists
+	 * 
+	 * @param location
+	 *            The location
+	 * @return true if the location exists
+	 */
+	public synchronized boolean contains(String location) {
+		return locations.contains(location);
+	}
+
+	/**
+	 * Returns the number of locations
+	 * 
+	 * @return the number of locations
+	 */
+	public synchronized int size() {
+		return locations.size();
+	}
+
+	/**
+	 * Returns a token for the current state of the locations
+	 * 
+	 * @return the change token
+	 */
+	public synchronized String getChangeToken() {
+		return epoch + "-" + (firstChange + changes.size());
+	}
+
+	/**
+	 * Returns the changes since a token. A location that changed more than once is only in the result with its last
+	 * change.
+	 * 
+	 * @param token
+	 *            The token from {@link #getChangeToken()}
+	 * @return the changes in the order they were made, or null if the changes since the token are not kept anymore, or
+	 *         the token is not of this log
+	 */
+	public synchronized List<LocationChange> getChangesSince(String token) {
+		long since = parseToken(token);
+		if (since < firstChange || since > firstChange + changes.size()) {
+			return null;
+		}
+		Map<String, LocationChange> last = new LinkedHashMap<>();
+		for (LocationChange change : changes.subList((int) (since - firstChange), changes.size())) {
+			// Removed first, so the location moves to the position of its last change
+			last.remove(change.getLocation());
+			last.put(change.getLocation(), change);
+		}
+		return new ArrayList<>(last.values());
+	}
+
+	private long parseToken(String token) {
+		if (token == null || !token.startsWith(epoch + "-")) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(token.substring(epoch.length() + 1));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Answers a {@link Opcode#REQUEST_LOCATIONS} request. With a {@link Field#CHANGE_TOKEN} the changes since that token
+	 * are sent, otherwise the page of at most {@link Field#LIMIT} locations after the {@link Field#CURSOR}, or the first
+	 * page without a cursor. The {@link Opcode#LOCATIONS} response has the new change token, and for a page that is not
+	 * the last the cursor of the next page. The locations follow the response, to be read with a {@link LocationReader}.
+	 * When the changes since the token are not kept anymore the response is {@link Opcode#ERROR}, and the client has to
+	 * list all pages again.
+	 * 
+	 * @param request
+	 *            The request
+	 * @param out
+	 *            The stream to write the response to
+	 * @throws IOException
+	 *             If writing fails
+	 */
+	public void respond(Message request, OutputStream out) throws IOException {
+		Message response = request.createResponse(Opcode.LOCATIONS);
+		List<LocationChange> result;
+		if (request.has(Field.CHANGE_TOKEN)) {
+			synchronized (this) {
+				result = getChangesSince(request.get(Field.CHANGE_TOKEN));
+				response.set(Field.CHANGE_TOKEN, getChangeToken());
+			}
+			if (result == null) {
+				MessageCodec.write(request.createResponse(Opcode.ERROR), out);
+				out.flush();
+				return;
+			}
+		} else {
+			int limit = DEFAULT_PAGE_SIZE;
+			if (request.has(Field.LIMIT)) {
+				try {
+					limit = Math.max(1, Math.min(MAX_PAGE_SIZE, request.getInt(Field.LIMIT)));
+				} catch (NumberFormatException e) {
+					throw new ProtocolException("Invalid limit " + request.get(Field.LIMIT));
+				}
+			}
+			result = new ArrayList<>();
+			synchronized (this) {
+				String cursor = request.get(Field.CURSOR);
+				Iterator<String> page;
+				if (cursor == null) {
+					page = locations.iterator();
+				} else {
+					page = locations.tailSet(cursor, false).iterator();
+				}
+				while (page.hasNext() && result.size() < limit) {
+					result.add(new LocationChange(page.next(), true));
+				}
+				if (page.hasNext()) {
+					response.set(Field.CURSOR, result.get(result.size() - 1).getLocation());
+				}
+				response.set(Field.CHANGE_TOKEN, getChangeToken());
+			}
+		}
+
+		MessageCodec.write(response, out);
+		try (LocationWriter writer = new LocationWriter(out)) {
+			for (LocationChange change : result) {
+				writer.write(change);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,51 @@
+package org.fides.components.protocol;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the locations a {@link LocationWriter} wrote, one at a time. This reader does not close the underlying
+ * {@link InputStream}.
+ */
+public final class LocationReader implements Closeable {
+
+	private final BatchReader batch;
+
+	/**
+	 * Constructor for LocationReader
+	 * 
+	 * @param in
+	 *            The stream to read the locations from
+	 */
+	public LocationReader(InputStream in) {
+		batch = new BatchReader(in);
+	}
+
+	/**
+	 * Reads the next location
+	 * 
+	 * @return the location and whether it was added or removed, or null at the end of the list
+	 * @throws IOException
+	 *             If reading fails, or the list is malformed
+	 */
+	public LocationChange next() throws IOException {
+		BatchItem item = batch.next();
+		if (item == null) {
+			return null;
+		}
+		if (item.getLocation() == null || (item.getOpcode() != Opcode.UPLOAD_FILE && item.getOpcode() != Opcode.REMOVE_FILE)) {
+			throw new ProtocolException("Invalid item in a list of locations");
+		}
+		return new LocationChange(item.getLocation(), item.getOpcode() == Opcode.UPLOAD_FILE);
+	}
+
+	/**
+	 * Skips the rest of the list
+	 */
+	@Override
+	public void close() throws IOException {
+		batch.close();
+	}
+
+}
@@ -0,0 +1,72 @@
+package org.fides.components.protocol;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Streams locations, or changes of locations, after a {@link Opcode#LOCATIONS} response, so a list of millions of
+ * locations never has to be built in memory. The locations are written as a batch of {@link BatchWriter}, an added
+ * location is an {@link Opcode#UPLOAD_FILE} item and a removed location a {@link Opcode#REMOVE_FILE} item. This writer
+ * does not close the underlying {@link OutputStream}.
+ */
+public final class LocationWriter implements Closeable {
+
+	private final BatchWriter batch;
+
+	/**
+	 * Constructor for LocationWriter
+	 * 
+	 * @param out
+	 *            The stream to write the locations to
+	 */
+	public LocationWriter(OutputStream out) {
+		batch = new BatchWriter(out);
+	}
+
+	/**
+	 * Writes a location that exists, or was added
+	 * 
+	 * @param location
+	 *            The location
+	 * @throws IOException
+	 */
+	public void writeAdded(String location) throws IOException {
+		batch.write(Opcode.UPLOAD_FILE, location);
+	}
+
+	/**
+	 * Writes a location that was removed
+	 * 
+	 * @param location
+	 *            The location
+	 * @throws IOException
+	 */
+	public void writeRemoved(String location) throws IOException {
+		batch.write(Opcode.REMOVE_FILE, location);
+	}
+
+	/**
+	 * Writes a change
+	 * 
+	 * @param change
+	 *            The change
+	 * @throws IOException
+	 */
+	public void write(LocationChange change) throws IOException {
+		if (change.isAdded()) {
+			writeAdded(change.getLocation());
+		} else {
+			writeRemoved(change.getLocation());
+		}
+	}
+
+	/**
+	 * Ends the list of locations
+	 */
+	@Override
+	public void close() throws IOException {
+		batch.close();
+	}
+
+}
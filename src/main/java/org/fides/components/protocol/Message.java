@@ -0,0 +1,272 @@
+package org.fides.components.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.fides.tools.HashUtils;
+
+/**
+ * A message of the binary protocol, an {@link Opcode} with typed {@link Field}s. The values are kept the way they are
+ * sent: hashes of lowercase hexadecimal characters as raw bytes, numbers as four bytes, everything else as UTF-8. A
+ * message decoded by {@link MessageCodec#decode(ByteBuffer)} refers to the buffer it was decoded from instead of
+ * copying it, strings are only created when a value is asked for. Such a message may not be used after the buffer is
+ * reused. This class is not thread-safe.
+ */
+public final class Message {
+
+	/** The largest value a field can hold, its length is sent as an unsigned short */
+	public static final int MAX_VALUE_SIZE = 0xFFFF;
+
+	private final Opcode opcode;
+
+	private final ByteBuffer[] values = new ByteBuffer[Field.values().length];
+
+	private final boolean[] packed = new boolean[Field.values().length];
+
+	/**
+	 * Constructor for Message
+	 * 
+	 * @param opcode
+	 *            The action or response of the message
+	 */
+	public Message(Opcode opcode) {
+		if (opcode == null) {
+			throw new NullPointerException("The opcode can not be null");
+		}
+		this.opcode = opcode;
+	}
+
+	/**
+	 * Returns the action or response of the message
+	 * 
+	 * @return the opcode
+	 */
+	public Opcode getOpcode() {
+		return opcode;
+	}
+
+	/**
+	 * Creates a response to this message, with the request id of this message if it has one
+	 * 
+	 * @param response
+	 *            The response
+	 * @return the response message
+	 */
+	public Message createResponse(Opcode response) {
+		Message message = new Message(response);
+		message.values[Field.REQUEST_ID.ordinal()] = values[Field.REQUEST_ID.ordinal()];
+		message.packed[Field.REQUEST_ID.ordinal()] = packed[Field.REQUEST_ID.ordinal()];
+		return message;
+	}
+
+	/**
+	 * Sets the value of a field. A hash field with an even number of lowercase hexadecimal characters is packed into
+	 * bytes, a number field written without leading zeros is packed into four bytes, any other value is kept as UTF-8.
+	 * 
+	 * @param field
+	 *            The field to set
+	 * @param value
+	 *            The value, null removes the field
+	 * @return this message
+	 */
+	public Message set(Field field, String value) {
+		if (value == null) {
+			values[field.ordinal()] = null;
+			return this;
+		}
+		boolean pack = false;
+		byte[] bytes;
+		if (field.getType() == Field.Type.HASH && isPackableHash(value)) {
+			pack = true;
+			bytes = HashUtils.fromHex(value);
+		} else if (field.getType() == Field.Type.NUMBER && isPackableNumber(value)) {
+			pack = true;
+			bytes = ByteBuffer.allocate(4).putInt(Integer.parseInt(value)).array();
+		} else {
+			bytes = value.getBytes(StandardCharsets.UTF_8);
+		}
+		if (bytes.length > MAX_VALUE_SIZE) {
+			throw new IllegalArgumentException("The value of " + field + " is longer than " + MAX_VALUE_SIZE + " bytes");
+		}
+		values[field.ordinal()] = ByteBuffer.wrap(bytes);
+		packed[field.ordinal()] = pack;
+		return this;
+	}
+
+	/**
+	 * Sets a number field
+	 * 
+	 * @param field
+	 *            The field to set
+	 * @param value
+	 *            The value, not negative
+	 * @return this message
+	 */
+	public Message set(Field field, int value) {
+		if (field.getType() != Field.Type.NUMBER || value < 0) {
+			throw new IllegalArgumentException(value + " is not a valid value for " + field);
+		}
+		values[field.ordinal()] = ByteBuffer.wrap(ByteBuffer.allocate(4).putInt(value).array());
+		packed[field.ordinal()] = true;
+		return this;
+	}
+
+	/**
+	 * Sets a field to the value as it is sent, used by the decoder
+	 */
+	void setEncoded(Field field, ByteBuffer value, boolean isPacked) {
+		values[field.ordinal()] = value;
+		packed[field.ordinal()] = isPacked;
+	}
+
+	/**
+	 * Returns whether a field is set
+	 * 
+	 * @param field
+	 *            The field
+	 * @return true if the field has a value
+	 */
+	public boolean has(Field field) {
+		return values[field.ordinal()] != null;
+	}
+
+	/**
+	 * Returns the value of a field as a string
+	 * 
+	 * @param field
+	 *            The field
+	 * @return the value, or null if the field is not set
+	 */
+	public String get(Field field) {
+		ByteBuffer value = values[field.ordinal()];
+		if (value == null) {
+			return null;
+		}
+		if (packed[field.ordinal()] && field.getType() == Field.Type.NUMBER) {
+			return Integer.toString(value.getInt(value.position()));
+		}
+		if (packed[field.ordinal()]) {
+			char[] hex = new char[value.remaining() * 2];
+			if (value.hasArray()) {
+				HashUtils.toHex(value.array(), value.arrayOffset() + value.position(), value.remaining(), hex, 0);
+			} else {
+				byte[] bytes = new byte[value.remaining()];
+				value.duplicate().get(bytes);
+				HashUtils.toHex(bytes, 0, bytes.length, hex, 0);
+			}
+			return new String(hex);
+		}
+		return StandardCharsets.UTF_8.decode(value.duplicate()).toString();
+	}
+
+	/**
+	 * Returns the value of a number field
+	 * 
+	 * @param field
+	 *            The field
+	 * @return the value, or -1 if the field is not set
+	 * @throws NumberFormatException
+	 *             If the field does not hold a non-negative int
+	 */
+	public int getInt(Field field) {
+		ByteBuffer value = values[field.ordinal()];
+		if (value == null) {
+			return -1;
+		}
+		int number;
+		if (packed[field.ordinal()] && field.getType() == Field.Type.NUMBER) {
+			number = value.getInt(value.position());
+		} else {
+			number = Integer.parseInt(get(field));
+		}
+		if (number < 0) {
+			throw new NumberFormatException("The value of " + field + " is negative");
+		}
+		return number;
+	}
+
+	/**
+	 * Returns the value of a field as it is sent, without copying it. Packed hashes are the raw bytes of the hash,
+	 * packed numbers four big-endian bytes, other values are UTF-8.
+	 * 
+	 * @param field
+	 *            The field
+	 * @return a read-only buffer with the value, or null if the field is not set
+	 */
+	public ByteBuffer getBytes(Field field) {
+		ByteBuffer value = values[field.ordinal()];
+		if (value == null) {
+			return null;
+		}
+		return value.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Returns whether the value of a field is a hash or number packed into bytes
+	 * 
+	 * @param field
+	 *            The field
+	 * @return true if the value is packed
+	 */
+	public boolean isPacked(Field field) {
+		return has(field) && packed[field.ordinal()];
+	}
+
+	/**
+	 * Returns the value of a field as it is sent, shared with the message, used by the encoder
+	 */
+	ByteBuffer getEncoded(Field field) {
+		return values[field.ordinal()];
+	}
+
+	/**
+	 * Only a value that comes out of {@link HashUtils#toHex(byte[])} the same can be packed, so the string survives the
+	 * round trip
+	 */
+	private static boolean isPackableHash(String value) {
+		if (value.isEmpty() || value.length() % 2 != 0) {
+			return false;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Only a number that comes out of {@link Integer#toString(int)} the same can be packed
+	 */
+	private static boolean isPackableNumber(String value) {
+		if (value.isEmpty() || value.length() > 10 || (value.charAt(0) == '0' && value.length() > 1)) {
+			return false;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c < '0' || c > '9') {
+				return false;
+			}
+		}
+		return Long.parseLong(value) <= Integer.MAX_VALUE;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder(opcode.getName());
+		for (Field field : Field.values()) {
+			if (has(field)) {
+				builder.append(' ').append(field.getName()).append('=');
+				// Hashes of passwords do not belong in logs
+				if (field.isHash()) {
+					builder.append("<hash>");
+				} else {
+					builder.append(get(field));
+				}
+			}
+		}
+		return builder.toString();
+	}
+
+}
@@ -0,0 +1,316 @@
+package org.fides.components.protocol;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.fides.components.Actions;
+
+/**
+ * Encodes and decodes {@link Message}s in the binary protocol, and converts them from and to the properties of the text
+ * protocol for peers that do not know the binary protocol. A binary message is framed as follows, all numbers
+ * big-endian:
+ * 
+ * <pre>
+ * marker     1 byte   0xFE, a byte that never starts UTF-8 text
+ * version    1 byte   {@link #VERSION}
+ * length     4 bytes  the number of bytes that follow
+ * opcode     1 byte   {@link Opcode#getCode()}
+ * count      1 byte   the number of fields
+ * per field:
+ *   id       1 byte   {@link Field#getId()}, the high bit is set for a packed hash or number
+ *   length   2 bytes  the length of the value
+ *   value             the raw bytes of a packed hash, four bytes for a packed number, otherwise UTF-8
+ * </pre>
+ * 
+ * Fields with an unknown id are skipped, so a newer peer can add fields without a new version. A new version is only
+ * needed when the frame itself changes.
+ */
+public final class MessageCodec {
+
+	/** The first byte of every binary message */
+	public static final byte MARKER = (byte) 0xFE;
+
+	/** The version of the binary format written by this codec */
+	public static final byte VERSION = 1;
+
+	/** The size of the marker, version and length in front of the body */
+	public static final int HEADER_SIZE = 6;
+
+	/** The largest body a message may have, anything larger is rejected before it is read */
+	public static final int MAX_BODY_SIZE = 1024 * 1024;
+
+	private static final int PACKED = 0x80;
+
+	private MessageCodec() {
+	}
+
+	/**
+	 * Returns whether a message starting with a byte is binary, otherwise it is a text message of an old peer
+	 * 
+	 * @param firstByte
+	 *            The first byte of the message
+	 * @return true for a binary message
+	 */
+	public static boolean isBinary(int firstByte) {
+		return (byte) firstByte == MARKER;
+	}
+
+	/**
+	 * Returns the number of bytes a message takes encoded
+	 * 
+	 * @param message
+	 *            The message
+	 * @return the size in bytes, including the header
+	 */
+	public static int getEncodedSize(Message message) {
+		int size = HEADER_SIZE + 2;
+		for (Field field : Field.values()) {
+			ByteBuffer value = message.getEncoded(field);
+			if (value != null) {
+				size += 3 + value.remaining();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Encodes a message at the position of a buffer
+	 * 
+	 * @param message
+	 *            The message to encode
+	 * @param dst
+	 *            The buffer, it needs {@link #getEncodedSize(Message)} bytes remaining
+	 */
+	public static void encode(Message message, ByteBuffer dst) {
+		int size = getEncodedSize(message);
+		dst.put(MARKER).put(VERSION).putInt(size - HEADER_SIZE);
+		dst.put(message.getOpcode().getCode());
+		int countPosition = dst.position();
+		dst.put((byte) 0);
+		int count = 0;
+		for (Field field : Field.values()) {
+			ByteBuffer value = message.getEncoded(field);
+			if (value != null) {
+				int id = field.getId();
+				if (message.isPacked(field)) {
+					id |= PACKED;
+				}
+				dst.put((byte) id).putShort((short) value.remaining()).put(value.duplicate());
+				count++;
+			}
+		}
+		dst.put(countPosition, (byte) count);
+	}
+
+	/**
+	 * Encodes a message into a new buffer
+	 * 
+	 * @param message
+	 *            The message to encode
+	 * @return a buffer with the message, ready to be read
+	 */
+	public static ByteBuffer encode(Message message) {
+		ByteBuffer buffer = ByteBuffer.allocate(getEncodedSize(message));
+		encode(message, buffer);
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Returns the size of the binary message at the position of a buffer, to find out if the whole message is there
+	 * 
+	 * @param src
+	 *            The buffer, its position is not changed
+	 * @return the size of the message including the header, or -1 if the header is not complete
+	 * @throws ProtocolException
+	 *             If the header is not a valid header
+	 */
+	public static int getMessageSize(ByteBuffer src) throws ProtocolException {
+		if (src.remaining() < HEADER_SIZE) {
+			return -1;
+		}
+		int position = src.position();
+		checkHeader(src.get(position), src.get(position + 1));
+		return HEADER_SIZE + checkBodySize(src.getInt(position + 2));
+	}
+
+	/**
+	 * Decodes the message at the position of a buffer and moves the position past it. The values of the message are
+	 * views of the buffer, nothing is copied, so the buffer may not be reused while the message is in use.
+	 * 
+	 * @param src
+	 *            The buffer containing a complete message
+	 * @return the message
+	 * @throws ProtocolException
+	 *             If the message is malformed, not complete or of an unsupported version
+	 */
+	public static Message decode(ByteBuffer src) throws ProtocolException {
+		int size = getMessageSize(src);
+		if (size < 0 || src.remaining() < size) {
+			throw new ProtocolException("The message is not complete");
+		}
+		ByteBuffer body = src.duplicate();
+		body.position(src.position() + HEADER_SIZE);
+		body.limit(src.position() + size);
+		src.position(src.position() + size);
+
+		try {
+			Opcode opcode = Opcode.fromCode(body.get());
+			if (opcode == null) {
+				throw new ProtocolException("Unknown opcode " + (body.get(body.position() - 1) & 0xFF));
+			}
+			Message message = new Message(opcode);
+			int count = body.get() & 0xFF;
+			for (int i = 0; i < count; i++) {
+				int id = body.get() & 0xFF;
+				int length = body.getShort() & 0xFFFF;
+				if (length > body.remaining()) {
+					throw new ProtocolException("A field is longer than the message");
+				}
+				ByteBuffer value = body.slice();
+				value.limit(length);
+				body.position(body.position() + length);
+				Field field = Field.fromId(id & ~PACKED);
+				if (field != null) {
+					boolean isPacked = (id & PACKED) != 0;
+					if (isPacked && (field.getType() == Field.Type.TEXT || (field.getType() == Field.Type.NUMBER && (length != 4 || value.getInt(0) < 0)))) {
+						throw new ProtocolException("Invalid packed value for " + field);
+					}
+					message.setEncoded(field, value, isPacked);
+				}
+			}
+			if (body.hasRemaining()) {
+				throw new ProtocolException("The message is longer than its fields");
+			}
+			return message;
+		} catch (BufferUnderflowException e) {
+			throw new ProtocolException("The message is shorter than its fields");
+		}
+	}
+
+	/**
+	 * Writes a message to a stream
+	 * 
+	 * @param message
+	 *            The message to write
+	 * @param out
+	 *            The stream to write to
+	 * @throws IOException
+	 *             If writing fails
+	 */
+	public static void write(Message message, OutputStream out) throws IOException {
+		ByteBuffer buffer = encode(message);
+		out.write(buffer.array(), buffer.arrayOffset(), buffer.remaining());
+	}
+
+	/**
+	 * Reads a binary message from a stream
+	 * 
+	 * @param in
+	 *            The stream to read from
+	 * @return the message, or null if the stream ended before a message
+	 * @throws IOException
+	 *             If reading fails, or the message is malformed
+	 */
+	public static Message read(InputStream in) throws IOException {
+		int first = in.read();
+		if (first < 0) {
+			return null;
+		}
+		DataInputStream dataIn = new DataInputStream(in);
+		try {
+			byte version = dataIn.readByte();
+			checkHeader((byte) first, version);
+			int bodySize = checkBodySize(dataIn.readInt());
+			byte[] message = new byte[HEADER_SIZE + bodySize];
+			ByteBuffer.wrap(message).put((byte) first).put(version).putInt(bodySize);
+			dataIn.readFully(message, HEADER_SIZE, bodySize);
+			return decode(ByteBuffer.wrap(message));
+		} catch (EOFException e) {
+			throw new ProtocolException("The stream ended in the middle of a message");
+		}
+	}
+
+	/**
+	 * Converts a message to the properties of the text protocol. An action is put under {@link Actions#ACTION}, a
+	 * response is a property with the name of the response and the value "true". The fields are put under their names.
+	 * 
+	 * @param message
+	 *            The message to convert
+	 * @return the properties
+	 */
+	public static Map<String, String> toProperties(Message message) {
+		Map<String, String> properties = new HashMap<>();
+		Opcode opcode = message.getOpcode();
+		if (opcode.isResponse()) {
+			properties.put(opcode.getName(), Boolean.TRUE.toString());
+		} else {
+			properties.put(Actions.ACTION, opcode.getName());
+		}
+		for (Field field : Field.values()) {
+			if (message.has(field)) {
+				properties.put(field.getName(), message.get(field));
+			}
+		}
+		return properties;
+	}
+
+	/**
+	 * Converts the properties of a text message to a message, the opposite of {@link #toProperties(Message)}
+	 * 
+	 * @param properties
+	 *            The properties of the text message
+	 * @return the message
+	 * @throws ProtocolException
+	 *             If the properties contain no known action or response
+	 */
+	public static Message fromProperties(Map<String, String> properties) throws ProtocolException {
+		Opcode opcode = null;
+		String action = properties.get(Actions.ACTION);
+		if (action != null) {
+			opcode = Opcode.fromName(action);
+			if (opcode == null || opcode.isResponse()) {
+				throw new ProtocolException("Unknown action " + action);
+			}
+		} else {
+			for (Opcode response : Opcode.values()) {
+				if (response.isResponse() && properties.containsKey(response.getName())) {
+					opcode = response;
+					break;
+				}
+			}
+			if (opcode == null) {
+				throw new ProtocolException("The message has no action or response");
+			}
+		}
+		Message message = new Message(opcode);
+		for (Field field : Field.values()) {
+			message.set(field, properties.get(field.getName()));
+		}
+		return message;
+	}
+
+	private static void checkHeader(byte marker, byte version) throws ProtocolException {
+		if (marker != MARKER) {
+			throw new ProtocolException("Not a binary message");
+		}
+		if (version != VERSION) {
+			throw new ProtocolException("Unsupported protocol version " + (version & 0xFF));
+		}
+	}
+
+	private static int checkBodySize(int bodySize) throws ProtocolException {
+		if (bodySize < 2 || bodySize > MAX_BODY_SIZE) {
+			throw new ProtocolException("Invalid message length " + bodySize);
+		}
+		return bodySize;
+	}
+
+}
@@ -0,0 +1,145 @@
+package org.fides.components.protocol;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.fides.components.Actions;
+import org.fides.components.Responses;
+
+/**
+ * The one-byte codes of the binary protocol for the actions in {@link Actions} and the responses in {@link Responses}.
+ * Response codes have the high bit set. The codes are part of the wire format, so existing codes may never change, new
+ * actions get a new code.
+ */
+public enum Opcode {
+
+	/** {@link Actions#CREATE_USER} */
+	CREATE_USER(0x01, Actions.CREATE_USER),
+
+	/** {@link Actions#GET_KEY_FILE} */
+	GET_KEY_FILE(0x02, Actions.GET_KEY_FILE),
+
+	/** {@link Actions#UPDATE_KEY_FILE} */
+	UPDATE_KEY_FILE(0x03, Actions.UPDATE_KEY_FILE),
+
+	/** {@link Actions#GET_FILE} */
+	GET_FILE(0x04, Actions.GET_FILE),
+
+	/** {@link Actions#UPDATE_FILE} */
+	UPDATE_FILE(0x05, Actions.UPDATE_FILE),
+
+	/** {@link Actions#UPLOAD_FILE} */
+	UPLOAD_FILE(0x06, Actions.UPLOAD_FILE),
+
+	/** {@link Actions#REMOVE_FILE} */
+	REMOVE_FILE(0x07, Actions.REMOVE_FILE),
+
+	/** {@link Actions#LOGIN} */
+	LOGIN(0x08, Actions.LOGIN),
+
+	/** {@link Actions#DISCONNECT} */
+	DISCONNECT(0x09, Actions.DISCONNECT),
+
+	/** {@link Actions#REQUEST_LOCATIONS} */
+	REQUEST_LOCATIONS(0x0A, Actions.REQUEST_LOCATIONS),
+
+	/** {@link Actions#GET_FILES} */
+	GET_FILES(0x0B, Actions.GET_FILES),
+
+	/** {@link Actions#UPLOAD_FILES} */
+	UPLOAD_FILES(0x0C, Actions.UPLOAD_FILES),
+
+	/** {@link Actions#REMOVE_FILES} */
+	REMOVE_FILES(0x0D, Actions.REMOVE_FILES),
+
+	/** {@link Actions#HAS_CHUNKS} */
+	HAS_CHUNKS(0x0E, Actions.HAS_CHUNKS),
+
+	/** {@link Actions#UPLOAD_CHUNKS} */
+	UPLOAD_CHUNKS(0x0F, Actions.UPLOAD_CHUNKS),
+
+	/** {@link Actions#GET_CHUNKS} */
+	GET_CHUNKS(0x10, Actions.GET_CHUNKS),
+
+	/** {@link Responses#SUCCESSFUL} */
+	SUCCESSFUL(0x81, Responses.SUCCESSFUL),
+
+	/** {@link Responses#ERROR} */
+	ERROR(0x82, Responses.ERROR),
+
+	/** {@link Responses#LOCATIONS} */
+	LOCATIONS(0x83, Responses.LOCATIONS),
+
+	/** {@link Responses#RESULTS} */
+	RESULTS(0x84, Responses.RESULTS);
+
+	private static final Opcode[] BY_CODE = new Opcode[256];
+
+	private static final Map<String, Opcode> BY_NAME = new HashMap<>();
+
+	static {
+		for (Opcode opcode : values()) {
+			BY_CODE[opcode.code & 0xFF] = opcode;
+			BY_NAME.put(opcode.name, opcode);
+		}
+	}
+
+	private final byte code;
+
+	private final String name;
+
+	private Opcode(int code, String name) {
+		this.code = (byte) code;
+		this.name = name;
+	}
+
+	/**
+	 * Returns the code of this opcode on the wire
+	 * 
+	 * @return the code
+	 */
+	public byte getCode() {
+		return code;
+	}
+
+	/**
+	 * Returns the name of the action or response in the text protocol
+	 * 
+	 * @return the constant from {@link Actions} or {@link Responses}
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns whether this is a response, otherwise it is an action
+	 * 
+	 * @return true for a response
+	 */
+	public boolean isResponse() {
+		return (code & 0x80) != 0;
+	}
+
+	/**
+	 * Returns the opcode with a code
+	 * 
+	 * @param code
+	 *            The code on the wire
+	 * @return the opcode, or null if the code is unknown
+	 */
+	public static Opcode fromCode(byte code) {
+		return BY_CODE[code & 0xFF];
+	}
+
+	/**
+	 * Returns the opcode for an action or response of the text protocol
+	 * 
+	 * @param name
+	 *            The constant from {@link Actions} or {@link Responses}
+	 * @return the opcode, or null if the name is unknown
+	 */
+	public static Opcode fromName(String name) {
+		return BY_NAME.get(name);
+	}
+
+}
@@ -0,0 +1,294 @@
+package org.fides.components.protocol;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends requests over a single connection without waiting for the response of the previous request. Every request gets
+ * a {@link Field#REQUEST_ID}, which the server copies into its response with {@link Message#createResponse(Opcode)}, so
+ * the responses can arrive in any order. The number of requests waiting for a response is limited by a window, a send
+ * blocks while the window is full. A reader thread, started by {@link #open(InputStream, OutputStream, int)}, reads the
+ * responses and completes the futures. Only the messages themselves are pipelined, the contents of files have to be
+ * sent on their own virtual streams, for example with a
+ * {@link org.fides.components.virtualstream.VirtualStreamMultiplexer}. This class is thread-safe.
+ */
+public final class PipelinedClient implements Closeable {
+
+	/** The default number of requests that can wait for a response */
+	public static final int DEFAULT_WINDOW = 32;
+
+	private static final AtomicInteger CLIENT_COUNT = new AtomicInteger();
+
+	private final InputStream in;
+
+	private final OutputStream out;
+
+	private final int windowSize;
+
+	private final Semaphore window;
+
+	private final Map<Integer, PendingResponse> pending = new ConcurrentHashMap<>();
+
+	/** Guards the output stream and the next request id */
+	private final Object writeLock = new Object();
+
+	private int nextId = 0;
+
+	private volatile IOException failure;
+
+	/**
+	 * Constructor for PipelinedClient, the reader thread is started by the factory once the client is constructed
+	 */
+	private PipelinedClient(InputStream in, OutputStream out, int windowSize) {
+		if (windowSize < 1) {
+			throw new IllegalArgumentException("The window has to be at least 1");
+		}
+		this.in = in;
+		this.out = out;
+		this.windowSize = windowSize;
+		window = new Semaphore(windowSize);
+	}
+
+	/**
+	 * Creates a client with the default window and starts reading responses
+	 * 
+	 * @param in
+	 *            The stream the responses are read from
+	 * @param out
+	 *            The stream the requests are written to
+	 * @return the client
+	 */
+	public static PipelinedClient open(InputStream in, OutputStream out) {
+		return open(in, out, DEFAULT_WINDOW);
+	}
+
+	/**
+	 * Creates a client and starts reading responses
+	 * 
+	 * @param in
+	 *            The stream the responses are read from
+	 * @param out
+	 *            The stream the requests are written to
+	 * @param windowSize
+	 *            The maximum number of requests waiting for a response
+	 * @return the client
+	 */
+	public static PipelinedClient open(InputStream in, OutputStream out, int windowSize) {
+		final PipelinedClient client = new PipelinedClient(in, out, windowSize);
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				client.readResponses();
+			}
+		}, "fides-pipeline-" + CLIENT_COUNT.incrementAndGet());
+		reader.setDaemon(true);
+		reader.start();
+		return client;
+	}
+
+	/**
+	 * Sends a request, blocking while the window is full. The {@link Field#REQUEST_ID} of the request is overwritten.
+	 * 
+	 * @param request
+	 *            The request to send
+	 * @return the response when it arrives, it fails with an {@link IOException} if the connection fails first
+	 * @throws IOException
+	 *             If writing the request fails, or the connection failed before
+	 * @throws InterruptedException
+	 *             If the thread is interrupted while waiting for the window
+	 */
+	public Future<Message> send(Message request) throws IOException, InterruptedException {
+		checkFailure();
+		window.acquire();
+		PendingResponse response = new PendingResponse();
+		int id;
+		try {
+			synchronized (writeLock) {
+				checkFailure();
+				id = nextId();
+				request.set(Field.REQUEST_ID, id);
+				pending.put(id, response);
+				MessageCodec.write(request, out);
+				out.flush();
+			}
+		} catch (IOException e) {
+			window.release();
+			throw e;
+		}
+		// The connection may have failed after the request was registered, but before the reader saw it
+		IOException failed = failure;
+		if (failed != null && pending.remove(id, response)) {
+			response.fail(failed);
+		}
+		return response;
+	}
+
+	/**
+	 * Returns the number of requests waiting for a response
+	 * 
+	 * @return the number of requests in flight
+	 */
+	public int getInFlight() {
+		return pending.size();
+	}
+
+	/**
+	 * Returns the maximum number of requests waiting for a response
+	 * 
+	 * @return the size of the window
+	 */
+	public int getWindowSize() {
+		return windowSize;
+	}
+
+	/**
+	 * Closes both streams. Requests waiting for a response fail.
+	 */
+	@Override
+	public void close() throws IOException {
+		fail(new IOException("The client is closed"));
+		try {
+			out.close();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Skips ids that are still in flight, after the ids wrapped around
+	 */
+	private int nextId() {
+		int id;
+		do {
+			id = nextId;
+			nextId = (nextId + 1) & Integer.MAX_VALUE;
+		} while (pending.containsKey(id));
+		return id;
+	}
+
+	private void checkFailure() throws IOException {
+		IOException failed = failure;
+		if (failed != null) {
+			throw new IOException("The connection failed", failed);
+		}
+	}
+
+	private void readResponses() {
+		try {
+			while (true) {
+				Message response = MessageCodec.read(in);
+				if (response == null) {
+					throw new EOFException("The connection was closed");
+				}
+				int id;
+				try {
+					id = response.getInt(Field.REQUEST_ID);
+				} catch (NumberFormatException e) {
+					throw new ProtocolException("Invalid request id in a response");
+				}
+				PendingResponse request = pending.remove(id);
+				if (request == null) {
+					throw new ProtocolException("Response to unknown request " + id);
+				}
+				// The slot is freed first, so a sender that has its response can send the next request right away
+				window.release();
+				request.complete(response);
+			}
+		} catch (IOException e) {
+			fail(e);
+		} catch (RuntimeException e) {
+			fail(new IOException(e));
+		}
+	}
+
+	private void fail(IOException e) {
+		synchronized (this) {
+			if (failure != null) {
+				return;
+			}
+			failure = e;
+		}
+		for (Integer id : pending.keySet()) {
+			PendingResponse request = pending.remove(id);
+			if (request != null) {
+				request.fail(e);
+			}
+		}
+		// Wakes up the senders waiting for the window, they will see the failure
+		window.release(windowSize);
+	}
+
+	/**
+	 * The future of a response, completed by the reader. A request that was sent can not be taken back, so it can not
+	 * be cancelled.
+	 */
+	private static final class PendingResponse implements Future<Message> {
+
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		/** Set once before the latch is released, which makes it visible to the waiting threads */
+		private Message response;
+
+		private IOException failure;
+
+		void complete(Message message) {
+			response = message;
+			done.countDown();
+		}
+
+		void fail(IOException e) {
+			failure = e;
+			done.countDown();
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return false;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+
+		@Override
+		public boolean isDone() {
+			return done.getCount() == 0;
+		}
+
+		@Override
+		public Message get() throws InterruptedException, ExecutionException {
+			done.await();
+			return result();
+		}
+
+		@Override
+		public Message get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			if (!done.await(timeout, unit)) {
+				throw new TimeoutException();
+			}
+			return result();
+		}
+
+		private Message result() throws ExecutionException {
+			if (failure != null) {
+				throw new ExecutionException(failure);
+			}
+			return response;
+		}
+
+	}
+
+}
@@ -0,0 +1,22 @@
+package org.fides.components.protocol;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a binary protocol message is malformed, incomplete or of a version that is not supported
+ */
+public class ProtocolException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Constructor for ProtocolException
+	 * 
+	 * @param message
+	 *            Describes what is wrong with the message
+	 */
+	public ProtocolException(String message) {
+		super(message);
+	}
+
+}
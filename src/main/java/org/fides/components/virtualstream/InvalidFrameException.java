@@ -0,0 +1,23 @@
+package org.fides.components.virtualstream;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the underlying stream of a {@link VirtualStreamDemultiplexer} contains a frame that a
+ * {@link VirtualStreamMultiplexer} can not have written. The logical streams can not be read after that.
+ */
+public class InvalidFrameException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Constructor for InvalidFrameException
+	 * 
+	 * @param message
+	 *            The description of the invalid frame
+	 */
+	public InvalidFrameException(String message) {
+		super(message);
+	}
+
+}
@@ -0,0 +1,73 @@
+package org.fides.components.virtualstream;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A logical {@link InputStream} of a {@link VirtualStreamDemultiplexer}. Closing the stream before its end drops the
+ * rest of its data without blocking the other logical streams.
+ */
+public class MultiplexedInputStream extends InputStream {
+
+	private final VirtualStreamDemultiplexer demultiplexer;
+
+	private final int streamId;
+
+	private final byte[] single = new byte[1];
+
+	private boolean closed = false;
+
+	/**
+	 * Constructor for MultiplexedInputStream, streams are obtained with
+	 * {@link VirtualStreamDemultiplexer#getInputStream(int)}
+	 * 
+	 * @param demultiplexer
+	 *            The demultiplexer reading the frames
+	 * @param streamId
+	 *            The id of this logical stream
+	 */
+	MultiplexedInputStream(VirtualStreamDemultiplexer demultiplexer, int streamId) {
+		this.demultiplexer = demultiplexer;
+		this.streamId = streamId;
+	}
+
+	/**
+	 * Returns the id of this logical stream
+	 * 
+	 * @return the id of this logical stream
+	 */
+	public int getStreamId() {
+		return streamId;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (read(single, 0, 1) < 0) {
+			return -1;
+		}
+		return single[0] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (closed) {
+			throw new IOException("Multiplexed stream is closed");
+		}
+		if (off < 0 || len < 0 || off > b.length - len) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len == 0) {
+			return 0;
+		}
+		return demultiplexer.read(streamId, b, off, len);
+	}
+
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			demultiplexer.discard(streamId);
+		}
+	}
+
+}
@@ -0,0 +1,117 @@
+package org.fides.components.virtualstream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A logical {@link OutputStream} of a {@link VirtualStreamMultiplexer}. Like the {@link VirtualOutputStream} the data is
+ * buffered and written in chunks, closing the stream only ends the logical stream.
+ */
+public class MultiplexedOutputStream extends OutputStream {
+
+	private final VirtualStreamMultiplexer multiplexer;
+
+	private final int streamId;
+
+	private final byte[] buffer;
+
+	private int count = 0;
+
+	private boolean closed = false;
+
+	/**
+	 * Constructor for MultiplexedOutputStream, streams are opened with {@link VirtualStreamMultiplexer#openStream()}
+	 * 
+	 * @param multiplexer
+	 *            The multiplexer to write the chunks with
+	 * @param streamId
+	 *            The id of this logical stream
+	 * @param chunkSize
+	 *            The size of the buffer
+	 */
+	MultiplexedOutputStream(VirtualStreamMultiplexer multiplexer, int streamId, int chunkSize) {
+		this.multiplexer = multiplexer;
+		this.streamId = streamId;
+		buffer = new byte[chunkSize];
+	}
+
+	/**
+	 * Returns the id the receiving side needs to read this stream
+	 * 
+	 * @return the id of this logical stream
+	 */
+	public int getStreamId() {
+		return streamId;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (closed) {
+			throw new IOException("Multiplexed stream is closed");
+		}
+		if (count >= buffer.length) {
+			flushBuffer();
+		}
+		buffer[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (closed) {
+			throw new IOException("Multiplexed stream is closed");
+		}
+		if (off < 0 || len < 0 || off > b.length - len) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len >= buffer.length) {
+			if (count > 0) {
+				flushBuffer();
+			}
+			// Every chunk is written separately, so other streams get their turn in between
+			while (len > 0) {
+				int chunk = Math.min(len, buffer.length);
+				multiplexer.writeFrame(streamId, b, off, chunk, false);
+				off += chunk;
+				len -= chunk;
+			}
+			return;
+		}
+		if (len > buffer.length - count) {
+			flushBuffer();
+		}
+		System.arraycopy(b, off, buffer, count, len);
+		count += len;
+	}
+
+	private void flushBuffer() throws IOException {
+		multiplexer.writeFrame(streamId, buffer, 0, count, false);
+		count = 0;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (count <= 0) {
+			// No need to flush when the buffer is empty
+			return;
+		}
+		if (closed) {
+			throw new IOException("Multiplexed stream is already closed");
+		}
+		multiplexer.writeFrame(streamId, buffer, 0, count, true);
+		count = 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			// We are already closed
+			return;
+		}
+		if (count > 0) {
+			flushBuffer();
+		}
+		multiplexer.writeFrame(streamId, null, 0, VirtualStreamMultiplexer.END_OF_STREAM, true);
+		closed = true;
+	}
+
+}
@@ -2,18 +2,25 @@ package org.fides.components.virtualstream;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.ByteBuffer;
+
+import org.fides.instrumentation.Instrumentations;
 
 /**
  * A virtual {@link InputStream} that simulates an {@link InputStream} on top of an existing {@link InputStream}. This
- * stream does not close the underlying {@link InputStream}.
+ * stream does not close the underlying {@link InputStream}. When the sender aborted the stream, reading its end throws
+ * a {@link VirtualStreamAbortedException}.
  */
 public class VirtualInputStream extends InputStream {
 
-	private short bytesLeft = 0;
+	private int bytesLeft = 0;
 
 	private final InputStream in;
 
+	private final VirtualStreamProtocol protocol;
+
+	/** Reused for every chunk prefix, so reading a chunk does not allocate */
+	private final byte[] prefix;
+
 	/**
 	 * Constructor for VirtualInputStream
 	 * 
@@ -21,7 +28,21 @@ public class VirtualInputStream extends InputStream {
 	 *            The InputStream to make virtual
 	 */
 	public VirtualInputStream(InputStream in) {
+		this(in, VirtualStreamProtocol.V1);
+	}
+
+	/**
+	 * Constructor for VirtualInputStream using the given protocol version
+	 * 
+	 * @param in
+	 *            The InputStream to make virtual
+	 * @param protocol
+	 *            The protocol version to read, has to be the same version the sending side uses
+	 */
+	public VirtualInputStream(InputStream in, VirtualStreamProtocol protocol) {
 		this.in = in;
+		this.protocol = protocol;
+		prefix = new byte[protocol.getPrefixSize()];
 	}
 
 	@Override
@@ -30,39 +51,133 @@ public class VirtualInputStream extends InputStream {
 			readPrefix();
 		}
 		if (bytesLeft < 0) {
-			return -1;
+			return endOfStream();
 		}
 		--bytesLeft;
 		return in.read();
 
 	}
 
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || off > b.length - len) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len == 0) {
+			return 0;
+		}
+		while (bytesLeft == 0) {
+			readPrefix();
+		}
+		if (bytesLeft < 0) {
+			return endOfStream();
+		}
+		// Read as much of the current chunk as fits, but never past the end of the chunk
+		int bytesRead = in.read(b, off, Math.min(len, bytesLeft));
+		if (bytesRead < 0) {
+			throw new IOException("Unexpected end of the underlying stream");
+		}
+		bytesLeft -= bytesRead;
+		return bytesRead;
+	}
+
 	private void readPrefix() throws IOException {
-		// Read the prefix
-		byte[] prefix = new byte[2];
-		int first = in.read();
-		int second = in.read();
-		if (first < 0 || second < 0) {
-			throw new IOException("Could not read prefix properly");
+		// Read the prefix without allocating anything
+		int offset = 0;
+		while (offset < prefix.length) {
+			int bytesRead = in.read(prefix, offset, prefix.length - offset);
+			if (bytesRead < 0) {
+				throw new IOException("Could not read prefix properly");
+			}
+			offset += bytesRead;
 		}
 
-		prefix[0] = (byte) first;
-		prefix[1] = (byte) second;
-		bytesLeft = ByteBuffer.wrap(prefix).getShort();
+		bytesLeft = protocol.decodePrefix(prefix);
+		if (bytesLeft > 0) {
+			Instrumentations.get().chunkRead(bytesLeft);
+		}
+	}
+
+	/**
+	 * Handles the marker that ended the stream
+	 * 
+	 * @return -1 when the stream ended normally
+	 * @throws VirtualStreamAbortedException
+	 *             when the sender aborted the stream
+	 */
+	private int endOfStream() throws VirtualStreamAbortedException {
+		if (bytesLeft == VirtualStreamProtocol.ABORTED) {
+			throw new VirtualStreamAbortedException();
+		}
+		return -1;
+	}
+
+	/**
+	 * Skips bytes of the underlying {@link InputStream}, falling back to reading when it does not skip
+	 * 
+	 * @param n
+	 *            The number of bytes to skip
+	 * @throws IOException
+	 */
+	private void skipUnderlying(long n) throws IOException {
+		while (n > 0) {
+			long skipped = in.skip(n);
+			if (skipped <= 0) {
+				// skip may do nothing without being at the end, reading tells us whether we are
+				if (in.read() < 0) {
+					throw new IOException("Unexpected end of the underlying stream");
+				}
+				skipped = 1;
+			}
+			n -= skipped;
+		}
+	}
+
+	@Override
+	public int available() throws IOException {
+		if (bytesLeft <= 0) {
+			return 0;
+		}
+		return Math.min(bytesLeft, in.available());
 	}
 
 	@Override
 	public void close() throws IOException {
 		// We do not want to close the underlying InputStream
-		// We do want to read everything the VirtualOutputStream wanted to give us
-		while (read() != -1) {
-			// We just want to read until empty
+		// We do want to skip everything the VirtualOutputStream wanted to give us, a whole chunk at a time
+		while (true) {
+			while (bytesLeft == 0) {
+				readPrefix();
+			}
+			if (bytesLeft < 0) {
+				// The end of the stream, or the sender aborted it and there is nothing left to skip
+				return;
+			}
+			skipUnderlying(bytesLeft);
+			bytesLeft = 0;
 		}
 	}
 
+	/**
+	 * Skips whole chunks using their prefixes, the skipped chunks are never copied.
+	 */
 	@Override
 	public long skip(long n) throws IOException {
-		throw new IOException("skip not supported");
+		long skipped = 0;
+		while (skipped < n) {
+			while (bytesLeft == 0) {
+				readPrefix();
+			}
+			if (bytesLeft < 0) {
+				endOfStream();
+				break;
+			}
+			int step = (int) Math.min(n - skipped, bytesLeft);
+			skipUnderlying(step);
+			bytesLeft -= step;
+			skipped += step;
+		}
+		return skipped;
 	}
 
 }
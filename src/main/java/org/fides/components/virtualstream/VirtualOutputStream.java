@@ -3,20 +3,30 @@ package org.fides.components.virtualstream;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.ByteBuffer;
+
+import org.fides.components.BufferPool;
+import org.fides.instrumentation.Instrumentations;
 
 /**
  * A virtual {@link OutputStream} that simulates an {@link OutputStream} on top of an existing {@link OutputStream}.
- * This is done using a buffer and a custom protocol for writing data. This stream does not close the underlying
+ * This is done using a buffer and a custom protocol for writing data. The buffer is borrowed from the default
+ * {@link BufferPool} and given back when the stream is closed or aborted. This stream does not close the underlying
  * {@link OutputStream}.
  */
 public class VirtualOutputStream extends FilterOutputStream {
 
-	private static final short DEFAULT_BUFFER_SIZE = 1024;
+	private final VirtualStreamProtocol protocol;
+
+	private final BufferPool pool;
+
+	private final int bufferSize;
 
-	private final byte[] buffer;
+	private byte[] buffer;
 
-	private short count = 0;
+	/** Reused for every chunk prefix, so framing a chunk does not allocate */
+	private final byte[] prefix;
+
+	private int count = 0;
 
 	private boolean closed = false;
 
@@ -29,12 +39,7 @@ public class VirtualOutputStream extends FilterOutputStream {
 	 *            The size of the buffer, has to be bigger then 0
 	 */
 	public VirtualOutputStream(OutputStream out, short bufferSize) {
-		super(out);
-		if (bufferSize < 1) {
-			throw new IllegalArgumentException("BufferSize has to be bigger then 0");
-		}
-
-		buffer = new byte[bufferSize];
+		this(out, bufferSize, VirtualStreamProtocol.V1);
 	}
 
 	/**
@@ -44,7 +49,45 @@ public class VirtualOutputStream extends FilterOutputStream {
 	 *            The {@link OutputStream} to build the virtual {@link OutputStream} upon
 	 */
 	public VirtualOutputStream(OutputStream out) {
-		this(out, DEFAULT_BUFFER_SIZE);
+		this(out, VirtualStreamProtocol.V1);
+	}
+
+	/**
+	 * Constructor with the default buffer size of the given protocol version
+	 * 
+	 * @param out
+	 *            The {@link OutputStream} to build the virtual {@link OutputStream} upon
+	 * @param protocol
+	 *            The protocol version to write, the receiving side has to use the same version
+	 */
+	public VirtualOutputStream(OutputStream out, VirtualStreamProtocol protocol) {
+		this(out, protocol.getDefaultChunkSize(), protocol);
+	}
+
+	/**
+	 * Constructor for VirtualOutputStream using the given protocol version, checks the buffer size of the OutputStream
+	 * 
+	 * @param out
+	 *            The {@link OutputStream} to build the virtual {@link OutputStream} upon
+	 * @param bufferSize
+	 *            The size of the buffer, has to be bigger then 0 and can not exceed the maximum chunk size of the protocol
+	 * @param protocol
+	 *            The protocol version to write, the receiving side has to use the same version
+	 */
+	public VirtualOutputStream(OutputStream out, int bufferSize, VirtualStreamProtocol protocol) {
+		super(out);
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("BufferSize has to be bigger then 0");
+		}
+		if (bufferSize > protocol.getMaxChunkSize()) {
+			throw new IllegalArgumentException("BufferSize can not exceed " + protocol.getMaxChunkSize() + " bytes in protocol " + protocol);
+		}
+
+		this.protocol = protocol;
+		this.bufferSize = bufferSize;
+		pool = BufferPool.getDefault();
+		buffer = pool.acquire(bufferSize);
+		prefix = new byte[protocol.getPrefixSize()];
 	}
 
 	@Override
@@ -52,24 +95,79 @@ public class VirtualOutputStream extends FilterOutputStream {
 		if (closed) {
 			throw new IOException("Virtual stream is closed");
 		}
-		if (count >= buffer.length) {
+		if (count >= bufferSize) {
 			flushBuffer();
 		}
 		buffer[count++] = (byte) b;
 	}
 
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (closed) {
+			throw new IOException("Virtual stream is closed");
+		}
+		if (off < 0 || len < 0 || off > b.length - len) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len >= bufferSize) {
+			// Large writes go straight through, there is no use in copying them into the buffer first
+			if (count > 0) {
+				flushBuffer();
+			}
+			while (len > 0) {
+				int chunk = Math.min(len, bufferSize);
+				writeChunk(b, off, chunk);
+				off += chunk;
+				len -= chunk;
+			}
+			return;
+		}
+		if (len > bufferSize - count) {
+			flushBuffer();
+		}
+		System.arraycopy(b, off, buffer, count, len);
+		count += len;
+	}
+
 	/**
 	 * Writes the buffer to the underlying {@link OutputStream} using the virtual stream protocol
 	 * 
 	 * @throws IOException
 	 */
 	private void flushBuffer() throws IOException {
-		byte[] prefix = ByteBuffer.allocate(2).putShort(count).array();
-		out.write(prefix);
-		out.write(buffer, 0, count);
+		writeChunk(buffer, 0, count);
 		count = 0;
 	}
 
+	/**
+	 * Writes a single chunk, prefixed with its length, to the underlying {@link OutputStream}
+	 * 
+	 * @param b
+	 *            The array containing the chunk
+	 * @param off
+	 *            The offset of the chunk in the array
+	 * @param len
+	 *            The length of the chunk
+	 * @throws IOException
+	 */
+	private void writeChunk(byte[] b, int off, int len) throws IOException {
+		writePrefix(len);
+		out.write(b, off, len);
+		Instrumentations.get().chunkWritten(len);
+	}
+
+	/**
+	 * Writes a length prefix to the underlying {@link OutputStream}
+	 * 
+	 * @param len
+	 *            The length to write
+	 * @throws IOException
+	 */
+	private void writePrefix(int len) throws IOException {
+		protocol.encodePrefix(len, prefix);
+		out.write(prefix, 0, prefix.length);
+	}
+
 	@Override
 	public void flush() throws IOException {
 		if (count <= 0) {
@@ -81,6 +179,7 @@ public class VirtualOutputStream extends FilterOutputStream {
 		}
 		flushBuffer();
 		out.flush();
+		Instrumentations.get().streamFlushed();
 	}
 
 	@Override
@@ -89,11 +188,41 @@ public class VirtualOutputStream extends FilterOutputStream {
 			// We are already closed
 			return;
 		}
-		flushBuffer();
-		byte[] postfix = ByteBuffer.allocate(2).putShort((short) -1).array();
-		out.write(postfix);
-		out.flush();
+		try {
+			if (count > 0) {
+				// An empty chunk would only cost an extra prefix
+				flushBuffer();
+			}
+			writePrefix(VirtualStreamProtocol.END_OF_STREAM);
+			out.flush();
+		} finally {
+			// The stream can not be used after a failed close either, so the buffer goes back to the pool
+			closed = true;
+			releaseBuffer();
+		}
+	}
+
+	/**
+	 * Aborts the virtual stream. The buffered data is dropped and instead of the rest of the data an abort marker is
+	 * sent, so the receiving {@link VirtualInputStream} stops with a {@link VirtualStreamAbortedException} without
+	 * waiting for data that will never come. Afterwards the stream is closed.
+	 * 
+	 * @throws IOException
+	 */
+	public void abort() throws IOException {
+		if (closed) {
+			throw new IOException("VirtualOutputStream is already closed");
+		}
+		count = 0;
 		closed = true;
+		releaseBuffer();
+		writePrefix(VirtualStreamProtocol.ABORTED);
+		out.flush();
+	}
+
+	private void releaseBuffer() {
+		pool.release(buffer);
+		buffer = null;
 	}
 
 }
@@ -0,0 +1,224 @@
+package org.fides.components.virtualstream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+
+import org.fides.components.BufferPool;
+import org.fides.instrumentation.Instrumentations;
+
+/**
+ * A virtual {@link ReadableByteChannel} that reads the virtual stream protocol from an existing
+ * {@link ReadableByteChannel}, the channel equivalent of {@link VirtualInputStream}. Reads go straight into the given
+ * buffers, including direct buffers, and never past the end of the current chunk. When the underlying channel is a
+ * {@link ScatteringByteChannel} a scattering read is passed on as a single call. On a non-blocking channel a read returns
+ * 0 when no payload is available yet. When the sender aborted the stream, reading its end throws a
+ * {@link VirtualStreamAbortedException}. This channel does not close the underlying channel.
+ */
+public class VirtualReadableByteChannel implements ScatteringByteChannel {
+
+	private static final int DRAIN_BUFFER_SIZE = 8192;
+
+	private final ReadableByteChannel channel;
+
+	private final ScatteringByteChannel scatteringChannel;
+
+	private final VirtualStreamProtocol protocol;
+
+	/** Reused for every chunk prefix, a direct buffer so the channel does not have to copy it */
+	private final ByteBuffer prefix;
+
+	/** The limits of the buffers of a scattering read, saved while they are shrunk to the end of the chunk */
+	private int[] savedLimits = new int[0];
+
+	private int bytesLeft = 0;
+
+	private boolean closed = false;
+
+	/**
+	 * Constructor using the first protocol version
+	 * 
+	 * @param channel
+	 *            The {@link ReadableByteChannel} to make virtual
+	 */
+	public VirtualReadableByteChannel(ReadableByteChannel channel) {
+		this(channel, VirtualStreamProtocol.V1);
+	}
+
+	/**
+	 * Constructor for VirtualReadableByteChannel
+	 * 
+	 * @param channel
+	 *            The {@link ReadableByteChannel} to make virtual
+	 * @param protocol
+	 *            The protocol version to read, has to be the same version the sending side uses
+	 */
+	public VirtualReadableByteChannel(ReadableByteChannel channel, VirtualStreamProtocol protocol) {
+		this.channel = channel;
+		if (channel instanceof ScatteringByteChannel) {
+			scatteringChannel = (ScatteringByteChannel) channel;
+		} else {
+			scatteringChannel = null;
+		}
+		this.protocol = protocol;
+		prefix = ByteBuffer.allocateDirect(protocol.getPrefixSize());
+	}
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		if (closed) {
+			throw new ClosedChannelException();
+		}
+		if (!nextChunk()) {
+			return 0;
+		}
+		if (bytesLeft < 0) {
+			return endOfStream();
+		}
+		int limit = dst.limit();
+		dst.limit(dst.position() + Math.min(dst.remaining(), bytesLeft));
+		int bytesRead;
+		try {
+			bytesRead = channel.read(dst);
+		} finally {
+			dst.limit(limit);
+		}
+		if (bytesRead < 0) {
+			throw new IOException("Unexpected end of the underlying channel");
+		}
+		bytesLeft -= bytesRead;
+		return bytesRead;
+	}
+
+	@Override
+	public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+		if (offset < 0 || length < 0 || offset > dsts.length - length) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (scatteringChannel == null) {
+			long bytesRead = 0;
+			for (int i = offset; i < offset + length; i++) {
+				int read = read(dsts[i]);
+				if (read < 0 && bytesRead == 0) {
+					return -1;
+				}
+				if (read < 0) {
+					break;
+				}
+				bytesRead += read;
+				if (dsts[i].hasRemaining()) {
+					break;
+				}
+			}
+			return bytesRead;
+		}
+		if (closed) {
+			throw new ClosedChannelException();
+		}
+		if (!nextChunk()) {
+			return 0;
+		}
+		if (bytesLeft < 0) {
+			return endOfStream();
+		}
+		long bytesRead;
+		if (savedLimits.length < length) {
+			savedLimits = new int[length];
+		}
+		// Shrink the buffers so the scattering read stops at the end of the chunk
+		int budget = bytesLeft;
+		for (int i = 0; i < length; i++) {
+			ByteBuffer dst = dsts[offset + i];
+			savedLimits[i] = dst.limit();
+			int allowed = Math.min(dst.remaining(), budget);
+			dst.limit(dst.position() + allowed);
+			budget -= allowed;
+		}
+		try {
+			bytesRead = scatteringChannel.read(dsts, offset, length);
+		} finally {
+			for (int i = 0; i < length; i++) {
+				dsts[offset + i].limit(savedLimits[i]);
+			}
+		}
+		if (bytesRead < 0) {
+			throw new IOException("Unexpected end of the underlying channel");
+		}
+		bytesLeft -= bytesRead;
+		return bytesRead;
+	}
+
+	@Override
+	public long read(ByteBuffer[] dsts) throws IOException {
+		return read(dsts, 0, dsts.length);
+	}
+
+	/**
+	 * Makes sure a chunk with bytes left or the end of the stream has been reached
+	 * 
+	 * @return false when a non-blocking channel did not deliver the complete prefix yet
+	 * @throws IOException
+	 */
+	private boolean nextChunk() throws IOException {
+		while (bytesLeft == 0) {
+			if (channel.read(prefix) < 0) {
+				throw new IOException("Could not read prefix properly");
+			}
+			if (prefix.hasRemaining()) {
+				return false;
+			}
+			prefix.flip();
+			bytesLeft = protocol.decodePrefix(prefix);
+			prefix.clear();
+			if (bytesLeft > 0) {
+				Instrumentations.get().chunkRead(bytesLeft);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Handles the marker that ended the stream
+	 * 
+	 * @return -1 when the stream ended normally
+	 * @throws VirtualStreamAbortedException
+	 *             when the sender aborted the stream
+	 */
+	private int endOfStream() throws VirtualStreamAbortedException {
+		if (bytesLeft == VirtualStreamProtocol.ABORTED) {
+			throw new VirtualStreamAbortedException();
+		}
+		return -1;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return !closed && channel.isOpen();
+	}
+
+	/**
+	 * Reads everything that is left of the virtual stream, so the underlying channel is positioned after it. On a
+	 * non-blocking channel this keeps trying until the end of the virtual stream arrived.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		BufferPool pool = BufferPool.getDefault();
+		ByteBuffer drain = pool.acquireDirect(DRAIN_BUFFER_SIZE);
+		try {
+			while (read(drain) >= 0) {
+				drain.clear();
+			}
+		} catch (VirtualStreamAbortedException e) {
+			// The sender gave up, there is nothing left to read
+		} finally {
+			pool.release(drain);
+		}
+		closed = true;
+	}
+
+}
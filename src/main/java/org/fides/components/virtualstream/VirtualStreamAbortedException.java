@@ -0,0 +1,19 @@
+package org.fides.components.virtualstream;
+
+import java.io.IOException;
+
+/**
+ * Thrown when reading a virtual stream that the sending side aborted. The data read before the abort is incomplete.
+ */
+public class VirtualStreamAbortedException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Constructor for VirtualStreamAbortedException
+	 */
+	public VirtualStreamAbortedException() {
+		super("The virtual stream was aborted by the sender");
+	}
+
+}
@@ -0,0 +1,292 @@
+package org.fides.components.virtualstream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads the logical streams a {@link VirtualStreamMultiplexer} wrote over a single {@link InputStream}. The logical
+ * streams can be read from different threads at the same time. Whichever reader finds its stream empty reads the next
+ * frame from the underlying stream, chunks of other streams are queued until their reader asks for them. The queues
+ * are bounded per stream and in total: when a chunk does not fit, the reading thread waits until the readers of the
+ * other streams made room before it reads on, so no data is lost and a slow stream slows the underlying stream down
+ * instead of filling the memory. A stream nobody reads or closes therefore stops the streams behind it. Chunks for the
+ * stream of the reading thread itself are always taken, since that thread reads them right away. Frames larger than
+ * {@link VirtualStreamMultiplexer#MAX_CHUNK_SIZE} are rejected with an {@link InvalidFrameException}. This
+ * demultiplexer does not close the underlying {@link InputStream}.
+ */
+public class VirtualStreamDemultiplexer {
+
+	/** The default number of unread bytes a single stream can have queued */
+	public static final int DEFAULT_MAX_QUEUED_PER_STREAM = 4 * VirtualStreamMultiplexer.MAX_CHUNK_SIZE;
+
+	/** The default number of unread bytes all streams together can have queued */
+	public static final long DEFAULT_MAX_QUEUED_TOTAL = 16L * VirtualStreamMultiplexer.MAX_CHUNK_SIZE;
+
+	private final InputStream in;
+
+	private final int maxQueuedPerStream;
+
+	private final long maxQueuedTotal;
+
+	/** Guards the stream states and the reading flag */
+	private final Object lock = new Object();
+
+	private final Map<Integer, StreamState> streams = new HashMap<>();
+
+	/** Only used by the thread that is reading a frame */
+	private final byte[] header = new byte[VirtualStreamMultiplexer.HEADER_SIZE];
+
+	private boolean reading = false;
+
+	private IOException failure;
+
+	/** The number of unread bytes queued for all streams */
+	private long queuedTotal = 0;
+
+	/**
+	 * Constructor for VirtualStreamDemultiplexer with the default queue bounds
+	 * 
+	 * @param in
+	 *            The {@link InputStream} containing the logical streams
+	 */
+	public VirtualStreamDemultiplexer(InputStream in) {
+		this(in, DEFAULT_MAX_QUEUED_PER_STREAM, DEFAULT_MAX_QUEUED_TOTAL);
+	}
+
+	/**
+	 * Constructor for VirtualStreamDemultiplexer
+	 * 
+	 * @param in
+	 *            The {@link InputStream} containing the logical streams
+	 * @param maxQueuedPerStream
+	 *            The number of unread bytes a single stream can have queued before reading the underlying stream waits,
+	 *            a chunk for a stream without queued bytes is always taken
+	 * @param maxQueuedTotal
+	 *            The number of unread bytes all streams together can have queued before reading the underlying stream
+	 *            waits, a chunk is always taken when nothing is queued
+	 */
+	public VirtualStreamDemultiplexer(InputStream in, int maxQueuedPerStream, long maxQueuedTotal) {
+		if (maxQueuedPerStream < 1 || maxQueuedTotal < maxQueuedPerStream) {
+			throw new IllegalArgumentException("Invalid queue bounds for the demultiplexer");
+		}
+		this.in = in;
+		this.maxQueuedPerStream = maxQueuedPerStream;
+		this.maxQueuedTotal = maxQueuedTotal;
+	}
+
+	/**
+	 * Returns the logical stream with the given id. Chunks of the stream that already arrived are kept until it is
+	 * read.
+	 * 
+	 * @param streamId
+	 *            The id given by {@link MultiplexedOutputStream#getStreamId()} on the sending side
+	 * @return the logical stream
+	 */
+	public MultiplexedInputStream getInputStream(int streamId) {
+		synchronized (lock) {
+			state(streamId);
+		}
+		return new MultiplexedInputStream(this, streamId);
+	}
+
+	/**
+	 * Reads from a logical stream, reading frames from the underlying stream until the logical stream has data
+	 * 
+	 * @return the number of bytes read, or -1 at the end of the logical stream
+	 * @throws IOException
+	 */
+	int read(int streamId, byte[] b, int off, int len) throws IOException {
+		while (true) {
+			synchronized (lock) {
+				StreamState state = state(streamId);
+				if (!state.chunks.isEmpty()) {
+					int bytesRead = state.take(b, off, len);
+					queuedTotal -= bytesRead;
+					// The reading thread may be waiting for room in the queues
+					lock.notifyAll();
+					return bytesRead;
+				}
+				if (state.ended) {
+					return -1;
+				}
+				if (failure != null) {
+					throw new IOException("The underlying stream failed", failure);
+				}
+				if (reading) {
+					// Another reader is busy, it wakes us up when a frame arrived
+					waitForFrame();
+					continue;
+				}
+				reading = true;
+			}
+			try {
+				readFrame(streamId);
+			} catch (IOException e) {
+				synchronized (lock) {
+					failure = e;
+				}
+				throw e;
+			} finally {
+				synchronized (lock) {
+					reading = false;
+					lock.notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stops reading a logical stream, its queued chunks are dropped and so are the chunks that still arrive
+	 * 
+	 * @param streamId
+	 *            The id of the stream
+	 */
+	void discard(int streamId) {
+		synchronized (lock) {
+			StreamState state = state(streamId);
+			if (state.ended) {
+				streams.remove(streamId);
+			} else {
+				drop(state);
+				state.discarded = true;
+				lock.notifyAll();
+			}
+		}
+	}
+
+	private void waitForFrame() throws InterruptedIOException {
+		waitOnLock("Interrupted while waiting for a frame");
+	}
+
+	private void waitForRoom() throws InterruptedIOException {
+		waitOnLock("Interrupted while waiting for room in the queues");
+	}
+
+	private void waitOnLock(String interruptMessage) throws InterruptedIOException {
+		try {
+			lock.wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(interruptMessage);
+		}
+	}
+
+	/**
+	 * Reads a single frame from the underlying stream and queues it for its logical stream, waiting until it fits
+	 * 
+	 * @param readerStreamId
+	 *            The stream of the reading thread, its chunks are read right away and always fit
+	 * @throws IOException
+	 */
+	private void readFrame(int readerStreamId) throws IOException {
+		readFully(header, 0, header.length);
+		int streamId = getInt(header, 0);
+		int length = getInt(header, 4);
+		if (length < VirtualStreamMultiplexer.END_OF_STREAM || length > VirtualStreamMultiplexer.MAX_CHUNK_SIZE) {
+			throw new InvalidFrameException("Invalid frame length " + length + " for logical stream " + streamId);
+		}
+		if (length < 0) {
+			synchronized (lock) {
+				StreamState state = state(streamId);
+				if (state.discarded) {
+					streams.remove(streamId);
+				} else {
+					state.ended = true;
+				}
+			}
+			return;
+		}
+		byte[] chunk = new byte[length];
+		readFully(chunk, 0, length);
+		synchronized (lock) {
+			StreamState state = state(streamId);
+			while (!state.discarded && length > 0 && streamId != readerStreamId && !fits(state, length)) {
+				waitForRoom();
+			}
+			if (state.discarded || length == 0) {
+				return;
+			}
+			state.chunks.add(chunk);
+			state.queued += length;
+			queuedTotal += length;
+		}
+	}
+
+	/**
+	 * Checks if a chunk fits in the queues, has to be called while holding the lock
+	 */
+	private boolean fits(StreamState state, int length) {
+		boolean fitsStream = state.queued == 0 || state.queued + length <= maxQueuedPerStream;
+		boolean fitsTotal = queuedTotal == 0 || queuedTotal + length <= maxQueuedTotal;
+		return fitsStream && fitsTotal;
+	}
+
+	/**
+	 * Drops the queued chunks of a stream, has to be called while holding the lock
+	 */
+	private void drop(StreamState state) {
+		queuedTotal -= state.queued;
+		state.chunks.clear();
+		state.chunkOffset = 0;
+		state.queued = 0;
+	}
+
+	private void readFully(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			int bytesRead = in.read(b, off, len);
+			if (bytesRead < 0) {
+				throw new IOException("Unexpected end of the underlying stream");
+			}
+			off += bytesRead;
+			len -= bytesRead;
+		}
+	}
+
+	private StreamState state(int streamId) {
+		StreamState state = streams.get(streamId);
+		if (state == null) {
+			state = new StreamState();
+			streams.put(streamId, state);
+		}
+		return state;
+	}
+
+	private static int getInt(byte[] b, int off) {
+		return (b[off] << 24) | ((b[off + 1] & 0xFF) << 16) | ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+	}
+
+	/**
+	 * The chunks of a logical stream that arrived but were not read yet
+	 */
+	private static final class StreamState {
+
+		private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+
+		private int chunkOffset = 0;
+
+		/** The number of unread bytes in the chunks */
+		private int queued = 0;
+
+		private boolean ended = false;
+
+		private boolean discarded = false;
+
+		private int take(byte[] b, int off, int len) {
+			byte[] chunk = chunks.peek();
+			int bytesRead = Math.min(len, chunk.length - chunkOffset);
+			System.arraycopy(chunk, chunkOffset, b, off, bytesRead);
+			chunkOffset += bytesRead;
+			queued -= bytesRead;
+			if (chunkOffset == chunk.length) {
+				chunks.poll();
+				chunkOffset = 0;
+			}
+			return bytesRead;
+		}
+	}
+
+}
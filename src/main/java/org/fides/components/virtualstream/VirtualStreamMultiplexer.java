@@ -0,0 +1,118 @@
+package org.fides.components.virtualstream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Writes several logical streams over a single {@link OutputStream}. Every chunk is prefixed with the id of the stream it
+ * belongs to and its length, a length of -1 marks the end of that stream. The streams can be written from different
+ * threads at the same time. The underlying stream is handed out chunk by chunk through a fair lock, so a large transfer
+ * can not keep the small ones waiting. The chunks are read by a {@link VirtualStreamDemultiplexer}. This multiplexer
+ * does not close the underlying {@link OutputStream}.
+ */
+public class VirtualStreamMultiplexer {
+
+	/** The size of the frame header: the stream id and the chunk length, both big-endian ints */
+	static final int HEADER_SIZE = 8;
+
+	static final int END_OF_STREAM = -1;
+
+	/** The largest chunk a frame can carry, the receiving side rejects larger frames */
+	public static final int MAX_CHUNK_SIZE = 1024 * 1024;
+
+	private static final int DEFAULT_CHUNK_SIZE = 16 * 1024;
+
+	private final OutputStream out;
+
+	private final int chunkSize;
+
+	/** A fair lock, so waiting streams take turns writing their chunks */
+	private final ReentrantLock writeLock = new ReentrantLock(true);
+
+	/** Only used while holding the write lock */
+	private final byte[] header = new byte[HEADER_SIZE];
+
+	private final AtomicInteger nextStreamId = new AtomicInteger(1);
+
+	/**
+	 * Constructor with the default chunk size
+	 * 
+	 * @param out
+	 *            The {@link OutputStream} to write the logical streams upon
+	 */
+	public VirtualStreamMultiplexer(OutputStream out) {
+		this(out, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Constructor for VirtualStreamMultiplexer
+	 * 
+	 * @param out
+	 *            The {@link OutputStream} to write the logical streams upon
+	 * @param chunkSize
+	 *            The largest chunk a logical stream writes at once, has to be bigger then 0 and can not exceed
+	 *            {@link #MAX_CHUNK_SIZE}. Smaller chunks give a finer interleaving of the streams.
+	 */
+	public VirtualStreamMultiplexer(OutputStream out, int chunkSize) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("ChunkSize has to be bigger then 0");
+		}
+		if (chunkSize > MAX_CHUNK_SIZE) {
+			throw new IllegalArgumentException("ChunkSize can not exceed " + MAX_CHUNK_SIZE + " bytes");
+		}
+		this.out = out;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Opens a new logical stream. The id of the stream has to be passed to the receiving side, which reads it with
+	 * {@link VirtualStreamDemultiplexer#getInputStream(int)}.
+	 * 
+	 * @return the new logical stream
+	 */
+	public MultiplexedOutputStream openStream() {
+		return new MultiplexedOutputStream(this, nextStreamId.getAndIncrement(), chunkSize);
+	}
+
+	/**
+	 * Writes a single frame to the underlying {@link OutputStream}
+	 * 
+	 * @param streamId
+	 *            The id of the logical stream
+	 * @param b
+	 *            The array containing the chunk
+	 * @param off
+	 *            The offset of the chunk in the array
+	 * @param len
+	 *            The length of the chunk, or {@link #END_OF_STREAM}
+	 * @param flush
+	 *            Whether the underlying {@link OutputStream} should be flushed after the frame
+	 * @throws IOException
+	 */
+	void writeFrame(int streamId, byte[] b, int off, int len, boolean flush) throws IOException {
+		writeLock.lock();
+		try {
+			putInt(header, 0, streamId);
+			putInt(header, 4, len);
+			out.write(header, 0, HEADER_SIZE);
+			if (len > 0) {
+				out.write(b, off, len);
+			}
+			if (flush) {
+				out.flush();
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	private static void putInt(byte[] b, int off, int value) {
+		b[off] = (byte) (value >> 24);
+		b[off + 1] = (byte) (value >> 16);
+		b[off + 2] = (byte) (value >> 8);
+		b[off + 3] = (byte) value;
+	}
+
+}
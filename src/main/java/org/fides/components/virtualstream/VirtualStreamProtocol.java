@@ -0,0 +1,130 @@
+package org.fides.components.virtualstream;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The versions of the virtual stream protocol. Every chunk of a virtual stream is prefixed with its length, a negative
+ * length marks the end of the stream or an abort by the sender. The versions only differ in the size of that prefix.
+ * There is no negotiation on the wire, both sides of a connection have to be constructed with the same version. Peers
+ * that do not know about versions always use {@link #V1}.
+ */
+public enum VirtualStreamProtocol {
+
+	/**
+	 * The original protocol, every chunk is prefixed with a big-endian short. This limits chunks to 32 KB.
+	 */
+	V1(2, Short.MAX_VALUE, 1024),
+
+	/**
+	 * Every chunk is prefixed with a big-endian int, which allows chunks of several megabytes and cuts down the header
+	 * and write overhead for large transfers.
+	 */
+	V2(4, Integer.MAX_VALUE, 64 * 1024);
+
+	/** The prefix that marks the end of a virtual stream */
+	static final int END_OF_STREAM = -1;
+
+	/**
+	 * The prefix that marks a virtual stream the sender gave up on. Peers that do not know this marker treat it as the
+	 * end of the stream.
+	 */
+	static final int ABORTED = -2;
+
+	private final int prefixSize;
+
+	private final int maxChunkSize;
+
+	private final int defaultChunkSize;
+
+	private VirtualStreamProtocol(int prefixSize, int maxChunkSize, int defaultChunkSize) {
+		this.prefixSize = prefixSize;
+		this.maxChunkSize = maxChunkSize;
+		this.defaultChunkSize = defaultChunkSize;
+	}
+
+	/**
+	 * Returns the number of bytes used for the length prefix of every chunk
+	 * 
+	 * @return the size of the prefix in bytes
+	 */
+	public int getPrefixSize() {
+		return prefixSize;
+	}
+
+	/**
+	 * Returns the largest chunk that fits in a prefix of this version
+	 * 
+	 * @return the maximum chunk size in bytes
+	 */
+	public int getMaxChunkSize() {
+		return maxChunkSize;
+	}
+
+	/**
+	 * Returns the chunk size used when no buffer size is given
+	 * 
+	 * @return the default chunk size in bytes
+	 */
+	public int getDefaultChunkSize() {
+		return defaultChunkSize;
+	}
+
+	/**
+	 * Encodes a length as a big-endian prefix of this version
+	 * 
+	 * @param length
+	 *            The length to encode, negative values are markers
+	 * @param prefix
+	 *            The array to write the prefix in, has to be at least {@link #getPrefixSize()} long
+	 */
+	void encodePrefix(int length, byte[] prefix) {
+		for (int i = prefixSize - 1; i >= 0; i--) {
+			prefix[i] = (byte) length;
+			length >>= 8;
+		}
+	}
+
+	/**
+	 * Decodes a big-endian prefix of this version
+	 * 
+	 * @param prefix
+	 *            The array containing the prefix
+	 * @return the decoded length, negative values are markers
+	 */
+	int decodePrefix(byte[] prefix) {
+		int length = prefix[0]; // Sign extended, so markers stay negative
+		for (int i = 1; i < prefixSize; i++) {
+			length = (length << 8) | (prefix[i] & 0xFF);
+		}
+		return length;
+	}
+
+	/**
+	 * Puts a length as a big-endian prefix of this version at the position of the buffer
+	 * 
+	 * @param length
+	 *            The length to encode, negative values are markers
+	 * @param prefix
+	 *            The buffer to put the prefix in, needs at least {@link #getPrefixSize()} bytes remaining
+	 */
+	void encodePrefix(int length, ByteBuffer prefix) {
+		for (int i = (prefixSize - 1) * 8; i >= 0; i -= 8) {
+			prefix.put((byte) (length >> i));
+		}
+	}
+
+	/**
+	 * Gets a big-endian prefix of this version from the position of the buffer
+	 * 
+	 * @param prefix
+	 *            The buffer containing the prefix
+	 * @return the decoded length, negative values are markers
+	 */
+	int decodePrefix(ByteBuffer prefix) {
+		int length = prefix.get(); // Sign extended, so markers stay negative
+		for (int i = 1; i < prefixSize; i++) {
+			length = (length << 8) | (prefix.get() & 0xFF);
+		}
+		return length;
+	}
+}
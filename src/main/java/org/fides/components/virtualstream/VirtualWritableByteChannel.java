@@ -0,0 +1,283 @@
+package org.fides.components.virtualstream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.fides.instrumentation.Instrumentations;
+
+/**
+ * A virtual {@link WritableByteChannel} that writes the virtual stream protocol on top of an existing
+ * {@link WritableByteChannel}, the channel equivalent of {@link VirtualOutputStream}. The data is not buffered: every
+ * written {@link ByteBuffer} is framed as one or more chunks, so callers should write large buffers. When the underlying
+ * channel is a {@link GatheringByteChannel} the prefix and the payload of a chunk are written in a single call. Partial
+ * writes of a non-blocking channel are supported, the next write continues the chunk where it stopped. Stored files can
+ * be sent with {@link #transferFrom(FileChannel, long, long)}, which frames the chunks without copying the file into
+ * the Java heap. This channel does not close the underlying channel.
+ */
+public class VirtualWritableByteChannel implements GatheringByteChannel {
+
+	private final WritableByteChannel channel;
+
+	private final GatheringByteChannel gatheringChannel;
+
+	private final VirtualStreamProtocol protocol;
+
+	private final int maxChunkSize;
+
+	/** Reused for every chunk prefix, a direct buffer so the channel does not have to copy it */
+	private final ByteBuffer prefix;
+
+	/** Reused for every gathering write of a prefix and its payload */
+	private final ByteBuffer[] frame = new ByteBuffer[2];
+
+	/** The number of payload bytes of the current chunk that still have to be written */
+	private int chunkLeft = 0;
+
+	private boolean closed = false;
+
+	/**
+	 * Constructor using the first protocol version and its default chunk size
+	 * 
+	 * @param channel
+	 *            The {@link WritableByteChannel} to build the virtual channel upon
+	 */
+	public VirtualWritableByteChannel(WritableByteChannel channel) {
+		this(channel, VirtualStreamProtocol.V1);
+	}
+
+	/**
+	 * Constructor using the default chunk size of the given protocol version
+	 * 
+	 * @param channel
+	 *            The {@link WritableByteChannel} to build the virtual channel upon
+	 * @param protocol
+	 *            The protocol version to write, the receiving side has to use the same version
+	 */
+	public VirtualWritableByteChannel(WritableByteChannel channel, VirtualStreamProtocol protocol) {
+		this(channel, protocol.getDefaultChunkSize(), protocol);
+	}
+
+	/**
+	 * Constructor for VirtualWritableByteChannel
+	 * 
+	 * @param channel
+	 *            The {@link WritableByteChannel} to build the virtual channel upon
+	 * @param maxChunkSize
+	 *            The largest chunk to write, has to be bigger then 0 and can not exceed the maximum chunk size of the
+	 *            protocol
+	 * @param protocol
+	 *            The protocol version to write, the receiving side has to use the same version
+	 */
+	public VirtualWritableByteChannel(WritableByteChannel channel, int maxChunkSize, VirtualStreamProtocol protocol) {
+		if (maxChunkSize < 1) {
+			throw new IllegalArgumentException("MaxChunkSize has to be bigger then 0");
+		}
+		if (maxChunkSize > protocol.getMaxChunkSize()) {
+			throw new IllegalArgumentException("MaxChunkSize can not exceed " + protocol.getMaxChunkSize() + " bytes in protocol " + protocol);
+		}
+
+		this.channel = channel;
+		if (channel instanceof GatheringByteChannel) {
+			gatheringChannel = (GatheringByteChannel) channel;
+		} else {
+			gatheringChannel = null;
+		}
+		this.protocol = protocol;
+		this.maxChunkSize = maxChunkSize;
+		prefix = ByteBuffer.allocateDirect(protocol.getPrefixSize());
+		prefix.limit(0);
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		if (closed) {
+			throw new ClosedChannelException();
+		}
+		int written = 0;
+		while (src.hasRemaining()) {
+			if (chunkLeft == 0 && !prefix.hasRemaining()) {
+				startChunk(Math.min(src.remaining(), maxChunkSize));
+			}
+			int start = src.position();
+			long channelWritten = writeFrame(src);
+			int payloadWritten = src.position() - start;
+			chunkLeft -= payloadWritten;
+			written += payloadWritten;
+			if (channelWritten == 0) {
+				// A non-blocking channel that is full, the next write continues this chunk
+				break;
+			}
+		}
+		return written;
+	}
+
+	@Override
+	public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+		if (offset < 0 || length < 0 || offset > srcs.length - length) {
+			throw new IndexOutOfBoundsException();
+		}
+		long written = 0;
+		for (int i = offset; i < offset + length; i++) {
+			written += write(srcs[i]);
+			if (srcs[i].hasRemaining()) {
+				// The underlying channel did not accept everything
+				break;
+			}
+		}
+		return written;
+	}
+
+	@Override
+	public long write(ByteBuffer[] srcs) throws IOException {
+		return write(srcs, 0, srcs.length);
+	}
+
+	/**
+	 * Sends part of a file as payload of the virtual stream. Only the chunk prefixes are written by this channel, the
+	 * payload is passed to {@link FileChannel#transferTo(long, long, WritableByteChannel)}, which lets the operating
+	 * system copy it from the page cache to the underlying channel when that is a socket or a file, so the payload never
+	 * enters the Java heap. Use a large chunk size, for example {@link VirtualStreamProtocol#V2} with chunks of several
+	 * megabytes, so the transfers are not cut up by the prefixes. Like {@link #write(ByteBuffer)} this may transfer less
+	 * than requested when a non-blocking channel is full, the next call continues the chunk where it stopped.
+	 * 
+	 * @param file
+	 *            The file to send, its position is not changed
+	 * @param position
+	 *            The position in the file to start at
+	 * @param count
+	 *            The maximum number of bytes to send, fewer are sent when the file ends before
+	 * @return the number of payload bytes sent
+	 * @throws IOException
+	 */
+	public long transferFrom(FileChannel file, long position, long count) throws IOException {
+		if (closed) {
+			throw new ClosedChannelException();
+		}
+		if (position < 0 || count < 0) {
+			throw new IllegalArgumentException("Position and count can not be negative");
+		}
+		// The chunk length is written before the payload, so the size has to be known up front
+		count = Math.max(0, Math.min(count, file.size() - position));
+		long transferred = 0;
+		while (transferred < count) {
+			if (chunkLeft == 0 && !prefix.hasRemaining()) {
+				startChunk((int) Math.min(count - transferred, maxChunkSize));
+			}
+			if (prefix.hasRemaining()) {
+				channel.write(prefix);
+				if (prefix.hasRemaining()) {
+					// A non-blocking channel that is full
+					break;
+				}
+			}
+			long sent = file.transferTo(position + transferred, Math.min(chunkLeft, count - transferred), channel);
+			chunkLeft -= sent;
+			transferred += sent;
+			if (sent == 0) {
+				if (position + transferred >= file.size()) {
+					throw new IOException("File was truncated during the transfer, " + chunkLeft + " bytes of the chunk are missing");
+				}
+				// A non-blocking channel that is full, the next call continues this chunk
+				break;
+			}
+		}
+		return transferred;
+	}
+
+	/**
+	 * Fills the prefix buffer for a new chunk
+	 * 
+	 * @param length
+	 *            The length of the chunk, or a marker
+	 */
+	private void startChunk(int length) {
+		prefix.clear();
+		protocol.encodePrefix(length, prefix);
+		prefix.flip();
+		if (length > 0) {
+			chunkLeft = length;
+			Instrumentations.get().chunkWritten(length);
+		}
+	}
+
+	/**
+	 * Writes the pending prefix, if any, and as much of the current chunk as the source and the channel allow
+	 * 
+	 * @param src
+	 *            The buffer containing the payload
+	 * @return the total number of bytes the underlying channel accepted
+	 * @throws IOException
+	 */
+	private long writeFrame(ByteBuffer src) throws IOException {
+		int limit = src.limit();
+		src.limit(src.position() + Math.min(chunkLeft, src.remaining()));
+		try {
+			if (!prefix.hasRemaining()) {
+				return channel.write(src);
+			}
+			if (gatheringChannel != null) {
+				frame[0] = prefix;
+				frame[1] = src;
+				return gatheringChannel.write(frame);
+			}
+			long channelWritten = channel.write(prefix);
+			if (!prefix.hasRemaining()) {
+				channelWritten += channel.write(src);
+			}
+			return channelWritten;
+		} finally {
+			src.limit(limit);
+			frame[1] = null;
+		}
+	}
+
+	@Override
+	public boolean isOpen() {
+		return !closed && channel.isOpen();
+	}
+
+	/**
+	 * Writes the end of the virtual stream. On a non-blocking channel this keeps trying until the marker is written.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			// We are already closed
+			return;
+		}
+		closed = true;
+		if (chunkLeft > 0) {
+			throw new IOException("VirtualWritableByteChannel closed in the middle of a chunk, " + chunkLeft + " bytes are missing");
+		}
+		startChunk(VirtualStreamProtocol.END_OF_STREAM);
+		while (prefix.hasRemaining()) {
+			channel.write(prefix);
+		}
+	}
+
+	/**
+	 * Aborts the virtual stream, the receiving side gets a {@link VirtualStreamAbortedException} instead of the end of
+	 * the stream. Afterwards the channel is closed. A chunk that was partially written by a non-blocking channel can not
+	 * be aborted, the receiving side expects the rest of its payload first.
+	 * 
+	 * @throws IOException
+	 */
+	public void abort() throws IOException {
+		if (closed) {
+			throw new ClosedChannelException();
+		}
+		closed = true;
+		if (chunkLeft > 0) {
+			throw new IOException("VirtualWritableByteChannel can not abort in the middle of a chunk, " + chunkLeft + " bytes are missing");
+		}
+		startChunk(VirtualStreamProtocol.ABORTED);
+		while (prefix.hasRemaining()) {
+			channel.write(prefix);
+		}
+	}
+
+}
@@ -0,0 +1,258 @@
+package org.fides.compression;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * An {@link OutputStream} that compresses the data written to it in independent blocks. The stream starts with a
+ * {@link CompressionHeader}, every block starts with its type and length, a block of type {@link #END} ends the stream.
+ * A small sample of every block is looked at first: when the bytes in the sample are spread almost evenly, as in data
+ * that is compressed or encrypted already, the block is stored without trying to compress it. A block that does not get
+ * smaller is stored as well, so incompressible data costs only a few bytes per block. Closing this stream closes the
+ * underlying {@link OutputStream}.
+ */
+final class CompressingOutputStream extends FilterOutputStream {
+
+	/** The block type that ends the stream */
+	static final int END = 0;
+
+	/** The block type of data that is stored as it is */
+	static final int STORED = 1;
+
+	/** The block type of compressed data */
+	static final int COMPRESSED = 2;
+
+	/** The number of slices in the sample of a block */
+	private static final int SAMPLE_SLICES = 8;
+
+	/** The size of a slice in the sample of a block */
+	private static final int SAMPLE_SLICE_SIZE = 512;
+
+	/**
+	 * The entropy in bits per byte above which a sample is taken to be incompressible. Random bytes score close to 8 in
+	 * a sample of 4 KB, text scores below 6.
+	 */
+	private static final double ENTROPY_LIMIT = 7.5;
+
+	private final CompressionHeader header;
+
+	private final Deflater deflater;
+
+	private final byte[] buffer;
+
+	private final byte[] compressed;
+
+	private final byte[] blockHeader = new byte[9];
+
+	private final int[] histogram = new int[256];
+
+	private int count = 0;
+
+	private boolean headerWritten = false;
+
+	private boolean closed = false;
+
+	private long storedBlocks = 0;
+
+	private long compressedBlocks = 0;
+
+	/**
+	 * Constructor for CompressingOutputStream
+	 * 
+	 * @param out
+	 *            The stream to write the compressed data to
+	 * @param codec
+	 *            The codec to compress with
+	 * @param level
+	 *            The compression level, from 1 to 9
+	 * @param blockSize
+	 *            The amount of data compressed at once
+	 */
+	CompressingOutputStream(OutputStream out, CompressionCodec codec, int level, int blockSize) {
+		super(out);
+		if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("The compression level has to be between 1 and 9");
+		}
+		if (blockSize < 1 || blockSize > CompressionHeader.MAX_BLOCK_SIZE) {
+			throw new IllegalArgumentException("The block size has to be between 1 and " + CompressionHeader.MAX_BLOCK_SIZE);
+		}
+		header = new CompressionHeader(codec, blockSize);
+		deflater = new Deflater(level, true);
+		buffer = new byte[blockSize];
+		compressed = new byte[blockSize];
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (closed) {
+			throw new IOException("Stream is closed");
+		}
+		if (count == buffer.length) {
+			writeBlock();
+		}
+		buffer[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (closed) {
+			throw new IOException("Stream is closed");
+		}
+		if (off < 0 || len < 0 || off > b.length - len) {
+			throw new IndexOutOfBoundsException();
+		}
+		while (len > 0) {
+			if (count == buffer.length) {
+				writeBlock();
+			}
+			int length = Math.min(len, buffer.length - count);
+			System.arraycopy(b, off, buffer, count, length);
+			count += length;
+			off += length;
+			len -= length;
+		}
+	}
+
+	/**
+	 * Writes the data collected so far as a block, a smaller one than usual
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (closed) {
+			return;
+		}
+		if (count > 0) {
+			writeBlock();
+		}
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		try {
+			if (count > 0) {
+				writeBlock();
+			}
+			writeHeader();
+			out.write(END);
+			out.flush();
+		} finally {
+			closed = true;
+			deflater.end();
+			out.close();
+		}
+	}
+
+	private void writeHeader() throws IOException {
+		if (!headerWritten) {
+			out.write(header.toBytes());
+			headerWritten = true;
+		}
+	}
+
+	private void writeBlock() throws IOException {
+		writeHeader();
+		int length = -1;
+		if (isCompressible()) {
+			length = compress();
+		}
+		if (length < 0) {
+			blockHeader[0] = STORED;
+			putInt(count, 1);
+			out.write(blockHeader, 0, 5);
+			out.write(buffer, 0, count);
+			storedBlocks++;
+		} else {
+			blockHeader[0] = COMPRESSED;
+			putInt(length, 1);
+			putInt(count, 5);
+			out.write(blockHeader, 0, 9);
+			out.write(compressed, 0, length);
+			compressedBlocks++;
+		}
+		count = 0;
+	}
+
+	/**
+	 * Compresses the buffer
+	 * 
+	 * @return the length of the compressed data, or -1 when it is not smaller than the data
+	 */
+	private int compress() {
+		deflater.reset();
+		deflater.setInput(buffer, 0, count);
+		deflater.finish();
+		// The compressed block has to save at least the 4 bytes of its longer header
+		int limit = Math.min(compressed.length, count - 4);
+		int length = 0;
+		while (!deflater.finished() && length < limit) {
+			length += deflater.deflate(compressed, length, limit - length);
+		}
+		if (!deflater.finished()) {
+			return -1;
+		}
+		return length;
+	}
+
+	/**
+	 * Estimates the entropy of slices spread over the buffer
+	 * 
+	 * @return false when the sample looks like random data
+	 */
+	private boolean isCompressible() {
+		int sliceSize = Math.min(SAMPLE_SLICE_SIZE, count / SAMPLE_SLICES);
+		if (sliceSize == 0) {
+			// Too small to sample, trying costs nothing
+			return true;
+		}
+		Arrays.fill(histogram, 0);
+		int step = count / SAMPLE_SLICES;
+		for (int slice = 0; slice < SAMPLE_SLICES; slice++) {
+			int start = slice * step;
+			for (int i = start; i < start + sliceSize; i++) {
+				histogram[buffer[i] & 0xFF]++;
+			}
+		}
+		double total = sliceSize * SAMPLE_SLICES;
+		double entropy = 0;
+		for (int frequency : histogram) {
+			if (frequency > 0) {
+				double p = frequency / total;
+				entropy -= p * Math.log(p);
+			}
+		}
+		return entropy / Math.log(2) < ENTROPY_LIMIT;
+	}
+
+	private void putInt(int value, int offset) {
+		blockHeader[offset] = (byte) (value >>> 24);
+		blockHeader[offset + 1] = (byte) (value >>> 16);
+		blockHeader[offset + 2] = (byte) (value >>> 8);
+		blockHeader[offset + 3] = (byte) value;
+	}
+
+	/**
+	 * Returns the number of blocks stored without compression
+	 * 
+	 * @return the number of stored blocks
+	 */
+	long getStoredBlocks() {
+		return storedBlocks;
+	}
+
+	/**
+	 * Returns the number of compressed blocks
+	 * 
+	 * @return the number of compressed blocks
+	 */
+	long getCompressedBlocks() {
+		return compressedBlocks;
+	}
+
+}
@@ -0,0 +1,45 @@
+package org.fides.compression;
+
+/**
+ * The codecs a compressed stream can be written with. The codec is recorded in the header of the stream, so a reader
+ * does not have to be told which codec was used.
+ */
+public enum CompressionCodec {
+
+	/**
+	 * Deflate from java.util.zip without the zlib wrapper, with levels from 1, the fastest, to 9, the smallest
+	 */
+	DEFLATE(1);
+
+	private final byte id;
+
+	private CompressionCodec(int id) {
+		this.id = (byte) id;
+	}
+
+	/**
+	 * Returns the id of the codec in the header
+	 * 
+	 * @return the id
+	 */
+	byte getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the codec with an id
+	 * 
+	 * @param id
+	 *            The id in the header
+	 * @return the codec, or null if the id is unknown
+	 */
+	static CompressionCodec fromId(byte id) {
+		for (CompressionCodec codec : values()) {
+			if (codec.id == id) {
+				return codec;
+			}
+		}
+		return null;
+	}
+
+}
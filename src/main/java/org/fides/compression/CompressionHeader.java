@@ -0,0 +1,89 @@
+package org.fides.compression;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The header in front of a compressed stream. It records the format version, the codec and the block size. The header
+ * is not used to tell whether a stream is compressed, plain text can start with the same bytes, the caller records that
+ * in its own metadata.
+ */
+final class CompressionHeader {
+
+	/** The size of the header in bytes */
+	static final int SIZE = 10;
+
+	/** The current format version */
+	static final byte VERSION = 1;
+
+	/** The largest block size a header may announce */
+	static final int MAX_BLOCK_SIZE = 16 * 1024 * 1024;
+
+	/** "FIDC" */
+	private static final byte[] MAGIC = { 0x46, 0x49, 0x44, 0x43 };
+
+	private final CompressionCodec codec;
+
+	private final int blockSize;
+
+	/**
+	 * Constructor for CompressionHeader
+	 * 
+	 * @param codec
+	 *            The codec of the compressed blocks
+	 * @param blockSize
+	 *            The maximum size of the data in a block
+	 */
+	CompressionHeader(CompressionCodec codec, int blockSize) {
+		this.codec = codec;
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * Parses a header
+	 * 
+	 * @param bytes
+	 *            The first bytes of a stream
+	 * @param length
+	 *            The number of bytes available, a stream shorter than a header has no header
+	 * @return the header, or null when the stream does not start with a header this version understands
+	 */
+	static CompressionHeader parse(byte[] bytes, int length) {
+		if (length < SIZE || !Arrays.equals(MAGIC, Arrays.copyOf(bytes, MAGIC.length))) {
+			return null;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(bytes, MAGIC.length, SIZE - MAGIC.length);
+		if (buffer.get() != VERSION) {
+			return null;
+		}
+		CompressionCodec codec = CompressionCodec.fromId(buffer.get());
+		int blockSize = buffer.getInt();
+		if (codec == null || blockSize < 1 || blockSize > MAX_BLOCK_SIZE) {
+			return null;
+		}
+		return new CompressionHeader(codec, blockSize);
+	}
+
+	/**
+	 * Returns the header as it is written in front of the stream
+	 * 
+	 * @return the {@link #SIZE} bytes of the header
+	 */
+	byte[] toBytes() {
+		ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+		buffer.put(MAGIC);
+		buffer.put(VERSION);
+		buffer.put(codec.getId());
+		buffer.putInt(blockSize);
+		return buffer.array();
+	}
+
+	CompressionCodec getCodec() {
+		return codec;
+	}
+
+	int getBlockSize() {
+		return blockSize;
+	}
+
+}
@@ -0,0 +1,90 @@
+package org.fides.compression;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Creates compressing and decompressing streams. Encrypted data can not be compressed, so compression has to happen
+ * before encryption:
+ * 
+ * <pre>
+ * OutputStream out = CompressionUtils.getCompressionStream(EncryptionUtils.getEncryptionStream(socketOut, key));
+ * InputStream decrypting = EncryptionUtils.getDecryptionStream(socketIn, key);
+ * InputStream in = CompressionUtils.getDecompressionStream(decrypting, compressed);
+ * </pre>
+ * 
+ * Whether a file was compressed has to be recorded with the file, in metadata that is encrypted or authenticated like
+ * the key file, and passed to {@link #getDecompressionStream(InputStream, boolean)} when it is read. The data itself
+ * can not tell: the plain text of a file that was not compressed may start with anything, including a compression
+ * header. Files stored before compression existed have no such record and are read as not compressed.
+ */
+public final class CompressionUtils {
+
+	/**
+	 * The level used when no level is given. The fastest level, text still shrinks to about a quarter while higher
+	 * levels cost several times the time for a few percent more.
+	 */
+	public static final int DEFAULT_LEVEL = 1;
+
+	/** The amount of data compressed at once */
+	public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+	private CompressionUtils() {
+	}
+
+	/**
+	 * Creates a stream that compresses with {@link CompressionCodec#DEFLATE} at the default level
+	 * 
+	 * @param out
+	 *            The stream to write the compressed data to, it is closed when the returned stream is closed
+	 * @return the compressing stream
+	 */
+	public static OutputStream getCompressionStream(OutputStream out) {
+		return getCompressionStream(out, CompressionCodec.DEFLATE, DEFAULT_LEVEL);
+	}
+
+	/**
+	 * Creates a stream that compresses with a codec and level
+	 * 
+	 * @param out
+	 *            The stream to write the compressed data to, it is closed when the returned stream is closed
+	 * @param codec
+	 *            The codec to compress with
+	 * @param level
+	 *            The compression level, from 1, the fastest, to 9, the smallest
+	 * @return the compressing stream
+	 */
+	public static OutputStream getCompressionStream(OutputStream out, CompressionCodec codec, int level) {
+		return new CompressingOutputStream(out, codec, level, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Creates a stream that decompresses a compressed stream, the codec is read from the stream. Reading fails with an
+	 * {@link java.io.IOException} when the stream does not start with a compression header.
+	 * 
+	 * @param in
+	 *            The stream to decompress, it is closed when the returned stream is closed
+	 * @return the decompressing stream
+	 */
+	public static InputStream getDecompressionStream(InputStream in) {
+		return new DecompressingInputStream(in);
+	}
+
+	/**
+	 * Creates a stream that reads a stream as it was stored
+	 * 
+	 * @param in
+	 *            The stream to read
+	 * @param compressed
+	 *            Whether the stream was compressed, as recorded in the metadata of the file. When false the stream is
+	 *            passed through unchanged, whatever it starts with.
+	 * @return the decompressing stream, or the given stream when it was not compressed
+	 */
+	public static InputStream getDecompressionStream(InputStream in, boolean compressed) {
+		if (!compressed) {
+			return in;
+		}
+		return getDecompressionStream(in);
+	}
+
+}
@@ -0,0 +1,187 @@
+package org.fides.compression;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * An {@link InputStream} that decompresses a stream written by a {@link CompressingOutputStream}. The
+ * {@link CompressionHeader} is read on first use, a stream without one is rejected: whether a stream is compressed
+ * comes from the caller, not from the data, so stored plain text that happens to start with a header is never
+ * decompressed. Closing this stream closes the underlying {@link InputStream}.
+ */
+final class DecompressingInputStream extends InputStream {
+
+	private final InputStream in;
+
+	private DataInputStream blocks;
+
+	private Inflater inflater;
+
+	private byte[] buffer;
+
+	private byte[] compressed;
+
+	private int position = 0;
+
+	private int count = 0;
+
+	private boolean ended = false;
+
+	private boolean closed = false;
+
+	/**
+	 * Constructor for DecompressingInputStream
+	 * 
+	 * @param in
+	 *            The compressed stream
+	 */
+	DecompressingInputStream(InputStream in) {
+		this.in = in;
+	}
+
+	/**
+	 * Reads the header on first use
+	 * 
+	 * @throws IOException
+	 *             When the stream is closed or does not start with a header
+	 */
+	private void ensureHeader() throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+		if (blocks == null) {
+			byte[] start = new byte[CompressionHeader.SIZE];
+			int length = 0;
+			while (length < start.length) {
+				int bytesRead = in.read(start, length, start.length - length);
+				if (bytesRead < 0) {
+					break;
+				}
+				length += bytesRead;
+			}
+			CompressionHeader header = CompressionHeader.parse(start, length);
+			if (header == null) {
+				throw new IOException("The stream does not start with a compression header");
+			}
+			blocks = new DataInputStream(in);
+			buffer = new byte[header.getBlockSize()];
+			inflater = new Inflater(true);
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		ensureHeader();
+		if (position == count && !readBlock()) {
+			return -1;
+		}
+		return buffer[position++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || off > b.length - len) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len == 0) {
+			return 0;
+		}
+		ensureHeader();
+		if (position == count && !readBlock()) {
+			return -1;
+		}
+		int length = Math.min(len, count - position);
+		System.arraycopy(buffer, position, b, off, length);
+		position += length;
+		return length;
+	}
+
+	/**
+	 * Reads the next block into the buffer
+	 * 
+	 * @return false at the end of the stream
+	 */
+	private boolean readBlock() throws IOException {
+		if (ended) {
+			return false;
+		}
+		try {
+			int type = blocks.readUnsignedByte();
+			if (type == CompressingOutputStream.END) {
+				ended = true;
+				return false;
+			}
+			int length = blocks.readInt();
+			if (length < 0 || length > buffer.length) {
+				throw new IOException("Invalid block length in the compressed stream");
+			}
+			if (type == CompressingOutputStream.STORED) {
+				blocks.readFully(buffer, 0, length);
+				count = length;
+			} else if (type == CompressingOutputStream.COMPRESSED) {
+				int originalLength = blocks.readInt();
+				if (originalLength < 0 || originalLength > buffer.length) {
+					throw new IOException("Invalid block length in the compressed stream");
+				}
+				if (compressed == null) {
+					compressed = new byte[buffer.length];
+				}
+				blocks.readFully(compressed, 0, length);
+				count = inflate(length, originalLength);
+			} else {
+				throw new IOException("Unknown block type " + type + " in the compressed stream");
+			}
+			position = 0;
+			return true;
+		} catch (EOFException e) {
+			throw new IOException("Unexpected end of the compressed stream", e);
+		}
+	}
+
+	private int inflate(int length, int originalLength) throws IOException {
+		inflater.reset();
+		inflater.setInput(compressed, 0, length);
+		try {
+			int inflated = 0;
+			while (inflated < originalLength && !inflater.finished()) {
+				int bytes = inflater.inflate(buffer, inflated, originalLength - inflated);
+				if (bytes == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				inflated += bytes;
+			}
+			if (inflated != originalLength || !inflater.finished() || inflater.getRemaining() != 0) {
+				throw new IOException("Corrupt block in the compressed stream");
+			}
+			return inflated;
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt block in the compressed stream", e);
+		}
+	}
+
+	@Override
+	public int available() throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+		return count - position;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (inflater != null) {
+			inflater.end();
+			inflater = null;
+		}
+		in.close();
+	}
+
+}
@@ -0,0 +1,205 @@
+package org.fides.encryption;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+import org.fides.tools.ChunkManifest;
+import org.fides.tools.ContentDefinedChunker;
+import org.fides.tools.HashUtils;
+
+/**
+ * Encrypts files as separate chunks, so a changed file only needs the chunks that changed to be sent and stored. A file
+ * is split by a {@link ContentDefinedChunker} and described by a {@link ChunkManifest}. The id of a chunk is a keyed
+ * hash of its contents, so the server can tell equal chunks of a user apart without learning anything about their
+ * contents, and can not check a guess of the contents either. Every chunk is encrypted as a normal {@link EncryptionMode#GCM}
+ * stream, readable by {@link EncryptionUtils#getDecryptionStream(InputStream, Key)}, but with a nonce derived from its id
+ * instead of a random one. Equal chunks therefore encrypt to equal data, and a nonce is only ever used again for the same
+ * contents. The keys for the ids and the nonces are derived from the key of the user, so the key itself is never used for
+ * anything but encryption.
+ */
+public final class ChunkEncryption {
+
+	/**
+	 * Receives the encrypted chunks of {@link ChunkEncryption#encryptChunks(InputStream, Key, ChunkManifest, Set, Handler)}
+	 */
+	public interface Handler {
+
+		/**
+		 * Called for every chunk that was asked for, in the order of the file
+		 * 
+		 * @param id
+		 *            The id of the chunk
+		 * @param encrypted
+		 *            The encrypted chunk
+		 * @throws IOException
+		 */
+		void chunk(String id, byte[] encrypted) throws IOException;
+
+	}
+
+	private static final byte[] ID_LABEL = "fides chunk id".getBytes(StandardCharsets.US_ASCII);
+
+	private static final byte[] NONCE_LABEL = "fides chunk nonce".getBytes(StandardCharsets.US_ASCII);
+
+	private ChunkEncryption() {
+	}
+
+	/**
+	 * Returns the id of a chunk
+	 * 
+	 * @param key
+	 *            The key of the user
+	 * @param data
+	 *            The array containing the chunk
+	 * @param offset
+	 *            The offset of the chunk
+	 * @param length
+	 *            The length of the chunk
+	 * @return the hexadecimal id
+	 */
+	public static String getChunkId(Key key, byte[] data, int offset, int length) {
+		return HashUtils.toHex(HashUtils.hmac(deriveKey(key, ID_LABEL), data, offset, length));
+	}
+
+	/**
+	 * Splits a file into chunks and returns its manifest
+	 * 
+	 * @param in
+	 *            The contents of the file, the stream is not closed
+	 * @param key
+	 *            The key of the user
+	 * @param chunker
+	 *            Decides where the chunks end
+	 * @return the manifest of the file
+	 * @throws IOException
+	 *             If reading the file fails
+	 */
+	public static ChunkManifest createManifest(InputStream in, Key key, ContentDefinedChunker chunker) throws IOException {
+		final byte[] idKey = deriveKey(key, ID_LABEL);
+		final ChunkManifest manifest = new ChunkManifest();
+		chunker.split(in, new ContentDefinedChunker.Listener() {
+			@Override
+			public void chunk(byte[] data, int offset, int length) {
+				manifest.add(HashUtils.toHex(HashUtils.hmac(idKey, data, offset, length)), length);
+			}
+		});
+		return manifest;
+	}
+
+	/**
+	 * Encrypts the chunks of a file that are asked for, for example those the server does not have yet. Every id is
+	 * encrypted once, also when it appears more than once in the file.
+	 * 
+	 * @param in
+	 *            The contents of the file the manifest was created from, the stream is not closed
+	 * @param key
+	 *            The key of the user
+	 * @param manifest
+	 *            The manifest of the file
+	 * @param ids
+	 *            The ids of the chunks to encrypt
+	 * @param handler
+	 *            Receives the encrypted chunks
+	 * @throws IOException
+	 *             If reading the file fails, or the file does not match the manifest
+	 */
+	public static void encryptChunks(InputStream in, Key key, ChunkManifest manifest, Set<String> ids, Handler handler) throws IOException {
+		byte[] idKey = deriveKey(key, ID_LABEL);
+		byte[] buffer = new byte[0];
+		Set<String> remaining = new HashSet<>(ids);
+		for (ChunkManifest.Chunk chunk : manifest.getChunks()) {
+			if (remaining.isEmpty()) {
+				return;
+			}
+			if (buffer.length < chunk.getLength()) {
+				buffer = new byte[chunk.getLength()];
+			}
+			if (IOUtils.read(in, buffer, 0, chunk.getLength()) != chunk.getLength()) {
+				throw new IOException("The file is shorter than its manifest");
+			}
+			if (remaining.remove(chunk.getId())) {
+				if (!Arrays.equals(HashUtils.fromHex(chunk.getId()), HashUtils.hmac(idKey, buffer, 0, chunk.getLength()))) {
+					throw new IOException("The file does not match its manifest");
+				}
+				handler.chunk(chunk.getId(), encrypt(key, chunk.getId(), buffer, 0, chunk.getLength()));
+			}
+		}
+	}
+
+	/**
+	 * Encrypts a chunk
+	 * 
+	 * @param key
+	 *            The key of the user
+	 * @param id
+	 *            The id of the chunk, from {@link #getChunkId(Key, byte[], int, int)}
+	 * @param data
+	 *            The array containing the chunk
+	 * @param offset
+	 *            The offset of the chunk
+	 * @param length
+	 *            The length of the chunk
+	 * @return the chunk as a {@link EncryptionMode#GCM} stream
+	 */
+	public static byte[] encrypt(Key key, String id, byte[] data, int offset, int length) {
+		byte[] idBytes = HashUtils.fromHex(id);
+		byte[] nonce = Arrays.copyOf(HashUtils.hmac(deriveKey(key, NONCE_LABEL), idBytes, 0, idBytes.length), EncryptionUtils.NONCE_SIZE);
+		EncryptionHeader header = new EncryptionHeader(EncryptionMode.GCM, EncryptionUtils.SEGMENT_SIZE, nonce);
+		SegmentCipher cipher = header.createCipher(key.getEncoded());
+
+		// The same segments SegmentedCipherOutputStream writes, ending with a last segment that may be empty
+		int segments = length / EncryptionUtils.SEGMENT_SIZE + 1;
+		ByteArrayOutputStream out = new ByteArrayOutputStream(EncryptionHeader.SIZE + length + segments * cipher.getOverhead());
+		byte[] headerBytes = header.toBytes();
+		out.write(headerBytes, 0, headerBytes.length);
+		for (int i = 0; i < segments; i++) {
+			int start = i * EncryptionUtils.SEGMENT_SIZE;
+			int end = Math.min(length, start + EncryptionUtils.SEGMENT_SIZE);
+			byte[] segment = Arrays.copyOfRange(data, offset + start, offset + end);
+			byte[] encrypted = cipher.encrypt(i, segment, segment.length, i == segments - 1);
+			out.write(encrypted, 0, encrypted.length);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decrypts a chunk and checks that it is the chunk with the id
+	 * 
+	 * @param key
+	 *            The key of the user
+	 * @param id
+	 *            The id of the chunk
+	 * @param encrypted
+	 *            The encrypted chunk
+	 * @return the chunk
+	 * @throws IOException
+	 *             If the chunk can not be decrypted, or it is not the chunk with the id
+	 */
+	public static byte[] decrypt(Key key, String id, byte[] encrypted) throws IOException {
+		byte[] data;
+		try (InputStream in = EncryptionUtils.getDecryptionStream(new ByteArrayInputStream(encrypted), key,
+			EncryptionMode.GCM)) {
+			data = IOUtils.toByteArray(in);
+		}
+		if (!getChunkId(key, data, 0, data.length).equals(id)) {
+			throw new IOException("The chunk does not match its id " + id);
+		}
+		return data;
+	}
+
+	/**
+	 * Derives a key for another purpose than encryption from the key of the user
+	 */
+	private static byte[] deriveKey(Key key, byte[] label) {
+		return HashUtils.hmac(key.getEncoded(), label, 0, label.length);
+	}
+
+}
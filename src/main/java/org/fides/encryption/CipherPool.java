@@ -0,0 +1,164 @@
+package org.fides.encryption;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded pool of ciphers that already hold the key schedule of a key. Setting up the key schedule of Camellia, and
+ * the tables of GCM, costs more than encrypting a small file, so ciphers are borrowed and released instead of created for
+ * every stream or segment. The pool remembers a limited number of keys, the key used longest ago is evicted first, and
+ * keeps a limited number of idle ciphers per key. A borrowed cipher has to be initialized with its parameters, but
+ * without the key, before use. This class is thread-safe.
+ * 
+ * @param <T>
+ *            The type of cipher
+ */
+final class CipherPool<T> {
+
+	/**
+	 * Creates a cipher initialized with a key
+	 * 
+	 * @param <T>
+	 *            The type of cipher
+	 */
+	interface Factory<T> {
+
+		/**
+		 * Creates a cipher and initializes it with the key
+		 * 
+		 * @param key
+		 *            The raw key
+		 * @return the cipher
+		 */
+		T create(byte[] key);
+
+	}
+
+	/** The default number of keys a pool remembers */
+	static final int DEFAULT_MAX_KEYS = 64;
+
+	/** The default number of idle ciphers a pool keeps per key, enough for the segments in flight */
+	static final int DEFAULT_MAX_IDLE_PER_KEY = 2 * Runtime.getRuntime().availableProcessors();
+
+	private final Factory<T> factory;
+
+	private final int maxIdlePerKey;
+
+	private final Map<ByteBuffer, ArrayDeque<T>> idle;
+
+	private long hits = 0;
+
+	private long misses = 0;
+
+	/**
+	 * Constructor for CipherPool with the default bounds
+	 * 
+	 * @param factory
+	 *            Creates the ciphers the pool does not have
+	 */
+	CipherPool(Factory<T> factory) {
+		this(factory, DEFAULT_MAX_KEYS, DEFAULT_MAX_IDLE_PER_KEY);
+	}
+
+	/**
+	 * Constructor for CipherPool
+	 * 
+	 * @param factory
+	 *            Creates the ciphers the pool does not have
+	 * @param maxKeys
+	 *            The maximum number of keys to keep ciphers for
+	 * @param maxIdlePerKey
+	 *            The maximum number of idle ciphers to keep per key
+	 */
+	CipherPool(Factory<T> factory, final int maxKeys, int maxIdlePerKey) {
+		this.factory = factory;
+		this.maxIdlePerKey = maxIdlePerKey;
+		idle = new LinkedHashMap<ByteBuffer, ArrayDeque<T>>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ByteBuffer, ArrayDeque<T>> eldest) {
+				return size() > maxKeys;
+			}
+		};
+	}
+
+	/**
+	 * Borrows a cipher for a key, creating one when none is idle
+	 * 
+	 * @param key
+	 *            The raw key
+	 * @return a cipher holding the key schedule of the key
+	 */
+	T borrow(byte[] key) {
+		synchronized (idle) {
+			ArrayDeque<T> ciphers = idle.get(ByteBuffer.wrap(key));
+			if (ciphers != null && !ciphers.isEmpty()) {
+				hits++;
+				return ciphers.poll();
+			}
+			misses++;
+		}
+		return factory.create(key);
+	}
+
+	/**
+	 * Gives a borrowed cipher back. The cipher may not be used after this.
+	 * 
+	 * @param key
+	 *            The raw key the cipher was borrowed for
+	 * @param cipher
+	 *            The cipher
+	 */
+	void release(byte[] key, T cipher) {
+		synchronized (idle) {
+			ByteBuffer id = ByteBuffer.wrap(key);
+			ArrayDeque<T> ciphers = idle.get(id);
+			if (ciphers == null) {
+				ciphers = new ArrayDeque<>();
+				// The key is copied, the caller may clear its array
+				idle.put(ByteBuffer.wrap(key.clone()), ciphers);
+			}
+			if (ciphers.size() < maxIdlePerKey) {
+				ciphers.push(cipher);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of keys the pool has ciphers for
+	 * 
+	 * @return the number of keys
+	 */
+	int getKeyCount() {
+		synchronized (idle) {
+			return idle.size();
+		}
+	}
+
+	/**
+	 * Returns the number of borrows that got an idle cipher
+	 * 
+	 * @return the number of hits
+	 */
+	long getHits() {
+		synchronized (idle) {
+			return hits;
+		}
+	}
+
+	/**
+	 * Returns the number of borrows that had to create a cipher
+	 * 
+	 * @return the number of misses
+	 */
+	long getMisses() {
+		synchronized (idle) {
+			return misses;
+		}
+	}
+
+}
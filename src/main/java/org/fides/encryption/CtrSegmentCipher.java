@@ -0,0 +1,110 @@
+package org.fides.encryption;
+
+import org.bouncycastle.crypto.engines.CamelliaEngine;
+import org.bouncycastle.crypto.modes.SICBlockCipher;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+
+/**
+ * A {@link SegmentCipher} using Camellia in counter mode. The whole stream uses a single counter that starts at the
+ * nonce, every segment starts at its own offset in that counter. Encrypting and decrypting are the same operation.
+ */
+final class CtrSegmentCipher extends SegmentCipher {
+
+	/** The ciphers of all counter mode streams, keyed by their key */
+	private static final CipherPool<SICBlockCipher> POOL = new CipherPool<>(new CipherPool.Factory<SICBlockCipher>() {
+		@Override
+		public SICBlockCipher create(byte[] key) {
+			SICBlockCipher cipher = new SICBlockCipher(new CamelliaEngine());
+			cipher.init(true, new ParametersWithIV(new KeyParameter(key), new byte[cipher.getBlockSize()]));
+			return cipher;
+		}
+	});
+
+	private final byte[] key;
+
+	private final byte[] nonce;
+
+	private final int segmentSize;
+
+	/**
+	 * Constructor for CtrSegmentCipher
+	 * 
+	 * @param key
+	 *            The raw key
+	 * @param nonce
+	 *            The nonce of the stream, the size of a Camellia block
+	 * @param segmentSize
+	 *            The size of the plain text of a segment
+	 */
+	CtrSegmentCipher(byte[] key, byte[] nonce, int segmentSize) {
+		this.key = key.clone();
+		this.nonce = nonce.clone();
+		this.segmentSize = segmentSize;
+	}
+
+	@Override
+	int getOverhead() {
+		return 0;
+	}
+
+	@Override
+	boolean isAuthenticated() {
+		return false;
+	}
+
+	@Override
+	byte[] encrypt(long index, byte[] in, int length, boolean last) {
+		return process(index, in, length);
+	}
+
+	@Override
+	byte[] decrypt(long index, byte[] in, int length, boolean last) {
+		return process(index, in, length);
+	}
+
+	private byte[] process(long index, byte[] in, int length) {
+		SICBlockCipher cipher = POOL.borrow(key);
+		try {
+			return process(cipher, index, in, length);
+		} finally {
+			POOL.release(key, cipher);
+		}
+	}
+
+	private byte[] process(SICBlockCipher cipher, long index, byte[] in, int length) {
+		int blockSize = cipher.getBlockSize();
+		long start = index * segmentSize;
+		// seekTo walks the counter block by block, adding the offset to the nonce directly is constant time
+		cipher.init(true, new ParametersWithIV(null, addToCounter(nonce, start / blockSize)));
+		byte[] out = new byte[length];
+		int offset = 0;
+		int misalignment = (int) (start % blockSize);
+		if (misalignment > 0) {
+			cipher.processBytes(new byte[misalignment], 0, misalignment, new byte[misalignment], 0);
+			offset = Math.min(length, blockSize - misalignment);
+			cipher.processBytes(in, 0, offset, out, 0);
+		}
+		// Whole blocks go through processBlock, processBytes handles a single byte at a time
+		for (; offset + blockSize <= length; offset += blockSize) {
+			cipher.processBlock(in, offset, out, offset);
+		}
+		cipher.processBytes(in, offset, length - offset, out, offset);
+		return out;
+	}
+
+	/**
+	 * Adds a number of blocks to a big-endian counter, wrapping around like the counter itself
+	 */
+	private static byte[] addToCounter(byte[] counter, long blocks) {
+		byte[] result = counter.clone();
+		long carry = blocks;
+		for (int i = result.length - 1; i >= 0 && carry != 0; i--) {
+			long sum = (result[i] & 0xFF) + (carry & 0xFF);
+			result[i] = (byte) sum;
+			carry = (carry >>> 8) + (sum >>> 8);
+		}
+		return result;
+	}
+
+}
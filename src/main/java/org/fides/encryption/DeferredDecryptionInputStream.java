@@ -0,0 +1,122 @@
+package org.fides.encryption;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * An {@link InputStream} that looks at the start of an encrypted stream on first use. A stream starting with an
+ * {@link EncryptionHeader} is decrypted through a {@link SegmentedCipherInputStream}, a stream without one is taken to
+ * be encrypted in {@link EncryptionMode#CBC}. When a mode is expected, a stream in any other mode is rejected, so the
+ * unauthenticated start of the stream can not downgrade it. Looking is deferred so creating a decryption stream does
+ * not block or throw.
+ */
+final class DeferredDecryptionInputStream extends InputStream {
+
+	private final InputStream in;
+
+	private final byte[] key;
+
+	private final ExecutorService executor;
+
+	private final EncryptionMode expectedMode;
+
+	private InputStream delegate;
+
+	/** Set when the start of the stream was rejected, the stream can not be read after that */
+	private IOException failure;
+
+	/**
+	 * Constructor for DeferredDecryptionInputStream
+	 * 
+	 * @param in
+	 *            The encrypted stream
+	 * @param key
+	 *            The raw key
+	 * @param executor
+	 *            The executor to decrypt the segments on
+	 * @param expectedMode
+	 *            The mode the stream has to be encrypted in, or null to accept every mode
+	 */
+	DeferredDecryptionInputStream(InputStream in, byte[] key, ExecutorService executor, EncryptionMode expectedMode) {
+		this.in = in;
+		this.key = key;
+		this.executor = executor;
+		this.expectedMode = expectedMode;
+	}
+
+	private InputStream delegate() throws IOException {
+		if (failure != null) {
+			throw failure;
+		}
+		if (delegate == null) {
+			byte[] start = new byte[EncryptionHeader.SIZE];
+			int length = 0;
+			while (length < start.length) {
+				int bytesRead = in.read(start, length, start.length - length);
+				if (bytesRead < 0) {
+					break;
+				}
+				length += bytesRead;
+			}
+			EncryptionHeader header;
+			try {
+				header = EncryptionHeader.parse(start, length);
+				checkMode(header == null ? EncryptionMode.CBC : header.getMode());
+			} catch (IOException e) {
+				failure = e;
+				throw e;
+			}
+			if (header != null) {
+				SegmentCipher cipher = header.createCipher(key);
+				delegate = new SegmentedCipherInputStream(in, cipher, header.getSegmentSize(), executor, EncryptionUtils.MAX_PENDING_SEGMENTS);
+			} else {
+				// No header, so this is the original format. Give the bytes back to the CBC cipher.
+				PushbackInputStream pushback = new PushbackInputStream(in, start.length);
+				pushback.unread(start, 0, length);
+				delegate = new PooledCipherInputStream(pushback, key);
+			}
+		}
+		return delegate;
+	}
+
+	private void checkMode(EncryptionMode mode) throws IOException {
+		if (expectedMode != null && mode != expectedMode) {
+			throw new IOException("The stream is encrypted in " + mode + " instead of " + expectedMode);
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		return delegate().read();
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		return delegate().read(b, off, len);
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		return delegate().skip(n);
+	}
+
+	@Override
+	public int available() throws IOException {
+		if (delegate == null) {
+			return 0;
+		}
+		return delegate.available();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (delegate == null) {
+			in.close();
+		} else {
+			delegate.close();
+		}
+	}
+
+}
@@ -0,0 +1,149 @@
+package org.fides.encryption;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The header in front of a stream encrypted in a segmented {@link EncryptionMode}. It records the format version, the
+ * mode, the segment size and the nonce, so a reader knows how to decrypt the stream and where every segment starts.
+ * Streams encrypted in {@link EncryptionMode#CBC} have no header. They are recognized by not starting with the magic
+ * bytes, a stream that starts with them but not with a valid header is rejected instead of being read as CBC. The
+ * header is not authenticated in {@link EncryptionMode#CTR}, a reader that needs authenticated data has to ask for
+ * {@link EncryptionMode#GCM} instead of trusting the mode in the header.
+ */
+final class EncryptionHeader {
+
+	/** The size of the header in bytes */
+	static final int SIZE = 26;
+
+	/** The current format version */
+	static final byte VERSION = 1;
+
+	/**
+	 * The largest segment size a header may announce. Writers only use {@link EncryptionUtils#SEGMENT_SIZE}, a larger
+	 * size would only let a crafted header make readers allocate a buffer of that size for every pending segment.
+	 */
+	static final int MAX_SEGMENT_SIZE = EncryptionUtils.SEGMENT_SIZE;
+
+	/** "FIDS" */
+	private static final byte[] MAGIC = { 0x46, 0x49, 0x44, 0x53 };
+
+	private static final byte MODE_CTR = 1;
+
+	private static final byte MODE_GCM = 2;
+
+	private final EncryptionMode mode;
+
+	private final int segmentSize;
+
+	private final byte[] nonce;
+
+	/**
+	 * Constructor for EncryptionHeader
+	 * 
+	 * @param mode
+	 *            The segmented mode of the stream
+	 * @param segmentSize
+	 *            The size of the plain text of a segment
+	 * @param nonce
+	 *            The nonce of the stream, {@link EncryptionUtils#NONCE_SIZE} bytes
+	 */
+	EncryptionHeader(EncryptionMode mode, int segmentSize, byte[] nonce) {
+		if (mode == EncryptionMode.CBC) {
+			throw new IllegalArgumentException("CBC streams do not have a header");
+		}
+		this.mode = mode;
+		this.segmentSize = segmentSize;
+		this.nonce = nonce.clone();
+	}
+
+	/**
+	 * Parses a header
+	 * 
+	 * @param bytes
+	 *            The first bytes of a stream
+	 * @param length
+	 *            The number of bytes available, a stream shorter than a header has no header
+	 * @return the header, or null when the stream does not start with the magic bytes
+	 * @throws IOException
+	 *             When the stream starts with the magic bytes, but not with a header this version understands
+	 */
+	static EncryptionHeader parse(byte[] bytes, int length) throws IOException {
+		if (length < MAGIC.length || !Arrays.equals(MAGIC, Arrays.copyOf(bytes, MAGIC.length))) {
+			return null;
+		}
+		if (length < SIZE) {
+			throw new IOException("The encryption header is truncated");
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(bytes, MAGIC.length, SIZE - MAGIC.length);
+		byte version = buffer.get();
+		if (version != VERSION) {
+			throw new IOException("Unknown version " + version + " of the encryption header");
+		}
+		EncryptionMode mode = modeOf(buffer.get());
+		int segmentSize = buffer.getInt();
+		if (mode == null || segmentSize < 1 || segmentSize > MAX_SEGMENT_SIZE) {
+			throw new IOException("Invalid encryption header");
+		}
+		byte[] nonce = new byte[EncryptionUtils.NONCE_SIZE];
+		buffer.get(nonce);
+		return new EncryptionHeader(mode, segmentSize, nonce);
+	}
+
+	private static EncryptionMode modeOf(byte id) {
+		if (id == MODE_CTR) {
+			return EncryptionMode.CTR;
+		} else if (id == MODE_GCM) {
+			return EncryptionMode.GCM;
+		}
+		return null;
+	}
+
+	private static byte idOf(EncryptionMode mode) {
+		if (mode == EncryptionMode.CTR) {
+			return MODE_CTR;
+		} else if (mode == EncryptionMode.GCM) {
+			return MODE_GCM;
+		}
+		throw new IllegalArgumentException("No header id for mode " + mode);
+	}
+
+	/**
+	 * Returns the header as it is written in front of the stream
+	 * 
+	 * @return the {@link #SIZE} bytes of the header
+	 */
+	byte[] toBytes() {
+		ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+		buffer.put(MAGIC);
+		buffer.put(VERSION);
+		buffer.put(idOf(mode));
+		buffer.putInt(segmentSize);
+		buffer.put(nonce);
+		return buffer.array();
+	}
+
+	/**
+	 * Creates the cipher for the segments of this stream
+	 * 
+	 * @param key
+	 *            The raw key
+	 * @return the {@link SegmentCipher}
+	 */
+	SegmentCipher createCipher(byte[] key) {
+		if (mode == EncryptionMode.GCM) {
+			return new GcmSegmentCipher(key, nonce, toBytes());
+		}
+		return new CtrSegmentCipher(key, nonce, segmentSize);
+	}
+
+	EncryptionMode getMode() {
+		return mode;
+	}
+
+	int getSegmentSize() {
+		return segmentSize;
+	}
+
+}
@@ -0,0 +1,27 @@
+package org.fides.encryption;
+
+/**
+ * The modes in which {@link EncryptionUtils} can encrypt and decrypt streams
+ */
+public enum EncryptionMode {
+
+	/**
+	 * Camellia in CBC mode with PKCS7 padding. Every block depends on the one before it, so a stream is encrypted on a
+	 * single thread. This is the original mode and the one used when no mode is given.
+	 */
+	CBC,
+
+	/**
+	 * Camellia in counter mode over fixed-size segments with a random nonce per stream. The segments do not depend on each
+	 * other, so they are encrypted and decrypted in parallel on a worker pool.
+	 */
+	CTR,
+
+	/**
+	 * Camellia in GCM mode over fixed-size segments with a random nonce per stream. Like {@link #CTR} the segments are
+	 * processed in parallel, every segment also carries an authentication tag. Changed, reordered or missing segments are
+	 * detected as soon as they are read, also when only a part of the stream is decrypted.
+	 */
+	GCM
+
+}
@@ -1,18 +1,21 @@
 package org.fides.encryption;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
 import java.security.Key;
 import java.security.Security;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.bouncycastle.crypto.BufferedBlockCipher;
 import org.bouncycastle.crypto.CipherParameters;
 import org.bouncycastle.crypto.engines.CamelliaEngine;
-import org.bouncycastle.crypto.io.CipherInputStream;
-import org.bouncycastle.crypto.io.CipherOutputStream;
 import org.bouncycastle.crypto.modes.CBCBlockCipher;
 import org.bouncycastle.crypto.paddings.PKCS7Padding;
-import org.bouncycastle.crypto.paddings.PaddedBufferedBlockCipher;
 import org.bouncycastle.crypto.params.KeyParameter;
 import org.bouncycastle.crypto.params.ParametersWithIV;
 
@@ -23,23 +26,52 @@ public class EncryptionUtils {
 
 	/**
 	 * The algorithm used for encryption and decryption, when changing it dont forgot to update the
-	 * {@link org.fides.encryption.EncryptionUtils#createCipher()}
+	 * {@link org.fides.encryption.EncryptionUtils#createCipher(boolean, byte[])}
 	 */
 	public static final String ALGORITHM = "Camellia";
 
 	/** The algorithm used for encryption and decryption */
 	public static final int KEY_SIZE = 32; // 256 bit
 
-	/** The IV used to initiate the cipher */
+	/** The IV used to initiate the CBC cipher, the segmented modes use a random nonce per stream instead */
 	private static final byte[] IV = { 0x46, 0x69, 0x64, 0x65, 0x73, 0x2, 0x69, 0x73, 0x20, 0x53, 0x65, 0x63, 0x75, 0x72, 0x65, 0x21 };
 
+	/** The size of the random nonce in the header of a segmented stream, one Camellia block */
+	static final int NONCE_SIZE = 16;
+
+	/** The size of the plain text of a segment in the segmented modes */
+	static final int SEGMENT_SIZE = 64 * 1024;
+
+	/** The number of segments a segmented stream keeps in flight, enough to keep every core busy */
+	static final int MAX_PENDING_SEGMENTS = 2 * Runtime.getRuntime().availableProcessors();
+
+	/** The CBC ciphers of the encryption streams, keyed by their key */
+	private static final CipherPool<BufferedBlockCipher> ENCRYPTION_POOL = new CipherPool<>(new CipherPool.Factory<BufferedBlockCipher>() {
+		@Override
+		public BufferedBlockCipher create(byte[] key) {
+			return createCipher(true, key);
+		}
+	});
+
+	/** The CBC ciphers of the decryption streams, keyed by their key */
+	private static final CipherPool<BufferedBlockCipher> DECRYPTION_POOL = new CipherPool<>(new CipherPool.Factory<BufferedBlockCipher>() {
+		@Override
+		public BufferedBlockCipher create(byte[] key) {
+			return createCipher(false, key);
+		}
+	});
+
 	static {
 		Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
 	}
 
 	/**
-	 * Create a n {@link java.io.InputStream} that decrypts and encrypted {@link java.io.InputStream}
-	 *
+	 * Create a n {@link java.io.InputStream} that decrypts and encrypted {@link java.io.InputStream}. The mode is recognized
+	 * from the start of the stream: streams with a header written by a segmented {@link EncryptionMode} are decrypted on
+	 * a shared pool with a thread per core, streams without one are decrypted as {@link EncryptionMode#CBC}. The start
+	 * of the stream is not authenticated, use {@link #getDecryptionStream(InputStream, Key, EncryptionMode)} when the
+	 * data has to be {@link EncryptionMode#GCM}.
+	 * 
 	 * @param in
 	 *            The stream to decrypt
 	 * @param key
@@ -47,20 +79,67 @@ public class EncryptionUtils {
 	 * @return An decrypting {@link java.io.InputStream}
 	 */
 	public static InputStream getDecryptionStream(InputStream in, Key key) {
-		BufferedBlockCipher cipher = createCipher();
+		return getDecryptionStream(in, key, DefaultExecutorHolder.EXECUTOR);
+	}
+
+	/**
+	 * Create a n {@link java.io.InputStream} that decrypts and encrypted {@link java.io.InputStream}, decrypting the
+	 * segments of segmented modes on the given executor
+	 * 
+	 * @param in
+	 *            The stream to decrypt
+	 * @param key
+	 *            The {@link java.security.Key} to use
+	 * @param executor
+	 *            The {@link ExecutorService} to decrypt segments on
+	 * @return An decrypting {@link java.io.InputStream}
+	 */
+	public static InputStream getDecryptionStream(InputStream in, Key key, ExecutorService executor) {
+		return new DeferredDecryptionInputStream(in, key.getEncoded(), executor, null);
+	}
 
-		KeyParameter keyParam = new KeyParameter(key.getEncoded());
-		CipherParameters params = new ParametersWithIV(keyParam, IV);
-		cipher.reset();
-		// false because are decrypting
-		cipher.init(false, params);
+	/**
+	 * Create an {@link java.io.InputStream} that decrypts a stream encrypted in the given mode. Reading a stream in any
+	 * other mode fails with an {@link IOException}, so a stream that has to be authenticated can not be passed off as
+	 * {@link EncryptionMode#CTR} or {@link EncryptionMode#CBC} by changing or removing its header.
+	 * 
+	 * @param in
+	 *            The stream to decrypt
+	 * @param key
+	 *            The {@link java.security.Key} to use
+	 * @param mode
+	 *            The {@link EncryptionMode} the stream has to be encrypted in
+	 * @return An decrypting {@link java.io.InputStream}
+	 */
+	public static InputStream getDecryptionStream(InputStream in, Key key, EncryptionMode mode) {
+		return getDecryptionStream(in, key, mode, DefaultExecutorHolder.EXECUTOR);
+	}
 
-		return new CipherInputStream(in, cipher);
+	/**
+	 * Create an {@link java.io.InputStream} that decrypts a stream encrypted in the given mode, decrypting the segments
+	 * of segmented modes on the given executor
+	 * 
+	 * @param in
+	 *            The stream to decrypt
+	 * @param key
+	 *            The {@link java.security.Key} to use
+	 * @param mode
+	 *            The {@link EncryptionMode} the stream has to be encrypted in
+	 * @param executor
+	 *            The {@link ExecutorService} to decrypt segments on
+	 * @return An decrypting {@link java.io.InputStream}
+	 */
+	public static InputStream getDecryptionStream(InputStream in, Key key, EncryptionMode mode,
+		ExecutorService executor) {
+		if (mode == null) {
+			throw new IllegalArgumentException("The mode can not be null");
+		}
+		return new DeferredDecryptionInputStream(in, key.getEncoded(), executor, mode);
 	}
 
 	/**
 	 * Create a n {@link java.io.OutputStream} that encrypts and encrypted {@link java.io.OutputStream}
-	 *
+	 * 
 	 * @param out
 	 *            The stream to encrypt
 	 * @param key
@@ -68,19 +147,160 @@ public class EncryptionUtils {
 	 * @return An encrypting {@link java.io.OutputStream}
 	 */
 	public static OutputStream getEncryptionStream(OutputStream out, Key key) {
-		BufferedBlockCipher cipher = createCipher();
+		return new PooledCipherOutputStream(out, key.getEncoded());
+	}
 
-		KeyParameter keyParam = new KeyParameter(key.getEncoded());
-		CipherParameters params = new ParametersWithIV(keyParam, IV);
-		cipher.reset();
-		// true because are encrypting
-		cipher.init(true, params);
+	/**
+	 * Create an {@link java.io.OutputStream} that encrypts in the given mode. Segmented modes are encrypted on a shared pool
+	 * with a thread per core.
+	 * 
+	 * @param out
+	 *            The stream to write the encrypted data to
+	 * @param key
+	 *            The {@link Key} to use
+	 * @param mode
+	 *            The {@link EncryptionMode} to encrypt in
+	 * @return An encrypting {@link java.io.OutputStream}
+	 */
+	public static OutputStream getEncryptionStream(OutputStream out, Key key, EncryptionMode mode) {
+		return getEncryptionStream(out, key, mode, DefaultExecutorHolder.EXECUTOR);
+	}
 
-		return new CipherOutputStream(out, cipher);
+	/**
+	 * Create an {@link java.io.OutputStream} that encrypts in the given mode, encrypting the segments of segmented modes on
+	 * the given executor
+	 * 
+	 * @param out
+	 *            The stream to write the encrypted data to
+	 * @param key
+	 *            The {@link Key} to use
+	 * @param mode
+	 *            The {@link EncryptionMode} to encrypt in
+	 * @param executor
+	 *            The {@link ExecutorService} to encrypt segments on
+	 * @return An encrypting {@link java.io.OutputStream}
+	 */
+	public static OutputStream getEncryptionStream(OutputStream out, Key key, EncryptionMode mode, ExecutorService executor) {
+		if (mode == EncryptionMode.CBC) {
+			return getEncryptionStream(out, key);
+		}
+		byte[] nonce = new byte[NONCE_SIZE];
+		RandomSource.nextBytes(nonce);
+		EncryptionHeader header = new EncryptionHeader(mode, SEGMENT_SIZE, nonce);
+		SegmentCipher cipher = header.createCipher(key.getEncoded());
+		return new SegmentedCipherOutputStream(out, header.toBytes(), cipher, SEGMENT_SIZE, executor, MAX_PENDING_SEGMENTS);
+	}
+
+	/**
+	 * Create a read-only {@link SeekableByteChannel} that decrypts an encrypted file at any position. Only the segments
+	 * containing the requested bytes are read and decrypted, so the cost of a read does not depend on its position. This
+	 * needs a stream encrypted in a segmented {@link EncryptionMode}, CBC streams can only be decrypted from the start.
+	 * 
+	 * @param channel
+	 *            The channel containing the encrypted data, for example a {@link java.nio.channels.FileChannel}
+	 * @param key
+	 *            The {@link Key} to use
+	 * @return A decrypting {@link SeekableByteChannel}, closing it closes the given channel
+	 * @throws IOException
+	 *             When the header can not be read or the data is not encrypted in a segmented mode
+	 */
+	public static SeekableByteChannel getDecryptionChannel(SeekableByteChannel channel, Key key) throws IOException {
+		return new SegmentedDecryptionChannel(channel, key.getEncoded(), null);
 	}
 
-	/** Create the cipher to use */
-	private static BufferedBlockCipher createCipher() {
-		return new PaddedBufferedBlockCipher(new CBCBlockCipher(new CamelliaEngine()), new PKCS7Padding());
+	/**
+	 * Create a read-only {@link SeekableByteChannel} that decrypts an encrypted file encrypted in the given segmented
+	 * mode at any position, like {@link #getDecryptionChannel(SeekableByteChannel, Key)}
+	 * 
+	 * @param channel
+	 *            The channel containing the encrypted data, for example a {@link java.nio.channels.FileChannel}
+	 * @param key
+	 *            The {@link Key} to use
+	 * @param mode
+	 *            The segmented {@link EncryptionMode} the data has to be encrypted in
+	 * @return A decrypting {@link SeekableByteChannel}, closing it closes the given channel
+	 * @throws IOException
+	 *             When the header can not be read or the data is not encrypted in the given mode
+	 */
+	public static SeekableByteChannel getDecryptionChannel(SeekableByteChannel channel, Key key, EncryptionMode mode)
+		throws IOException {
+		if (mode == null) {
+			throw new IllegalArgumentException("The mode can not be null");
+		}
+		return new SegmentedDecryptionChannel(channel, key.getEncoded(), mode);
+	}
+
+	/**
+	 * Create the CBC cipher to use, initialized with the given key
+	 * 
+	 * @param forEncryption
+	 *            true to encrypt, false to decrypt
+	 * @param key
+	 *            The raw key
+	 * @return the initialized cipher
+	 */
+	static BufferedBlockCipher createCipher(boolean forEncryption, byte[] key) {
+		BufferedBlockCipher cipher = new TimedBufferedBlockCipher(new CBCBlockCipher(new CamelliaEngine()), new PKCS7Padding());
+		CipherParameters params = new ParametersWithIV(new KeyParameter(key), IV);
+		cipher.init(forEncryption, params);
+		return cipher;
+	}
+
+	/**
+	 * Borrows a CBC cipher for a key from the pool, ready to process a new stream
+	 * 
+	 * @param forEncryption
+	 *            true to encrypt, false to decrypt
+	 * @param key
+	 *            The raw key
+	 * @return the initialized cipher, to be released with {@link #releaseCipher(boolean, byte[], BufferedBlockCipher)}
+	 */
+	static BufferedBlockCipher borrowCipher(boolean forEncryption, byte[] key) {
+		BufferedBlockCipher cipher = pool(forEncryption).borrow(key);
+		// Resets the chaining and the padding, the cipher keeps its key schedule
+		cipher.init(forEncryption, new ParametersWithIV(null, IV));
+		return cipher;
+	}
+
+	/**
+	 * Gives a CBC cipher back to the pool
+	 * 
+	 * @param forEncryption
+	 *            The direction the cipher was borrowed for
+	 * @param key
+	 *            The raw key the cipher was borrowed for
+	 * @param cipher
+	 *            The cipher, it may not be used after this
+	 */
+	static void releaseCipher(boolean forEncryption, byte[] key, BufferedBlockCipher cipher) {
+		pool(forEncryption).release(key, cipher);
+	}
+
+	private static CipherPool<BufferedBlockCipher> pool(boolean forEncryption) {
+		if (forEncryption) {
+			return ENCRYPTION_POOL;
+		}
+		return DECRYPTION_POOL;
+	}
+
+	/**
+	 * Holds the pool the segmented modes use by default, it is only created when a segmented mode is used
+	 */
+	private static final class DefaultExecutorHolder {
+
+		private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "fides-encryption-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		private DefaultExecutorHolder() {
+		}
 	}
 }
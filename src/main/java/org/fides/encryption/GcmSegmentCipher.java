@@ -0,0 +1,120 @@
+package org.fides.encryption;
+
+import java.io.IOException;
+
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.engines.CamelliaEngine;
+import org.bouncycastle.crypto.modes.GCMBlockCipher;
+import org.bouncycastle.crypto.params.AEADParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+/**
+ * A {@link SegmentCipher} using Camellia in GCM mode. Every segment has its own IV, made from the nonce of the stream and
+ * the index of the segment, and ends with a tag. The tag also covers the header of the stream and whether the segment is
+ * the last one, so segments can not be moved to another stream and a stream can not be cut short unnoticed.
+ */
+final class GcmSegmentCipher extends SegmentCipher {
+
+	/** The size of the IV of a segment, the size GCM handles without extra hashing */
+	static final int IV_SIZE = 12;
+
+	/** The size of the tag at the end of every segment */
+	static final int TAG_SIZE = 16;
+
+	/** The ciphers of all GCM streams, keyed by their key. GCM always uses the block cipher for encryption. */
+	private static final CipherPool<GCMBlockCipher> POOL = new CipherPool<>(new CipherPool.Factory<GCMBlockCipher>() {
+		@Override
+		public GCMBlockCipher create(byte[] key) {
+			GCMBlockCipher cipher = new GCMBlockCipher(new CamelliaEngine());
+			cipher.init(true, new AEADParameters(new KeyParameter(key), 8 * TAG_SIZE, new byte[IV_SIZE]));
+			return cipher;
+		}
+	});
+
+	private final byte[] key;
+
+	private final byte[] nonce;
+
+	private final byte[] header;
+
+	/**
+	 * Constructor for GcmSegmentCipher
+	 * 
+	 * @param key
+	 *            The raw key
+	 * @param nonce
+	 *            The nonce of the stream, at least {@link #IV_SIZE} bytes
+	 * @param header
+	 *            The header of the stream, authenticated with every segment
+	 */
+	GcmSegmentCipher(byte[] key, byte[] nonce, byte[] header) {
+		this.key = key.clone();
+		this.nonce = nonce.clone();
+		this.header = header.clone();
+	}
+
+	@Override
+	int getOverhead() {
+		return TAG_SIZE;
+	}
+
+	@Override
+	boolean isAuthenticated() {
+		return true;
+	}
+
+	@Override
+	byte[] encrypt(long index, byte[] in, int length, boolean last) {
+		GCMBlockCipher cipher = POOL.borrow(key);
+		try {
+			init(cipher, true, index, last);
+			byte[] out = new byte[cipher.getOutputSize(length)];
+			int written = cipher.processBytes(in, 0, length, out, 0);
+			cipher.doFinal(out, written);
+			return out;
+		} catch (InvalidCipherTextException e) {
+			// Only decryption checks the tag
+			throw new IllegalStateException(e);
+		} finally {
+			POOL.release(key, cipher);
+		}
+	}
+
+	@Override
+	byte[] decrypt(long index, byte[] in, int length, boolean last) throws IOException {
+		if (length < TAG_SIZE) {
+			throw new IOException("Segment " + index + " is too short to be authentic");
+		}
+		GCMBlockCipher cipher = POOL.borrow(key);
+		try {
+			init(cipher, false, index, last);
+			byte[] out = new byte[cipher.getOutputSize(length)];
+			int written = cipher.processBytes(in, 0, length, out, 0);
+			cipher.doFinal(out, written);
+			return out;
+		} catch (InvalidCipherTextException e) {
+			throw new IOException("Segment " + index + " is not authentic", e);
+		} finally {
+			POOL.release(key, cipher);
+		}
+	}
+
+	/**
+	 * Initializes a pooled cipher for a segment, the cipher keeps the key it already has
+	 */
+	private void init(GCMBlockCipher cipher, boolean forEncryption, long index, boolean last) {
+		byte[] iv = new byte[IV_SIZE];
+		System.arraycopy(nonce, 0, iv, 0, IV_SIZE);
+		// The index goes into the last 8 bytes, so every segment of the stream has a different IV
+		for (int i = 0; i < 8; i++) {
+			iv[IV_SIZE - 1 - i] ^= (byte) (index >>> (8 * i));
+		}
+		byte[] associatedData = new byte[header.length + 1];
+		System.arraycopy(header, 0, associatedData, 0, header.length);
+		if (last) {
+			associatedData[header.length] = 1;
+		}
+		cipher.init(forEncryption, new AEADParameters(null, 8 * TAG_SIZE, iv, associatedData));
+	}
+
+}
@@ -0,0 +1,482 @@
+package org.fides.encryption;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.fides.tools.HashUtils;
+
+/**
+ * Derives keys from passwords with {@link KeyGenerator} on a bounded pool of worker threads, so a burst of logins can
+ * not occupy every request thread with PBKDF2. The queue of the pool is bounded, and every caller, for example a
+ * connection, can only have a limited number of derivations pending. A request beyond either limit is rejected right
+ * away with a {@link RejectedExecutionException} instead of waiting. Optionally the keys are cached for a short time,
+ * keyed by an HMAC of the password, salt, rounds and key size with a random key of the service, so deriving the same
+ * key twice in a session is done once. Callers that share a cached derivation each get their own {@link Future},
+ * cancelling it only stops that caller from waiting. Everything is kept per service, services do not share state.
+ */
+public final class KeyDerivationService implements AutoCloseable {
+
+	private static final AtomicInteger SERVICE_COUNT = new AtomicInteger();
+
+	/** The size of the random key the cache keys are computed with */
+	private static final int CACHE_SECRET_SIZE = 32;
+
+	private static final Ticker SYSTEM_TICKER = new Ticker() {
+		@Override
+		public long nanoTime() {
+			return System.nanoTime();
+		}
+	};
+
+	private final ThreadPoolExecutor executor;
+
+	private final int maxPendingPerCaller;
+
+	private final Map<Object, Integer> pendingPerCaller = new HashMap<>();
+
+	private final long cacheTtlNanos;
+
+	private final Map<ByteBuffer, CacheEntry> cache;
+
+	/** The key of the cache keys, so a cache key can not be tested against guessed passwords without it */
+	private final byte[] cacheSecret;
+
+	private final Ticker ticker;
+
+	/**
+	 * Constructor for KeyDerivationService without a cache
+	 * 
+	 * @param threads
+	 *            The number of worker threads
+	 * @param queueSize
+	 *            The maximum number of derivations waiting for a worker
+	 * @param maxPendingPerCaller
+	 *            The maximum number of derivations a single caller can have pending
+	 */
+	public KeyDerivationService(int threads, int queueSize, int maxPendingPerCaller) {
+		this(threads, queueSize, maxPendingPerCaller, 0, 0, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Constructor for KeyDerivationService
+	 * 
+	 * @param threads
+	 *            The number of worker threads
+	 * @param queueSize
+	 *            The maximum number of derivations waiting for a worker
+	 * @param maxPendingPerCaller
+	 *            The maximum number of derivations a single caller can have pending
+	 * @param cacheSize
+	 *            The maximum number of keys to cache, 0 to not cache
+	 * @param cacheTtl
+	 *            How long a cached key is used
+	 * @param unit
+	 *            The unit of cacheTtl
+	 */
+	public KeyDerivationService(int threads, int queueSize, int maxPendingPerCaller, int cacheSize, long cacheTtl, TimeUnit unit) {
+		this(threads, queueSize, maxPendingPerCaller, cacheSize, cacheTtl, unit, SYSTEM_TICKER);
+	}
+
+	/**
+	 * Constructor for KeyDerivationService with the clock the cache expires by
+	 * 
+	 * @param threads
+	 *            The number of worker threads
+	 * @param queueSize
+	 *            The maximum number of derivations waiting for a worker
+	 * @param maxPendingPerCaller
+	 *            The maximum number of derivations a single caller can have pending
+	 * @param cacheSize
+	 *            The maximum number of keys to cache, 0 to not cache
+	 * @param cacheTtl
+	 *            How long a cached key is used
+	 * @param unit
+	 *            The unit of cacheTtl
+	 * @param ticker
+	 *            The clock the cached keys expire by
+	 */
+	KeyDerivationService(int threads, int queueSize, int maxPendingPerCaller, final int cacheSize, long cacheTtl, TimeUnit unit,
+		Ticker ticker) {
+		if (threads < 1 || queueSize < 1 || maxPendingPerCaller < 1 || cacheSize < 0 || cacheTtl < 0) {
+			throw new IllegalArgumentException("Invalid limits for the key derivation service");
+		}
+		this.maxPendingPerCaller = maxPendingPerCaller;
+		this.ticker = ticker;
+		cacheTtlNanos = unit.toNanos(cacheTtl);
+		if (cacheSize > 0 && cacheTtlNanos > 0) {
+			cache = new LinkedHashMap<ByteBuffer, CacheEntry>(16, 0.75f, true) {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<ByteBuffer, CacheEntry> eldest) {
+					return size() > cacheSize;
+				}
+			};
+			cacheSecret = new byte[CACHE_SECRET_SIZE];
+			RandomSource.nextBytes(cacheSecret);
+		} else {
+			cache = null;
+			cacheSecret = null;
+		}
+
+		final String namePrefix = "fides-kdf-" + SERVICE_COUNT.incrementAndGet() + "-";
+		executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, namePrefix + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Derives a key like {@link KeyGenerator#generateKey(String, byte[], int, int)} on a worker thread
+	 * 
+	 * @param caller
+	 *            Identifies the caller for the per-caller limit, for example the connection or the session
+	 * @param password
+	 *            the password to hash
+	 * @param salt
+	 *            the salt for PBKDF2
+	 * @param rounds
+	 *            the amount of rounds PBKDF2 should use
+	 * @param keyByteSize
+	 *            is the size of the generated hash in bytes.
+	 * @return the key when it is derived, the key is null when PBKDF2 is not available. With a cache, cancelling it
+	 *         does not stop a derivation other callers wait for.
+	 * @throws RejectedExecutionException
+	 *             When the caller has too many derivations pending, or the service is full or shut down
+	 */
+	public Future<Key> deriveKey(Object caller, final String password, final byte[] salt, final int rounds, final int keyByteSize) {
+		ByteBuffer cacheKey = null;
+		if (cache != null) {
+			cacheKey = cacheKey(password, salt, rounds, keyByteSize);
+			Derivation cached = cached(cacheKey);
+			if (cached != null) {
+				return new SharedDerivation(cached);
+			}
+		}
+
+		acquire(caller);
+		Derivation derivation = new Derivation(caller, cacheKey, new Callable<Key>() {
+			@Override
+			public Key call() {
+				return KeyGenerator.generateKey(password, salt, rounds, keyByteSize);
+			}
+		});
+		if (cacheKey != null) {
+			// Cached before it is done, so a second request for the same key waits for this derivation
+			synchronized (cache) {
+				purgeExpired();
+				cache.put(cacheKey, new CacheEntry(derivation, ticker.nanoTime() + cacheTtlNanos));
+			}
+		}
+		try {
+			executor.execute(derivation);
+		} catch (RejectedExecutionException e) {
+			derivation.cancel(false);
+			throw e;
+		}
+		if (cacheKey != null) {
+			return new SharedDerivation(derivation);
+		}
+		return derivation;
+	}
+
+	private Derivation cached(ByteBuffer cacheKey) {
+		synchronized (cache) {
+			purgeExpired();
+			CacheEntry entry = cache.get(cacheKey);
+			return entry == null ? null : entry.derivation;
+		}
+	}
+
+	/**
+	 * Removes the expired keys, so a key that is not asked for again does not stay in memory until it is evicted. The
+	 * map is in access order instead of expiry order, so all entries are checked, the cache is small. Has to be called
+	 * while holding the lock of the cache.
+	 */
+	private void purgeExpired() {
+		long now = ticker.nanoTime();
+		Iterator<CacheEntry> entries = cache.values().iterator();
+		while (entries.hasNext()) {
+			if (entries.next().expires - now <= 0) {
+				entries.remove();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of keys in the cache, expired keys that were not purged yet included
+	 * 
+	 * @return the number of cached keys
+	 */
+	int cacheSize() {
+		if (cache == null) {
+			return 0;
+		}
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	/**
+	 * Hashes everything the key depends on with the secret of this service, so the password itself is not kept in the
+	 * cache and a cache key is no faster to test a guessed password against than the derived key
+	 */
+	private ByteBuffer cacheKey(String password, byte[] salt, int rounds, int keyByteSize) {
+		byte[] passwordBytes = password.getBytes(StandardCharsets.UTF_8);
+		// Lengths first, so different splits of the same bytes give different hashes
+		byte[] data = ByteBuffer.allocate(16 + passwordBytes.length + salt.length).putInt(passwordBytes.length).putInt(salt.length)
+			.putInt(rounds).putInt(keyByteSize).put(passwordBytes).put(salt).array();
+		try {
+			return ByteBuffer.wrap(HashUtils.hmac(cacheSecret, data, 0, data.length));
+		} finally {
+			Arrays.fill(passwordBytes, (byte) 0);
+			Arrays.fill(data, (byte) 0);
+		}
+	}
+
+	private void acquire(Object caller) {
+		synchronized (pendingPerCaller) {
+			Integer pending = pendingPerCaller.get(caller);
+			if (pending == null) {
+				pending = 0;
+			}
+			if (pending >= maxPendingPerCaller) {
+				throw new RejectedExecutionException("Too many key derivations pending for " + caller);
+			}
+			pendingPerCaller.put(caller, pending + 1);
+		}
+	}
+
+	private void release(Object caller) {
+		synchronized (pendingPerCaller) {
+			int pending = pendingPerCaller.get(caller) - 1;
+			if (pending == 0) {
+				pendingPerCaller.remove(caller);
+			} else {
+				pendingPerCaller.put(caller, pending);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of derivations a caller has pending
+	 * 
+	 * @param caller
+	 *            The caller
+	 * @return the number of derivations that are not done
+	 */
+	public int getPending(Object caller) {
+		synchronized (pendingPerCaller) {
+			Integer pending = pendingPerCaller.get(caller);
+			if (pending == null) {
+				return 0;
+			}
+			return pending;
+		}
+	}
+
+	/**
+	 * Stops the worker threads, pending derivations are cancelled
+	 */
+	@Override
+	public void close() {
+		for (Runnable runnable : executor.shutdownNow()) {
+			((Derivation) runnable).cancel(false);
+		}
+		if (cache != null) {
+			synchronized (cache) {
+				cache.clear();
+			}
+		}
+	}
+
+	/**
+	 * A derivation that frees the slot of its caller when it is done, and leaves the cache when it failed
+	 */
+	private final class Derivation extends FutureTask<Key> {
+
+		private final Object caller;
+
+		private final ByteBuffer cacheKey;
+
+		private final AtomicBoolean finished = new AtomicBoolean();
+
+		Derivation(Object caller, ByteBuffer cacheKey, Callable<Key> callable) {
+			super(callable);
+			this.caller = caller;
+			this.cacheKey = cacheKey;
+		}
+
+		/**
+		 * The slot is freed before the result is set, so a caller that has its key can start the next derivation
+		 */
+		@Override
+		protected void set(Key key) {
+			finish(key != null);
+			super.set(key);
+		}
+
+		@Override
+		protected void setException(Throwable t) {
+			finish(false);
+			super.setException(t);
+		}
+
+		@Override
+		protected void done() {
+			if (isCancelled()) {
+				finish(false);
+			}
+			// Wakes up the callers waiting in a SharedDerivation
+			synchronized (this) {
+				notifyAll();
+			}
+		}
+
+		private void finish(boolean succeeded) {
+			if (!finished.compareAndSet(false, true)) {
+				return;
+			}
+			release(caller);
+			if (cacheKey != null && !succeeded) {
+				synchronized (cache) {
+					CacheEntry entry = cache.get(cacheKey);
+					if (entry != null && entry.derivation == this) {
+						cache.remove(cacheKey);
+					}
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * The view of a single caller on a derivation that can be shared through the cache. Cancelling it only stops this
+	 * caller from waiting, the derivation goes on for the other callers.
+	 */
+	private static final class SharedDerivation implements Future<Key> {
+
+		private final Derivation derivation;
+
+		/** Guarded by the derivation */
+		private boolean cancelled = false;
+
+		SharedDerivation(Derivation derivation) {
+			this.derivation = derivation;
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			synchronized (derivation) {
+				if (cancelled || derivation.isDone()) {
+					return false;
+				}
+				cancelled = true;
+				derivation.notifyAll();
+				return true;
+			}
+		}
+
+		@Override
+		public boolean isCancelled() {
+			synchronized (derivation) {
+				return cancelled || derivation.isCancelled();
+			}
+		}
+
+		@Override
+		public boolean isDone() {
+			synchronized (derivation) {
+				return cancelled || derivation.isDone();
+			}
+		}
+
+		@Override
+		public Key get() throws InterruptedException, ExecutionException {
+			synchronized (derivation) {
+				while (!cancelled && !derivation.isDone()) {
+					derivation.wait();
+				}
+				if (cancelled) {
+					throw new CancellationException();
+				}
+			}
+			return derivation.get();
+		}
+
+		@Override
+		public Key get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			long deadline = System.nanoTime() + unit.toNanos(timeout);
+			synchronized (derivation) {
+				while (!cancelled && !derivation.isDone()) {
+					long left = deadline - System.nanoTime();
+					if (left <= 0) {
+						throw new TimeoutException();
+					}
+					TimeUnit.NANOSECONDS.timedWait(derivation, left);
+				}
+				if (cancelled) {
+					throw new CancellationException();
+				}
+			}
+			return derivation.get();
+		}
+
+	}
+
+	/**
+	 * A cached derivation and the moment it expires, in {@link Ticker#nanoTime()}
+	 */
+	private static final class CacheEntry {
+
+		private final Derivation derivation;
+
+		private final long expires;
+
+		CacheEntry(Derivation derivation, long expires) {
+			this.derivation = derivation;
+			this.expires = expires;
+		}
+
+	}
+
+	/**
+	 * The clock the cache expires by, {@link System#nanoTime()} outside of tests
+	 */
+	interface Ticker {
+
+		/**
+		 * @return the current time in nanoseconds, only meaningful compared to other values of the same ticker
+		 */
+		long nanoTime();
+
+	}
+
+}
@@ -2,15 +2,18 @@ package org.fides.encryption;
 
 import java.security.Key;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
 import java.security.Security;
 import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.fides.instrumentation.Instrumentations;
 
 /**
  * The KeyGenerator is a helper class for generating hashes from passwords These hashes will be generated with PBKDF2
@@ -23,9 +26,25 @@ public final class KeyGenerator {
 
 	private static final String PBKDF2_ALGORITHM = "PBKDF2WithHmacSHA1";
 
-	private static int pbkdf2Iterations = 1000;
+	/**
+	 * The default number of rounds used by PBKDF2
+	 */
+	public static final int DEFAULT_ROUNDS = 1000;
 
-	private static final SecureRandom RANDOM = new SecureRandom();
+	/**
+	 * The key generators of a thread by algorithm, looking up the algorithm for every key costs more than generating it
+	 */
+	private static final ThreadLocal<Map<String, javax.crypto.KeyGenerator>> KEY_GENERATORS = new ThreadLocal<Map<String, javax.crypto.KeyGenerator>>() {
+		@Override
+		protected Map<String, javax.crypto.KeyGenerator> initialValue() {
+			return new HashMap<>();
+		}
+	};
+
+	/**
+	 * A factory per thread, so the provider lookup is done once per thread instead of once per key
+	 */
+	private static final ThreadLocal<SecretKeyFactory> FACTORY = new ThreadLocal<>();
 
 	static {
 		Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
@@ -44,17 +63,37 @@ public final class KeyGenerator {
 	public static byte[] getSalt(int saltByteSize) {
 		// Generate a random salt
 		byte[] salt = new byte[saltByteSize];
-		RANDOM.nextBytes(salt);
+		RandomSource.nextBytes(salt);
 		return salt;
 	}
 
+	/**
+	 * Returns a number of random generated salts, generated together so a bulk operation asks the random generator once
+	 * 
+	 * @param count
+	 *            is the number of salts
+	 * @param saltByteSize
+	 *            is the size of a salt
+	 * @return the salts
+	 */
+	public static byte[][] getSalts(int count, int saltByteSize) {
+		byte[] random = new byte[count * saltByteSize];
+		RandomSource.nextBytes(random);
+		byte[][] salts = new byte[count][];
+		for (int i = 0; i < count; i++) {
+			salts[i] = Arrays.copyOfRange(random, i * saltByteSize, (i + 1) * saltByteSize);
+		}
+		Arrays.fill(random, (byte) 0);
+		return salts;
+	}
+
 	/**
 	 * Returns the default number of rounds used by PBKDF2
 	 * 
 	 * @return the default number of rounds
 	 */
 	public static int getRounds() {
-		return pbkdf2Iterations;
+		return DEFAULT_ROUNDS;
 	}
 
 	/**
@@ -71,8 +110,7 @@ public final class KeyGenerator {
 	 * @return a Key which was generated with PBKDF2
 	 */
 	public static Key generateKey(String password, byte[] salt, int rounds, int keyByteSize) {
-		pbkdf2Iterations = rounds;
-		return pbkdf2(password.toCharArray(), salt, pbkdf2Iterations, keyByteSize);
+		return pbkdf2(password.toCharArray(), salt, rounds, keyByteSize);
 	}
 
 	/**
@@ -84,9 +122,44 @@ public final class KeyGenerator {
 	 * @throws NoSuchAlgorithmException
 	 */
 	public static Key generateRandomKey(String algorithm, int keyByteSize) throws NoSuchAlgorithmException {
-		javax.crypto.KeyGenerator generator = javax.crypto.KeyGenerator.getInstance(algorithm);
-		generator.init(keyByteSize * 8);
-		return generator.generateKey();
+		return randomKeyGenerator(algorithm, keyByteSize).generateKey();
+	}
+
+	/**
+	 * Generates a number of random keys with the given algorithm and given size, for example a key per file of a bulk
+	 * upload
+	 * 
+	 * @param algorithm
+	 *            the algorithm of the keys
+	 * @param keyByteSize
+	 *            the size of the generated keys in bytes.
+	 * @param count
+	 *            the number of keys
+	 * @return the random generated keys
+	 * @throws NoSuchAlgorithmException
+	 */
+	public static Key[] generateRandomKeys(String algorithm, int keyByteSize, int count) throws NoSuchAlgorithmException {
+		javax.crypto.KeyGenerator generator = randomKeyGenerator(algorithm, keyByteSize);
+		Key[] keys = new Key[count];
+		for (int i = 0; i < count; i++) {
+			keys[i] = generator.generateKey();
+		}
+		return keys;
+	}
+
+	/**
+	 * Returns the key generator of the current thread for an algorithm, initialized with the random generator of the
+	 * thread
+	 */
+	private static javax.crypto.KeyGenerator randomKeyGenerator(String algorithm, int keyByteSize) throws NoSuchAlgorithmException {
+		Map<String, javax.crypto.KeyGenerator> generators = KEY_GENERATORS.get();
+		javax.crypto.KeyGenerator generator = generators.get(algorithm);
+		if (generator == null) {
+			generator = javax.crypto.KeyGenerator.getInstance(algorithm);
+			generators.put(algorithm, generator);
+		}
+		generator.init(keyByteSize * 8, RandomSource.current());
+		return generator;
 	}
 
 	/**
@@ -104,14 +177,40 @@ public final class KeyGenerator {
 	 */
 	private static Key pbkdf2(char[] password, byte[] salt, int iterations, int bytes) {
 		PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, bytes * 8);
+		SecretKeyFactory factory = factory();
+		if (factory == null) {
+			return null;
+		}
 		try {
-			// Get al SecretKeyFactory instance based on the given algorithm and generate the SecretKey based on the
-			// PBEKeySpec
-			return SecretKeyFactory.getInstance(PBKDF2_ALGORITHM).generateSecret(spec);
-		} catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+			// Generate the SecretKey based on the PBEKeySpec
+			long start = System.nanoTime();
+			Key key = factory.generateSecret(spec);
+			Instrumentations.get().keyDerived(System.nanoTime() - start);
+			return key;
+		} catch (InvalidKeySpecException e) {
 			LOG.error(e);
 		}
 		return null;
 	}
 
+	/**
+	 * Returns the PBKDF2 factory of the current thread. A failed lookup is not cached, so every call tries again and
+	 * logs the cause.
+	 * 
+	 * @return the factory, or null when the algorithm is not available
+	 */
+	private static SecretKeyFactory factory() {
+		SecretKeyFactory factory = FACTORY.get();
+		if (factory == null) {
+			try {
+				factory = SecretKeyFactory.getInstance(PBKDF2_ALGORITHM);
+			} catch (NoSuchAlgorithmException e) {
+				LOG.error(e);
+				return null;
+			}
+			FACTORY.set(factory);
+		}
+		return factory;
+	}
+
 }
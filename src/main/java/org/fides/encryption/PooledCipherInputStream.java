@@ -0,0 +1,94 @@
+package org.fides.encryption;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.bouncycastle.crypto.BufferedBlockCipher;
+import org.bouncycastle.crypto.io.CipherInputStream;
+
+/**
+ * A {@link CipherInputStream} decrypting {@link EncryptionMode#CBC} with a cipher borrowed from the pool of
+ * {@link EncryptionUtils}. The cipher goes back to the pool on close, so the stream can not be used after that.
+ */
+final class PooledCipherInputStream extends CipherInputStream {
+
+	private final byte[] key;
+
+	private final BufferedBlockCipher cipher;
+
+	private boolean closed = false;
+
+	/**
+	 * Constructor for PooledCipherInputStream
+	 * 
+	 * @param in
+	 *            The stream to read the encrypted data from
+	 * @param key
+	 *            The raw key
+	 */
+	PooledCipherInputStream(InputStream in, byte[] key) {
+		this(in, key, EncryptionUtils.borrowCipher(false, key));
+	}
+
+	private PooledCipherInputStream(InputStream in, byte[] key, BufferedBlockCipher cipher) {
+		super(in, cipher);
+		this.key = key;
+		this.cipher = cipher;
+	}
+
+	@Override
+	public int read() throws IOException {
+		ensureOpen();
+		return super.read();
+	}
+
+	@Override
+	public int read(byte[] b) throws IOException {
+		ensureOpen();
+		return super.read(b);
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		return super.read(b, off, len);
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		ensureOpen();
+		return super.skip(n);
+	}
+
+	@Override
+	public int available() throws IOException {
+		ensureOpen();
+		return super.available();
+	}
+
+	@Override
+	public void reset() throws IOException {
+		ensureOpen();
+		super.reset();
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Stream is closed");
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		try {
+			super.close();
+		} finally {
+			closed = true;
+			EncryptionUtils.releaseCipher(false, key, cipher);
+		}
+	}
+
+}
@@ -0,0 +1,83 @@
+package org.fides.encryption;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.bouncycastle.crypto.BufferedBlockCipher;
+import org.bouncycastle.crypto.io.CipherOutputStream;
+
+/**
+ * A {@link CipherOutputStream} encrypting in {@link EncryptionMode#CBC} with a cipher borrowed from the pool of
+ * {@link EncryptionUtils}. The cipher goes back to the pool on close, so the stream can not be used after that.
+ */
+final class PooledCipherOutputStream extends CipherOutputStream {
+
+	private final byte[] key;
+
+	private final BufferedBlockCipher cipher;
+
+	private boolean closed = false;
+
+	/**
+	 * Constructor for PooledCipherOutputStream
+	 * 
+	 * @param out
+	 *            The stream to write the encrypted data to
+	 * @param key
+	 *            The raw key
+	 */
+	PooledCipherOutputStream(OutputStream out, byte[] key) {
+		this(out, key, EncryptionUtils.borrowCipher(true, key));
+	}
+
+	private PooledCipherOutputStream(OutputStream out, byte[] key, BufferedBlockCipher cipher) {
+		super(out, cipher);
+		this.key = key;
+		this.cipher = cipher;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureOpen();
+		super.write(b);
+	}
+
+	@Override
+	public void write(byte[] b) throws IOException {
+		ensureOpen();
+		super.write(b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		super.write(b, off, len);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+		super.flush();
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Stream is closed");
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		try {
+			// Closing flushes through this stream, so it is only marked closed afterwards
+			super.close();
+		} finally {
+			closed = true;
+			EncryptionUtils.releaseCipher(true, key, cipher);
+		}
+	}
+
+}
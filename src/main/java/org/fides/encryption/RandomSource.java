@@ -0,0 +1,168 @@
+package org.fides.encryption;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.prng.EntropySource;
+import org.bouncycastle.crypto.prng.EntropySourceProvider;
+import org.bouncycastle.crypto.prng.SP800SecureRandomBuilder;
+
+/**
+ * Secure random numbers without contention. Every thread has its own SP 800-90A hash DRBG with SHA-256, so threads
+ * generating salts, keys and nonces at the same time do not wait for each other on a single {@link SecureRandom}. The
+ * generators are seeded from the system {@link SecureRandom} with nextBytes, which does not block on the entropy pool
+ * like generateSeed can. A call to the DRBG has a fixed cost of a few hashes, so small requests are served from a small
+ * buffer of output that is wiped as it is handed out.
+ */
+public final class RandomSource {
+
+	/** The security strength of the generators in bits */
+	private static final int SECURITY_STRENGTH = 256;
+
+	/** The amount of output generated at once for small requests */
+	private static final int BUFFER_SIZE = 512;
+
+	/** The system generator, only used to seed the generators of the threads */
+	private static final SecureRandom SEED_SOURCE = new SecureRandom();
+
+	private static final AtomicLong INSTANCE_COUNT = new AtomicLong();
+
+	private static final ThreadLocal<SecureRandom> RANDOM = new ThreadLocal<SecureRandom>() {
+		@Override
+		protected SecureRandom initialValue() {
+			// The personalization string makes every generator unique, even if two got the same seed
+			byte[] personalization = ByteBuffer.allocate(24).putLong(INSTANCE_COUNT.incrementAndGet()).putLong(Thread.currentThread().getId())
+				.putLong(System.nanoTime()).array();
+			return new BufferedRandom(new SP800SecureRandomBuilder(new SeedSourceProvider()).setPersonalizationString(personalization)
+				.setSecurityStrength(SECURITY_STRENGTH).setEntropyBitsRequired(SECURITY_STRENGTH)
+				.buildHash(new SHA256Digest(), seed(SECURITY_STRENGTH / 16), false));
+		}
+	};
+
+	private RandomSource() {
+	}
+
+	/**
+	 * Returns the generator of the current thread. It may only be used by the current thread.
+	 * 
+	 * @return the {@link SecureRandom} of the current thread
+	 */
+	public static SecureRandom current() {
+		return RANDOM.get();
+	}
+
+	/**
+	 * Fills an array with random bytes from the generator of the current thread
+	 * 
+	 * @param bytes
+	 *            The array to fill
+	 */
+	public static void nextBytes(byte[] bytes) {
+		RANDOM.get().nextBytes(bytes);
+	}
+
+	private static byte[] seed(int length) {
+		byte[] seed = new byte[length];
+		SEED_SOURCE.nextBytes(seed);
+		return seed;
+	}
+
+	/**
+	 * Serves small requests from a buffer filled by the DRBG, larger requests go to the DRBG directly. Not thread-safe,
+	 * every thread has its own.
+	 */
+	private static final class BufferedRandom extends SecureRandom {
+
+		private static final long serialVersionUID = 1L;
+
+		private final SecureRandom drbg;
+
+		private final byte[] buffer = new byte[BUFFER_SIZE];
+
+		/** The position of the first unused byte in the buffer */
+		private int position = BUFFER_SIZE;
+
+		BufferedRandom(SecureRandom drbg) {
+			super(null, null);
+			this.drbg = drbg;
+		}
+
+		@Override
+		public void nextBytes(byte[] bytes) {
+			if (bytes.length >= BUFFER_SIZE) {
+				drbg.nextBytes(bytes);
+				return;
+			}
+			int offset = 0;
+			while (offset < bytes.length) {
+				if (position == BUFFER_SIZE) {
+					drbg.nextBytes(buffer);
+					position = 0;
+				}
+				int length = Math.min(bytes.length - offset, BUFFER_SIZE - position);
+				System.arraycopy(buffer, position, bytes, offset, length);
+				// Output that has been handed out does not stay in memory
+				Arrays.fill(buffer, position, position + length, (byte) 0);
+				position += length;
+				offset += length;
+			}
+		}
+
+		@Override
+		public void setSeed(byte[] seed) {
+			// Called by the constructor of Random before the DRBG is set
+			if (drbg != null) {
+				drbg.setSeed(seed);
+			}
+		}
+
+		@Override
+		public void setSeed(long seed) {
+			if (drbg != null) {
+				drbg.setSeed(seed);
+			}
+		}
+
+		@Override
+		public byte[] generateSeed(int numBytes) {
+			return drbg.generateSeed(numBytes);
+		}
+
+		@Override
+		public String getAlgorithm() {
+			return "Buffered SP800-90A Hash DRBG";
+		}
+
+	}
+
+	/**
+	 * Gives the generators their entropy from the system generator
+	 */
+	private static final class SeedSourceProvider implements EntropySourceProvider {
+
+		@Override
+		public EntropySource get(final int bitsRequired) {
+			return new EntropySource() {
+				@Override
+				public boolean isPredictionResistant() {
+					return false;
+				}
+
+				@Override
+				public byte[] getEntropy() {
+					return seed((bitsRequired + 7) / 8);
+				}
+
+				@Override
+				public int entropySize() {
+					return bitsRequired;
+				}
+			};
+		}
+
+	}
+
+}
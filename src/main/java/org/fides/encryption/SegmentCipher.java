@@ -0,0 +1,58 @@
+package org.fides.encryption;
+
+import java.io.IOException;
+
+/**
+ * Encrypts and decrypts single segments of a segmented stream. Every segment is processed on its own, so the segments of
+ * a stream can be processed in parallel. Implementations have to be thread-safe.
+ */
+abstract class SegmentCipher {
+
+	/**
+	 * Returns the number of bytes an encrypted segment is longer than its plain text
+	 * 
+	 * @return the overhead per segment in bytes
+	 */
+	abstract int getOverhead();
+
+	/**
+	 * Returns whether the cipher authenticates the segments. An authenticated stream always ends with a segment marked as
+	 * last, even when that segment is empty, so a stream cut off at a segment boundary is detected.
+	 * 
+	 * @return true when a changed, reordered or missing segment is detected on decryption
+	 */
+	abstract boolean isAuthenticated();
+
+	/**
+	 * Encrypts a segment
+	 * 
+	 * @param index
+	 *            The index of the segment in the stream
+	 * @param in
+	 *            The array containing the plain text, starting at 0
+	 * @param length
+	 *            The length of the plain text
+	 * @param last
+	 *            Whether this is the last segment of the stream
+	 * @return the encrypted segment
+	 */
+	abstract byte[] encrypt(long index, byte[] in, int length, boolean last);
+
+	/**
+	 * Decrypts a segment
+	 * 
+	 * @param index
+	 *            The index of the segment in the stream
+	 * @param in
+	 *            The array containing the encrypted segment, starting at 0
+	 * @param length
+	 *            The length of the encrypted segment
+	 * @param last
+	 *            Whether this is the last segment of the stream
+	 * @return the plain text of the segment
+	 * @throws IOException
+	 *             When the segment is not authentic
+	 */
+	abstract byte[] decrypt(long index, byte[] in, int length, boolean last) throws IOException;
+
+}
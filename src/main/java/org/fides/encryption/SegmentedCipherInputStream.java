@@ -0,0 +1,236 @@
+package org.fides.encryption;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.fides.components.BufferPool;
+import org.fides.instrumentation.Instrumentations;
+
+/**
+ * An {@link InputStream} that decrypts data written by a {@link SegmentedCipherOutputStream}. The encrypted segments are
+ * read ahead and decrypted on an {@link ExecutorService}, the plain text is returned in the original order. The
+ * encrypted segments are read into buffers borrowed from the default {@link BufferPool}. Like the cipher streams of
+ * {@link EncryptionUtils}, closing this stream closes the underlying stream.
+ */
+final class SegmentedCipherInputStream extends FilterInputStream {
+
+	private final SegmentCipher cipher;
+
+	private final ExecutorService executor;
+
+	private final int maxPendingSegments;
+
+	private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+
+	/** The size of an encrypted segment */
+	private final int encryptedSegmentSize;
+
+	private final BufferPool pool;
+
+	private byte[] plain = new byte[0];
+
+	private int position = 0;
+
+	private long index = 0;
+
+	private boolean endOfInput = false;
+
+	/** The first byte of the next segment, read to find out if the current segment is the last one */
+	private int lookahead = -1;
+
+	/**
+	 * Constructor for SegmentedCipherInputStream, the underlying stream has to be positioned at the first segment
+	 * 
+	 * @param in
+	 *            The stream to read the encrypted segments from
+	 * @param cipher
+	 *            The cipher to decrypt the segments with
+	 * @param segmentSize
+	 *            The size of the plain text of a segment
+	 * @param executor
+	 *            The executor to decrypt the segments on
+	 * @param maxPendingSegments
+	 *            The maximum number of segments to read ahead
+	 */
+	SegmentedCipherInputStream(InputStream in, SegmentCipher cipher, int segmentSize, ExecutorService executor, int maxPendingSegments) {
+		super(in);
+		this.cipher = cipher;
+		this.executor = executor;
+		this.maxPendingSegments = maxPendingSegments;
+		encryptedSegmentSize = segmentSize + cipher.getOverhead();
+		pool = BufferPool.getDefault();
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!ensurePlain()) {
+			return -1;
+		}
+		return plain[position++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || off > b.length - len) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len == 0) {
+			return 0;
+		}
+		if (!ensurePlain()) {
+			return -1;
+		}
+		int bytesRead = Math.min(len, plain.length - position);
+		System.arraycopy(plain, position, b, off, bytesRead);
+		position += bytesRead;
+		return bytesRead;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = 0;
+		while (skipped < n && ensurePlain()) {
+			int step = (int) Math.min(n - skipped, plain.length - position);
+			position += step;
+			skipped += step;
+		}
+		return skipped;
+	}
+
+	@Override
+	public int available() {
+		return plain.length - position;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	/**
+	 * Makes sure there is plain text left to return
+	 * 
+	 * @return false at the end of the stream
+	 * @throws IOException
+	 */
+	private boolean ensurePlain() throws IOException {
+		while (position == plain.length) {
+			fillPending();
+			if (pending.isEmpty()) {
+				return false;
+			}
+			plain = decrypted(pending.poll());
+			position = 0;
+			// Keep the executor busy while the caller reads this segment
+			fillPending();
+		}
+		return true;
+	}
+
+	/**
+	 * Reads encrypted segments and hands them to the executor until enough segments are in flight
+	 * 
+	 * @throws IOException
+	 */
+	private void fillPending() throws IOException {
+		while (!endOfInput && pending.size() < maxPendingSegments) {
+			final byte[] data = pool.acquire(encryptedSegmentSize);
+			final int length;
+			try {
+				length = readSegment(data);
+			} catch (IOException e) {
+				pool.release(data);
+				throw e;
+			}
+			if (length == 0) {
+				pool.release(data);
+				// Only possible for the first segment, later ones are known to exist through the lookahead
+				endOfInput = true;
+				if (cipher.isAuthenticated()) {
+					throw new IOException("The encrypted stream has no segments, it is truncated");
+				}
+				break;
+			}
+			if (length == encryptedSegmentSize) {
+				lookahead = in.read();
+			}
+			final boolean last = length < encryptedSegmentSize || lookahead < 0;
+			endOfInput = last;
+			final long segmentIndex = index++;
+			pending.add(executor.submit(new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws IOException {
+					try {
+						long start = System.nanoTime();
+						byte[] decrypted = cipher.decrypt(segmentIndex, data, length, last);
+						Instrumentations.get().decrypted(decrypted.length, System.nanoTime() - start);
+						return decrypted;
+					} finally {
+						pool.release(data);
+					}
+				}
+			}));
+		}
+	}
+
+	/**
+	 * Reads an encrypted segment, starting with the byte read ahead
+	 * 
+	 * @param b
+	 *            The array to read the segment into, it can be longer than a segment
+	 * @return the length of the segment, less than a full segment at the end of the stream
+	 * @throws IOException
+	 */
+	private int readSegment(byte[] b) throws IOException {
+		int offset = 0;
+		if (lookahead >= 0) {
+			b[offset++] = (byte) lookahead;
+			lookahead = -1;
+		}
+		while (offset < encryptedSegmentSize) {
+			int bytesRead = in.read(b, offset, encryptedSegmentSize - offset);
+			if (bytesRead < 0) {
+				break;
+			}
+			offset += bytesRead;
+		}
+		return offset;
+	}
+
+	private byte[] decrypted(Future<byte[]> result) throws IOException {
+		try {
+			return result.get();
+		} catch (InterruptedException e) {
+			cancelPending();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while decrypting");
+		} catch (ExecutionException e) {
+			cancelPending();
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Could not decrypt segment", e.getCause());
+		}
+	}
+
+	private void cancelPending() {
+		for (Future<byte[]> result : pending) {
+			result.cancel(false);
+		}
+		pending.clear();
+	}
+
+	@Override
+	public void close() throws IOException {
+		cancelPending();
+		in.close();
+	}
+
+}
@@ -0,0 +1,215 @@
+package org.fides.encryption;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.fides.components.BufferPool;
+import org.fides.instrumentation.Instrumentations;
+
+/**
+ * An {@link OutputStream} that encrypts the data in fixed-size segments with a {@link SegmentCipher}. Full segments are
+ * encrypted on an {@link ExecutorService} while the next segment is being filled, the encrypted segments are written in
+ * their original order. Only a limited number of segments is in flight at once, after that writing waits for the oldest
+ * one. The segments are borrowed from the default {@link BufferPool} and given back once they are encrypted. Like the
+ * cipher streams of {@link EncryptionUtils}, closing this stream closes the underlying stream.
+ */
+final class SegmentedCipherOutputStream extends FilterOutputStream {
+
+	private final SegmentCipher cipher;
+
+	private final ExecutorService executor;
+
+	private final int maxPendingSegments;
+
+	private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+
+	private final int segmentSize;
+
+	private final BufferPool pool;
+
+	private byte[] header;
+
+	private byte[] segment;
+
+	private int count = 0;
+
+	private long index = 0;
+
+	private boolean closed = false;
+
+	/**
+	 * Constructor for SegmentedCipherOutputStream
+	 * 
+	 * @param out
+	 *            The stream to write the encrypted data to
+	 * @param header
+	 *            The bytes to write before the first segment
+	 * @param cipher
+	 *            The cipher to encrypt the segments with
+	 * @param segmentSize
+	 *            The size of the plain text of a segment
+	 * @param executor
+	 *            The executor to encrypt the segments on
+	 * @param maxPendingSegments
+	 *            The maximum number of segments in flight
+	 */
+	SegmentedCipherOutputStream(OutputStream out, byte[] header, SegmentCipher cipher, int segmentSize, ExecutorService executor, int maxPendingSegments) {
+		super(out);
+		this.header = header;
+		this.cipher = cipher;
+		this.segmentSize = segmentSize;
+		this.executor = executor;
+		this.maxPendingSegments = maxPendingSegments;
+		pool = BufferPool.getDefault();
+		segment = pool.acquire(segmentSize);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (closed) {
+			throw new IOException("Stream is closed");
+		}
+		if (count == segmentSize) {
+			submitSegment(false);
+		}
+		segment[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (closed) {
+			throw new IOException("Stream is closed");
+		}
+		if (off < 0 || len < 0 || off > b.length - len) {
+			throw new IndexOutOfBoundsException();
+		}
+		while (len > 0) {
+			if (count == segmentSize) {
+				submitSegment(false);
+			}
+			int copied = Math.min(len, segmentSize - count);
+			System.arraycopy(b, off, segment, count, copied);
+			count += copied;
+			off += copied;
+			len -= copied;
+		}
+	}
+
+	/**
+	 * Hands the current segment to the executor and starts a new one. When too many segments are in flight, this waits for
+	 * the oldest one and writes it.
+	 * 
+	 * @param last
+	 *            Whether this is the last segment of the stream
+	 * @throws IOException
+	 */
+	private void submitSegment(final boolean last) throws IOException {
+		final byte[] data = segment;
+		final int length = count;
+		final long segmentIndex = index++;
+		// A segment that is cancelled before it is encrypted is not given back, it is left to the garbage collector
+		segment = null;
+		pending.add(executor.submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() {
+				try {
+					long start = System.nanoTime();
+					byte[] encrypted = cipher.encrypt(segmentIndex, data, length, last);
+					Instrumentations.get().encrypted(length, System.nanoTime() - start);
+					return encrypted;
+				} finally {
+					pool.release(data);
+				}
+			}
+		}));
+		if (!last) {
+			segment = pool.acquire(segmentSize);
+		}
+		count = 0;
+		while (pending.size() > maxPendingSegments) {
+			writeSegment(pending.poll());
+		}
+	}
+
+	/**
+	 * Waits for an encrypted segment and writes it
+	 * 
+	 * @param result
+	 *            The encryption of the segment
+	 * @throws IOException
+	 */
+	private void writeSegment(Future<byte[]> result) throws IOException {
+		byte[] encrypted;
+		try {
+			encrypted = result.get();
+		} catch (InterruptedException e) {
+			cancelPending();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while encrypting");
+		} catch (ExecutionException e) {
+			cancelPending();
+			throw new IOException("Could not encrypt segment", e.getCause());
+		}
+		writeHeader();
+		out.write(encrypted);
+	}
+
+	private void writeHeader() throws IOException {
+		if (header != null) {
+			out.write(header);
+			header = null;
+		}
+	}
+
+	private void cancelPending() {
+		for (Future<byte[]> result : pending) {
+			result.cancel(false);
+		}
+		pending.clear();
+	}
+
+	/**
+	 * Writes all segments that are in flight. The last segment is only written on close, because every segment except the
+	 * last has to be full.
+	 */
+	@Override
+	public void flush() throws IOException {
+		while (!pending.isEmpty()) {
+			writeSegment(pending.poll());
+		}
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			// An authenticated stream has to end with a last segment, even an empty one
+			if (count > 0 || cipher.isAuthenticated()) {
+				submitSegment(true);
+			}
+			while (!pending.isEmpty()) {
+				writeSegment(pending.poll());
+			}
+			writeHeader();
+			out.flush();
+		} finally {
+			if (segment != null) {
+				pool.release(segment);
+				segment = null;
+			}
+			out.close();
+		}
+	}
+
+}
@@ -0,0 +1,194 @@
+package org.fides.encryption;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+import org.fides.components.BufferPool;
+import org.fides.instrumentation.Instrumentations;
+
+/**
+ * A read-only {@link SeekableByteChannel} over the plain text of a stream encrypted in a segmented
+ * {@link EncryptionMode}. A read only fetches and decrypts the segments it touches, the last decrypted segment is kept so
+ * sequential reads decrypt every segment once. In an authenticated mode every segment is verified when it is read, a
+ * read that touches a changed segment throws an {@link IOException}. The buffer for the encrypted segments is borrowed
+ * from the default {@link BufferPool} until the channel is closed.
+ */
+final class SegmentedDecryptionChannel implements SeekableByteChannel {
+
+	private final SeekableByteChannel channel;
+
+	private final SegmentCipher cipher;
+
+	private final int segmentSize;
+
+	private final int encryptedSegmentSize;
+
+	private final long segmentCount;
+
+	private final long size;
+
+	private final BufferPool pool;
+
+	private byte[] encrypted;
+
+	private long position = 0;
+
+	private long cachedIndex = -1;
+
+	private byte[] cachedPlain;
+
+	/**
+	 * Constructor for SegmentedDecryptionChannel, reads the header of the encrypted data
+	 * 
+	 * @param channel
+	 *            The channel containing the encrypted data
+	 * @param key
+	 *            The raw key
+	 * @param expectedMode
+	 *            The mode the data has to be encrypted in, or null to accept both segmented modes
+	 * @throws IOException
+	 *             When the header can not be read or the data is not encrypted in a segmented mode, or in another mode
+	 *             than the expected one
+	 */
+	SegmentedDecryptionChannel(SeekableByteChannel channel, byte[] key, EncryptionMode expectedMode) throws IOException {
+		this.channel = channel;
+		ByteBuffer start = ByteBuffer.allocate(EncryptionHeader.SIZE);
+		readFully(0, start);
+		EncryptionHeader header = EncryptionHeader.parse(start.array(), start.position());
+		if (header == null) {
+			throw new IOException("The data is not encrypted in a segmented mode, random access is not possible");
+		}
+		if (expectedMode != null && header.getMode() != expectedMode) {
+			throw new IOException("The data is encrypted in " + header.getMode() + " instead of " + expectedMode);
+		}
+		cipher = header.createCipher(key);
+		segmentSize = header.getSegmentSize();
+		encryptedSegmentSize = segmentSize + cipher.getOverhead();
+
+		long encryptedSize = channel.size() - EncryptionHeader.SIZE;
+		segmentCount = (encryptedSize + encryptedSegmentSize - 1) / encryptedSegmentSize;
+		if (cipher.isAuthenticated() && segmentCount == 0) {
+			throw new IOException("The encrypted data has no segments, it is truncated");
+		}
+		if (encryptedSize - (segmentCount - 1) * encryptedSegmentSize < cipher.getOverhead()) {
+			throw new IOException("The last segment of the encrypted data is truncated");
+		}
+		size = encryptedSize - segmentCount * cipher.getOverhead();
+		pool = BufferPool.getDefault();
+		encrypted = pool.acquire(encryptedSegmentSize);
+	}
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		if (!isOpen()) {
+			throw new ClosedChannelException();
+		}
+		if (position >= size) {
+			return -1;
+		}
+		int bytesRead = 0;
+		while (dst.hasRemaining() && position < size) {
+			long index = position / segmentSize;
+			byte[] plain = segment(index);
+			int offset = (int) (position - index * segmentSize);
+			int length = Math.min(dst.remaining(), plain.length - offset);
+			dst.put(plain, offset, length);
+			position += length;
+			bytesRead += length;
+		}
+		return bytesRead;
+	}
+
+	/**
+	 * Returns the plain text of a segment, decrypting it when it is not the cached one
+	 * 
+	 * @param index
+	 *            The index of the segment
+	 * @return the plain text
+	 * @throws IOException
+	 */
+	private byte[] segment(long index) throws IOException {
+		if (index != cachedIndex) {
+			long offset = EncryptionHeader.SIZE + index * encryptedSegmentSize;
+			ByteBuffer buffer = ByteBuffer.wrap(encrypted, 0, encryptedSegmentSize);
+			readFully(offset, buffer);
+			long start = System.nanoTime();
+			cachedPlain = cipher.decrypt(index, encrypted, buffer.position(), index == segmentCount - 1);
+			Instrumentations.get().decrypted(cachedPlain.length, System.nanoTime() - start);
+			cachedIndex = index;
+		}
+		return cachedPlain;
+	}
+
+	/**
+	 * Reads from the given position until the buffer is full or the channel ends
+	 */
+	private void readFully(long offset, ByteBuffer buffer) throws IOException {
+		channel.position(offset);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				break;
+			}
+		}
+	}
+
+	@Override
+	public int write(ByteBuffer src) {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public long position() throws IOException {
+		if (!isOpen()) {
+			throw new ClosedChannelException();
+		}
+		return position;
+	}
+
+	@Override
+	public SeekableByteChannel position(long newPosition) throws IOException {
+		if (newPosition < 0) {
+			throw new IllegalArgumentException("Position can not be negative");
+		}
+		if (!isOpen()) {
+			throw new ClosedChannelException();
+		}
+		position = newPosition;
+		return this;
+	}
+
+	/**
+	 * Returns the size of the plain text
+	 */
+	@Override
+	public long size() throws IOException {
+		if (!isOpen()) {
+			throw new ClosedChannelException();
+		}
+		return size;
+	}
+
+	@Override
+	public SeekableByteChannel truncate(long newSize) {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public boolean isOpen() {
+		return channel.isOpen();
+	}
+
+	@Override
+	public void close() throws IOException {
+		cachedPlain = null;
+		if (encrypted != null) {
+			pool.release(encrypted);
+			encrypted = null;
+		}
+		channel.close();
+	}
+
+}
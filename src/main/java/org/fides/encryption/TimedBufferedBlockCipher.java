@@ -0,0 +1,54 @@
+package org.fides.encryption;
+
+import org.bouncycastle.crypto.BlockCipher;
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.paddings.BlockCipherPadding;
+import org.bouncycastle.crypto.paddings.PaddedBufferedBlockCipher;
+import org.fides.instrumentation.Instrumentation;
+import org.fides.instrumentation.Instrumentations;
+
+/**
+ * A padded block cipher that reports the time spent in it to the installed {@link Instrumentation}. The CBC streams
+ * process data a call at a time, so this is where their cipher time can be told apart from the time of the underlying
+ * stream.
+ */
+final class TimedBufferedBlockCipher extends PaddedBufferedBlockCipher {
+
+	/**
+	 * Constructor for TimedBufferedBlockCipher
+	 * 
+	 * @param cipher
+	 *            The underlying block cipher, with its chaining mode
+	 * @param padding
+	 *            The padding
+	 */
+	TimedBufferedBlockCipher(BlockCipher cipher, BlockCipherPadding padding) {
+		super(cipher, padding);
+	}
+
+	@Override
+	public int processBytes(byte[] in, int inOff, int len, byte[] out, int outOff) {
+		long start = System.nanoTime();
+		int written = super.processBytes(in, inOff, len, out, outOff);
+		report(forEncryption ? len : written, System.nanoTime() - start);
+		return written;
+	}
+
+	@Override
+	public int doFinal(byte[] out, int outOff) throws InvalidCipherTextException {
+		long start = System.nanoTime();
+		int written = super.doFinal(out, outOff);
+		// The padding is not plain text
+		report(forEncryption ? 0 : written, System.nanoTime() - start);
+		return written;
+	}
+
+	private void report(long bytes, long nanos) {
+		if (forEncryption) {
+			Instrumentations.get().encrypted(bytes, nanos);
+		} else {
+			Instrumentations.get().decrypted(bytes, nanos);
+		}
+	}
+
+}
@@ -0,0 +1,67 @@
+package org.fides.instrumentation;
+
+/**
+ * Receives measurements from the virtual streams, the encryption and the hashing. The components report to the
+ * instrumentation installed in {@link Instrumentations}, which by default ignores everything. Implementations are called
+ * on the threads doing the work, often many at once and for every chunk, so they have to be thread-safe and cheap.
+ */
+public interface Instrumentation {
+
+	/**
+	 * Called when a virtual stream or channel writes a chunk
+	 * 
+	 * @param length
+	 *            The length of the payload of the chunk
+	 */
+	void chunkWritten(int length);
+
+	/**
+	 * Called when a virtual stream or channel starts reading a chunk
+	 * 
+	 * @param length
+	 *            The length of the payload of the chunk
+	 */
+	void chunkRead(int length);
+
+	/**
+	 * Called when a virtual stream is flushed with data in its buffer
+	 */
+	void streamFlushed();
+
+	/**
+	 * Called when a block of plain text has been encrypted, a segment in the segmented modes or a write in CBC
+	 * 
+	 * @param bytes
+	 *            The number of plain text bytes
+	 * @param nanos
+	 *            The time the cipher took in nanoseconds
+	 */
+	void encrypted(long bytes, long nanos);
+
+	/**
+	 * Called when a block of cipher text has been decrypted, a segment in the segmented modes or a read in CBC
+	 * 
+	 * @param bytes
+	 *            The number of plain text bytes
+	 * @param nanos
+	 *            The time the cipher took in nanoseconds
+	 */
+	void decrypted(long bytes, long nanos);
+
+	/**
+	 * Called when a key has been derived from a password with PBKDF2
+	 * 
+	 * @param nanos
+	 *            The time the derivation took in nanoseconds
+	 */
+	void keyDerived(long nanos);
+
+	/**
+	 * Called when data has been hashed in a single call
+	 * 
+	 * @param bytes
+	 *            The number of bytes hashed
+	 */
+	void hashed(long bytes);
+
+}
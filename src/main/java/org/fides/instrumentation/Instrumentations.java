@@ -0,0 +1,79 @@
+package org.fides.instrumentation;
+
+/**
+ * Holds the {@link Instrumentation} the components report to. Until one is installed the measurements are dropped by
+ * {@link #NONE}, which costs a volatile read and an empty call per measurement.
+ */
+public final class Instrumentations {
+
+	/**
+	 * The instrumentation that ignores every measurement
+	 */
+	public static final Instrumentation NONE = new Instrumentation() {
+
+		@Override
+		public void chunkWritten(int length) {
+			// Ignored
+		}
+
+		@Override
+		public void chunkRead(int length) {
+			// Ignored
+		}
+
+		@Override
+		public void streamFlushed() {
+			// Ignored
+		}
+
+		@Override
+		public void encrypted(long bytes, long nanos) {
+			// Ignored
+		}
+
+		@Override
+		public void decrypted(long bytes, long nanos) {
+			// Ignored
+		}
+
+		@Override
+		public void keyDerived(long nanos) {
+			// Ignored
+		}
+
+		@Override
+		public void hashed(long bytes) {
+			// Ignored
+		}
+	};
+
+	private static volatile Instrumentation current = NONE;
+
+	private Instrumentations() {
+		// This class should not be instantiated
+	}
+
+	/**
+	 * Returns the installed instrumentation
+	 * 
+	 * @return the instrumentation, {@link #NONE} when none is installed
+	 */
+	public static Instrumentation get() {
+		return current;
+	}
+
+	/**
+	 * Installs an instrumentation for the whole process, replacing the one installed before
+	 * 
+	 * @param instrumentation
+	 *            The instrumentation, null to install {@link #NONE}
+	 */
+	public static void set(Instrumentation instrumentation) {
+		if (instrumentation == null) {
+			current = NONE;
+		} else {
+			current = instrumentation;
+		}
+	}
+
+}
@@ -0,0 +1,305 @@
+package org.fides.instrumentation;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * An {@link Instrumentation} that counts the measurements and keeps {@link Log2Histogram}s of the sizes of the chunks
+ * written and read and of the key derivation times, and publishes them as an MBean. Install it at startup:
+ * 
+ * <pre>
+ * JmxInstrumentation instrumentation = new JmxInstrumentation();
+ * instrumentation.register();
+ * Instrumentations.set(instrumentation);
+ * </pre>
+ * 
+ * The counters are atomic longs shared by all threads, which costs an atomic addition per measurement.
+ */
+public final class JmxInstrumentation implements Instrumentation, JmxInstrumentationMBean {
+
+	/** The name the MBean is registered under by default */
+	public static final String DEFAULT_NAME = "org.fides:type=Instrumentation";
+
+	private static final double NANOS_PER_MILLI = 1000000.0;
+
+	private static final double BYTES_PER_MEGABYTE = 1024.0 * 1024.0;
+
+	private final AtomicLong chunksWritten = new AtomicLong();
+
+	private final AtomicLong bytesWritten = new AtomicLong();
+
+	private final AtomicLong chunksRead = new AtomicLong();
+
+	private final AtomicLong bytesRead = new AtomicLong();
+
+	private final AtomicLong flushes = new AtomicLong();
+
+	private final Log2Histogram writtenChunkSizes = new Log2Histogram();
+
+	private final Log2Histogram readChunkSizes = new Log2Histogram();
+
+	private final AtomicLong encryptedBytes = new AtomicLong();
+
+	private final AtomicLong encryptionNanos = new AtomicLong();
+
+	private final AtomicLong decryptedBytes = new AtomicLong();
+
+	private final AtomicLong decryptionNanos = new AtomicLong();
+
+	private final Log2Histogram keyDerivationNanos = new Log2Histogram();
+
+	private final AtomicLong hashCalls = new AtomicLong();
+
+	private final AtomicLong hashedBytes = new AtomicLong();
+
+	private MBeanServer server;
+
+	private ObjectName name;
+
+	/**
+	 * Registers the MBean with the platform MBean server under {@link #DEFAULT_NAME}
+	 * 
+	 * @throws JMException
+	 *             When the MBean can not be registered, for example because the name is taken
+	 */
+	public void register() throws JMException {
+		register(ManagementFactory.getPlatformMBeanServer(), DEFAULT_NAME);
+	}
+
+	/**
+	 * Registers the MBean
+	 * 
+	 * @param server
+	 *            The MBean server
+	 * @param objectName
+	 *            The name to register under
+	 * @throws JMException
+	 *             When the MBean can not be registered, for example because the name is taken
+	 */
+	public synchronized void register(MBeanServer server, String objectName) throws JMException {
+		if (name != null) {
+			throw new IllegalStateException("Already registered as " + name);
+		}
+		name = server.registerMBean(this, new ObjectName(objectName)).getObjectName();
+		this.server = server;
+	}
+
+	/**
+	 * Unregisters the MBean, when it is registered
+	 * 
+	 * @throws JMException
+	 *             When the MBean can not be unregistered
+	 */
+	public synchronized void unregister() throws JMException {
+		if (name == null) {
+			return;
+		}
+		server.unregisterMBean(name);
+		server = null;
+		name = null;
+	}
+
+	@Override
+	public void chunkWritten(int length) {
+		chunksWritten.incrementAndGet();
+		bytesWritten.addAndGet(length);
+		writtenChunkSizes.record(length);
+	}
+
+	@Override
+	public void chunkRead(int length) {
+		chunksRead.incrementAndGet();
+		bytesRead.addAndGet(length);
+		readChunkSizes.record(length);
+	}
+
+	@Override
+	public void streamFlushed() {
+		flushes.incrementAndGet();
+	}
+
+	@Override
+	public void encrypted(long bytes, long nanos) {
+		encryptedBytes.addAndGet(bytes);
+		encryptionNanos.addAndGet(nanos);
+	}
+
+	@Override
+	public void decrypted(long bytes, long nanos) {
+		decryptedBytes.addAndGet(bytes);
+		decryptionNanos.addAndGet(nanos);
+	}
+
+	@Override
+	public void keyDerived(long nanos) {
+		keyDerivationNanos.record(nanos);
+	}
+
+	@Override
+	public void hashed(long bytes) {
+		hashCalls.incrementAndGet();
+		hashedBytes.addAndGet(bytes);
+	}
+
+	@Override
+	public long getChunksWritten() {
+		return chunksWritten.get();
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return bytesWritten.get();
+	}
+
+	@Override
+	public long getChunksRead() {
+		return chunksRead.get();
+	}
+
+	@Override
+	public long getBytesRead() {
+		return bytesRead.get();
+	}
+
+	@Override
+	public long getFlushes() {
+		return flushes.get();
+	}
+
+	@Override
+	public double getWrittenChunkSizeMean() {
+		return writtenChunkSizes.getMean();
+	}
+
+	@Override
+	public long getWrittenChunkSizeMedian() {
+		return writtenChunkSizes.getPercentile(50);
+	}
+
+	@Override
+	public long getWrittenChunkSize99thPercentile() {
+		return writtenChunkSizes.getPercentile(99);
+	}
+
+	@Override
+	public double getReadChunkSizeMean() {
+		return readChunkSizes.getMean();
+	}
+
+	@Override
+	public long getReadChunkSizeMedian() {
+		return readChunkSizes.getPercentile(50);
+	}
+
+	@Override
+	public long getReadChunkSize99thPercentile() {
+		return readChunkSizes.getPercentile(99);
+	}
+
+	@Override
+	public long getEncryptedBytes() {
+		return encryptedBytes.get();
+	}
+
+	@Override
+	public double getEncryptionMegabytesPerSecond() {
+		return megabytesPerSecond(encryptedBytes.get(), encryptionNanos.get());
+	}
+
+	@Override
+	public long getDecryptedBytes() {
+		return decryptedBytes.get();
+	}
+
+	@Override
+	public double getDecryptionMegabytesPerSecond() {
+		return megabytesPerSecond(decryptedBytes.get(), decryptionNanos.get());
+	}
+
+	private static double megabytesPerSecond(long bytes, long nanos) {
+		if (nanos <= 0) {
+			return 0;
+		}
+		return bytes / BYTES_PER_MEGABYTE / (nanos / 1e9);
+	}
+
+	@Override
+	public long getKeyDerivations() {
+		return keyDerivationNanos.getCount();
+	}
+
+	@Override
+	public double getKeyDerivationMillisMedian() {
+		return keyDerivationNanos.getPercentile(50) / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public double getKeyDerivationMillis99thPercentile() {
+		return keyDerivationNanos.getPercentile(99) / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public double getKeyDerivationMillisMax() {
+		return keyDerivationNanos.getMax() / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public long getHashCalls() {
+		return hashCalls.get();
+	}
+
+	@Override
+	public long getHashedBytes() {
+		return hashedBytes.get();
+	}
+
+	/**
+	 * Returns the histogram of the payload sizes of the chunks written, for reporting beyond JMX
+	 * 
+	 * @return the histogram in bytes
+	 */
+	public Log2Histogram getWrittenChunkSizeHistogram() {
+		return writtenChunkSizes;
+	}
+
+	/**
+	 * Returns the histogram of the payload sizes of the chunks read, for reporting beyond JMX
+	 * 
+	 * @return the histogram in bytes
+	 */
+	public Log2Histogram getReadChunkSizeHistogram() {
+		return readChunkSizes;
+	}
+
+	/**
+	 * Returns the histogram of the key derivation times, for reporting beyond JMX
+	 * 
+	 * @return the histogram in nanoseconds
+	 */
+	public Log2Histogram getKeyDerivationHistogram() {
+		return keyDerivationNanos;
+	}
+
+	@Override
+	public void reset() {
+		chunksWritten.set(0);
+		bytesWritten.set(0);
+		chunksRead.set(0);
+		bytesRead.set(0);
+		flushes.set(0);
+		writtenChunkSizes.reset();
+		readChunkSizes.reset();
+		encryptedBytes.set(0);
+		encryptionNanos.set(0);
+		decryptedBytes.set(0);
+		decryptionNanos.set(0);
+		keyDerivationNanos.reset();
+		hashCalls.set(0);
+		hashedBytes.set(0);
+	}
+
+}
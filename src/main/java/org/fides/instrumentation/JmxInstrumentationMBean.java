@@ -0,0 +1,119 @@
+package org.fides.instrumentation;
+
+/**
+ * The attributes and operations {@link JmxInstrumentation} publishes over JMX. Sizes are in bytes, times in
+ * milliseconds, percentiles are upper bounds within a factor of two.
+ */
+public interface JmxInstrumentationMBean {
+
+	/**
+	 * @return the number of chunks written by virtual streams and channels
+	 */
+	long getChunksWritten();
+
+	/**
+	 * @return the number of payload bytes written by virtual streams and channels
+	 */
+	long getBytesWritten();
+
+	/**
+	 * @return the number of chunks read by virtual streams and channels
+	 */
+	long getChunksRead();
+
+	/**
+	 * @return the number of payload bytes read by virtual streams and channels
+	 */
+	long getBytesRead();
+
+	/**
+	 * @return the number of flushes of virtual streams with data in their buffer
+	 */
+	long getFlushes();
+
+	/**
+	 * @return the average payload size of the chunks written
+	 */
+	double getWrittenChunkSizeMean();
+
+	/**
+	 * @return the median payload size of the chunks written
+	 */
+	long getWrittenChunkSizeMedian();
+
+	/**
+	 * @return the 99th percentile of the payload size of the chunks written
+	 */
+	long getWrittenChunkSize99thPercentile();
+
+	/**
+	 * @return the average payload size of the chunks read
+	 */
+	double getReadChunkSizeMean();
+
+	/**
+	 * @return the median payload size of the chunks read
+	 */
+	long getReadChunkSizeMedian();
+
+	/**
+	 * @return the 99th percentile of the payload size of the chunks read
+	 */
+	long getReadChunkSize99thPercentile();
+
+	/**
+	 * @return the number of plain text bytes encrypted
+	 */
+	long getEncryptedBytes();
+
+	/**
+	 * @return the encryption speed in megabytes per second of cipher time
+	 */
+	double getEncryptionMegabytesPerSecond();
+
+	/**
+	 * @return the number of plain text bytes decrypted
+	 */
+	long getDecryptedBytes();
+
+	/**
+	 * @return the decryption speed in megabytes per second of cipher time
+	 */
+	double getDecryptionMegabytesPerSecond();
+
+	/**
+	 * @return the number of keys derived with PBKDF2
+	 */
+	long getKeyDerivations();
+
+	/**
+	 * @return the median time of a PBKDF2 key derivation
+	 */
+	double getKeyDerivationMillisMedian();
+
+	/**
+	 * @return the 99th percentile of the time of a PBKDF2 key derivation
+	 */
+	double getKeyDerivationMillis99thPercentile();
+
+	/**
+	 * @return the longest time of a PBKDF2 key derivation
+	 */
+	double getKeyDerivationMillisMax();
+
+	/**
+	 * @return the number of hash calls
+	 */
+	long getHashCalls();
+
+	/**
+	 * @return the number of bytes hashed
+	 */
+	long getHashedBytes();
+
+	/**
+	 * Sets all counters and histograms back to zero
+	 */
+	void reset();
+
+}
@@ -0,0 +1,148 @@
+package org.fides.instrumentation;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative values with a bucket per power of two. Bucket 0 counts the value 0 and bucket i the values
+ * from 2^(i-1) to 2^i - 1, so percentiles are known to within a factor of two, which is enough to see where time or
+ * bytes go. Recording a value is a few atomic additions without locks or allocation. This class is thread-safe, a
+ * percentile read while values are recorded may include some of them and not others.
+ */
+public final class Log2Histogram {
+
+	/** The number of buckets, enough for every non-negative long */
+	private static final int BUCKET_COUNT = 64;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong sum = new AtomicLong();
+
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a value
+	 * 
+	 * @param value
+	 *            The value, negative values are recorded as 0
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		buckets.incrementAndGet(bucket(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long current;
+		while (value > (current = max.get())) {
+			if (max.compareAndSet(current, value)) {
+				break;
+			}
+		}
+	}
+
+	private static int bucket(long value) {
+		return 64 - Long.numberOfLeadingZeros(value);
+	}
+
+	/**
+	 * Returns the number of recorded values
+	 * 
+	 * @return the count
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Returns the sum of the recorded values
+	 * 
+	 * @return the sum
+	 */
+	public long getSum() {
+		return sum.get();
+	}
+
+	/**
+	 * Returns the largest recorded value
+	 * 
+	 * @return the maximum, 0 when nothing is recorded
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Returns the average of the recorded values
+	 * 
+	 * @return the mean, 0 when nothing is recorded
+	 */
+	public double getMean() {
+		long n = count.get();
+		if (n == 0) {
+			return 0;
+		}
+		return (double) sum.get() / n;
+	}
+
+	/**
+	 * Returns an upper bound of a percentile: the largest value of the bucket the percentile falls in, but not more than
+	 * the maximum
+	 * 
+	 * @param percentile
+	 *            The percentile, from 0 to 100
+	 * @return the upper bound, 0 when nothing is recorded
+	 */
+	public long getPercentile(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("Percentile has to be between 0 and 100");
+		}
+		long[] counts = getBuckets();
+		long total = 0;
+		for (long bucketCount : counts) {
+			total += bucketCount;
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				// For the last bucket this overflows to Long.MAX_VALUE
+				long upper = i == 0 ? 0 : (1L << i) - 1;
+				return Math.min(upper, max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Returns a copy of the counts of the buckets
+	 * 
+	 * @return the count per bucket, index i counts the values below 2^i that are not in an earlier bucket
+	 */
+	public long[] getBuckets() {
+		long[] counts = new long[BUCKET_COUNT];
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts[i] = buckets.get(i);
+		}
+		return counts;
+	}
+
+	/**
+	 * Forgets all recorded values
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+}
@@ -0,0 +1,223 @@
+package org.fides.tools;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The list of chunks a file consists of, in order, by their hexadecimal id and length. A file stored in chunks is kept
+ * as its manifest, and the chunks themselves are kept once per id, so a chunk that appears in several files, or several
+ * versions of a file, is stored and sent once. The manifest is written in a compact binary form:
+ * 
+ * <pre>
+ * magic      4 bytes  "FIDM"
+ * version    1 byte   {@link #VERSION}
+ * count      4 bytes  the number of chunks
+ * per chunk:
+ *   id       1 byte length and the raw bytes of the id
+ *   length   4 bytes
+ * </pre>
+ */
+public final class ChunkManifest {
+
+	/** The current format version */
+	public static final byte VERSION = 1;
+
+	/** "FIDM" */
+	private static final byte[] MAGIC = { 0x46, 0x49, 0x44, 0x4D };
+
+	private final List<Chunk> chunks = new ArrayList<>();
+
+	private long length = 0;
+
+	/**
+	 * Adds the next chunk of the file
+	 * 
+	 * @param id
+	 *            The id of the chunk, an even number of lowercase hexadecimal characters
+	 * @param chunkLength
+	 *            The length of the chunk
+	 */
+	public void add(String id, int chunkLength) {
+		if (!isLowercaseHex(id) || id.length() > 2 * 255 || chunkLength < 0) {
+			throw new IllegalArgumentException("Invalid chunk " + id + " of " + chunkLength + " bytes");
+		}
+		chunks.add(new Chunk(id, length, chunkLength));
+		length += chunkLength;
+	}
+
+	/**
+	 * The ids are written as bytes, so only ids that come out of {@link HashUtils#toHex(byte[])} the same can be read back
+	 */
+	private static boolean isLowercaseHex(String id) {
+		if (id.isEmpty() || id.length() % 2 != 0) {
+			return false;
+		}
+		for (int i = 0; i < id.length(); i++) {
+			char c = id.charAt(i);
+			if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the chunks in the order of the file
+	 * 
+	 * @return the chunks
+	 */
+	public List<Chunk> getChunks() {
+		return Collections.unmodifiableList(chunks);
+	}
+
+	/**
+	 * Returns the length of the file
+	 * 
+	 * @return the sum of the lengths of the chunks
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Returns the ids of the chunks, every id once, in the order they first appear
+	 * 
+	 * @return the ids
+	 */
+	public Set<String> getChunkIds() {
+		Set<String> ids = new LinkedHashSet<>();
+		for (Chunk chunk : chunks) {
+			ids.add(chunk.getId());
+		}
+		return ids;
+	}
+
+	/**
+	 * Returns the ids of the chunks that are not in another manifest, for example the previous version of the file.
+	 * These are the only chunks an update has to send.
+	 * 
+	 * @param other
+	 *            The other manifest
+	 * @return the ids that are only in this manifest, every id once
+	 */
+	public Set<String> getChunkIdsNotIn(ChunkManifest other) {
+		Set<String> ids = getChunkIds();
+		ids.removeAll(other.getChunkIds());
+		return ids;
+	}
+
+	/**
+	 * Writes the manifest, the stream is not closed
+	 * 
+	 * @param out
+	 *            The stream to write to
+	 * @throws IOException
+	 */
+	public void write(OutputStream out) throws IOException {
+		DataOutputStream dataOut = new DataOutputStream(out);
+		dataOut.write(MAGIC);
+		dataOut.writeByte(VERSION);
+		dataOut.writeInt(chunks.size());
+		for (Chunk chunk : chunks) {
+			byte[] id = HashUtils.fromHex(chunk.getId());
+			dataOut.writeByte(id.length);
+			dataOut.write(id);
+			dataOut.writeInt(chunk.getLength());
+		}
+		dataOut.flush();
+	}
+
+	/**
+	 * Reads a manifest written by {@link #write(OutputStream)}, the stream is not closed
+	 * 
+	 * @param in
+	 *            The stream to read from
+	 * @return the manifest
+	 * @throws IOException
+	 *             If reading fails or the data is not a manifest
+	 */
+	public static ChunkManifest read(InputStream in) throws IOException {
+		DataInputStream dataIn = new DataInputStream(in);
+		try {
+			byte[] magic = new byte[MAGIC.length];
+			dataIn.readFully(magic);
+			if (!Arrays.equals(MAGIC, magic) || dataIn.readByte() != VERSION) {
+				throw new IOException("Not a chunk manifest of version " + VERSION);
+			}
+			int count = dataIn.readInt();
+			if (count < 0) {
+				throw new IOException("Invalid number of chunks in the manifest");
+			}
+			ChunkManifest manifest = new ChunkManifest();
+			for (int i = 0; i < count; i++) {
+				byte[] id = new byte[dataIn.readUnsignedByte()];
+				dataIn.readFully(id);
+				int chunkLength = dataIn.readInt();
+				if (id.length == 0 || chunkLength < 0) {
+					throw new IOException("Invalid chunk in the manifest");
+				}
+				manifest.add(HashUtils.toHex(id), chunkLength);
+			}
+			return manifest;
+		} catch (EOFException e) {
+			throw new IOException("Unexpected end of the chunk manifest", e);
+		}
+	}
+
+	/**
+	 * A chunk of a file
+	 */
+	public static final class Chunk {
+
+		private final String id;
+
+		private final long offset;
+
+		private final int length;
+
+		private Chunk(String id, long offset, int length) {
+			this.id = id;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		/**
+		 * Returns the id of the chunk
+		 * 
+		 * @return the hexadecimal id
+		 */
+		public String getId() {
+			return id;
+		}
+
+		/**
+		 * Returns the position of the chunk in the file
+		 * 
+		 * @return the offset in bytes
+		 */
+		public long getOffset() {
+			return offset;
+		}
+
+		/**
+		 * Returns the length of the chunk
+		 * 
+		 * @return the length in bytes
+		 */
+		public int getLength() {
+			return length;
+		}
+
+	}
+
+}
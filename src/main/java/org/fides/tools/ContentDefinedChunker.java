@@ -0,0 +1,211 @@
+package org.fides.tools;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Splits data into chunks at positions chosen by the content, with FastCDC: a gear hash rolls over the bytes and a chunk
+ * ends where the hash matches a mask. Because a boundary only depends on the 64 bytes before it, inserting or removing
+ * bytes in a file only changes the chunks around the change, the boundaries further on are found again. Chunks are at
+ * least the minimum and at most the maximum size. Below the average size a stricter mask is used and above it a looser
+ * one, which keeps most chunks close to the average. The gear table and the masks decide every boundary, changing them
+ * makes all chunks of existing files different. This class is immutable and thread-safe.
+ */
+public final class ContentDefinedChunker {
+
+	/**
+	 * Receives the chunks of {@link ContentDefinedChunker#split(InputStream, Listener)}
+	 */
+	public interface Listener {
+
+		/**
+		 * Called for every chunk in order. The array is reused after this returns.
+		 * 
+		 * @param data
+		 *            The array containing the chunk
+		 * @param offset
+		 *            The offset of the chunk
+		 * @param length
+		 *            The length of the chunk
+		 * @throws IOException
+		 */
+		void chunk(byte[] data, int offset, int length) throws IOException;
+
+	}
+
+	/** The default minimum chunk size */
+	public static final int DEFAULT_MIN_SIZE = 2 * 1024;
+
+	/** The default average chunk size */
+	public static final int DEFAULT_AVERAGE_SIZE = 8 * 1024;
+
+	/** The default maximum chunk size, a chunk fits in one segment of the segmented encryption modes */
+	public static final int DEFAULT_MAX_SIZE = 64 * 1024;
+
+	/** The random value of every byte value in the gear hash */
+	private static final long[] GEAR = new long[256];
+
+	static {
+		// A fixed xorshift64* sequence, the same on every platform and in every version
+		long state = 0x46696465734344L;
+		for (int i = 0; i < GEAR.length; i++) {
+			state ^= state >>> 12;
+			state ^= state << 25;
+			state ^= state >>> 27;
+			GEAR[i] = state * 0x2545F4914F6CDD1DL;
+		}
+	}
+
+	private final int minSize;
+
+	private final int averageSize;
+
+	private final int maxSize;
+
+	/** The mask below the average size, two bits more than the average needs */
+	private final long strictMask;
+
+	/** The mask above the average size, two bits less than the average needs */
+	private final long looseMask;
+
+	/**
+	 * Constructor for ContentDefinedChunker with the default sizes
+	 */
+	public ContentDefinedChunker() {
+		this(DEFAULT_MIN_SIZE, DEFAULT_AVERAGE_SIZE, DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * Constructor for ContentDefinedChunker
+	 * 
+	 * @param minSize
+	 *            The minimum chunk size, only the last chunk can be smaller
+	 * @param averageSize
+	 *            The average chunk size, a power of 2 of at least 64
+	 * @param maxSize
+	 *            The maximum chunk size
+	 */
+	public ContentDefinedChunker(int minSize, int averageSize, int maxSize) {
+		if (averageSize < 64 || Integer.bitCount(averageSize) != 1) {
+			throw new IllegalArgumentException("The average size has to be a power of 2 of at least 64");
+		}
+		if (minSize < 1 || minSize > averageSize || maxSize < averageSize) {
+			throw new IllegalArgumentException("The sizes have to be 0 < minimum <= average <= maximum");
+		}
+		this.minSize = minSize;
+		this.averageSize = averageSize;
+		this.maxSize = maxSize;
+		int bits = Integer.numberOfTrailingZeros(averageSize);
+		strictMask = highBits(bits + 2);
+		looseMask = highBits(bits - 2);
+	}
+
+	/**
+	 * The high bits of the gear hash depend on the last 64 bytes, the low bits only on the last few
+	 */
+	private static long highBits(int count) {
+		return -1L << (64 - count);
+	}
+
+	/**
+	 * Finds the end of the first chunk in a range of bytes
+	 * 
+	 * @param data
+	 *            The array containing the bytes
+	 * @param offset
+	 *            The offset of the first byte
+	 * @param length
+	 *            The number of bytes available, when these are not all bytes that follow it has to be at least the
+	 *            maximum chunk size
+	 * @return the length of the first chunk
+	 */
+	public int cut(byte[] data, int offset, int length) {
+		if (length <= minSize) {
+			return length;
+		}
+		int end = Math.min(length, maxSize);
+		int normal = Math.min(end, averageSize);
+		long hash = 0;
+		int i = minSize;
+		for (; i < normal; i++) {
+			hash = (hash << 1) + GEAR[data[offset + i] & 0xFF];
+			if ((hash & strictMask) == 0) {
+				return i + 1;
+			}
+		}
+		for (; i < end; i++) {
+			hash = (hash << 1) + GEAR[data[offset + i] & 0xFF];
+			if ((hash & looseMask) == 0) {
+				return i + 1;
+			}
+		}
+		return end;
+	}
+
+	/**
+	 * Splits everything a stream returns into chunks, the stream is not closed
+	 * 
+	 * @param in
+	 *            The stream to split
+	 * @param listener
+	 *            Receives the chunks
+	 * @throws IOException
+	 *             When reading the stream or the listener fails
+	 */
+	public void split(InputStream in, Listener listener) throws IOException {
+		byte[] buffer = new byte[2 * maxSize];
+		int start = 0;
+		int end = 0;
+		boolean ended = false;
+		while (true) {
+			// Keep at least a maximum chunk available, so cut sees every byte a boundary can depend on
+			while (!ended && end - start < maxSize) {
+				if (end == buffer.length) {
+					System.arraycopy(buffer, start, buffer, 0, end - start);
+					end -= start;
+					start = 0;
+				}
+				int bytesRead = in.read(buffer, end, buffer.length - end);
+				if (bytesRead < 0) {
+					ended = true;
+				} else {
+					end += bytesRead;
+				}
+			}
+			if (start == end) {
+				return;
+			}
+			int length = cut(buffer, start, end - start);
+			listener.chunk(buffer, start, length);
+			start += length;
+		}
+	}
+
+	/**
+	 * Returns the minimum chunk size
+	 * 
+	 * @return the minimum size
+	 */
+	public int getMinSize() {
+		return minSize;
+	}
+
+	/**
+	 * Returns the average chunk size
+	 * 
+	 * @return the average size
+	 */
+	public int getAverageSize() {
+		return averageSize;
+	}
+
+	/**
+	 * Returns the maximum chunk size
+	 * 
+	 * @return the maximum size
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+}
@@ -1,11 +1,23 @@
 package org.fides.tools;
 
-import java.math.BigInteger;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.fides.instrumentation.Instrumentations;
 
 /**
  * Utils for client
@@ -22,6 +34,62 @@ public class HashUtils {
 	 */
 	private static final String HASH_ALGORITHM = "SHA-256";
 
+	/**
+	 * The keyed hash function, HMAC with the hash function
+	 */
+	private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+	/**
+	 * The largest part of a file that is mapped into memory at once
+	 */
+	private static final long MAPPING_WINDOW_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * The size of the buffer for hashing streams
+	 */
+	private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * The lowercase hexadecimal digits by value
+	 */
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	/**
+	 * The value of every ASCII character as hexadecimal digit, -1 for characters that are not hexadecimal
+	 */
+	private static final byte[] DIGIT_VALUES = new byte[128];
+
+	static {
+		Arrays.fill(DIGIT_VALUES, (byte) -1);
+		for (int i = 0; i < 10; i++) {
+			DIGIT_VALUES['0' + i] = (byte) i;
+		}
+		for (int i = 0; i < 6; i++) {
+			DIGIT_VALUES['a' + i] = (byte) (10 + i);
+			DIGIT_VALUES['A' + i] = (byte) (10 + i);
+		}
+	}
+
+	/**
+	 * A digest per thread, looking up the algorithm for every hash costs more than hashing a short string
+	 */
+	private static final ThreadLocal<MessageDigest> DIGEST = new ThreadLocal<>();
+
+	/**
+	 * A MAC per thread, like the digest
+	 */
+	private static final ThreadLocal<Mac> MAC = new ThreadLocal<Mac>() {
+		@Override
+		protected Mac initialValue() {
+			try {
+				return Mac.getInstance(HMAC_ALGORITHM);
+			} catch (NoSuchAlgorithmException e) {
+				// Every Java platform has to support HmacSHA256
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+
 	/**
 	 * Hash data
 	 * 
@@ -30,15 +98,173 @@ public class HashUtils {
 	 * @return hash of data
 	 */
 	public static String hash(String data) {
+		MessageDigest messageDigest = digest();
+		if (messageDigest == null) {
+			return null;
+		}
+		messageDigest.reset();
+		byte[] bytes = data.getBytes();
+		messageDigest.update(bytes);
+		Instrumentations.get().hashed(bytes.length);
+		return toHex(messageDigest.digest());
+	}
+
+	/**
+	 * Returns the digest of the current thread. A failed lookup is not cached, so every call tries again and logs the
+	 * cause.
+	 * 
+	 * @return the digest, or null when the algorithm is not available
+	 */
+	private static MessageDigest digest() {
+		MessageDigest messageDigest = DIGEST.get();
+		if (messageDigest == null) {
+			try {
+				messageDigest = MessageDigest.getInstance(HASH_ALGORITHM);
+			} catch (NoSuchAlgorithmException e) {
+				LOG.error(e);
+				return null;
+			}
+			DIGEST.set(messageDigest);
+		}
+		return messageDigest;
+	}
+
+	/**
+	 * Keyed hash of a range of bytes with HMAC-SHA256. Unlike a plain hash, the result can only be computed, or
+	 * compared to a guess, by someone who has the key.
+	 * 
+	 * @param key
+	 *            the secret key
+	 * @param data
+	 *            the bytes to hash
+	 * @param off
+	 *            the offset of the first byte
+	 * @param len
+	 *            the number of bytes to hash
+	 * @return the 32 byte keyed hash
+	 */
+	public static byte[] hmac(byte[] key, byte[] data, int off, int len) {
+		checkRange(data.length, off, len);
+		Mac mac = MAC.get();
 		try {
-			MessageDigest messageDigest = MessageDigest.getInstance(HASH_ALGORITHM);
-			messageDigest.update(data.getBytes());
-			return toHex(messageDigest.digest());
-		} catch (NoSuchAlgorithmException e) {
-			LOG.error(e);
+			mac.init(new SecretKeySpec(key, HMAC_ALGORITHM));
+		} catch (InvalidKeyException e) {
+			throw new IllegalArgumentException("Invalid HMAC key", e);
+		}
+		mac.update(data, off, len);
+		Instrumentations.get().hashed(len);
+		return mac.doFinal();
+	}
+
+	/**
+	 * Hash the remaining bytes of a buffer, the buffer is advanced to its limit
+	 * 
+	 * @param data
+	 *            to hash
+	 * @return hash of data
+	 */
+	public static String hash(ByteBuffer data) {
+		MessageDigest messageDigest = digest();
+		if (messageDigest == null) {
+			return null;
+		}
+		messageDigest.reset();
+		Instrumentations.get().hashed(data.remaining());
+		messageDigest.update(data);
+		return toHex(messageDigest.digest());
+	}
+
+	/**
+	 * Hash a file without loading it, the file is mapped into memory a window at a time
+	 * 
+	 * @param file
+	 *            to hash
+	 * @return hash of the contents of the file
+	 * @throws IOException
+	 *             when the file can not be read
+	 */
+	public static String hash(Path file) throws IOException {
+		MessageDigest messageDigest = digest();
+		if (messageDigest == null) {
+			return null;
+		}
+		messageDigest.reset();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			for (long position = 0; position < size; position += MAPPING_WINDOW_SIZE) {
+				long length = Math.min(MAPPING_WINDOW_SIZE, size - position);
+				messageDigest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, length));
+			}
+			Instrumentations.get().hashed(size);
+		}
+		return toHex(messageDigest.digest());
+	}
+
+	/**
+	 * Hash everything a stream returns until its end, the stream is not closed. To hash data while it is used for
+	 * something else, use a {@link HashingInputStream} or a {@link HashingOutputStream} instead.
+	 * 
+	 * @param in
+	 *            the stream to hash
+	 * @return hash of the data
+	 * @throws IOException
+	 *             when the stream can not be read
+	 */
+	public static String hash(InputStream in) throws IOException {
+		MessageDigest messageDigest = digest();
+		if (messageDigest == null) {
+			return null;
 		}
-		return null;
+		messageDigest.reset();
+		byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+		long total = 0;
+		int bytesRead;
+		while ((bytesRead = in.read(buffer)) != -1) {
+			messageDigest.update(buffer, 0, bytesRead);
+			total += bytesRead;
+		}
+		Instrumentations.get().hashed(total);
+		return toHex(messageDigest.digest());
+	}
+
+	/**
+	 * Hash a large file on all cores, as the root of a {@link TreeHash} with the default leaf size. The result differs from
+	 * {@link #hash(Path)}, both sides of a transfer have to use the same kind of hash.
+	 * 
+	 * @param file
+	 *            to hash
+	 * @return the tree hash of the contents of the file
+	 * @throws IOException
+	 *             when the file can not be read
+	 */
+	public static String treeHash(Path file) throws IOException {
+		return TreeHash.of(file).getHexRoot();
+	}
+
+	/**
+	 * Hash the remaining bytes of a buffer on all cores, as the root of a {@link TreeHash} with the default leaf size. The
+	 * position of the buffer is not changed.
+	 * 
+	 * @param data
+	 *            to hash
+	 * @return the tree hash of the data
+	 */
+	public static String treeHash(ByteBuffer data) {
+		return TreeHash.of(data, TreeHash.DEFAULT_LEAF_SIZE).getHexRoot();
+	}
 
+	/**
+	 * Creates a new digest of the hash algorithm, for hashing data that arrives in parts
+	 * 
+	 * @return the digest
+	 */
+	static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform has to support SHA-256
+			throw new IllegalStateException(e);
+		}
 	}
 
 	/**
@@ -49,14 +275,85 @@ public class HashUtils {
 	 * @return a length*2 character string encoding the byte array
 	 */
 	public static String toHex(byte[] array) {
-		BigInteger bi = new BigInteger(1, array);
-		String hex = bi.toString(16);
-		int paddingLength = (array.length * 2) - hex.length();
-		if (paddingLength > 0) {
-			return String.format("%0" + paddingLength + "d", 0) + hex;
-		} else {
-			return hex;
+		char[] hex = new char[array.length * 2];
+		toHex(array, 0, array.length, hex, 0);
+		return new String(hex);
+	}
+
+	/**
+	 * Writes the lowercase hexadecimal characters of a range of bytes into a char array
+	 * 
+	 * @param src
+	 *            the bytes to convert
+	 * @param srcOff
+	 *            the offset of the first byte
+	 * @param len
+	 *            the number of bytes to convert
+	 * @param dst
+	 *            the array to write len*2 characters to
+	 * @param dstOff
+	 *            the offset in dst to start writing
+	 * @return the number of characters written
+	 */
+	public static int toHex(byte[] src, int srcOff, int len, char[] dst, int dstOff) {
+		checkRange(src.length, srcOff, len);
+		checkRange(dst.length, dstOff, len * 2);
+		for (int i = 0; i < len; i++) {
+			int value = src[srcOff + i] & 0xFF;
+			dst[dstOff + 2 * i] = HEX_DIGITS[value >>> 4];
+			dst[dstOff + 2 * i + 1] = HEX_DIGITS[value & 0x0F];
 		}
+		return len * 2;
+	}
+
+	/**
+	 * Writes the lowercase hexadecimal characters of a range of bytes into a byte array as ASCII, so they can be written to
+	 * a stream without creating a string
+	 * 
+	 * @param src
+	 *            the bytes to convert
+	 * @param srcOff
+	 *            the offset of the first byte
+	 * @param len
+	 *            the number of bytes to convert
+	 * @param dst
+	 *            the array to write len*2 ASCII characters to
+	 * @param dstOff
+	 *            the offset in dst to start writing
+	 * @return the number of bytes written
+	 */
+	public static int toHex(byte[] src, int srcOff, int len, byte[] dst, int dstOff) {
+		checkRange(src.length, srcOff, len);
+		checkRange(dst.length, dstOff, len * 2);
+		for (int i = 0; i < len; i++) {
+			int value = src[srcOff + i] & 0xFF;
+			dst[dstOff + 2 * i] = (byte) HEX_DIGITS[value >>> 4];
+			dst[dstOff + 2 * i + 1] = (byte) HEX_DIGITS[value & 0x0F];
+		}
+		return len * 2;
+	}
+
+	/**
+	 * Writes the lowercase hexadecimal characters of the remaining bytes of a buffer into another buffer as ASCII. Both
+	 * buffers are advanced.
+	 * 
+	 * @param src
+	 *            the bytes to convert
+	 * @param dst
+	 *            the buffer to write the ASCII characters to, it needs room for twice the remaining bytes of src
+	 * @return the number of bytes written
+	 */
+	public static int toHex(ByteBuffer src, ByteBuffer dst) {
+		int len = src.remaining();
+		if (dst.remaining() < len * 2) {
+			throw new BufferOverflowException();
+		}
+		while (src.hasRemaining()) {
+			int value = src.get() & 0xFF;
+			dst.put((byte) HEX_DIGITS[value >>> 4]);
+			dst.put((byte) HEX_DIGITS[value & 0x0F]);
+		}
+		return len * 2;
 	}
 
 	/**
@@ -68,10 +365,144 @@ public class HashUtils {
 	 */
 	public static byte[] fromHex(String hex) {
 		byte[] binary = new byte[hex.length() / 2];
-		for (int i = 0; i < binary.length; i++) {
-			binary[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
-		}
+		fromHex(hex, 0, binary.length * 2, binary, 0);
 		return binary;
 	}
 
+	/**
+	 * Decodes a range of hexadecimal characters into a byte array. Upper and lower case are both accepted.
+	 * 
+	 * @param hex
+	 *            the characters to decode, for example a {@link String} or a {@link java.nio.CharBuffer}
+	 * @param srcOff
+	 *            the offset of the first character
+	 * @param len
+	 *            the number of characters to decode, an even number
+	 * @param dst
+	 *            the array to write len/2 bytes to
+	 * @param dstOff
+	 *            the offset in dst to start writing
+	 * @return the number of bytes written
+	 * @throws NumberFormatException
+	 *             when a character is not hexadecimal
+	 */
+	public static int fromHex(CharSequence hex, int srcOff, int len, byte[] dst, int dstOff) {
+		checkHexRange(hex.length(), srcOff, len);
+		checkRange(dst.length, dstOff, len / 2);
+		for (int i = 0; i < len / 2; i++) {
+			char high = hex.charAt(srcOff + 2 * i);
+			char low = hex.charAt(srcOff + 2 * i + 1);
+			dst[dstOff + i] = (byte) (digit(high) << 4 | digit(low));
+		}
+		return len / 2;
+	}
+
+	/**
+	 * Decodes a range of hexadecimal characters into a byte array. Upper and lower case are both accepted.
+	 * 
+	 * @param hex
+	 *            the characters to decode
+	 * @param srcOff
+	 *            the offset of the first character
+	 * @param len
+	 *            the number of characters to decode, an even number
+	 * @param dst
+	 *            the array to write len/2 bytes to
+	 * @param dstOff
+	 *            the offset in dst to start writing
+	 * @return the number of bytes written
+	 * @throws NumberFormatException
+	 *             when a character is not hexadecimal
+	 */
+	public static int fromHex(char[] hex, int srcOff, int len, byte[] dst, int dstOff) {
+		checkHexRange(hex.length, srcOff, len);
+		checkRange(dst.length, dstOff, len / 2);
+		for (int i = 0; i < len / 2; i++) {
+			dst[dstOff + i] = (byte) (digit(hex[srcOff + 2 * i]) << 4 | digit(hex[srcOff + 2 * i + 1]));
+		}
+		return len / 2;
+	}
+
+	/**
+	 * Decodes a range of hexadecimal ASCII characters into a byte array, so hexadecimal read from a stream does not have to
+	 * become a string first. Upper and lower case are both accepted.
+	 * 
+	 * @param hex
+	 *            the ASCII characters to decode
+	 * @param srcOff
+	 *            the offset of the first character
+	 * @param len
+	 *            the number of characters to decode, an even number
+	 * @param dst
+	 *            the array to write len/2 bytes to
+	 * @param dstOff
+	 *            the offset in dst to start writing
+	 * @return the number of bytes written
+	 * @throws NumberFormatException
+	 *             when a character is not hexadecimal
+	 */
+	public static int fromHex(byte[] hex, int srcOff, int len, byte[] dst, int dstOff) {
+		checkHexRange(hex.length, srcOff, len);
+		checkRange(dst.length, dstOff, len / 2);
+		for (int i = 0; i < len / 2; i++) {
+			dst[dstOff + i] = (byte) (digit((char) (hex[srcOff + 2 * i] & 0xFF)) << 4 | digit((char) (hex[srcOff + 2 * i + 1] & 0xFF)));
+		}
+		return len / 2;
+	}
+
+	/**
+	 * Decodes the remaining hexadecimal ASCII characters of a buffer into another buffer. Both buffers are advanced. Upper
+	 * and lower case are both accepted.
+	 * 
+	 * @param hex
+	 *            the ASCII characters to decode, an even number
+	 * @param dst
+	 *            the buffer to write the bytes to, it needs room for half the remaining characters of hex
+	 * @return the number of bytes written
+	 * @throws NumberFormatException
+	 *             when a character is not hexadecimal
+	 */
+	public static int fromHex(ByteBuffer hex, ByteBuffer dst) {
+		int len = hex.remaining();
+		if (len % 2 != 0) {
+			throw new IllegalArgumentException("Hexadecimal input needs an even number of characters");
+		}
+		if (dst.remaining() < len / 2) {
+			throw new BufferOverflowException();
+		}
+		while (hex.hasRemaining()) {
+			int high = digit((char) (hex.get() & 0xFF));
+			int low = digit((char) (hex.get() & 0xFF));
+			dst.put((byte) (high << 4 | low));
+		}
+		return len / 2;
+	}
+
+	/**
+	 * Returns the value of a hexadecimal character
+	 */
+	private static int digit(char c) {
+		int value = -1;
+		if (c < DIGIT_VALUES.length) {
+			value = DIGIT_VALUES[c];
+		}
+		if (value < 0) {
+			throw new NumberFormatException("Not a hexadecimal character: '" + c + "'");
+		}
+		return value;
+	}
+
+	private static void checkRange(int length, int off, int len) {
+		if (off < 0 || len < 0 || off > length - len) {
+			throw new IndexOutOfBoundsException();
+		}
+	}
+
+	private static void checkHexRange(int length, int off, int len) {
+		checkRange(length, off, len);
+		if (len % 2 != 0) {
+			throw new IllegalArgumentException("Hexadecimal input needs an even number of characters");
+		}
+	}
+
 }
@@ -0,0 +1,122 @@
+package org.fides.tools;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+
+/**
+ * An {@link InputStream} that hashes the data read through it. It can be put behind any other stream, for example a
+ * {@link org.fides.components.virtualstream.VirtualInputStream} or a decryption stream, so a received file can be
+ * verified without reading it twice. Skipped bytes are read and hashed as well.
+ */
+public class HashingInputStream extends FilterInputStream {
+
+	private static final int SKIP_BUFFER_SIZE = 8 * 1024;
+
+	private final MessageDigest digest;
+
+	private byte[] hash;
+
+	/**
+	 * Constructor for HashingInputStream, hashing with the algorithm of {@link HashUtils}
+	 * 
+	 * @param in
+	 *            The stream to read the data from
+	 */
+	public HashingInputStream(InputStream in) {
+		this(in, HashUtils.newDigest());
+	}
+
+	/**
+	 * Constructor for HashingInputStream
+	 * 
+	 * @param in
+	 *            The stream to read the data from
+	 * @param digest
+	 *            The digest to hash the data with
+	 */
+	public HashingInputStream(InputStream in, MessageDigest digest) {
+		super(in);
+		this.digest = digest;
+	}
+
+	@Override
+	public int read() throws IOException {
+		ensureNotHashed();
+		int b = in.read();
+		if (b != -1) {
+			digest.update((byte) b);
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		ensureNotHashed();
+		int bytesRead = in.read(b, off, len);
+		if (bytesRead > 0) {
+			digest.update(b, off, bytesRead);
+		}
+		return bytesRead;
+	}
+
+	/**
+	 * Skips by reading, so the skipped bytes are part of the hash
+	 */
+	@Override
+	public long skip(long n) throws IOException {
+		byte[] buffer = new byte[(int) Math.min(SKIP_BUFFER_SIZE, Math.max(n, 1))];
+		long skipped = 0;
+		while (skipped < n) {
+			int bytesRead = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+			if (bytesRead < 0) {
+				break;
+			}
+			skipped += bytesRead;
+		}
+		return skipped;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit) {
+	}
+
+	@Override
+	public synchronized void reset() throws IOException {
+		throw new IOException("Mark not supported");
+	}
+
+	private void ensureNotHashed() {
+		if (hash != null) {
+			throw new IllegalStateException("The hash has already been computed");
+		}
+	}
+
+	/**
+	 * Returns the hash of all data read, no data can be read after this
+	 * 
+	 * @return the hash
+	 */
+	public byte[] getHash() {
+		if (hash == null) {
+			hash = digest.digest();
+		}
+		return hash.clone();
+	}
+
+	/**
+	 * Returns the hash of all data read as hexadecimal string, like {@link HashUtils#hash(String)}
+	 * 
+	 * @return the hexadecimal hash
+	 */
+	public String getHexHash() {
+		return HashUtils.toHex(getHash());
+	}
+
+}
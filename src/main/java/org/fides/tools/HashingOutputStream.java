@@ -0,0 +1,83 @@
+package org.fides.tools;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+
+/**
+ * An {@link OutputStream} that hashes the data written through it. It can be put in front of any other stream, for
+ * example a {@link org.fides.components.virtualstream.VirtualOutputStream} or an encryption stream, so the hash of a
+ * file is known when it has been sent without reading the file twice.
+ */
+public class HashingOutputStream extends FilterOutputStream {
+
+	private final MessageDigest digest;
+
+	private byte[] hash;
+
+	/**
+	 * Constructor for HashingOutputStream, hashing with the algorithm of {@link HashUtils}
+	 * 
+	 * @param out
+	 *            The stream to write the data to
+	 */
+	public HashingOutputStream(OutputStream out) {
+		this(out, HashUtils.newDigest());
+	}
+
+	/**
+	 * Constructor for HashingOutputStream
+	 * 
+	 * @param out
+	 *            The stream to write the data to
+	 * @param digest
+	 *            The digest to hash the data with
+	 */
+	public HashingOutputStream(OutputStream out, MessageDigest digest) {
+		super(out);
+		this.digest = digest;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureNotHashed();
+		out.write(b);
+		digest.update((byte) b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureNotHashed();
+		out.write(b, off, len);
+		digest.update(b, off, len);
+	}
+
+	private void ensureNotHashed() {
+		if (hash != null) {
+			throw new IllegalStateException("The hash has already been computed");
+		}
+	}
+
+	/**
+	 * Returns the hash of all data written, no data can be written after this
+	 * 
+	 * @return the hash
+	 */
+	public byte[] getHash() {
+		if (hash == null) {
+			hash = digest.digest();
+		}
+		return hash.clone();
+	}
+
+	/**
+	 * Returns the hash of all data written as hexadecimal string, like {@link HashUtils#hash(String)}
+	 * 
+	 * @return the hexadecimal hash
+	 */
+	public String getHexHash() {
+		return HashUtils.toHex(getHash());
+	}
+
+}
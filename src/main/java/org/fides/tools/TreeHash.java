@@ -0,0 +1,442 @@
+package org.fides.tools;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A Merkle tree hash of data split into fixed-size leaves. Every leaf is hashed on its own, so the leaves of a large file
+ * are hashed in parallel on a fork-join pool, and a received chunk can be checked against its leaf hash before the rest
+ * has arrived. A leaf hash is the hash of the byte 0 followed by the leaf, a node hash is the hash of the byte 1
+ * followed by its two children, so a leaf can not be passed off as a node. When a level has an odd number of hashes,
+ * the last one moves up unchanged. Data without bytes has a single empty leaf.
+ */
+public final class TreeHash {
+
+	/** The default size of a leaf */
+	public static final int DEFAULT_LEAF_SIZE = 1024 * 1024;
+
+	private static final byte LEAF_PREFIX = 0x00;
+
+	private static final byte NODE_PREFIX = 0x01;
+
+	/** The amount of data a single task hashes, a file is mapped into memory once per task */
+	private static final int TASK_SIZE = 16 * 1024 * 1024;
+
+	private final int leafSize;
+
+	private final List<byte[]> leafHashes;
+
+	private final byte[] root;
+
+	private TreeHash(int leafSize, byte[][] leafHashes) {
+		this.leafSize = leafSize;
+		this.leafHashes = Collections.unmodifiableList(Arrays.asList(leafHashes));
+		root = root(this.leafHashes);
+	}
+
+	/**
+	 * Computes the tree hash of a file with the default leaf size
+	 * 
+	 * @param file
+	 *            The file to hash
+	 * @return the tree hash
+	 * @throws IOException
+	 *             When the file can not be read
+	 */
+	public static TreeHash of(Path file) throws IOException {
+		return of(file, DEFAULT_LEAF_SIZE);
+	}
+
+	/**
+	 * Computes the tree hash of a file, the file is mapped into memory and its leaves are hashed in parallel
+	 * 
+	 * @param file
+	 *            The file to hash
+	 * @param leafSize
+	 *            The size of a leaf
+	 * @return the tree hash
+	 * @throws IOException
+	 *             When the file can not be read
+	 */
+	public static TreeHash of(Path file, int leafSize) throws IOException {
+		checkLeafSize(leafSize);
+		try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return hashParallel(channel.size(), leafSize, new Region() {
+				@Override
+				public ByteBuffer get(long position, int length) throws IOException {
+					return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Computes the tree hash of the remaining bytes of a buffer, the leaves are hashed in parallel. The position of the
+	 * buffer is not changed.
+	 * 
+	 * @param data
+	 *            The data to hash
+	 * @param leafSize
+	 *            The size of a leaf
+	 * @return the tree hash
+	 */
+	public static TreeHash of(ByteBuffer data, int leafSize) {
+		checkLeafSize(leafSize);
+		final ByteBuffer source = data.slice();
+		try {
+			return hashParallel(source.remaining(), leafSize, new Region() {
+				@Override
+				public ByteBuffer get(long position, int length) {
+					ByteBuffer region = source.duplicate();
+					region.position((int) position);
+					region.limit((int) position + length);
+					return region;
+				}
+			});
+		} catch (IOException e) {
+			// Buffers are not read with I/O
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Computes the tree hash of everything a stream returns until its end. The stream is read on the calling thread,
+	 * leaves that have been read are hashed in parallel. The stream is not closed.
+	 * 
+	 * @param in
+	 *            The stream to hash
+	 * @param leafSize
+	 *            The size of a leaf
+	 * @return the tree hash
+	 * @throws IOException
+	 *             When the stream can not be read
+	 */
+	public static TreeHash of(InputStream in, int leafSize) throws IOException {
+		checkLeafSize(leafSize);
+		ForkJoinPool pool = PoolHolder.POOL;
+		int maxPending = 2 * pool.getParallelism();
+		ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+		List<byte[]> hashes = new ArrayList<>();
+		int leafCount = 0;
+		try {
+			while (true) {
+				final byte[] leaf = new byte[leafSize];
+				final int length = readFully(in, leaf);
+				// Only empty data has an empty leaf
+				if (length == 0 && leafCount > 0) {
+					break;
+				}
+				leafCount++;
+				pending.add(pool.submit(new Callable<byte[]>() {
+					@Override
+					public byte[] call() {
+						return hashLeaf(HashUtils.newDigest(), ByteBuffer.wrap(leaf, 0, length));
+					}
+				}));
+				while (pending.size() > maxPending) {
+					hashes.add(pending.poll().get());
+				}
+				if (length < leafSize) {
+					break;
+				}
+			}
+			while (!pending.isEmpty()) {
+				hashes.add(pending.poll().get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while hashing", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Could not hash leaf", e.getCause());
+		} finally {
+			for (Future<byte[]> result : pending) {
+				result.cancel(false);
+			}
+		}
+		return new TreeHash(leafSize, hashes.toArray(new byte[hashes.size()][]));
+	}
+
+	private static int readFully(InputStream in, byte[] b) throws IOException {
+		int offset = 0;
+		while (offset < b.length) {
+			int bytesRead = in.read(b, offset, b.length - offset);
+			if (bytesRead < 0) {
+				break;
+			}
+			offset += bytesRead;
+		}
+		return offset;
+	}
+
+	private static void checkLeafSize(int leafSize) {
+		if (leafSize < 1) {
+			throw new IllegalArgumentException("The leaf size has to be positive");
+		}
+	}
+
+	private static TreeHash hashParallel(long size, int leafSize, Region region) throws IOException {
+		long leafCount = Math.max(1, (size + leafSize - 1) / leafSize);
+		if (leafCount > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many leaves, use a larger leaf size");
+		}
+		byte[][] hashes = new byte[(int) leafCount][];
+		int leavesPerTask = Math.max(1, TASK_SIZE / leafSize);
+		try {
+			PoolHolder.POOL.invoke(new LeavesTask(region, size, leafSize, leavesPerTask, 0, hashes.length, hashes));
+		} catch (RegionException e) {
+			throw e.getCause();
+		}
+		return new TreeHash(leafSize, hashes);
+	}
+
+	/**
+	 * Hashes a leaf
+	 * 
+	 * @param data
+	 *            The data of the leaf
+	 * @param off
+	 *            The offset of the leaf in the array
+	 * @param len
+	 *            The length of the leaf
+	 * @return the hash of the leaf
+	 */
+	public static byte[] hashLeaf(byte[] data, int off, int len) {
+		return hashLeaf(HashUtils.newDigest(), ByteBuffer.wrap(data, off, len));
+	}
+
+	private static byte[] hashLeaf(MessageDigest digest, ByteBuffer leaf) {
+		digest.reset();
+		digest.update(LEAF_PREFIX);
+		digest.update(leaf);
+		return digest.digest();
+	}
+
+	/**
+	 * Computes the root of a tree from its leaf hashes, for example the leaf hashes received from the other side
+	 * 
+	 * @param leafHashes
+	 *            The hashes of the leaves in order, at least one
+	 * @return the root hash
+	 */
+	public static byte[] root(List<byte[]> leafHashes) {
+		if (leafHashes.isEmpty()) {
+			throw new IllegalArgumentException("A tree has at least one leaf");
+		}
+		MessageDigest digest = HashUtils.newDigest();
+		List<byte[]> level = leafHashes;
+		while (level.size() > 1) {
+			List<byte[]> parents = new ArrayList<>((level.size() + 1) / 2);
+			for (int i = 0; i + 1 < level.size(); i += 2) {
+				digest.update(NODE_PREFIX);
+				digest.update(level.get(i));
+				digest.update(level.get(i + 1));
+				parents.add(digest.digest());
+			}
+			if (level.size() % 2 == 1) {
+				parents.add(level.get(level.size() - 1));
+			}
+			level = parents;
+		}
+		return level.get(0).clone();
+	}
+
+	/**
+	 * Checks a received leaf against its hash in this tree
+	 * 
+	 * @param index
+	 *            The index of the leaf
+	 * @param data
+	 *            The array containing the leaf
+	 * @param off
+	 *            The offset of the leaf in the array
+	 * @param len
+	 *            The length of the leaf
+	 * @return true when the leaf has the hash in the tree
+	 */
+	public boolean verifyLeaf(int index, byte[] data, int off, int len) {
+		return MessageDigest.isEqual(leafHashes.get(index), hashLeaf(data, off, len));
+	}
+
+	/**
+	 * Returns the size of a leaf, every leaf except the last one has this size
+	 * 
+	 * @return the leaf size in bytes
+	 */
+	public int getLeafSize() {
+		return leafSize;
+	}
+
+	/**
+	 * Returns the number of leaves
+	 * 
+	 * @return the number of leaves, at least one
+	 */
+	public int getLeafCount() {
+		return leafHashes.size();
+	}
+
+	/**
+	 * Returns the hash of a leaf
+	 * 
+	 * @param index
+	 *            The index of the leaf
+	 * @return the hash of the leaf
+	 */
+	public byte[] getLeafHash(int index) {
+		return leafHashes.get(index).clone();
+	}
+
+	/**
+	 * Returns the hashes of all leaves in order
+	 * 
+	 * @return a copy of the leaf hashes
+	 */
+	public List<byte[]> getLeafHashes() {
+		List<byte[]> copy = new ArrayList<>(leafHashes.size());
+		for (byte[] hash : leafHashes) {
+			copy.add(hash.clone());
+		}
+		return copy;
+	}
+
+	/**
+	 * Returns the root hash
+	 * 
+	 * @return the root hash
+	 */
+	public byte[] getRoot() {
+		return root.clone();
+	}
+
+	/**
+	 * Returns the root hash as hexadecimal string, like {@link HashUtils#hash(String)}
+	 * 
+	 * @return the hexadecimal root hash
+	 */
+	public String getHexRoot() {
+		return HashUtils.toHex(root);
+	}
+
+	/**
+	 * Gives access to a region of the data to hash
+	 */
+	private interface Region {
+
+		/**
+		 * Returns a region of the data
+		 * 
+		 * @param position
+		 *            The start of the region
+		 * @param length
+		 *            The length of the region
+		 * @return a buffer with the region as remaining bytes
+		 * @throws IOException
+		 */
+		ByteBuffer get(long position, int length) throws IOException;
+
+	}
+
+	/**
+	 * Carries an {@link IOException} out of a fork-join task
+	 */
+	private static final class RegionException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		RegionException(IOException cause) {
+			super(cause);
+		}
+
+		@Override
+		public synchronized IOException getCause() {
+			return (IOException) super.getCause();
+		}
+
+	}
+
+	/**
+	 * Hashes a range of leaves, splitting it in half until a task is small enough
+	 */
+	private static final class LeavesTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final transient Region region;
+
+		private final long size;
+
+		private final int leafSize;
+
+		private final int leavesPerTask;
+
+		private final int from;
+
+		private final int to;
+
+		private final byte[][] hashes;
+
+		LeavesTask(Region region, long size, int leafSize, int leavesPerTask, int from, int to, byte[][] hashes) {
+			this.region = region;
+			this.size = size;
+			this.leafSize = leafSize;
+			this.leavesPerTask = leavesPerTask;
+			this.from = from;
+			this.to = to;
+			this.hashes = hashes;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > leavesPerTask) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new LeavesTask(region, size, leafSize, leavesPerTask, from, middle, hashes), new LeavesTask(region, size, leafSize, leavesPerTask, middle, to,
+					hashes));
+				return;
+			}
+			long start = (long) from * leafSize;
+			int length = (int) (Math.min((long) to * leafSize, size) - start);
+			ByteBuffer data;
+			try {
+				data = region.get(start, length);
+			} catch (IOException e) {
+				throw new RegionException(e);
+			}
+			MessageDigest digest = HashUtils.newDigest();
+			int base = data.position();
+			for (int i = from; i < to; i++) {
+				int leafStart = base + (i - from) * leafSize;
+				data.limit(leafStart + Math.min(leafSize, length - (i - from) * leafSize));
+				data.position(leafStart);
+				hashes[i] = hashLeaf(digest, data);
+			}
+		}
+
+	}
+
+	/**
+	 * Holds the pool the leaves are hashed on, it is only created when a tree hash is computed
+	 */
+	private static final class PoolHolder {
+
+		private static final ForkJoinPool POOL = new ForkJoinPool();
+
+		private PoolHolder() {
+		}
+	}
+
+}
@@ -0,0 +1,151 @@
+package org.fides.components;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.Key;
+import java.util.Random;
+
+import org.apache.commons.io.IOUtils;
+import org.fides.components.virtualstream.VirtualInputStream;
+import org.fides.components.virtualstream.VirtualOutputStream;
+import org.fides.encryption.EncryptionMode;
+import org.fides.encryption.EncryptionUtils;
+import org.fides.encryption.KeyGenerator;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link BufferPool}
+ * 
+ */
+public class BufferPoolTest {
+
+	/**
+	 * Tests if requests are rounded up to their size class and sizes beyond the largest class are not pooled
+	 */
+	@Test
+	public void testSizeClasses() {
+		BufferPool pool = new BufferPool(1024 * 1024);
+		assertEquals(BufferPool.MIN_SIZE, pool.acquire(0).length);
+		assertEquals(BufferPool.MIN_SIZE, pool.acquire(BufferPool.MIN_SIZE).length);
+		assertEquals(2 * BufferPool.MIN_SIZE, pool.acquire(BufferPool.MIN_SIZE + 1).length);
+		assertEquals(128 * 1024, pool.acquire(64 * 1024 + 16).length);
+		assertEquals(BufferPool.MAX_SIZE, pool.acquire(BufferPool.MAX_SIZE).length);
+		assertEquals(BufferPool.MAX_SIZE + 1, pool.acquire(BufferPool.MAX_SIZE + 1).length);
+		assertEquals(5, pool.getMisses());
+
+		ByteBuffer direct = pool.acquireDirect(1000);
+		assertTrue(direct.isDirect());
+		assertEquals(1024, direct.capacity());
+		assertEquals(1000, direct.limit());
+		assertEquals(0, direct.position());
+	}
+
+	/**
+	 * Tests if released heap arrays and direct buffers are handed out again, each for their own kind
+	 */
+	@Test
+	public void testReuse() {
+		BufferPool pool = new BufferPool(1024 * 1024);
+		byte[] array = pool.acquire(4000);
+		ByteBuffer direct = pool.acquireDirect(4000);
+		assertEquals(2 * 4096, pool.getInUseBytes());
+		pool.release(array);
+		pool.release(direct);
+		assertEquals(0, pool.getInUseBytes());
+		assertEquals(2 * 4096, pool.getIdleBytes());
+
+		assertNotSame(array, pool.acquire(8000));
+		assertSame(array, pool.acquire(3000));
+		direct.position(10);
+		ByteBuffer again = pool.acquireDirect(20);
+		assertNotSame(direct, again);
+		again = pool.acquireDirect(2049);
+		assertSame(direct, again);
+		assertEquals(0, again.position());
+		assertEquals(2049, again.limit());
+		assertEquals(2, pool.getHits());
+		assertEquals(0, pool.getIdleBytes());
+
+		// Buffers the pool did not hand out in a size class are ignored
+		pool.release(new byte[1000]);
+		pool.release(ByteBuffer.allocate(1024));
+		assertEquals(0, pool.getIdleBytes());
+	}
+
+	/**
+	 * Tests if the idle buffers do not exceed the limit of the pool
+	 */
+	@Test
+	public void testLimit() {
+		BufferPool pool = new BufferPool(3000);
+		byte[] first = pool.acquire(1024);
+		byte[] second = pool.acquire(1024);
+		ByteBuffer third = pool.acquireDirect(1024);
+		pool.release(first);
+		pool.release(second);
+		pool.release(third);
+		assertEquals(2048, pool.getIdleBytes());
+		assertEquals(1, pool.getDiscards());
+		assertEquals(0, pool.getInUseBytes());
+
+		BufferPool none = new BufferPool(0);
+		none.release(none.acquire(1));
+		assertEquals(0, none.getIdleBytes());
+		assertEquals(1, none.getDiscards());
+
+		boolean successfulCatch = false;
+		try {
+			new BufferPool(-1);
+		} catch (IllegalArgumentException e) {
+			successfulCatch = true;
+		}
+		assertTrue(successfulCatch);
+	}
+
+	/**
+	 * Tests if the virtual streams and the segmented cipher streams give their buffers back when they are closed, and
+	 * still work with buffers that were used before
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testStreamsGiveBack() throws Exception {
+		BufferPool original = BufferPool.getDefault();
+		BufferPool pool = new BufferPool(16 * 1024 * 1024);
+		BufferPool.setDefault(pool);
+		try {
+			Key key = KeyGenerator.generateRandomKey(EncryptionUtils.ALGORITHM, EncryptionUtils.KEY_SIZE);
+			byte[] data = new byte[300000];
+			new Random(5).nextBytes(data);
+			for (int round = 0; round < 2; round++) {
+				for (EncryptionMode mode : new EncryptionMode[] { EncryptionMode.CTR, EncryptionMode.GCM }) {
+					ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+					OutputStream virtualOut = new VirtualOutputStream(byteOut);
+					OutputStream encryptOut = EncryptionUtils.getEncryptionStream(virtualOut, key, mode);
+					encryptOut.write(data);
+					encryptOut.close();
+					assertEquals(0, pool.getInUseBytes());
+
+					InputStream decryptIn = EncryptionUtils.getDecryptionStream(new VirtualInputStream(new ByteArrayInputStream(byteOut.toByteArray())),
+						key);
+					assertArrayEquals(data, IOUtils.toByteArray(decryptIn));
+					decryptIn.close();
+					assertEquals(0, pool.getInUseBytes());
+				}
+			}
+			assertTrue(pool.getHits() > 0);
+		} finally {
+			BufferPool.setDefault(original);
+		}
+	}
+
+}
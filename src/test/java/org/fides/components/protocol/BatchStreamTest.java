@@ -0,0 +1,172 @@
+package org.fides.components.protocol;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.apache.commons.io.IOUtils;
+import org.fides.components.virtualstream.VirtualInputStream;
+import org.fides.components.virtualstream.VirtualOutputStream;
+import org.fides.components.virtualstream.VirtualStreamAbortedException;
+import org.fides.components.virtualstream.VirtualStreamProtocol;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link BatchWriter} and {@link BatchReader}
+ * 
+ */
+public class BatchStreamTest {
+
+	/**
+	 * Tests if the results of a batch get, with payloads of different sizes and an error, are read back in both
+	 * protocol versions
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testGetFilesResults() throws IOException {
+		for (VirtualStreamProtocol protocol : VirtualStreamProtocol.values()) {
+			byte[][] files = { randomBytes(0), randomBytes(10), randomBytes(100000) };
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			try (BatchWriter writer = new BatchWriter(out, protocol)) {
+				for (int i = 0; i < files.length; i++) {
+					try (OutputStream payload = writer.writeWithPayload(Opcode.SUCCESSFUL, "location" + i)) {
+						payload.write(files[i]);
+					}
+				}
+				writer.write(Opcode.ERROR, "missing");
+			}
+
+			BatchReader reader = new BatchReader(new ByteArrayInputStream(out.toByteArray()), protocol);
+			for (int i = 0; i < files.length; i++) {
+				BatchItem item = reader.next();
+				assertEquals(Opcode.SUCCESSFUL, item.getOpcode());
+				assertEquals("location" + i, item.getLocation());
+				assertTrue(item.hasPayload());
+				assertArrayEquals(files[i], IOUtils.toByteArray(item.getPayload()));
+			}
+			BatchItem error = reader.next();
+			assertEquals(Opcode.ERROR, error.getOpcode());
+			assertEquals("missing", error.getLocation());
+			assertFalse(error.hasPayload());
+			assertNull(reader.next());
+			assertNull(reader.next());
+		}
+	}
+
+	/**
+	 * Tests if unread and aborted payloads are skipped, and the items after them are read
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testSkipAndAbort() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BatchWriter writer = new BatchWriter(out);
+		writer.writeWithPayload(Opcode.SUCCESSFUL, "unread").write(randomBytes(5000));
+		VirtualOutputStream aborted = writer.writeWithPayload(Opcode.SUCCESSFUL, "aborted");
+		aborted.write(randomBytes(3000));
+		aborted.abort();
+		// An upload has no location yet
+		writer.writeWithPayload(Opcode.UPLOAD_FILE, null).write(new byte[] { 1, 2, 3 });
+		writer.close();
+
+		BatchReader reader = new BatchReader(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals("unread", reader.next().getLocation());
+
+		BatchItem abortedItem = reader.next();
+		assertEquals("aborted", abortedItem.getLocation());
+		boolean successfulCatch = false;
+		try {
+			IOUtils.toByteArray(abortedItem.getPayload());
+		} catch (VirtualStreamAbortedException e) {
+			successfulCatch = true;
+		}
+		assertTrue(successfulCatch);
+
+		BatchItem upload = reader.next();
+		assertEquals(Opcode.UPLOAD_FILE, upload.getOpcode());
+		assertNull(upload.getLocation());
+		assertArrayEquals(new byte[] { 1, 2, 3 }, IOUtils.toByteArray(upload.getPayload()));
+		assertNull(reader.next());
+	}
+
+	/**
+	 * Tests a batch of many removals inside a virtual stream, with data after it on the same stream
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testRemoveFilesInVirtualStream() throws IOException {
+		int count = 20000;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		VirtualOutputStream virtualOut = new VirtualOutputStream(out, VirtualStreamProtocol.V2);
+		try (BatchWriter writer = new BatchWriter(virtualOut)) {
+			for (int i = 0; i < count; i++) {
+				writer.write(Opcode.REMOVE_FILE, "location" + i);
+			}
+		}
+		virtualOut.close();
+		out.write(42);
+
+		InputStream in = new ByteArrayInputStream(out.toByteArray());
+		VirtualInputStream virtualIn = new VirtualInputStream(in, VirtualStreamProtocol.V2);
+		BatchReader reader = new BatchReader(virtualIn);
+		assertEquals("location0", reader.next().getLocation());
+		// Closing skips the rest of the batch
+		reader.close();
+		assertNull(reader.next());
+		assertEquals(-1, virtualIn.read());
+		assertEquals(42, in.read());
+	}
+
+	/**
+	 * Tests if a batch that ends too early or contains an unknown opcode is rejected
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testMalformedBatch() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BatchWriter writer = new BatchWriter(out);
+		writer.write(Opcode.REMOVE_FILE, "location");
+		writer.close();
+		byte[] batch = out.toByteArray();
+
+		byte[] truncated = new byte[batch.length - 3];
+		System.arraycopy(batch, 0, truncated, 0, truncated.length);
+		boolean successfulCatch = false;
+		try {
+			new BatchReader(new ByteArrayInputStream(truncated)).next();
+		} catch (ProtocolException e) {
+			successfulCatch = true;
+		}
+		assertTrue(successfulCatch);
+
+		batch[0] = 0x7F;
+		successfulCatch = false;
+		try {
+			new BatchReader(new ByteArrayInputStream(batch)).next();
+		} catch (ProtocolException e) {
+			successfulCatch = true;
+		}
+		assertTrue(successfulCatch);
+	}
+
+	private static byte[] randomBytes(int size) {
+		byte[] bytes = new byte[size];
+		new Random(size).nextBytes(bytes);
+		return bytes;
+	}
+
+}
@@ -0,0 +1,175 @@
+package org.fides.components.protocol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests for the {@link LocationChangeLog}, {@link LocationWriter} and {@link LocationReader}
+ * 
+ */
+public class LocationChangeLogTest {
+
+	/**
+	 * Tests if listing all pages gives every location once, and the changes made while listing come with the token of
+	 * the first page
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testPagesAndChanges() throws IOException {
+		Set<String> expected = new HashSet<>();
+		LocationChangeLog log = new LocationChangeLog();
+		for (int i = 0; i < 2500; i++) {
+			log.add("location" + i);
+			expected.add("location" + i);
+		}
+
+		Set<String> listed = new HashSet<>();
+		String token = null;
+		String cursor = null;
+		int pages = 0;
+		do {
+			Message request = new Message(Opcode.REQUEST_LOCATIONS).set(Field.LIMIT, 1000).set(Field.CURSOR, cursor);
+			List<LocationChange> page = new ArrayList<>();
+			Message response = request(log, request, page);
+			assertEquals(Opcode.LOCATIONS, response.getOpcode());
+			if (token == null) {
+				token = response.get(Field.CHANGE_TOKEN);
+				// Changed while the pages are listed
+				log.add("location9999");
+				log.remove("location0");
+			}
+			for (LocationChange change : page) {
+				assertTrue(change.isAdded());
+				assertTrue(listed.add(change.getLocation()));
+			}
+			cursor = response.get(Field.CURSOR);
+			pages++;
+		} while (cursor != null);
+		assertEquals(3, pages);
+
+		List<LocationChange> changes = new ArrayList<>();
+		Message response = request(log, new Message(Opcode.REQUEST_LOCATIONS).set(Field.CHANGE_TOKEN, token), changes);
+		assertEquals(Opcode.LOCATIONS, response.getOpcode());
+		for (LocationChange change : changes) {
+			if (change.isAdded()) {
+				listed.add(change.getLocation());
+			} else {
+				listed.remove(change.getLocation());
+			}
+		}
+		expected.add("location9999");
+		expected.remove("location0");
+		assertEquals(expected, listed);
+
+		// Nothing changed since the new token
+		changes.clear();
+		request(log, new Message(Opcode.REQUEST_LOCATIONS).set(Field.CHANGE_TOKEN, response.get(Field.CHANGE_TOKEN)), changes);
+		assertTrue(changes.isEmpty());
+	}
+
+	/**
+	 * Tests if a location that changed more than once is only reported with its last change
+	 */
+	@Test
+	public void testChangesCollapsed() {
+		LocationChangeLog log = new LocationChangeLog(Arrays.asList("a", "b"), 10);
+		String token = log.getChangeToken();
+		log.remove("a");
+		log.add("c");
+		log.add("a");
+		log.remove("c");
+		assertFalse(log.add("a"));
+		assertFalse(log.remove("d"));
+
+		List<LocationChange> changes = log.getChangesSince(token);
+		assertEquals("[+a, -c]", changes.toString());
+		assertEquals(2, log.size());
+		assertTrue(log.contains("a"));
+	}
+
+	/**
+	 * Tests if an expired or foreign token is answered with an error, so the client lists all pages again
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testExpiredToken() throws IOException {
+		LocationChangeLog log = new LocationChangeLog(new ArrayList<String>(), 5);
+		String token = log.getChangeToken();
+		for (int i = 0; i < 11; i++) {
+			log.add("location" + i);
+		}
+		assertNull(log.getChangesSince(token));
+		assertEquals(5, log.getChangesSince(log.getChangeToken().replaceAll("-.*", "-6")).size());
+
+		List<LocationChange> changes = new ArrayList<>();
+		Message request = new Message(Opcode.REQUEST_LOCATIONS).set(Field.CHANGE_TOKEN, token).set(Field.REQUEST_ID, 7);
+		Message response = request(log, request, changes);
+		assertEquals(Opcode.ERROR, response.getOpcode());
+		assertEquals(7, response.getInt(Field.REQUEST_ID));
+
+		String foreign = new LocationChangeLog().getChangeToken();
+		assertNull(log.getChangesSince(foreign));
+		assertNull(log.getChangesSince("garbage"));
+	}
+
+	/**
+	 * Tests if the limit of a page is capped, and a request without a limit gets the default page size
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testPageLimits() throws IOException {
+		LocationChangeLog log = new LocationChangeLog();
+		for (int i = 0; i < LocationChangeLog.MAX_PAGE_SIZE + 10; i++) {
+			log.add(String.format("%08d", i));
+		}
+		List<LocationChange> page = new ArrayList<>();
+		Message response = request(log, new Message(Opcode.REQUEST_LOCATIONS), page);
+		assertEquals(LocationChangeLog.DEFAULT_PAGE_SIZE, page.size());
+		assertEquals("00000000", page.get(0).getLocation());
+		assertEquals(page.get(page.size() - 1).getLocation(), response.get(Field.CURSOR));
+
+		page.clear();
+		request(log, new Message(Opcode.REQUEST_LOCATIONS).set(Field.LIMIT, Integer.MAX_VALUE), page);
+		assertEquals(LocationChangeLog.MAX_PAGE_SIZE, page.size());
+
+		page.clear();
+		response = request(log, new Message(Opcode.REQUEST_LOCATIONS).set(Field.CURSOR, String.format("%08d", LocationChangeLog.MAX_PAGE_SIZE)), page);
+		assertEquals(9, page.size());
+		assertNull(response.get(Field.CURSOR));
+	}
+
+	private static Message request(LocationChangeLog log, Message request, List<LocationChange> locations) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		log.respond(request, out);
+		InputStream in = new ByteArrayInputStream(out.toByteArray());
+		Message response = MessageCodec.read(in);
+		if (response.getOpcode() == Opcode.LOCATIONS) {
+			try (LocationReader reader = new LocationReader(in)) {
+				LocationChange change;
+				while ((change = reader.next()) != null) {
+					locations.add(change);
+				}
+			}
+		}
+		assertEquals(-1, in.read());
+		return response;
+	}
+
+}
@@ -0,0 +1,238 @@
+package org.fides.components.protocol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.fides.components.Actions;
+import org.fides.components.Responses;
+import org.fides.tools.HashUtils;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link MessageCodec} and {@link Message}
+ * 
+ */
+public class MessageCodecTest {
+
+	private static final String USERNAME_HASH = HashUtils.hash("user");
+
+	private static final String PASSWORD_HASH = HashUtils.hash("password");
+
+	/**
+	 * Tests if a message survives encoding and decoding, and the hashes are sent as bytes
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testRoundTrip() throws IOException {
+		Message message = new Message(Opcode.LOGIN).set(Field.USERNAME_HASH, USERNAME_HASH).set(Field.PASSWORD_HASH, PASSWORD_HASH);
+		ByteBuffer encoded = MessageCodec.encode(message);
+		// Two packed SHA-256 hashes of 32 bytes, instead of 64 characters each
+		assertEquals(MessageCodec.HEADER_SIZE + 2 + 2 * (3 + 32), encoded.remaining());
+		assertEquals(encoded.remaining(), MessageCodec.getMessageSize(encoded));
+
+		Message decoded = MessageCodec.decode(encoded);
+		assertFalse(encoded.hasRemaining());
+		assertEquals(Opcode.LOGIN, decoded.getOpcode());
+		assertEquals(USERNAME_HASH, decoded.get(Field.USERNAME_HASH));
+		assertEquals(PASSWORD_HASH, decoded.get(Field.PASSWORD_HASH));
+		assertTrue(decoded.isPacked(Field.USERNAME_HASH));
+		assertFalse(decoded.has(Field.LOCATION));
+		assertNull(decoded.get(Field.LOCATION));
+	}
+
+	/**
+	 * Tests if values that are not lowercase hex are kept as UTF-8, so they come back unchanged
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testUnpackedValues() throws IOException {
+		String location = "f\u00f6lder/\u6587\u4ef6";
+		Message message = new Message(Opcode.GET_FILE).set(Field.USERNAME_HASH, "ABCD").set(Field.PASSWORD_HASH, "abc").set(Field.LOCATION, location);
+		assertFalse(message.isPacked(Field.USERNAME_HASH));
+		assertFalse(message.isPacked(Field.PASSWORD_HASH));
+
+		Message decoded = MessageCodec.decode(MessageCodec.encode(message));
+		assertEquals("ABCD", decoded.get(Field.USERNAME_HASH));
+		assertEquals("abc", decoded.get(Field.PASSWORD_HASH));
+		assertEquals(location, decoded.get(Field.LOCATION));
+		assertEquals(ByteBuffer.wrap(location.getBytes(StandardCharsets.UTF_8)), decoded.getBytes(Field.LOCATION));
+	}
+
+	/**
+	 * Tests if the values of a decoded message are views of the buffer, not copies
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testZeroCopyDecode() throws IOException {
+		ByteBuffer encoded = MessageCodec.encode(new Message(Opcode.REMOVE_FILE).set(Field.LOCATION, "aaaa-location"));
+		Message decoded = MessageCodec.decode(encoded.duplicate());
+
+		// Changing the buffer changes the decoded value
+		int index = encoded.limit() - 1;
+		encoded.put(index, (byte) 'X');
+		assertEquals("aaaa-locatioX", decoded.get(Field.LOCATION));
+		assertTrue(decoded.getBytes(Field.LOCATION).isReadOnly());
+	}
+
+	/**
+	 * Tests if several messages can be decoded from one buffer, and from a direct buffer
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testConsecutiveMessages() throws IOException {
+		Message first = new Message(Opcode.GET_KEY_FILE);
+		Message second = new Message(Opcode.SUCCESSFUL);
+		Message third = new Message(Opcode.UPLOAD_FILE).set(Field.LOCATION, "location");
+		ByteBuffer buffer = ByteBuffer.allocateDirect(MessageCodec.getEncodedSize(first) + MessageCodec.getEncodedSize(second)
+			+ MessageCodec.getEncodedSize(third));
+		MessageCodec.encode(first, buffer);
+		MessageCodec.encode(second, buffer);
+		MessageCodec.encode(third, buffer);
+		buffer.flip();
+
+		assertEquals(Opcode.GET_KEY_FILE, MessageCodec.decode(buffer).getOpcode());
+		assertEquals(Opcode.SUCCESSFUL, MessageCodec.decode(buffer).getOpcode());
+		assertEquals("location", MessageCodec.decode(buffer).get(Field.LOCATION));
+		assertFalse(buffer.hasRemaining());
+	}
+
+	/**
+	 * Tests if messages can be written to and read from streams
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testStreams() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		MessageCodec.write(new Message(Opcode.CREATE_USER).set(Field.USERNAME_HASH, USERNAME_HASH), out);
+		MessageCodec.write(new Message(Opcode.DISCONNECT), out);
+
+		ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+		assertTrue(MessageCodec.isBinary(out.toByteArray()[0]));
+		Message message = MessageCodec.read(in);
+		assertEquals(Opcode.CREATE_USER, message.getOpcode());
+		assertEquals(USERNAME_HASH, message.get(Field.USERNAME_HASH));
+		assertEquals(Opcode.DISCONNECT, MessageCodec.read(in).getOpcode());
+		assertNull(MessageCodec.read(in));
+	}
+
+	/**
+	 * Tests if every opcode maps to its constant and back
+	 */
+	@Test
+	public void testOpcodes() {
+		for (Opcode opcode : Opcode.values()) {
+			assertEquals(opcode, Opcode.fromCode(opcode.getCode()));
+			assertEquals(opcode, Opcode.fromName(opcode.getName()));
+		}
+		assertEquals(Actions.LOGIN, Opcode.LOGIN.getName());
+		assertFalse(Opcode.LOGIN.isResponse());
+		assertEquals(Responses.LOCATIONS, Opcode.LOCATIONS.getName());
+		assertTrue(Opcode.LOCATIONS.isResponse());
+		assertNull(Opcode.fromCode((byte) 0x7F));
+	}
+
+	/**
+	 * Tests the conversion from and to the properties of the text protocol
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testTextFallback() throws IOException {
+		Map<String, String> properties = new HashMap<>();
+		properties.put(Actions.ACTION, Actions.UPDATE_FILE);
+		properties.put(Actions.Properties.LOCATION, "location");
+		properties.put(Actions.Properties.USERNAME_HASH, USERNAME_HASH);
+		Message message = MessageCodec.fromProperties(properties);
+		assertEquals(Opcode.UPDATE_FILE, message.getOpcode());
+		assertEquals("location", message.get(Field.LOCATION));
+		assertEquals(properties, MessageCodec.toProperties(message));
+
+		Map<String, String> response = new HashMap<>();
+		response.put(Responses.ERROR, "true");
+		assertEquals(Opcode.ERROR, MessageCodec.fromProperties(response).getOpcode());
+		assertEquals(response, MessageCodec.toProperties(new Message(Opcode.ERROR)));
+
+		// Text messages never start with the marker
+		assertFalse(MessageCodec.isBinary('{'));
+	}
+
+	/**
+	 * Tests if fields with an unknown id are skipped
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testUnknownFieldSkipped() throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		buffer.put(MessageCodec.MARKER).put(MessageCodec.VERSION).putInt(2 + 5 + 4);
+		buffer.put(Opcode.GET_FILE.getCode()).put((byte) 2);
+		buffer.put((byte) 0x7E).putShort((short) 2).put(new byte[] { 1, 2 });
+		buffer.put((byte) Field.LOCATION.getId()).putShort((short) 1).put((byte) 'a');
+		buffer.flip();
+
+		Message message = MessageCodec.decode(buffer);
+		assertEquals("a", message.get(Field.LOCATION));
+	}
+
+	/**
+	 * Tests if malformed messages are rejected
+	 */
+	@Test
+	public void testMalformedMessages() {
+		byte[] valid = MessageCodec.encode(new Message(Opcode.GET_FILE).set(Field.LOCATION, "location")).array();
+
+		byte[] otherVersion = valid.clone();
+		otherVersion[1] = 2;
+		assertRejected(otherVersion);
+
+		byte[] unknownOpcode = valid.clone();
+		unknownOpcode[MessageCodec.HEADER_SIZE] = 0x7F;
+		assertRejected(unknownOpcode);
+
+		byte[] longField = valid.clone();
+		longField[MessageCodec.HEADER_SIZE + 4] = 100;
+		assertRejected(longField);
+
+		byte[] truncated = new byte[valid.length - 1];
+		System.arraycopy(valid, 0, truncated, 0, truncated.length);
+		assertRejected(truncated);
+
+		byte[] hugeLength = valid.clone();
+		hugeLength[2] = 0x7F;
+		assertRejected(hugeLength);
+	}
+
+	private static void assertRejected(byte[] message) {
+		boolean successfulCatch = false;
+		try {
+			MessageCodec.decode(ByteBuffer.wrap(message));
+		} catch (ProtocolException e) {
+			successfulCatch = true;
+		}
+		assertTrue(successfulCatch);
+
+		successfulCatch = false;
+		try {
+			MessageCodec.read(new ByteArrayInputStream(message));
+		} catch (IOException e) {
+			successfulCatch = true;
+		}
+		assertTrue(successfulCatch);
+	}
+
+}
@@ -0,0 +1,185 @@
+package org.fides.components.protocol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Tests for the {@link PipelinedClient}
+ * 
+ */
+public class PipelinedClientTest {
+
+	private static final int PIPE_SIZE = 64 * 1024;
+
+	/**
+	 * Tests if responses that arrive in another order are matched to their requests
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testOutOfOrderResponses() throws Exception {
+		final int batch = 4;
+		final int requests = 100;
+		PipedInputStream serverIn = new PipedInputStream(PIPE_SIZE);
+		PipedInputStream clientIn = new PipedInputStream(PIPE_SIZE);
+		final OutputStream serverOut = new PipedOutputStream(clientIn);
+		final InputStream requestsIn = serverIn;
+
+		// The server answers every batch of requests in reverse order
+		Thread server = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					List<Message> received = new ArrayList<>();
+					for (int i = 0; i < requests; i++) {
+						received.add(MessageCodec.read(requestsIn));
+						if (received.size() == batch || i == requests - 1) {
+							Collections.reverse(received);
+							for (Message request : received) {
+								Message response = request.createResponse(Opcode.SUCCESSFUL);
+								response.set(Field.LOCATION, request.get(Field.LOCATION));
+								MessageCodec.write(response, serverOut);
+							}
+							serverOut.flush();
+							received.clear();
+						}
+					}
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		});
+		server.start();
+
+		try (PipelinedClient client = PipelinedClient.open(clientIn, new PipedOutputStream(serverIn), batch)) {
+			List<Future<Message>> responses = new ArrayList<>();
+			for (int i = 0; i < requests; i++) {
+				responses.add(client.send(new Message(Opcode.GET_FILE).set(Field.LOCATION, "location" + i)));
+			}
+			for (int i = 0; i < requests; i++) {
+				Message response = responses.get(i).get(10, TimeUnit.SECONDS);
+				assertEquals(Opcode.SUCCESSFUL, response.getOpcode());
+				assertEquals("location" + i, response.get(Field.LOCATION));
+			}
+			assertEquals(0, client.getInFlight());
+		}
+		server.join();
+	}
+
+	/**
+	 * Tests if a send blocks while the window is full, and fails when the client is closed
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testWindowLimit() throws Exception {
+		// A server that reads the requests, but never answers
+		PipedInputStream serverIn = new PipedInputStream(PIPE_SIZE);
+		PipedInputStream clientIn = new PipedInputStream(PIPE_SIZE);
+		PipedOutputStream serverOut = new PipedOutputStream(clientIn);
+
+		final PipelinedClient client = PipelinedClient.open(clientIn, new PipedOutputStream(serverIn), 2);
+		Future<Message> first = client.send(new Message(Opcode.LOGIN));
+		client.send(new Message(Opcode.LOGIN));
+		assertEquals(2, client.getInFlight());
+
+		final AtomicReference<Exception> thirdFailure = new AtomicReference<>();
+		Thread third = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					client.send(new Message(Opcode.LOGIN));
+				} catch (IOException | InterruptedException e) {
+					thirdFailure.set(e);
+				}
+			}
+		});
+		third.start();
+		third.join(200);
+		assertTrue(third.isAlive());
+
+		client.close();
+		third.join(10000);
+		assertTrue(thirdFailure.get() instanceof IOException);
+
+		boolean successfulCatch = false;
+		try {
+			first.get(10, TimeUnit.SECONDS);
+		} catch (ExecutionException e) {
+			successfulCatch = e.getCause() instanceof IOException;
+		}
+		assertTrue(successfulCatch);
+		serverOut.close();
+	}
+
+	/**
+	 * Tests if requests in flight fail when the server closes the connection
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testConnectionClosed() throws Exception {
+		PipedInputStream serverIn = new PipedInputStream(PIPE_SIZE);
+		PipedInputStream clientIn = new PipedInputStream(PIPE_SIZE);
+		PipedOutputStream serverOut = new PipedOutputStream(clientIn);
+
+		try (PipelinedClient client = PipelinedClient.open(clientIn, new PipedOutputStream(serverIn))) {
+			Future<Message> response = client.send(new Message(Opcode.REQUEST_LOCATIONS));
+			serverOut.close();
+
+			boolean successfulCatch = false;
+			try {
+				response.get(10, TimeUnit.SECONDS);
+			} catch (ExecutionException e) {
+				successfulCatch = e.getCause() instanceof IOException;
+			}
+			assertTrue(successfulCatch);
+
+			successfulCatch = false;
+			try {
+				client.send(new Message(Opcode.DISCONNECT));
+			} catch (IOException e) {
+				successfulCatch = true;
+			}
+			assertTrue(successfulCatch);
+		}
+	}
+
+	/**
+	 * Tests if request ids survive the binary format and the text fallback, and are copied into responses
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testRequestId() throws IOException {
+		Message request = new Message(Opcode.REMOVE_FILE).set(Field.REQUEST_ID, Integer.MAX_VALUE);
+		assertTrue(request.isPacked(Field.REQUEST_ID));
+		Message decoded = MessageCodec.decode(MessageCodec.encode(request));
+		assertEquals(Integer.MAX_VALUE, decoded.getInt(Field.REQUEST_ID));
+		assertEquals(Integer.MAX_VALUE, decoded.createResponse(Opcode.ERROR).getInt(Field.REQUEST_ID));
+
+		Message text = MessageCodec.fromProperties(MessageCodec.toProperties(decoded));
+		assertEquals(Integer.toString(Integer.MAX_VALUE), text.get(Field.REQUEST_ID));
+		assertTrue(text.isPacked(Field.REQUEST_ID));
+
+		// Leading zeros would not survive packing
+		assertEquals("007", new Message(Opcode.LOGIN).set(Field.REQUEST_ID, "007").get(Field.REQUEST_ID));
+		assertEquals(-1, new Message(Opcode.LOGIN).getInt(Field.REQUEST_ID));
+	}
+
+}
@@ -0,0 +1,266 @@
+package org.fides.components.virtualstream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link VirtualStreamMultiplexer} and the {@link VirtualStreamDemultiplexer}
+ * 
+ */
+public class MultiplexedStreamTest {
+
+	private static final byte[] TEST_BYTES = "This is a sentence for testing the sending and receiving of multiplexed streams".getBytes();
+
+	private static final int TEST_CHUNK_SIZE = 16;
+
+	/**
+	 * Tests if a small stream can be read completely while a large stream that was started before it is still going
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testNoHeadOfLineBlocking() throws IOException {
+		byte[] large = new byte[10000];
+		new Random(5).nextBytes(large);
+		ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+		VirtualStreamMultiplexer multiplexer = new VirtualStreamMultiplexer(byteOut, TEST_CHUNK_SIZE);
+
+		MultiplexedOutputStream largeOut = multiplexer.openStream();
+		MultiplexedOutputStream smallOut = multiplexer.openStream();
+		assertNotEquals(largeOut.getStreamId(), smallOut.getStreamId());
+		largeOut.write(large, 0, 5000);
+		smallOut.write(TEST_BYTES);
+		smallOut.close();
+		largeOut.write(large, 5000, 5000);
+		largeOut.close();
+
+		VirtualStreamDemultiplexer demultiplexer = new VirtualStreamDemultiplexer(new ByteArrayInputStream(byteOut.toByteArray()));
+		InputStream smallIn = demultiplexer.getInputStream(smallOut.getStreamId());
+		InputStream largeIn = demultiplexer.getInputStream(largeOut.getStreamId());
+
+		assertArrayEquals(TEST_BYTES, IOUtils.toByteArray(smallIn));
+		assertArrayEquals(large, IOUtils.toByteArray(largeIn));
+		smallIn.close();
+		largeIn.close();
+	}
+
+	/**
+	 * Tests writing and reading many streams concurrently, every stream from its own thread
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testConcurrentStreams() throws Exception {
+		final int streamCount = 8;
+		final ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+		final VirtualStreamMultiplexer multiplexer = new VirtualStreamMultiplexer(byteOut, TEST_CHUNK_SIZE);
+		final List<byte[]> payloads = new ArrayList<>();
+		List<Integer> streamIds = new ArrayList<>();
+		ExecutorService executor = Executors.newFixedThreadPool(streamCount);
+		try {
+			List<Future<Integer>> writers = new ArrayList<>();
+			for (int i = 0; i < streamCount; i++) {
+				final byte[] payload = new byte[1000 * (i + 1)];
+				new Random(i).nextBytes(payload);
+				payloads.add(payload);
+				writers.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws IOException {
+						MultiplexedOutputStream out = multiplexer.openStream();
+						for (byte b : payload) {
+							out.write(b);
+						}
+						out.close();
+						return out.getStreamId();
+					}
+				}));
+			}
+			for (Future<Integer> writer : writers) {
+				streamIds.add(writer.get());
+			}
+
+			final VirtualStreamDemultiplexer demultiplexer = new VirtualStreamDemultiplexer(new ByteArrayInputStream(byteOut.toByteArray()));
+			List<Future<byte[]>> readers = new ArrayList<>();
+			for (final Integer streamId : streamIds) {
+				readers.add(executor.submit(new Callable<byte[]>() {
+					@Override
+					public byte[] call() throws IOException {
+						try (InputStream in = demultiplexer.getInputStream(streamId)) {
+							return IOUtils.toByteArray(in);
+						}
+					}
+				}));
+			}
+			for (int i = 0; i < streamCount; i++) {
+				assertArrayEquals(payloads.get(i), readers.get(i).get());
+			}
+		} catch (ExecutionException e) {
+			throw (Exception) e.getCause();
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Tests if closing a logical stream early drops its data without breaking the other streams
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testCloseEarly() throws IOException {
+		ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+		VirtualStreamMultiplexer multiplexer = new VirtualStreamMultiplexer(byteOut, TEST_CHUNK_SIZE);
+		OutputStream first = multiplexer.openStream();
+		MultiplexedOutputStream second = multiplexer.openStream();
+		first.write(TEST_BYTES);
+		second.write(TEST_BYTES);
+		first.write(TEST_BYTES);
+		first.close();
+		second.close();
+
+		VirtualStreamDemultiplexer demultiplexer = new VirtualStreamDemultiplexer(new ByteArrayInputStream(byteOut.toByteArray()));
+		InputStream firstIn = demultiplexer.getInputStream(1);
+		assertEquals(TEST_BYTES[0], firstIn.read());
+		firstIn.close();
+
+		InputStream secondIn = demultiplexer.getInputStream(second.getStreamId());
+		assertArrayEquals(TEST_BYTES, IOUtils.toByteArray(secondIn));
+		secondIn.close();
+	}
+
+	/**
+	 * Tests if a frame longer than the maximum chunk size is rejected before its chunk is read
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testOversizedFrame() throws IOException {
+		byte[] header = new byte[] { 0, 0, 0, 1, 0x7F, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF };
+		VirtualStreamDemultiplexer demultiplexer = new VirtualStreamDemultiplexer(new ByteArrayInputStream(header));
+		InputStream in = demultiplexer.getInputStream(1);
+
+		boolean successfulCatch = false;
+		try {
+			in.read();
+		} catch (InvalidFrameException e) {
+			successfulCatch = true;
+		}
+		assertTrue(successfulCatch);
+
+		successfulCatch = false;
+		try {
+			new VirtualStreamMultiplexer(new ByteArrayOutputStream(), VirtualStreamMultiplexer.MAX_CHUNK_SIZE + 1);
+		} catch (IllegalArgumentException e) {
+			successfulCatch = true;
+		}
+		assertTrue(successfulCatch);
+	}
+
+	/**
+	 * Tests if reading stops while the queue of an unread stream is full, and goes on without losing data when that
+	 * stream is read
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testFlowControl() throws Exception {
+		ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+		VirtualStreamMultiplexer multiplexer = new VirtualStreamMultiplexer(byteOut, TEST_CHUNK_SIZE);
+		MultiplexedOutputStream unread = multiplexer.openStream();
+		MultiplexedOutputStream read = multiplexer.openStream();
+		for (int i = 0; i < 10; i++) {
+			unread.write(TEST_BYTES);
+		}
+		unread.close();
+		read.write(TEST_BYTES);
+		read.close();
+
+		final VirtualStreamDemultiplexer demultiplexer = new VirtualStreamDemultiplexer(new ByteArrayInputStream(byteOut.toByteArray()),
+			TEST_BYTES.length * 2, TEST_BYTES.length * 4);
+		final InputStream readIn = demultiplexer.getInputStream(read.getStreamId());
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<byte[]> reader = executor.submit(new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws IOException {
+					return IOUtils.toByteArray(readIn);
+				}
+			});
+			boolean successfulCatch = false;
+			try {
+				reader.get(200, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				successfulCatch = true;
+			}
+			assertTrue(successfulCatch);
+
+			InputStream unreadIn = demultiplexer.getInputStream(unread.getStreamId());
+			byte[] unreadBytes = IOUtils.toByteArray(unreadIn);
+			assertEquals(10 * TEST_BYTES.length, unreadBytes.length);
+			for (int i = 0; i < 10; i++) {
+				assertArrayEquals(TEST_BYTES, Arrays.copyOfRange(unreadBytes, i * TEST_BYTES.length, (i + 1) * TEST_BYTES.length));
+			}
+			assertArrayEquals(TEST_BYTES, reader.get(5, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Tests if closing a stream with a full queue lets the other streams go on
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testFlowControlCloseUnread() throws Exception {
+		ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+		VirtualStreamMultiplexer multiplexer = new VirtualStreamMultiplexer(byteOut, TEST_CHUNK_SIZE);
+		MultiplexedOutputStream unread = multiplexer.openStream();
+		MultiplexedOutputStream read = multiplexer.openStream();
+		for (int i = 0; i < 10; i++) {
+			unread.write(TEST_BYTES);
+		}
+		unread.close();
+		read.write(TEST_BYTES);
+		read.close();
+
+		final VirtualStreamDemultiplexer demultiplexer = new VirtualStreamDemultiplexer(new ByteArrayInputStream(byteOut.toByteArray()),
+			TEST_BYTES.length * 2, TEST_BYTES.length * 4);
+		final InputStream readIn = demultiplexer.getInputStream(read.getStreamId());
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<byte[]> reader = executor.submit(new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws IOException {
+					return IOUtils.toByteArray(readIn);
+				}
+			});
+			demultiplexer.getInputStream(unread.getStreamId()).close();
+			assertArrayEquals(TEST_BYTES, reader.get(5, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,326 @@
+package org.fides.components.virtualstream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link VirtualReadableByteChannel} and the {@link VirtualWritableByteChannel}
+ * 
+ */
+public class VirtualByteChannelTest {
+
+	private static final byte[] TEST_BYTES = "This is a sentence for testing the sending and receiving of the Virtual Readable- and WritableByteChannel"
+		.getBytes();
+
+	private static final int TEST_CHUNK_SIZE = 7;
+
+	/**
+	 * Tests if a {@link VirtualWritableByteChannel} can be read by a {@link VirtualInputStream}
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testChannelToStream() throws IOException {
+		ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+		WritableByteChannel virtualOut = new VirtualWritableByteChannel(Channels.newChannel(byteOut), TEST_CHUNK_SIZE, VirtualStreamProtocol.V1);
+		ByteBuffer src = ByteBuffer.allocateDirect(TEST_BYTES.length);
+		src.put(TEST_BYTES).flip();
+		assertEquals(TEST_BYTES.length, virtualOut.write(src));
+		virtualOut.close();
+
+		InputStream virtualIn = new VirtualInputStream(new ByteArrayInputStream(byteOut.toByteArray()));
+		ByteArrayOutputStream sentBytes = new ByteArrayOutputStream();
+		IOUtils.copy(virtualIn, sentBytes);
+		virtualIn.close();
+
+		assertArrayEquals(TEST_BYTES, sentBytes.toByteArray());
+	}
+
+	/**
+	 * Tests if a {@link VirtualOutputStream} can be read by a {@link VirtualReadableByteChannel}, followed by a second
+	 * virtual stream on the same channel
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testStreamToChannel() throws IOException {
+		ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+		OutputStream virtualOut1 = new VirtualOutputStream(byteOut, TEST_CHUNK_SIZE, VirtualStreamProtocol.V2);
+		virtualOut1.write(TEST_BYTES);
+		virtualOut1.close();
+		OutputStream virtualOut2 = new VirtualOutputStream(byteOut, TEST_CHUNK_SIZE, VirtualStreamProtocol.V2);
+		virtualOut2.write(TEST_BYTES);
+		virtualOut2.close();
+
+		ReadableByteChannel byteIn = Channels.newChannel(new ByteArrayInputStream(byteOut.toByteArray()));
+		ReadableByteChannel virtualIn1 = new VirtualReadableByteChannel(byteIn, VirtualStreamProtocol.V2);
+		ByteBuffer dst = ByteBuffer.allocate(10);
+		assertEquals(TEST_CHUNK_SIZE, virtualIn1.read(dst));
+		virtualIn1.close();
+
+		assertArrayEquals(TEST_BYTES, readAll(new VirtualReadableByteChannel(byteIn, VirtualStreamProtocol.V2)));
+	}
+
+	/**
+	 * Tests gathering writes and scattering reads with direct buffers on a {@link FileChannel}
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testGatheringScatteringFileChannel() throws IOException {
+		byte[] data = new byte[1024 * 1024 + 3];
+		new Random(3).nextBytes(data);
+		File file = File.createTempFile("virtualchannel", ".bin");
+		file.deleteOnExit();
+
+		try (FileChannel fileOut = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+			VirtualWritableByteChannel virtualOut = new VirtualWritableByteChannel(fileOut, 100000, VirtualStreamProtocol.V2);
+			ByteBuffer first = ByteBuffer.allocateDirect(1000);
+			first.put(data, 0, 1000).flip();
+			ByteBuffer second = ByteBuffer.wrap(data, 1000, data.length - 1000);
+			assertEquals(data.length, virtualOut.write(new ByteBuffer[] { first, second }));
+			virtualOut.close();
+		}
+
+		try (FileChannel fileIn = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			VirtualReadableByteChannel virtualIn = new VirtualReadableByteChannel(fileIn, VirtualStreamProtocol.V2);
+			ByteBuffer[] dsts = { ByteBuffer.allocateDirect(4096), ByteBuffer.allocateDirect(65536) };
+			ByteArrayOutputStream received = new ByteArrayOutputStream();
+			long read;
+			while ((read = virtualIn.read(dsts)) >= 0) {
+				int total = 0;
+				for (ByteBuffer dst : dsts) {
+					dst.flip();
+					total += dst.remaining();
+					byte[] bytes = new byte[dst.remaining()];
+					dst.get(bytes);
+					received.write(bytes);
+					dst.clear();
+				}
+				assertEquals(read, total);
+			}
+			virtualIn.close();
+			assertArrayEquals(data, received.toByteArray());
+		}
+	}
+
+	/**
+	 * Tests if partial writes and reads, as done by non-blocking channels, do not break the chunks
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testPartialWritesAndReads() throws IOException {
+		ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+		VirtualWritableByteChannel virtualOut = new VirtualWritableByteChannel(new TricklingChannel(Channels.newChannel(byteOut)), TEST_CHUNK_SIZE,
+			VirtualStreamProtocol.V2);
+		ByteBuffer src = ByteBuffer.wrap(TEST_BYTES);
+		while (src.hasRemaining()) {
+			virtualOut.write(src);
+		}
+		virtualOut.close();
+
+		ReadableByteChannel byteIn = new TricklingChannel(Channels.newChannel(new ByteArrayInputStream(byteOut.toByteArray())));
+		assertArrayEquals(TEST_BYTES, readAll(new VirtualReadableByteChannel(byteIn, VirtualStreamProtocol.V2)));
+	}
+
+	/**
+	 * Tests if a region of a file sent with {@link VirtualWritableByteChannel#transferFrom(FileChannel, long, long)} to
+	 * another file can be read by a {@link VirtualInputStream}, between data written normally
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testTransferFromFile() throws IOException {
+		byte[] data = new byte[300000];
+		new Random(4).nextBytes(data);
+		File source = File.createTempFile("virtualchannel", ".bin");
+		source.deleteOnExit();
+		File target = File.createTempFile("virtualchannel", ".bin");
+		target.deleteOnExit();
+		FileUtils.writeByteArrayToFile(source, data);
+
+		try (FileChannel fileIn = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+			FileChannel fileOut = FileChannel.open(target.toPath(), StandardOpenOption.WRITE)) {
+			VirtualWritableByteChannel virtualOut = new VirtualWritableByteChannel(fileOut, 100000, VirtualStreamProtocol.V2);
+			virtualOut.write(ByteBuffer.wrap(TEST_BYTES));
+			assertEquals(data.length - 10, virtualOut.transferFrom(fileIn, 10, data.length));
+			assertEquals(0, fileIn.position());
+			virtualOut.write(ByteBuffer.wrap(TEST_BYTES));
+			virtualOut.close();
+		}
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		expected.write(TEST_BYTES);
+		expected.write(data, 10, data.length - 10);
+		expected.write(TEST_BYTES);
+		try (InputStream virtualIn = new VirtualInputStream(FileUtils.openInputStream(target), VirtualStreamProtocol.V2)) {
+			assertArrayEquals(expected.toByteArray(), IOUtils.toByteArray(virtualIn));
+		}
+	}
+
+	/**
+	 * Tests if a transfer to a non-blocking channel that is full continues where it stopped
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testTransferFromPartial() throws IOException {
+		File source = File.createTempFile("virtualchannel", ".bin");
+		source.deleteOnExit();
+		FileUtils.writeByteArrayToFile(source, TEST_BYTES);
+
+		ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+		VirtualWritableByteChannel virtualOut = new VirtualWritableByteChannel(new TricklingChannel(Channels.newChannel(byteOut)), TEST_CHUNK_SIZE,
+			VirtualStreamProtocol.V2);
+		try (FileChannel fileIn = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+			long position = 0;
+			while (position < TEST_BYTES.length) {
+				position += virtualOut.transferFrom(fileIn, position, TEST_BYTES.length - position);
+			}
+		}
+		virtualOut.close();
+
+		ReadableByteChannel byteIn = Channels.newChannel(new ByteArrayInputStream(byteOut.toByteArray()));
+		assertArrayEquals(TEST_BYTES, readAll(new VirtualReadableByteChannel(byteIn, VirtualStreamProtocol.V2)));
+	}
+
+	/**
+	 * Tests if a closed channel refuses writes
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testWritableChannelClosed() throws IOException {
+		VirtualWritableByteChannel virtualOut = new VirtualWritableByteChannel(Channels.newChannel(new ByteArrayOutputStream()));
+		assertTrue(virtualOut.isOpen());
+		virtualOut.close();
+		virtualOut.close();
+		assertFalse(virtualOut.isOpen());
+
+		boolean successfulCatch = false;
+		try {
+			virtualOut.write(ByteBuffer.wrap(TEST_BYTES));
+		} catch (IOException e) {
+			successfulCatch = true;
+		}
+		assertTrue(successfulCatch);
+	}
+
+	/**
+	 * Tests if an aborted {@link VirtualWritableByteChannel} makes the {@link VirtualReadableByteChannel} throw instead of
+	 * ending
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testAbort() throws IOException {
+		ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+		VirtualWritableByteChannel virtualOut = new VirtualWritableByteChannel(Channels.newChannel(byteOut), TEST_CHUNK_SIZE, VirtualStreamProtocol.V2);
+		virtualOut.write(ByteBuffer.wrap(TEST_BYTES));
+		virtualOut.abort();
+
+		boolean successfulCatch = false;
+		try {
+			readAll(new VirtualReadableByteChannel(Channels.newChannel(new ByteArrayInputStream(byteOut.toByteArray())), VirtualStreamProtocol.V2));
+		} catch (VirtualStreamAbortedException e) {
+			successfulCatch = true;
+		}
+		assertTrue(successfulCatch);
+	}
+
+	private static byte[] readAll(ReadableByteChannel channel) throws IOException {
+		ByteArrayOutputStream received = new ByteArrayOutputStream();
+		ByteBuffer dst = ByteBuffer.allocate(16);
+		while (channel.read(dst) >= 0) {
+			received.write(dst.array(), 0, dst.position());
+			dst.clear();
+		}
+		channel.close();
+		return received.toByteArray();
+	}
+
+	/**
+	 * A channel that only passes a few bytes per call and every other call none at all, like a busy non-blocking channel
+	 */
+	private static final class TricklingChannel implements ReadableByteChannel, WritableByteChannel {
+
+		private static final int MAX_BYTES = 3;
+
+		private final ReadableByteChannel in;
+
+		private final WritableByteChannel out;
+
+		private boolean stall = false;
+
+		private TricklingChannel(ReadableByteChannel in) {
+			this.in = in;
+			this.out = null;
+		}
+
+		private TricklingChannel(WritableByteChannel out) {
+			this.in = null;
+			this.out = out;
+		}
+
+		@Override
+		public int read(ByteBuffer dst) throws IOException {
+			stall = !stall;
+			if (stall || !dst.hasRemaining()) {
+				return 0;
+			}
+			int limit = dst.limit();
+			dst.limit(dst.position() + Math.min(MAX_BYTES, dst.remaining()));
+			try {
+				return in.read(dst);
+			} finally {
+				dst.limit(limit);
+			}
+		}
+
+		@Override
+		public int write(ByteBuffer src) throws IOException {
+			stall = !stall;
+			if (stall) {
+				return 0;
+			}
+			int limit = src.limit();
+			src.limit(src.position() + Math.min(MAX_BYTES, src.remaining()));
+			try {
+				return out.write(src);
+			} finally {
+				src.limit(limit);
+			}
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+			// Nothing to close
+		}
+	}
+}
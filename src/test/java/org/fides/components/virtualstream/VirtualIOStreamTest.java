@@ -11,9 +11,13 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.ArrayUtils;
+import org.fides.components.BufferPool;
+import org.junit.Assume;
 import org.junit.Test;
 
 /**
@@ -28,6 +32,13 @@ public class VirtualIOStreamTest {
 
 	private static final short TEST_BUFFER_SIZE = 5;
 
+	private static final int BULK_TEST_SIZE = 256 * 1024;
+
+	private static final int ALLOCATION_TEST_CHUNKS = 100000;
+
+	/** The allocation tests allow for some noise, but a single allocation per chunk would already exceed this */
+	private static final long ALLOCATION_TEST_MAX_BYTES = ALLOCATION_TEST_CHUNKS / 2;
+
 	/**
 	 * 
 	 * @throws IOException
@@ -236,14 +247,391 @@ public class VirtualIOStreamTest {
 		}
 		assertTrue(successfulCatch);
 
-		successfulCatch = false;
+		IOUtils.closeQuietly(virtualIn);
+	}
+
+	/**
+	 * Tests if skipping over several chunks lands on the right byte, and if skipping past the end stops at the end
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testSkip() throws IOException {
+		ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+		OutputStream virtualOut = new VirtualOutputStream(byteOut, TEST_BUFFER_SIZE);
+		virtualOut.write(TEST_BYTES);
+		virtualOut.close();
+
+		InputStream virtualIn = new VirtualInputStream(new ByteArrayInputStream(byteOut.toByteArray()));
+		assertEquals(0, virtualIn.skip(0));
+		assertEquals(2, virtualIn.skip(2));
+		assertEquals(TEST_BYTES[2], virtualIn.read());
+		assertEquals(23, virtualIn.skip(23));
+		assertEquals(TEST_BYTES[26], virtualIn.read());
+		assertEquals(TEST_BYTES.length - 27, virtualIn.skip(Long.MAX_VALUE));
+		assertEquals(-1, virtualIn.read());
+		virtualIn.close();
+	}
+
+	/**
+	 * Tests if closing a {@link VirtualInputStream} early skips the rest of the chunks instead of reading them byte for
+	 * byte
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testCloseSkipsChunks() throws IOException {
+		ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+		OutputStream virtualOut1 = new VirtualOutputStream(byteOut, TEST_BUFFER_SIZE);
+		virtualOut1.write(TEST_BYTES);
+		virtualOut1.close();
+		OutputStream virtualOut2 = new VirtualOutputStream(byteOut, TEST_BUFFER_SIZE);
+		virtualOut2.write(TEST_BYTES_2);
+		virtualOut2.close();
+
+		final int[] singleReads = new int[1];
+		InputStream byteIn = new ByteArrayInputStream(byteOut.toByteArray()) {
+			@Override
+			public synchronized int read() {
+				++singleReads[0];
+				return super.read();
+			}
+		};
+		InputStream virtualIn1 = new VirtualInputStream(byteIn);
+		assertEquals(TEST_BYTES[0], virtualIn1.read());
+		singleReads[0] = 0;
+		virtualIn1.close();
+		assertEquals(0, singleReads[0]);
+
+		InputStream virtualIn2 = new VirtualInputStream(byteIn);
+		assertArrayEquals(TEST_BYTES_2, IOUtils.toByteArray(virtualIn2));
+		virtualIn2.close();
+	}
+
+	/**
+	 * Tests if an aborted {@link VirtualOutputStream} makes the {@link VirtualInputStream} throw instead of ending, and if
+	 * the next virtual stream can still be read
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testAbort() throws IOException {
+		ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+		VirtualOutputStream virtualOut1 = new VirtualOutputStream(byteOut, TEST_BUFFER_SIZE);
+		virtualOut1.write(TEST_BYTES, 0, 12);
+		virtualOut1.abort();
+		virtualOut1.close();
+		OutputStream virtualOut2 = new VirtualOutputStream(byteOut, TEST_BUFFER_SIZE);
+		virtualOut2.write(TEST_BYTES_2);
+		virtualOut2.close();
+
+		InputStream byteIn = new ByteArrayInputStream(byteOut.toByteArray());
+		InputStream virtualIn1 = new VirtualInputStream(byteIn);
+		byte[] received = new byte[TEST_BYTES.length];
+		boolean successfulCatch = false;
 		try {
-			virtualIn.skip(2);
-		} catch (IOException e) {
+			IOUtils.readFully(virtualIn1, received);
+		} catch (VirtualStreamAbortedException e) {
 			successfulCatch = true;
 		}
 		assertTrue(successfulCatch);
+		virtualIn1.close();
 
-		IOUtils.closeQuietly(virtualIn);
+		InputStream virtualIn2 = new VirtualInputStream(byteIn);
+		assertArrayEquals(TEST_BYTES_2, IOUtils.toByteArray(virtualIn2));
+		virtualIn2.close();
+	}
+
+	/**
+	 * Tests if writing and reading bulk arrays results in the same data as writing and reading byte for byte, and if the
+	 * bulk paths call the underlying streams once per prefix and once per chunk instead of once per byte. The throughput
+	 * of both paths is compared in the VirtualStreamBenchmark of the benchmarks module.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testBulkPaths() throws IOException {
+		byte[] data = new byte[BULK_TEST_SIZE];
+		new Random(42).nextBytes(data);
+		int chunks = BULK_TEST_SIZE / VirtualStreamProtocol.V1.getDefaultChunkSize();
+
+		CountingOutputStream singleOut = new CountingOutputStream();
+		OutputStream virtualOut = new VirtualOutputStream(singleOut);
+		for (byte b : data) {
+			virtualOut.write(b);
+		}
+		virtualOut.close();
+
+		CountingOutputStream bulkOut = new CountingOutputStream();
+		virtualOut = new VirtualOutputStream(bulkOut);
+		virtualOut.write(data);
+		virtualOut.close();
+
+		assertArrayEquals(singleOut.toByteArray(), bulkOut.toByteArray());
+		// A prefix and a payload per chunk, and the end of the stream
+		assertEquals(2 * chunks + 1, bulkOut.writes);
+
+		CountingInputStream singleIn = new CountingInputStream(bulkOut.toByteArray());
+		InputStream virtualIn = new VirtualInputStream(singleIn);
+		ByteArrayOutputStream singleResult = new ByteArrayOutputStream(data.length);
+		int b;
+		while ((b = virtualIn.read()) != -1) {
+			singleResult.write(b);
+		}
+		virtualIn.close();
+
+		CountingInputStream bulkIn = new CountingInputStream(bulkOut.toByteArray());
+		virtualIn = new VirtualInputStream(bulkIn);
+		byte[] bulkResult = IOUtils.toByteArray(virtualIn);
+		virtualIn.close();
+
+		assertArrayEquals(data, singleResult.toByteArray());
+		assertArrayEquals(data, bulkResult);
+		assertTrue(singleIn.reads >= data.length);
+		assertTrue(bulkIn.reads <= 2 * chunks + 1);
+	}
+
+	/**
+	 * An {@link OutputStream} that counts the calls made to it
+	 */
+	private static final class CountingOutputStream extends ByteArrayOutputStream {
+
+		private int writes = 0;
+
+		@Override
+		public synchronized void write(int b) {
+			writes++;
+			super.write(b);
+		}
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len) {
+			writes++;
+			super.write(b, off, len);
+		}
+	}
+
+	/**
+	 * An {@link InputStream} that counts the calls made to it
+	 */
+	private static final class CountingInputStream extends ByteArrayInputStream {
+
+		private int reads = 0;
+
+		private CountingInputStream(byte[] buf) {
+			super(buf);
+		}
+
+		@Override
+		public synchronized int read() {
+			reads++;
+			return super.read();
+		}
+
+		@Override
+		public synchronized int read(byte[] b, int off, int len) {
+			reads++;
+			return super.read(b, off, len);
+		}
+	}
+
+	/**
+	 * Tests if the bytes on the wire still follow the virtual stream protocol: a big-endian short prefix per chunk and a
+	 * prefix of -1 at the end
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testWireFormat() throws IOException {
+		ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+		OutputStream virtualOut = new VirtualOutputStream(byteOut, (short) 2);
+		virtualOut.write(new byte[] { 1, 2, 3 });
+		virtualOut.close();
+
+		byte[] expected = { 0, 2, 1, 2, 0, 1, 3, (byte) 0xFF, (byte) 0xFF };
+		assertArrayEquals(expected, byteOut.toByteArray());
+	}
+
+	/**
+	 * Tests if the second protocol version prefixes chunks with a big-endian int and ends with an int of -1
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testWireFormatV2() throws IOException {
+		ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+		OutputStream virtualOut = new VirtualOutputStream(byteOut, 2, VirtualStreamProtocol.V2);
+		virtualOut.write(new byte[] { 1, 2, 3 });
+		virtualOut.close();
+
+		byte[] expected = { 0, 0, 0, 2, 1, 2, 0, 0, 0, 1, 3, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF };
+		assertArrayEquals(expected, byteOut.toByteArray());
+	}
+
+	/**
+	 * Tests sending chunks larger than the first protocol version allows, followed by a stream of the first version on
+	 * the same connection
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testSendReceiveLargeChunksV2() throws IOException {
+		byte[] data = new byte[3 * 1024 * 1024 + 17];
+		new Random(7).nextBytes(data);
+		ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+
+		OutputStream virtualOut1 = new VirtualOutputStream(byteOut, 1024 * 1024, VirtualStreamProtocol.V2);
+		virtualOut1.write(data, 0, 10);
+		virtualOut1.write(data, 10, data.length - 10);
+		virtualOut1.close();
+
+		OutputStream virtualOut2 = new VirtualOutputStream(byteOut);
+		virtualOut2.write(TEST_BYTES);
+		virtualOut2.close();
+
+		InputStream byteIn = new ByteArrayInputStream(byteOut.toByteArray());
+
+		InputStream virtualIn1 = new VirtualInputStream(byteIn, VirtualStreamProtocol.V2);
+		ByteArrayOutputStream sentBytes = new ByteArrayOutputStream();
+		IOUtils.copy(virtualIn1, sentBytes);
+		virtualIn1.close();
+
+		InputStream virtualIn2 = new VirtualInputStream(byteIn);
+		ByteArrayOutputStream sentBytes2 = new ByteArrayOutputStream();
+		IOUtils.copy(virtualIn2, sentBytes2);
+		virtualIn2.close();
+
+		assertArrayEquals(data, sentBytes.toByteArray());
+		assertArrayEquals(TEST_BYTES, sentBytes2.toByteArray());
+	}
+
+	/**
+	 * A bad weather test for testing if a buffer larger than the protocol version allows throws the correct exception.
+	 */
+	@Test
+	public void testBufferTooLargeForProtocol() {
+		boolean successfulCatch = false;
+		try {
+			new VirtualOutputStream(new ByteArrayOutputStream(), Short.MAX_VALUE + 1, VirtualStreamProtocol.V1);
+		} catch (IllegalArgumentException e) {
+			successfulCatch = true;
+		}
+		assertTrue(successfulCatch);
+
+		// The same size is fine in the second version
+		IOUtils.closeQuietly(new VirtualOutputStream(new ByteArrayOutputStream(), Short.MAX_VALUE + 1, VirtualStreamProtocol.V2));
+	}
+
+	/**
+	 * A bad weather test for closing a stream whose underlying stream fails, the buffer has to go back to the pool
+	 * anyway
+	 */
+	@Test
+	public void testFailedCloseReleasesBuffer() {
+		BufferPool defaultPool = BufferPool.getDefault();
+		BufferPool pool = new BufferPool(BufferPool.MAX_SIZE);
+		BufferPool.setDefault(pool);
+		try {
+			OutputStream failing = new OutputStream() {
+				@Override
+				public void write(int b) throws IOException {
+					throw new IOException("The underlying stream failed");
+				}
+			};
+			VirtualOutputStream virtualOut = new VirtualOutputStream(failing, TEST_BUFFER_SIZE);
+			assertNotEquals(0, pool.getInUseBytes());
+
+			boolean successfulCatch = false;
+			try {
+				virtualOut.write(TEST_BYTES, 0, TEST_BUFFER_SIZE - 1);
+				virtualOut.close();
+			} catch (IOException e) {
+				successfulCatch = true;
+			}
+			assertTrue(successfulCatch);
+			assertEquals(0, pool.getInUseBytes());
+		} finally {
+			BufferPool.setDefault(defaultPool);
+		}
+	}
+
+	/**
+	 * Tests if framing and unframing chunks does not allocate any memory per chunk
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testFramingDoesNotAllocate() throws IOException {
+		Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled());
+		long threadId = Thread.currentThread().getId();
+
+		byte[] chunk = new byte[TEST_BUFFER_SIZE];
+		byte[] wire = new byte[ALLOCATION_TEST_CHUNKS * (chunk.length + 2) + 2];
+		FixedArrayOutputStream sink = new FixedArrayOutputStream(wire);
+
+		// Run once so class loading and JIT compilation are not measured
+		writeChunks(sink, chunk);
+		readChunks(wire, chunk);
+
+		sink.reset();
+		long before = threadBean.getThreadAllocatedBytes(threadId);
+		writeChunks(sink, chunk);
+		long allocatedWriting = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+		before = threadBean.getThreadAllocatedBytes(threadId);
+		readChunks(wire, chunk);
+		long allocatedReading = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+		assertTrue("Writing allocated " + allocatedWriting + " bytes", allocatedWriting < ALLOCATION_TEST_MAX_BYTES);
+		assertTrue("Reading allocated " + allocatedReading + " bytes", allocatedReading < ALLOCATION_TEST_MAX_BYTES);
+	}
+
+	private static void writeChunks(OutputStream sink, byte[] chunk) throws IOException {
+		OutputStream virtualOut = new VirtualOutputStream(sink, (short) chunk.length);
+		for (int i = 0; i < ALLOCATION_TEST_CHUNKS; i++) {
+			virtualOut.write(chunk, 0, chunk.length);
+		}
+		virtualOut.close();
+	}
+
+	private static void readChunks(byte[] wire, byte[] chunk) throws IOException {
+		InputStream virtualIn = new VirtualInputStream(new ByteArrayInputStream(wire));
+		int chunks = 0;
+		while (virtualIn.read(chunk, 0, chunk.length) != -1) {
+			++chunks;
+		}
+		virtualIn.close();
+		assertEquals(ALLOCATION_TEST_CHUNKS, chunks);
+	}
+
+	/**
+	 * An {@link OutputStream} that writes into a fixed array, so the sink itself does not allocate
+	 */
+	private static final class FixedArrayOutputStream extends OutputStream {
+
+		private final byte[] target;
+
+		private int position = 0;
+
+		private FixedArrayOutputStream(byte[] target) {
+			this.target = target;
+		}
+
+		private void reset() {
+			position = 0;
+		}
+
+		@Override
+		public void write(int b) {
+			target[position++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			System.arraycopy(b, off, target, position, len);
+			position += len;
+		}
 	}
 }
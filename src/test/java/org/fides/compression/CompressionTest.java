@@ -0,0 +1,247 @@
+package org.fides.compression;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.util.Random;
+
+import org.apache.commons.io.IOUtils;
+import org.fides.encryption.EncryptionMode;
+import org.fides.encryption.EncryptionUtils;
+import org.fides.encryption.KeyGenerator;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link CompressionUtils} streams
+ * 
+ */
+public class CompressionTest {
+
+	/**
+	 * Tests if text is compressed to a fraction of its size and decompressed unchanged
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testTextRoundTrip() throws IOException {
+		byte[] text = text(500000);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CompressingOutputStream compressing = new CompressingOutputStream(out, CompressionCodec.DEFLATE, CompressionUtils.DEFAULT_LEVEL,
+			CompressionUtils.DEFAULT_BLOCK_SIZE);
+		compressing.write(text);
+		compressing.close();
+
+		assertTrue(out.size() * 3 < text.length);
+		assertEquals(0, compressing.getStoredBlocks());
+		assertArrayEquals(text, decompress(out.toByteArray()));
+	}
+
+	/**
+	 * Tests if random data is stored without compressing it, costing only a few bytes per block
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testIncompressibleData() throws IOException {
+		byte[] data = new byte[10 * CompressionUtils.DEFAULT_BLOCK_SIZE];
+		new Random(1).nextBytes(data);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CompressingOutputStream compressing = new CompressingOutputStream(out, CompressionCodec.DEFLATE, CompressionUtils.DEFAULT_LEVEL,
+			CompressionUtils.DEFAULT_BLOCK_SIZE);
+		compressing.write(data);
+		compressing.close();
+
+		assertEquals(10, compressing.getStoredBlocks());
+		assertEquals(CompressionHeader.SIZE + data.length + 10 * 5 + 1, out.size());
+		assertArrayEquals(data, decompress(out.toByteArray()));
+	}
+
+	/**
+	 * Tests mixed data, written a byte at a time and in odd pieces, with flushes in between, at every level
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testMixedWrites() throws IOException {
+		byte[] random = new byte[100000];
+		new Random(2).nextBytes(random);
+		byte[] text = text(100000);
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		expected.write(text);
+		expected.write(random);
+		expected.write(text);
+		byte[] data = expected.toByteArray();
+
+		for (int level = 1; level <= 9; level++) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			try (OutputStream compressing = CompressionUtils.getCompressionStream(out, CompressionCodec.DEFLATE, level)) {
+				int offset = 0;
+				while (offset < data.length) {
+					if (offset % 7 == 0) {
+						compressing.write(data[offset++]);
+					} else {
+						int length = Math.min(data.length - offset, 9999);
+						compressing.write(data, offset, length);
+						offset += length;
+					}
+					if (offset % 3 == 0) {
+						compressing.flush();
+					}
+				}
+			}
+			assertArrayEquals(data, decompress(out.toByteArray()));
+		}
+	}
+
+	/**
+	 * Tests if an empty stream survives the round trip
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testEmptyStream() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CompressionUtils.getCompressionStream(out).close();
+		assertEquals(CompressionHeader.SIZE + 1, out.size());
+		assertEquals(0, decompress(out.toByteArray()).length);
+	}
+
+	/**
+	 * Tests if data that was never compressed is passed through only when the caller says so, also when it starts with a
+	 * compression header
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testUncompressedData() throws IOException {
+		byte[] text = text(1000);
+		assertRejected(text);
+		assertRejected(new byte[] { 1, 2 });
+		assertRejected(new byte[0]);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (OutputStream compressing = CompressionUtils.getCompressionStream(out)) {
+			compressing.write(text);
+		}
+		byte[] lookalike = out.toByteArray();
+		try (InputStream in = CompressionUtils.getDecompressionStream(new ByteArrayInputStream(lookalike), false)) {
+			assertArrayEquals(lookalike, IOUtils.toByteArray(in));
+		}
+		try (InputStream in = CompressionUtils.getDecompressionStream(new ByteArrayInputStream(lookalike), true)) {
+			assertArrayEquals(text, IOUtils.toByteArray(in));
+		}
+	}
+
+	/**
+	 * Tests if reading after closing fails with an {@link IOException}
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testReadAfterClose() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (OutputStream compressing = CompressionUtils.getCompressionStream(out)) {
+			compressing.write(text(1000));
+		}
+		InputStream in = CompressionUtils.getDecompressionStream(new ByteArrayInputStream(out.toByteArray()));
+		in.read();
+		in.close();
+		in.close();
+
+		boolean successfulCatch = false;
+		try {
+			in.read();
+		} catch (IOException e) {
+			successfulCatch = true;
+		}
+		assertTrue(successfulCatch);
+	}
+
+	/**
+	 * Tests if a truncated or damaged stream is rejected
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testCorruptStream() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (OutputStream compressing = CompressionUtils.getCompressionStream(out)) {
+			compressing.write(text(10000));
+		}
+		byte[] valid = out.toByteArray();
+
+		byte[] truncated = new byte[valid.length - 10];
+		System.arraycopy(valid, 0, truncated, 0, truncated.length);
+		assertRejected(truncated);
+
+		byte[] damaged = valid.clone();
+		damaged[CompressionHeader.SIZE + 20] ^= 0x55;
+		assertRejected(damaged);
+
+		byte[] unknownType = valid.clone();
+		unknownType[CompressionHeader.SIZE] = 9;
+		assertRejected(unknownType);
+	}
+
+	/**
+	 * Tests compression in front of encryption, the way files are uploaded and downloaded
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testWithEncryption() throws Exception {
+		Key key = KeyGenerator.generateRandomKey(EncryptionUtils.ALGORITHM, EncryptionUtils.KEY_SIZE);
+		byte[] text = text(300000);
+		for (EncryptionMode mode : EncryptionMode.values()) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			try (OutputStream compressing = CompressionUtils.getCompressionStream(EncryptionUtils.getEncryptionStream(out, key, mode))) {
+				compressing.write(text);
+			}
+			assertTrue(out.size() * 3 < text.length);
+
+			InputStream in = CompressionUtils.getDecompressionStream(EncryptionUtils.getDecryptionStream(new ByteArrayInputStream(out.toByteArray()), key));
+			assertArrayEquals(text, IOUtils.toByteArray(in));
+			in.close();
+		}
+	}
+
+	private static void assertRejected(byte[] data) {
+		boolean successfulCatch = false;
+		try {
+			decompress(data);
+		} catch (IOException e) {
+			successfulCatch = true;
+		}
+		assertTrue(successfulCatch);
+	}
+
+	private static byte[] decompress(byte[] data) throws IOException {
+		try (InputStream in = CompressionUtils.getDecompressionStream(new ByteArrayInputStream(data))) {
+			return IOUtils.toByteArray(in);
+		}
+	}
+
+	/**
+	 * Creates text from a small vocabulary, like a document
+	 */
+	private static byte[] text(int size) {
+		String[] words = { "the", "secure", "cloud", "storage", "encrypts", "every", "file", "on", "client", "side", "before", "upload", "and",
+			"key", "server", "never", "sees", "plain", "data", "user" };
+		Random random = new Random(size);
+		StringBuilder builder = new StringBuilder(size + 16);
+		while (builder.length() < size) {
+			builder.append(words[random.nextInt(words.length)]).append(random.nextInt(10) == 0 ? ".\n" : " ");
+		}
+		builder.setLength(size);
+		return builder.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+}
@@ -0,0 +1,171 @@
+package org.fides.encryption;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+import org.fides.tools.ChunkManifest;
+import org.fides.tools.ContentDefinedChunker;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link ChunkEncryption} and the {@link ChunkManifest}
+ * 
+ */
+public class ChunkEncryptionTest {
+
+	private static Key key;
+
+	/**
+	 * Generates the key used by all tests
+	 * 
+	 * @throws NoSuchAlgorithmException
+	 */
+	@BeforeClass
+	public static void generateKey() throws NoSuchAlgorithmException {
+		key = KeyGenerator.generateRandomKey(EncryptionUtils.ALGORITHM, EncryptionUtils.KEY_SIZE);
+	}
+
+	/**
+	 * Tests if an update of a file only needs the changed chunks, and the file can be put back together from its chunks
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testUpdateSendsChangedChunks() throws IOException {
+		ContentDefinedChunker chunker = new ContentDefinedChunker();
+		byte[] original = randomBytes(1024 * 1024, 1);
+		byte[] updated = original.clone();
+		System.arraycopy(randomBytes(100, 2), 0, updated, 500000, 100);
+
+		ChunkManifest originalManifest = ChunkEncryption.createManifest(new ByteArrayInputStream(original), key, chunker);
+		final Map<String, byte[]> server = new LinkedHashMap<>();
+		ChunkEncryption.Handler upload = new ChunkEncryption.Handler() {
+			@Override
+			public void chunk(String id, byte[] encrypted) {
+				server.put(id, encrypted);
+			}
+		};
+		ChunkEncryption.encryptChunks(new ByteArrayInputStream(original), key, originalManifest, originalManifest.getChunkIds(), upload);
+		assertEquals(originalManifest.getChunkIds(), server.keySet());
+
+		ChunkManifest updatedManifest = ChunkEncryption.createManifest(new ByteArrayInputStream(updated), key, chunker);
+		Set<String> missing = updatedManifest.getChunkIdsNotIn(originalManifest);
+		assertTrue(missing.size() + " changed chunks", missing.size() >= 1 && missing.size() <= 2);
+		int before = server.size();
+		ChunkEncryption.encryptChunks(new ByteArrayInputStream(updated), key, updatedManifest, missing, upload);
+		assertEquals(before + missing.size(), server.size());
+
+		// The manifest travels as a file, the chunks are fetched by id
+		ByteArrayOutputStream manifestOut = new ByteArrayOutputStream();
+		updatedManifest.write(manifestOut);
+		ChunkManifest downloaded = ChunkManifest.read(new ByteArrayInputStream(manifestOut.toByteArray()));
+		assertEquals(updated.length, downloaded.getLength());
+		ByteArrayOutputStream restored = new ByteArrayOutputStream();
+		for (ChunkManifest.Chunk chunk : downloaded.getChunks()) {
+			restored.write(ChunkEncryption.decrypt(key, chunk.getId(), server.get(chunk.getId())));
+		}
+		assertArrayEquals(updated, restored.toByteArray());
+	}
+
+	/**
+	 * Tests if equal chunks give equal ids and encryptions, and the encryption is a normal GCM stream
+	 * 
+	 * @throws IOException
+	 * @throws NoSuchAlgorithmException
+	 */
+	@Test
+	public void testDeterministicEncryption() throws IOException, NoSuchAlgorithmException {
+		for (int size : new int[] { 0, 1, EncryptionUtils.SEGMENT_SIZE, EncryptionUtils.SEGMENT_SIZE + 1, 3 * EncryptionUtils.SEGMENT_SIZE }) {
+			byte[] data = randomBytes(size, size);
+			String id = ChunkEncryption.getChunkId(key, data, 0, data.length);
+			byte[] encrypted = ChunkEncryption.encrypt(key, id, data, 0, data.length);
+			assertArrayEquals(encrypted, ChunkEncryption.encrypt(key, id, data.clone(), 0, data.length));
+
+			InputStream in = EncryptionUtils.getDecryptionStream(new ByteArrayInputStream(encrypted), key);
+			assertArrayEquals(data, IOUtils.toByteArray(in));
+			in.close();
+		}
+
+		// Another user gets other ids for the same data
+		Key otherKey = KeyGenerator.generateRandomKey(EncryptionUtils.ALGORITHM, EncryptionUtils.KEY_SIZE);
+		byte[] data = randomBytes(1000, 3);
+		assertFalse(ChunkEncryption.getChunkId(key, data, 0, data.length).equals(ChunkEncryption.getChunkId(otherKey, data, 0, data.length)));
+	}
+
+	/**
+	 * Tests if a chunk that is not the chunk of the id is rejected
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testWrongChunkRejected() throws IOException {
+		byte[] first = randomBytes(1000, 4);
+		byte[] second = randomBytes(1000, 5);
+		String firstId = ChunkEncryption.getChunkId(key, first, 0, first.length);
+		String secondId = ChunkEncryption.getChunkId(key, second, 0, second.length);
+		byte[] encrypted = ChunkEncryption.encrypt(key, secondId, second, 0, second.length);
+
+		boolean successfulCatch = false;
+		try {
+			ChunkEncryption.decrypt(key, firstId, encrypted);
+		} catch (IOException e) {
+			successfulCatch = true;
+		}
+		assertTrue(successfulCatch);
+
+		// A file that does not match its manifest
+		ChunkManifest manifest = new ChunkManifest();
+		manifest.add(firstId, first.length);
+		successfulCatch = false;
+		try {
+			ChunkEncryption.encryptChunks(new ByteArrayInputStream(second), key, manifest, manifest.getChunkIds(), null);
+		} catch (IOException e) {
+			successfulCatch = true;
+		}
+		assertTrue(successfulCatch);
+	}
+
+	/**
+	 * Tests if a damaged manifest is rejected
+	 */
+	@Test
+	public void testInvalidManifest() {
+		boolean successfulCatch = false;
+		try {
+			ChunkManifest.read(new ByteArrayInputStream(new byte[] { 0x46, 0x49, 0x44, 0x4D, 1, 0, 0, 0, 2 }));
+		} catch (IOException e) {
+			successfulCatch = true;
+		}
+		assertTrue(successfulCatch);
+
+		successfulCatch = false;
+		try {
+			new ChunkManifest().add("ABCD", 1);
+		} catch (IllegalArgumentException e) {
+			successfulCatch = true;
+		}
+		assertTrue(successfulCatch);
+	}
+
+	private static byte[] randomBytes(int size, long seed) {
+		byte[] bytes = new byte[size];
+		new Random(seed).nextBytes(bytes);
+		return bytes;
+	}
+
+}
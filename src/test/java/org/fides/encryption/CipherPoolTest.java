@@ -0,0 +1,158 @@
+package org.fides.encryption;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.Key;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link CipherPool} and the pooled CBC streams of {@link EncryptionUtils}
+ * 
+ */
+public class CipherPoolTest {
+
+	private static final CipherPool.Factory<Object> FACTORY = new CipherPool.Factory<Object>() {
+		@Override
+		public Object create(byte[] key) {
+			return new Object();
+		}
+	};
+
+	/**
+	 * Tests if a released cipher is borrowed again for the same key, but not for another key
+	 */
+	@Test
+	public void testReuse() {
+		CipherPool<Object> pool = new CipherPool<>(FACTORY, 4, 4);
+		byte[] key = { 1, 2, 3 };
+		Object cipher = pool.borrow(key);
+		pool.release(key, cipher);
+		assertNotSame(cipher, pool.borrow(new byte[] { 4, 5, 6 }));
+		assertSame(cipher, pool.borrow(key.clone()));
+		assertEquals(1, pool.getHits());
+		assertEquals(2, pool.getMisses());
+	}
+
+	/**
+	 * Tests if the key used longest ago is evicted when the pool is full
+	 */
+	@Test
+	public void testEviction() {
+		CipherPool<Object> pool = new CipherPool<>(FACTORY, 2, 4);
+		byte[] first = { 1 };
+		byte[] second = { 2 };
+		byte[] third = { 3 };
+		Object firstCipher = pool.borrow(first);
+		pool.release(first, firstCipher);
+		pool.release(second, pool.borrow(second));
+		// Using the first key makes the second one the eldest
+		pool.release(first, pool.borrow(first));
+		pool.release(third, pool.borrow(third));
+		assertEquals(2, pool.getKeyCount());
+
+		assertSame(firstCipher, pool.borrow(first));
+		long misses = pool.getMisses();
+		pool.borrow(second);
+		assertEquals(misses + 1, pool.getMisses());
+	}
+
+	/**
+	 * Tests if no more than the maximum number of idle ciphers is kept for a key
+	 */
+	@Test
+	public void testMaxIdlePerKey() {
+		CipherPool<Object> pool = new CipherPool<>(FACTORY, 4, 2);
+		byte[] key = { 1 };
+		List<Object> ciphers = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			ciphers.add(pool.borrow(key));
+		}
+		for (Object cipher : ciphers) {
+			pool.release(key, cipher);
+		}
+		pool.borrow(key);
+		pool.borrow(key);
+		long misses = pool.getMisses();
+		pool.borrow(key);
+		assertEquals(misses + 1, pool.getMisses());
+	}
+
+	/**
+	 * Tests if many threads encrypting and decrypting with the same key never share a pooled cipher
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testConcurrentStreamsWithOneKey() throws Exception {
+		final Key key = KeyGenerator.generateRandomKey(EncryptionUtils.ALGORITHM, EncryptionUtils.KEY_SIZE);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Boolean>> results = new ArrayList<>();
+			for (int i = 0; i < 200; i++) {
+				final int seed = i;
+				results.add(executor.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() throws IOException {
+						byte[] data = new byte[new Random(seed).nextInt(5000)];
+						new Random(seed).nextBytes(data);
+						ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+						OutputStream out = EncryptionUtils.getEncryptionStream(byteOut, key);
+						out.write(data);
+						out.close();
+						InputStream in = EncryptionUtils.getDecryptionStream(new ByteArrayInputStream(byteOut.toByteArray()), key);
+						byte[] decrypted = IOUtils.toByteArray(in);
+						in.close();
+						assertArrayEquals(data, decrypted);
+						return true;
+					}
+				}));
+			}
+			for (Future<Boolean> result : results) {
+				assertTrue(result.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * A bad weather test for writing to a stream whose cipher went back to the pool
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testWriteAfterClose() throws Exception {
+		Key key = KeyGenerator.generateRandomKey(EncryptionUtils.ALGORITHM, EncryptionUtils.KEY_SIZE);
+		OutputStream out = EncryptionUtils.getEncryptionStream(new ByteArrayOutputStream(), key);
+		out.write(1);
+		out.close();
+		// Closing twice does not give the cipher back twice
+		out.close();
+		boolean successfulCatch = false;
+		try {
+			out.write(1);
+		} catch (IOException e) {
+			successfulCatch = true;
+		}
+		assertTrue(successfulCatch);
+	}
+
+}
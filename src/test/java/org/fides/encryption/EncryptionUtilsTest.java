@@ -0,0 +1,433 @@
+package org.fides.encryption;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.io.IOUtils;
+import org.bouncycastle.crypto.engines.CamelliaEngine;
+import org.bouncycastle.crypto.modes.SICBlockCipher;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link EncryptionUtils}
+ * 
+ */
+public class EncryptionUtilsTest {
+
+	private static final int[] TEST_SIZES = { 0, 1, 15, 16, EncryptionUtils.SEGMENT_SIZE - 1, EncryptionUtils.SEGMENT_SIZE,
+		EncryptionUtils.SEGMENT_SIZE + 1, 20 * EncryptionUtils.SEGMENT_SIZE + 7 };
+
+	private static final EncryptionMode[] SEGMENTED_MODES = { EncryptionMode.CTR, EncryptionMode.GCM };
+
+	private static Key key;
+
+	/**
+	 * Generates the key used by all tests
+	 * 
+	 * @throws NoSuchAlgorithmException
+	 */
+	@BeforeClass
+	public static void generateKey() throws NoSuchAlgorithmException {
+		key = KeyGenerator.generateRandomKey(EncryptionUtils.ALGORITHM, EncryptionUtils.KEY_SIZE);
+	}
+
+	/**
+	 * Tests if data encrypted with the original mode can be decrypted again
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testCbcRoundTrip() throws IOException {
+		for (int size : TEST_SIZES) {
+			byte[] data = testData(size);
+			byte[] encrypted = encrypt(data, EncryptionMode.CBC);
+			assertArrayEquals(data, decrypt(encrypted));
+		}
+	}
+
+	/**
+	 * Tests if data encrypted in counter mode can be decrypted again, for sizes around the segment boundaries
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testCtrRoundTrip() throws IOException {
+		for (int size : TEST_SIZES) {
+			byte[] data = testData(size);
+			byte[] encrypted = encrypt(data, EncryptionMode.CTR);
+			assertArrayEquals(data, decrypt(encrypted));
+		}
+	}
+
+	/**
+	 * Tests if data encrypted in GCM mode can be decrypted again, for sizes around the segment boundaries
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testGcmRoundTrip() throws IOException {
+		for (int size : TEST_SIZES) {
+			byte[] data = testData(size);
+			byte[] encrypted = encrypt(data, EncryptionMode.GCM);
+			assertArrayEquals(data, decrypt(encrypted));
+		}
+	}
+
+	/**
+	 * A bad weather test for changed cipher text, in the header, in a segment and in a tag
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testGcmDetectsChangedData() throws IOException {
+		byte[] encrypted = encrypt(testData(3 * EncryptionUtils.SEGMENT_SIZE + 5), EncryptionMode.GCM);
+		int[] positions = { EncryptionHeader.SIZE - 1, EncryptionHeader.SIZE + EncryptionUtils.SEGMENT_SIZE + 100, encrypted.length - 1 };
+		for (int position : positions) {
+			byte[] changed = encrypted.clone();
+			changed[position] ^= 1;
+			assertDecryptionFails(changed);
+		}
+	}
+
+	/**
+	 * A bad weather test for streams that are cut off, at a segment boundary, inside a segment and right after the header
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testGcmDetectsTruncation() throws IOException {
+		int encryptedSegmentSize = EncryptionUtils.SEGMENT_SIZE + GcmSegmentCipher.TAG_SIZE;
+		for (int size : new int[] { 0, 2 * EncryptionUtils.SEGMENT_SIZE, 2 * EncryptionUtils.SEGMENT_SIZE + 5 }) {
+			byte[] encrypted = encrypt(testData(size), EncryptionMode.GCM);
+			int[] lengths = { EncryptionHeader.SIZE, EncryptionHeader.SIZE + encryptedSegmentSize, encrypted.length - 1 };
+			for (int length : lengths) {
+				if (length < encrypted.length) {
+					assertDecryptionFails(Arrays.copyOf(encrypted, length));
+				}
+			}
+		}
+	}
+
+	/**
+	 * A bad weather test for swapping two segments of a stream
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testGcmDetectsReorderedSegments() throws IOException {
+		int encryptedSegmentSize = EncryptionUtils.SEGMENT_SIZE + GcmSegmentCipher.TAG_SIZE;
+		byte[] encrypted = encrypt(testData(3 * EncryptionUtils.SEGMENT_SIZE), EncryptionMode.GCM);
+		byte[] swapped = encrypted.clone();
+		System.arraycopy(encrypted, EncryptionHeader.SIZE, swapped, EncryptionHeader.SIZE + encryptedSegmentSize, encryptedSegmentSize);
+		System.arraycopy(encrypted, EncryptionHeader.SIZE + encryptedSegmentSize, swapped, EncryptionHeader.SIZE, encryptedSegmentSize);
+		assertDecryptionFails(swapped);
+	}
+
+	/**
+	 * Tests if a changed segment only fails the reads that touch it when reading at random positions
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testGcmRandomAccessVerifiesSegments() throws IOException {
+		byte[] data = testData(3 * EncryptionUtils.SEGMENT_SIZE);
+		byte[] encrypted = encrypt(data, EncryptionMode.GCM);
+		encrypted[EncryptionHeader.SIZE + 2 * (EncryptionUtils.SEGMENT_SIZE + GcmSegmentCipher.TAG_SIZE) + 7] ^= 1;
+		File file = writeTempFile(encrypted);
+		try (SeekableByteChannel channel = EncryptionUtils.getDecryptionChannel(Files.newByteChannel(file.toPath()), key)) {
+			ByteBuffer dst = ByteBuffer.allocate(EncryptionUtils.SEGMENT_SIZE);
+			channel.position(EncryptionUtils.SEGMENT_SIZE);
+			while (dst.hasRemaining()) {
+				channel.read(dst);
+			}
+			assertArrayEquals(Arrays.copyOfRange(data, EncryptionUtils.SEGMENT_SIZE, 2 * EncryptionUtils.SEGMENT_SIZE), dst.array());
+
+			boolean successfulCatch = false;
+			try {
+				channel.read(ByteBuffer.allocate(1));
+			} catch (IOException e) {
+				successfulCatch = true;
+			}
+			assertTrue(successfulCatch);
+		}
+	}
+
+	/**
+	 * Tests if writing byte for byte and reading byte for byte gives the same result as the bulk methods
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testCtrSingleBytes() throws IOException {
+		byte[] data = testData(3 * EncryptionUtils.SEGMENT_SIZE + 5);
+		ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+		OutputStream encryptOut = EncryptionUtils.getEncryptionStream(byteOut, key, EncryptionMode.CTR);
+		for (byte b : data) {
+			encryptOut.write(b);
+		}
+		encryptOut.close();
+
+		InputStream decryptIn = EncryptionUtils.getDecryptionStream(new ByteArrayInputStream(byteOut.toByteArray()), key);
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		int b;
+		while ((b = decryptIn.read()) != -1) {
+			result.write(b);
+		}
+		decryptIn.close();
+		assertArrayEquals(data, result.toByteArray());
+	}
+
+	/**
+	 * Tests if encrypting the same data twice gives different cipher texts, so a key can be reused for a new version of a
+	 * file
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testCtrUsesFreshNonce() throws IOException {
+		byte[] data = testData(1000);
+		byte[] first = encrypt(data, EncryptionMode.CTR);
+		byte[] second = encrypt(data, EncryptionMode.CTR);
+		assertEquals(first.length, second.length);
+		assertFalse(Arrays.equals(first, second));
+	}
+
+	/**
+	 * Tests if the segments encrypted in parallel form one continuous counter mode stream, by decrypting it with a single
+	 * sequential cipher
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testCtrMatchesSequentialCounterMode() throws IOException {
+		byte[] data = testData(5 * EncryptionUtils.SEGMENT_SIZE + 3);
+		byte[] encrypted = encrypt(data, EncryptionMode.CTR);
+
+		SICBlockCipher cipher = new SICBlockCipher(new CamelliaEngine());
+		byte[] nonce = Arrays.copyOfRange(encrypted, EncryptionHeader.SIZE - EncryptionUtils.NONCE_SIZE, EncryptionHeader.SIZE);
+		cipher.init(true, new ParametersWithIV(new KeyParameter(key.getEncoded()), nonce));
+		byte[] decrypted = new byte[data.length];
+		cipher.processBytes(encrypted, EncryptionHeader.SIZE, data.length, decrypted, 0);
+		assertArrayEquals(data, decrypted);
+	}
+
+	/**
+	 * Tests if segments of a size that is not a multiple of the block size, and a nonce that carries over, still form one
+	 * continuous counter mode stream
+	 */
+	@Test
+	public void testCtrUnalignedSegments() {
+		byte[] nonce = new byte[EncryptionUtils.NONCE_SIZE];
+		Arrays.fill(nonce, 8, nonce.length, (byte) 0xFF);
+		int segmentSize = 1000;
+		byte[] data = testData(7 * segmentSize + 3);
+
+		SICBlockCipher sequential = new SICBlockCipher(new CamelliaEngine());
+		sequential.init(true, new ParametersWithIV(new KeyParameter(key.getEncoded()), nonce));
+		byte[] expected = new byte[data.length];
+		sequential.processBytes(data, 0, data.length, expected, 0);
+
+		CtrSegmentCipher cipher = new CtrSegmentCipher(key.getEncoded(), nonce, segmentSize);
+		for (int index = 0; index * segmentSize < data.length; index++) {
+			int length = Math.min(segmentSize, data.length - index * segmentSize);
+			byte[] segment = Arrays.copyOfRange(data, index * segmentSize, index * segmentSize + length);
+			assertArrayEquals(Arrays.copyOfRange(expected, index * segmentSize, index * segmentSize + length), cipher.encrypt(index, segment, length, false));
+		}
+	}
+
+	/**
+	 * Tests reading ranges at random positions through the seekable decryption channel
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testRandomAccess() throws IOException {
+		for (EncryptionMode mode : SEGMENTED_MODES) {
+			byte[] data = testData(7 * EncryptionUtils.SEGMENT_SIZE + 123);
+			File file = writeTempFile(encrypt(data, mode));
+			try (SeekableByteChannel channel = EncryptionUtils.getDecryptionChannel(Files.newByteChannel(file.toPath()), key)) {
+				assertEquals(data.length, channel.size());
+				Random random = new Random(11);
+				for (int i = 0; i < 50; i++) {
+					int position = random.nextInt(data.length);
+					int length = Math.min(random.nextInt(3 * EncryptionUtils.SEGMENT_SIZE), data.length - position);
+					ByteBuffer dst = ByteBuffer.allocate(length);
+					channel.position(position);
+					while (dst.hasRemaining()) {
+						channel.read(dst);
+					}
+					assertArrayEquals(Arrays.copyOfRange(data, position, position + length), dst.array());
+				}
+				channel.position(data.length);
+				assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+			}
+		}
+	}
+
+	/**
+	 * A bad weather test for random access to data without a header
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testRandomAccessNeedsSegmentedMode() throws IOException {
+		File file = writeTempFile(encrypt(testData(1000), EncryptionMode.CBC));
+		boolean successfulCatch = false;
+		try (SeekableByteChannel channel = Files.newByteChannel(file.toPath())) {
+			EncryptionUtils.getDecryptionChannel(channel, key);
+		} catch (IOException e) {
+			successfulCatch = true;
+		}
+		assertTrue(successfulCatch);
+	}
+
+	/**
+	 * A bad weather test for a GCM stream of which the header is rewritten to CTR, when GCM is expected
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testExpectedModeRejectsRewrittenHeader() throws IOException {
+		byte[] encrypted = encrypt(testData(1000), EncryptionMode.GCM);
+		// The mode follows the four magic bytes and the version, 1 stands for CTR
+		encrypted[5] = 1;
+		assertDecryptionFails(encrypted, EncryptionMode.GCM);
+
+		File file = writeTempFile(encrypted);
+		boolean successfulCatch = false;
+		try (SeekableByteChannel channel = Files.newByteChannel(file.toPath())) {
+			EncryptionUtils.getDecryptionChannel(channel, key, EncryptionMode.GCM);
+		} catch (IOException e) {
+			successfulCatch = true;
+		}
+		assertTrue(successfulCatch);
+	}
+
+	/**
+	 * A bad weather test for a GCM stream of which the header is removed, which would otherwise be read as CBC
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testExpectedModeRejectsStrippedHeader() throws IOException {
+		byte[] encrypted = encrypt(testData(1000), EncryptionMode.GCM);
+		assertDecryptionFails(Arrays.copyOfRange(encrypted, EncryptionHeader.SIZE, encrypted.length), EncryptionMode.GCM);
+	}
+
+	/**
+	 * A bad weather test for streams that start with the magic bytes but not with a valid header, which are not read as
+	 * CBC
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testDamagedHeaderIsRejected() throws IOException {
+		byte[] encrypted = encrypt(testData(1000), EncryptionMode.GCM);
+		byte[] changedVersion = encrypted.clone();
+		// The version follows the four magic bytes
+		changedVersion[4] = EncryptionHeader.VERSION + 1;
+		assertDecryptionFails(changedVersion);
+		assertDecryptionFails(Arrays.copyOf(encrypted, EncryptionHeader.SIZE - 1));
+	}
+
+	/**
+	 * A bad weather test for a header announcing larger segments than writers produce
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testOversizedSegmentSizeIsRejected() throws IOException {
+		byte[] encrypted = encrypt(testData(1000), EncryptionMode.GCM);
+		// The segment size follows the four magic bytes, the version and the mode
+		ByteBuffer.wrap(encrypted, 6, 4).putInt(EncryptionHeader.MAX_SEGMENT_SIZE + 1);
+		boolean successfulCatch = false;
+		try {
+			EncryptionHeader.parse(encrypted, encrypted.length);
+		} catch (IOException e) {
+			successfulCatch = true;
+		}
+		assertTrue(successfulCatch);
+		assertDecryptionFails(encrypted);
+	}
+
+	/**
+	 * Tests if a stream in the expected mode is decrypted as usual
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testExpectedMode() throws IOException {
+		byte[] data = testData(2 * EncryptionUtils.SEGMENT_SIZE + 5);
+		byte[] encrypted = encrypt(data, EncryptionMode.GCM);
+		try (InputStream decryptIn = EncryptionUtils.getDecryptionStream(new ByteArrayInputStream(encrypted), key,
+			EncryptionMode.GCM)) {
+			assertArrayEquals(data, IOUtils.toByteArray(decryptIn));
+		}
+	}
+
+	private static void assertDecryptionFails(byte[] encrypted, EncryptionMode mode) {
+		boolean successfulCatch = false;
+		try (InputStream decryptIn = EncryptionUtils.getDecryptionStream(new ByteArrayInputStream(encrypted), key, mode)) {
+			IOUtils.toByteArray(decryptIn);
+		} catch (IOException e) {
+			successfulCatch = true;
+		}
+		assertTrue(successfulCatch);
+	}
+
+	private static void assertDecryptionFails(byte[] encrypted) {
+		boolean successfulCatch = false;
+		try {
+			decrypt(encrypted);
+		} catch (IOException e) {
+			successfulCatch = true;
+		}
+		assertTrue(successfulCatch);
+	}
+
+	private static File writeTempFile(byte[] data) throws IOException {
+		File file = File.createTempFile("encrypted", ".bin");
+		file.deleteOnExit();
+		Files.write(file.toPath(), data);
+		return file;
+	}
+
+	private static byte[] testData(int size) {
+		byte[] data = new byte[size];
+		new Random(size).nextBytes(data);
+		return data;
+	}
+
+	private static byte[] encrypt(byte[] data, EncryptionMode mode) throws IOException {
+		ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+		OutputStream encryptOut = EncryptionUtils.getEncryptionStream(byteOut, key, mode);
+		encryptOut.write(data);
+		encryptOut.close();
+		return byteOut.toByteArray();
+	}
+
+	private static byte[] decrypt(byte[] encrypted) throws IOException {
+		try (InputStream decryptIn = EncryptionUtils.getDecryptionStream(new ByteArrayInputStream(encrypted), key)) {
+			return IOUtils.toByteArray(decryptIn);
+		}
+	}
+}
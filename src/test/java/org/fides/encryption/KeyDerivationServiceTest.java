@@ -0,0 +1,198 @@
+package org.fides.encryption;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.security.Key;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * Tests for the {@link KeyDerivationService}
+ * 
+ */
+public class KeyDerivationServiceTest {
+
+	/** Enough rounds to keep a worker busy while the test submits more */
+	private static final int SLOW_ROUNDS = 300000;
+
+	private static final byte[] SALT = { 1, 2, 3, 4, 5, 6, 7, 8 };
+
+	/**
+	 * Tests if the service derives the same key as the {@link KeyGenerator}
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testDeriveKey() throws Exception {
+		try (KeyDerivationService service = new KeyDerivationService(2, 10, 2)) {
+			Key key = service.deriveKey("caller", "password", SALT, 1000, 32).get();
+			assertArrayEquals(KeyGenerator.generateKey("password", SALT, 1000, 32).getEncoded(), key.getEncoded());
+			assertEquals(0, service.getPending("caller"));
+		}
+	}
+
+	/**
+	 * Tests if a caller can not have more derivations pending than its limit, while other callers can still go ahead
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testPerCallerLimit() throws Exception {
+		try (KeyDerivationService service = new KeyDerivationService(2, 10, 1)) {
+			Future<Key> first = service.deriveKey("busy", "password", SALT, SLOW_ROUNDS, 32);
+			boolean successfulCatch = false;
+			try {
+				service.deriveKey("busy", "password", SALT, SLOW_ROUNDS, 32);
+			} catch (RejectedExecutionException e) {
+				successfulCatch = true;
+			}
+			assertTrue(successfulCatch);
+
+			Future<Key> other = service.deriveKey("other", "password", SALT, 1000, 32);
+			other.get();
+			first.get();
+			assertEquals(0, service.getPending("busy"));
+			service.deriveKey("busy", "password", SALT, 1000, 32).get();
+		}
+	}
+
+	/**
+	 * Tests if a full queue rejects new derivations and frees the slot of the caller
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testQueueLimit() throws Exception {
+		try (KeyDerivationService service = new KeyDerivationService(1, 1, 10)) {
+			Future<Key> running = service.deriveKey("caller", "a", SALT, SLOW_ROUNDS, 32);
+			// The first one starts a worker, the second one waits in the queue
+			Future<Key> queued = service.deriveKey("caller", "b", SALT, SLOW_ROUNDS, 32);
+			boolean successfulCatch = false;
+			try {
+				service.deriveKey("caller", "c", SALT, SLOW_ROUNDS, 32);
+			} catch (RejectedExecutionException e) {
+				successfulCatch = true;
+			}
+			assertTrue(successfulCatch);
+			running.get();
+			queued.get();
+			assertEquals(0, service.getPending("caller"));
+		}
+	}
+
+	/**
+	 * Tests if a cached key is reused until it expires, and different parameters do not share a key
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testCache() throws Exception {
+		ManualTicker ticker = new ManualTicker();
+		try (KeyDerivationService service = new KeyDerivationService(2, 10, 5, 10, 300, TimeUnit.MILLISECONDS, ticker)) {
+			Key first = service.deriveKey("caller", "password", SALT, 1000, 32).get();
+			assertSame(first, service.deriveKey("other", "password", SALT, 1000, 32).get());
+			assertNotSame(first, service.deriveKey("caller", "password", SALT, 1001, 32).get());
+			assertNotSame(first, service.deriveKey("caller", "passwore", SALT, 1000, 32).get());
+
+			ticker.advance(299, TimeUnit.MILLISECONDS);
+			assertSame(first, service.deriveKey("caller", "password", SALT, 1000, 32).get());
+			ticker.advance(1, TimeUnit.MILLISECONDS);
+			Key later = service.deriveKey("caller", "password", SALT, 1000, 32).get();
+			assertNotSame(first, later);
+			assertArrayEquals(first.getEncoded(), later.getEncoded());
+		}
+	}
+
+	/**
+	 * Tests if an expired key leaves the cache when another key is derived, without being asked for again
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testExpiredKeysArePurged() throws Exception {
+		ManualTicker ticker = new ManualTicker();
+		try (KeyDerivationService service = new KeyDerivationService(2, 10, 5, 10, 300, TimeUnit.MILLISECONDS, ticker)) {
+			service.deriveKey("caller", "password", SALT, 1000, 32).get();
+			service.deriveKey("caller", "password", SALT, 1001, 32).get();
+			assertEquals(2, service.cacheSize());
+
+			ticker.advance(300, TimeUnit.MILLISECONDS);
+			service.deriveKey("caller", "other password", SALT, 1000, 32).get();
+			assertEquals(1, service.cacheSize());
+		}
+	}
+
+	/**
+	 * Tests if a caller that cancels a shared derivation does not cancel it for the other callers
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testCancelSharedDerivation() throws Exception {
+		try (KeyDerivationService service = new KeyDerivationService(1, 10, 5, 10, 1, TimeUnit.HOURS)) {
+			Future<Key> first = service.deriveKey("first", "password", SALT, SLOW_ROUNDS, 32);
+			Future<Key> second = service.deriveKey("second", "password", SALT, SLOW_ROUNDS, 32);
+			assertTrue(first.cancel(true));
+			assertTrue(first.isCancelled());
+			assertFalse(second.isCancelled());
+
+			boolean successfulCatch = false;
+			try {
+				first.get();
+			} catch (CancellationException e) {
+				successfulCatch = true;
+			}
+			assertTrue(successfulCatch);
+
+			Key key = second.get();
+			assertArrayEquals(KeyGenerator.generateKey("password", SALT, SLOW_ROUNDS, 32).getEncoded(), key.getEncoded());
+			assertSame(key, service.deriveKey("third", "password", SALT, SLOW_ROUNDS, 32).get());
+		}
+	}
+
+	/**
+	 * A bad weather test for deriving after the service is closed
+	 */
+	@Test
+	public void testClosed() {
+		KeyDerivationService service = new KeyDerivationService(1, 1, 1);
+		service.close();
+		boolean successfulCatch = false;
+		try {
+			service.deriveKey("caller", "password", SALT, 1000, 32);
+		} catch (RejectedExecutionException e) {
+			successfulCatch = true;
+		}
+		assertTrue(successfulCatch);
+		assertEquals(0, service.getPending("caller"));
+	}
+
+	/**
+	 * A clock that only moves when the test says so
+	 */
+	private static final class ManualTicker implements KeyDerivationService.Ticker {
+
+		private final AtomicLong nanos = new AtomicLong();
+
+		@Override
+		public long nanoTime() {
+			return nanos.get();
+		}
+
+		void advance(long duration, TimeUnit unit) {
+			nanos.addAndGet(unit.toNanos(duration));
+		}
+
+	}
+
+}
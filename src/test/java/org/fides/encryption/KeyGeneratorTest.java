@@ -0,0 +1,92 @@
+package org.fides.encryption;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.security.Key;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * Tests for the {@link KeyGenerator} and the {@link RandomSource}
+ * 
+ */
+public class KeyGeneratorTest {
+
+	/**
+	 * Tests if a batch of salts has the requested number and size, and no salt repeats
+	 */
+	@Test
+	public void testGetSalts() {
+		byte[][] salts = KeyGenerator.getSalts(1000, 16);
+		assertEquals(1000, salts.length);
+		Set<ByteBuffer> distinct = new HashSet<>();
+		for (byte[] salt : salts) {
+			assertEquals(16, salt.length);
+			distinct.add(ByteBuffer.wrap(salt));
+		}
+		assertEquals(salts.length, distinct.size());
+		assertEquals(0, KeyGenerator.getSalts(0, 16).length);
+	}
+
+	/**
+	 * Tests if a batch of keys has the requested number, algorithm and size, and no key repeats
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testGenerateRandomKeys() throws Exception {
+		Key[] keys = KeyGenerator.generateRandomKeys(EncryptionUtils.ALGORITHM, EncryptionUtils.KEY_SIZE, 100);
+		assertEquals(100, keys.length);
+		Set<ByteBuffer> distinct = new HashSet<>();
+		for (Key key : keys) {
+			assertEquals(EncryptionUtils.ALGORITHM, key.getAlgorithm());
+			assertEquals(EncryptionUtils.KEY_SIZE, key.getEncoded().length);
+			distinct.add(ByteBuffer.wrap(key.getEncoded()));
+		}
+		assertEquals(keys.length, distinct.size());
+
+		// A smaller key size after a larger one on the same thread
+		assertEquals(16, KeyGenerator.generateRandomKey(EncryptionUtils.ALGORITHM, 16).getEncoded().length);
+	}
+
+	/**
+	 * Tests if threads with their own generators never produce the same salt
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testThreadsGenerateDistinctSalts() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<byte[][]>> results = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				results.add(executor.submit(new Callable<byte[][]>() {
+					@Override
+					public byte[][] call() {
+						return KeyGenerator.getSalts(500, 16);
+					}
+				}));
+			}
+			Set<ByteBuffer> distinct = Collections.synchronizedSet(new HashSet<ByteBuffer>());
+			for (Future<byte[][]> result : results) {
+				for (byte[] salt : result.get()) {
+					assertTrue(distinct.add(ByteBuffer.wrap(salt)));
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,187 @@
+package org.fides.instrumentation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.security.Key;
+import java.util.Random;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.io.IOUtils;
+import org.fides.components.virtualstream.VirtualInputStream;
+import org.fides.components.virtualstream.VirtualOutputStream;
+import org.fides.components.virtualstream.VirtualStreamProtocol;
+import org.fides.encryption.EncryptionMode;
+import org.fides.encryption.EncryptionUtils;
+import org.fides.encryption.KeyGenerator;
+import org.fides.tools.HashUtils;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link Instrumentations}, the {@link Log2Histogram} and the {@link JmxInstrumentation}
+ * 
+ */
+public class InstrumentationTest {
+
+	/**
+	 * Removes the instrumentation a test installed
+	 */
+	@After
+	public void uninstall() {
+		Instrumentations.set(null);
+	}
+
+	/**
+	 * Tests if nothing is installed by default, and null installs nothing again
+	 */
+	@Test
+	public void testDefault() {
+		assertSame(Instrumentations.NONE, Instrumentations.get());
+		JmxInstrumentation instrumentation = new JmxInstrumentation();
+		Instrumentations.set(instrumentation);
+		assertSame(instrumentation, Instrumentations.get());
+		Instrumentations.set(null);
+		assertSame(Instrumentations.NONE, Instrumentations.get());
+	}
+
+	/**
+	 * Tests the buckets and percentiles of the histogram
+	 */
+	@Test
+	public void testHistogram() {
+		Log2Histogram histogram = new Log2Histogram();
+		assertEquals(0, histogram.getPercentile(50));
+		assertEquals(0, histogram.getMean(), 0);
+
+		histogram.record(0);
+		histogram.record(1);
+		histogram.record(5);
+		histogram.record(6);
+		histogram.record(1000);
+		histogram.record(-3);
+		long[] buckets = histogram.getBuckets();
+		assertEquals(2, buckets[0]);
+		assertEquals(1, buckets[1]);
+		assertEquals(2, buckets[3]);
+		assertEquals(1, buckets[10]);
+		assertEquals(6, histogram.getCount());
+		assertEquals(1012, histogram.getSum());
+		assertEquals(1000, histogram.getMax());
+
+		assertEquals(0, histogram.getPercentile(0));
+		assertEquals(0, histogram.getPercentile(33));
+		assertEquals(1, histogram.getPercentile(50));
+		assertEquals(7, histogram.getPercentile(80));
+		// The upper bound of the last bucket is 1023, but nothing larger than 1000 was recorded
+		assertEquals(1000, histogram.getPercentile(100));
+
+		histogram.record(Long.MAX_VALUE);
+		assertEquals(Long.MAX_VALUE, histogram.getPercentile(100));
+
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMax());
+
+		boolean successfulCatch = false;
+		try {
+			histogram.getPercentile(101);
+		} catch (IllegalArgumentException e) {
+			successfulCatch = true;
+		}
+		assertTrue(successfulCatch);
+	}
+
+	/**
+	 * Tests if the virtual streams, the encryption, the key derivation and the hashing report to the installed
+	 * instrumentation
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testMeasurements() throws Exception {
+		JmxInstrumentation instrumentation = new JmxInstrumentation();
+		Instrumentations.set(instrumentation);
+
+		byte[] data = new byte[100000];
+		new Random(6).nextBytes(data);
+		ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+		OutputStream virtualOut = new VirtualOutputStream(byteOut, 1000, VirtualStreamProtocol.V1);
+		virtualOut.write(data, 0, 10);
+		virtualOut.flush();
+		virtualOut.write(data, 10, data.length - 10);
+		virtualOut.close();
+		assertEquals(1, instrumentation.getFlushes());
+		assertEquals(data.length, instrumentation.getBytesWritten());
+		assertEquals(101, instrumentation.getChunksWritten());
+		// A hundred full chunks and the flushed one of 10 bytes
+		assertEquals(1000, instrumentation.getWrittenChunkSizeMedian());
+		assertEquals(15, instrumentation.getWrittenChunkSizeHistogram().getPercentile(0.5));
+		assertEquals(0, instrumentation.getReadChunkSizeHistogram().getCount());
+
+		InputStream virtualIn = new VirtualInputStream(new ByteArrayInputStream(byteOut.toByteArray()));
+		assertArrayEquals(data, IOUtils.toByteArray(virtualIn));
+		assertEquals(data.length, instrumentation.getBytesRead());
+		assertEquals(101, instrumentation.getChunksRead());
+		assertEquals(101, instrumentation.getReadChunkSizeHistogram().getCount());
+		assertEquals(101, instrumentation.getWrittenChunkSizeHistogram().getCount());
+		assertEquals(15, instrumentation.getReadChunkSizeHistogram().getPercentile(0.5));
+
+		Key key = KeyGenerator.generateKey("password", KeyGenerator.getSalt(16), 1000, EncryptionUtils.KEY_SIZE);
+		assertEquals(1, instrumentation.getKeyDerivations());
+		assertTrue(instrumentation.getKeyDerivationMillisMax() > 0);
+
+		for (EncryptionMode mode : EncryptionMode.values()) {
+			instrumentation.reset();
+			ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+			OutputStream encryptOut = EncryptionUtils.getEncryptionStream(encrypted, key, mode);
+			encryptOut.write(data);
+			encryptOut.close();
+			InputStream decryptIn = EncryptionUtils.getDecryptionStream(new ByteArrayInputStream(encrypted.toByteArray()), key);
+			assertArrayEquals(data, IOUtils.toByteArray(decryptIn));
+			decryptIn.close();
+			assertEquals(data.length, instrumentation.getEncryptedBytes());
+			assertEquals(data.length, instrumentation.getDecryptedBytes());
+			assertTrue(instrumentation.getEncryptionMegabytesPerSecond() > 0);
+		}
+
+		HashUtils.hash("data");
+		HashUtils.hmac(new byte[32], data, 0, 100);
+		assertEquals(2, instrumentation.getHashCalls());
+		assertEquals(104, instrumentation.getHashedBytes());
+	}
+
+	/**
+	 * Tests if the MBean can be registered, read over JMX and unregistered
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testJmx() throws Exception {
+		JmxInstrumentation instrumentation = new JmxInstrumentation();
+		instrumentation.hashed(10);
+		instrumentation.register();
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(JmxInstrumentation.DEFAULT_NAME);
+			assertEquals(1L, server.getAttribute(name, "HashCalls"));
+			assertEquals(10L, server.getAttribute(name, "HashedBytes"));
+			server.invoke(name, "reset", null, null);
+			assertEquals(0L, server.getAttribute(name, "HashCalls"));
+		} finally {
+			instrumentation.unregister();
+		}
+		assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName(JmxInstrumentation.DEFAULT_NAME)));
+	}
+
+}
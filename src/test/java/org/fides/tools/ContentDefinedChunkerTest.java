@@ -0,0 +1,159 @@
+package org.fides.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests for the {@link ContentDefinedChunker}
+ * 
+ */
+public class ContentDefinedChunkerTest {
+
+	private static final int SIZE = 2 * 1024 * 1024;
+
+	/**
+	 * Tests if the chunks are within the bounds, cover all data and average close to the average size
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testChunkSizes() throws IOException {
+		ContentDefinedChunker chunker = new ContentDefinedChunker();
+		byte[] data = randomBytes(SIZE, 1);
+		List<byte[]> chunks = split(chunker, new ByteArrayInputStream(data));
+
+		int total = 0;
+		for (int i = 0; i < chunks.size(); i++) {
+			int length = chunks.get(i).length;
+			assertTrue(length <= ContentDefinedChunker.DEFAULT_MAX_SIZE);
+			if (i < chunks.size() - 1) {
+				assertTrue(length >= ContentDefinedChunker.DEFAULT_MIN_SIZE);
+			}
+			total += length;
+		}
+		assertEquals(SIZE, total);
+		int average = SIZE / chunks.size();
+		assertTrue("Average " + average, average > ContentDefinedChunker.DEFAULT_AVERAGE_SIZE / 2 && average < ContentDefinedChunker.DEFAULT_AVERAGE_SIZE * 2);
+	}
+
+	/**
+	 * Tests if bytes inserted in the middle of the data only change the chunks around them
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testInsertChangesFewChunks() throws IOException {
+		ContentDefinedChunker chunker = new ContentDefinedChunker();
+		byte[] data = randomBytes(SIZE, 2);
+		byte[] changed = new byte[SIZE + 100];
+		System.arraycopy(data, 0, changed, 0, SIZE / 2);
+		System.arraycopy(randomBytes(100, 3), 0, changed, SIZE / 2, 100);
+		System.arraycopy(data, SIZE / 2, changed, SIZE / 2 + 100, SIZE / 2);
+
+		Set<String> original = hashes(split(chunker, new ByteArrayInputStream(data)));
+		List<byte[]> changedChunks = split(chunker, new ByteArrayInputStream(changed));
+		int newChunks = 0;
+		for (String hash : hashes(changedChunks)) {
+			if (!original.contains(hash)) {
+				newChunks++;
+			}
+		}
+		assertTrue(newChunks + " new chunks", newChunks >= 1 && newChunks <= 3);
+	}
+
+	/**
+	 * Tests if reading the stream in small pieces gives the same chunks as cutting the whole array
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testSplitMatchesCut() throws IOException {
+		ContentDefinedChunker chunker = new ContentDefinedChunker(256, 1024, 4096);
+		byte[] data = randomBytes(200000, 4);
+		InputStream trickle = new FilterInputStream(new ByteArrayInputStream(data)) {
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				return super.read(b, off, Math.min(len, 777));
+			}
+		};
+		List<byte[]> chunks = split(chunker, trickle);
+
+		int offset = 0;
+		for (byte[] chunk : chunks) {
+			assertEquals(chunker.cut(data, offset, Math.min(data.length - offset, 2 * chunker.getMaxSize())), chunk.length);
+			offset += chunk.length;
+		}
+		assertEquals(data.length, offset);
+	}
+
+	/**
+	 * Tests if empty and short data give no chunk and a single chunk
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testShortData() throws IOException {
+		ContentDefinedChunker chunker = new ContentDefinedChunker();
+		assertEquals(0, split(chunker, new ByteArrayInputStream(new byte[0])).size());
+		assertEquals(1, split(chunker, new ByteArrayInputStream(new byte[100])).size());
+		// Data without any variation still ends chunks at the maximum size
+		assertEquals(4, split(chunker, new ByteArrayInputStream(new byte[4 * ContentDefinedChunker.DEFAULT_MAX_SIZE])).size());
+	}
+
+	/**
+	 * Tests if invalid sizes are rejected
+	 */
+	@Test
+	public void testInvalidSizes() {
+		int[][] invalid = { { 1024, 1000, 4096 }, { 0, 1024, 4096 }, { 2048, 1024, 4096 }, { 256, 1024, 512 }, { 16, 32, 64 } };
+		for (int[] sizes : invalid) {
+			boolean successfulCatch = false;
+			try {
+				new ContentDefinedChunker(sizes[0], sizes[1], sizes[2]);
+			} catch (IllegalArgumentException e) {
+				successfulCatch = true;
+			}
+			assertTrue(successfulCatch);
+		}
+	}
+
+	private static List<byte[]> split(ContentDefinedChunker chunker, InputStream in) throws IOException {
+		final List<byte[]> chunks = new ArrayList<>();
+		chunker.split(in, new ContentDefinedChunker.Listener() {
+			@Override
+			public void chunk(byte[] data, int offset, int length) {
+				byte[] chunk = new byte[length];
+				System.arraycopy(data, offset, chunk, 0, length);
+				chunks.add(chunk);
+			}
+		});
+		return chunks;
+	}
+
+	private static Set<String> hashes(List<byte[]> chunks) {
+		Set<String> hashes = new HashSet<>();
+		for (byte[] chunk : chunks) {
+			hashes.add(HashUtils.toHex(HashUtils.hmac(new byte[] { 1 }, chunk, 0, chunk.length)));
+		}
+		return hashes;
+	}
+
+	private static byte[] randomBytes(int size, long seed) {
+		byte[] bytes = new byte[size];
+		new Random(seed).nextBytes(bytes);
+		return bytes;
+	}
+
+}
@@ -0,0 +1,275 @@
+package org.fides.tools;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for the {@link HashUtils}
+ * 
+ */
+public class HashUtilsTest {
+
+	private static final int ROUNDS = 2000;
+
+	/**
+	 * Tests if toHex gives exactly the output of the original BigInteger implementation for random arrays
+	 */
+	@Test
+	public void testToHexMatchesOriginal() {
+		Random random = new Random(1);
+		for (int i = 0; i < ROUNDS; i++) {
+			byte[] data = randomBytes(random);
+			assertEquals(originalToHex(data), HashUtils.toHex(data));
+		}
+		// Leading zeros are where the padding of the original mattered
+		assertEquals(originalToHex(new byte[] { 0, 0, 1 }), HashUtils.toHex(new byte[] { 0, 0, 1 }));
+		assertEquals(originalToHex(new byte[] { 0 }), HashUtils.toHex(new byte[] { 0 }));
+	}
+
+	/**
+	 * Tests if an empty array gives an empty string, the original gave "0"
+	 */
+	@Test
+	public void testToHexEmpty() {
+		assertEquals("", HashUtils.toHex(new byte[0]));
+		assertEquals(0, HashUtils.fromHex("").length);
+	}
+
+	/**
+	 * Tests if fromHex gives exactly the output of the original parseInt implementation, for lower and upper case
+	 */
+	@Test
+	public void testFromHexMatchesOriginal() {
+		Random random = new Random(2);
+		for (int i = 0; i < ROUNDS; i++) {
+			String hex = HashUtils.toHex(randomBytes(random));
+			if (random.nextBoolean()) {
+				hex = hex.toUpperCase();
+			}
+			assertArrayEquals(originalFromHex(hex), HashUtils.fromHex(hex));
+		}
+		// The original ignores a trailing odd character
+		assertArrayEquals(originalFromHex("abc"), HashUtils.fromHex("abc"));
+	}
+
+	/**
+	 * Tests if the array and buffer overloads write the same characters as toHex, at offsets
+	 */
+	@Test
+	public void testToHexOverloads() {
+		Random random = new Random(3);
+		for (int i = 0; i < ROUNDS; i++) {
+			byte[] data = randomBytes(random);
+			int off = random.nextInt(data.length + 1);
+			int len = random.nextInt(data.length - off + 1);
+			String expected = originalToHex(copy(data, off, len));
+			if (len == 0) {
+				expected = "";
+			}
+
+			char[] chars = new char[len * 2 + 3];
+			assertEquals(len * 2, HashUtils.toHex(data, off, len, chars, 3));
+			assertEquals(expected, new String(chars, 3, len * 2));
+
+			byte[] ascii = new byte[len * 2 + 5];
+			assertEquals(len * 2, HashUtils.toHex(data, off, len, ascii, 5));
+			assertEquals(expected, new String(ascii, 5, len * 2, StandardCharsets.US_ASCII));
+
+			ByteBuffer dst = ByteBuffer.allocateDirect(len * 2);
+			assertEquals(len * 2, HashUtils.toHex(ByteBuffer.wrap(data, off, len), dst));
+			dst.flip();
+			assertEquals(expected, StandardCharsets.US_ASCII.decode(dst).toString());
+		}
+	}
+
+	/**
+	 * Tests if the array and buffer overloads decode the same bytes as fromHex, at offsets
+	 */
+	@Test
+	public void testFromHexOverloads() {
+		Random random = new Random(4);
+		for (int i = 0; i < ROUNDS; i++) {
+			byte[] data = randomBytes(random);
+			String hex = "xy" + HashUtils.toHex(data).toUpperCase();
+			int len = hex.length() - 2;
+
+			byte[] fromSequence = new byte[data.length + 1];
+			assertEquals(data.length, HashUtils.fromHex(CharBuffer.wrap(hex), 2, len, fromSequence, 1));
+			assertArrayEquals(data, copy(fromSequence, 1, data.length));
+
+			byte[] fromChars = new byte[data.length];
+			assertEquals(data.length, HashUtils.fromHex(hex.toCharArray(), 2, len, fromChars, 0));
+			assertArrayEquals(data, fromChars);
+
+			byte[] ascii = hex.getBytes(StandardCharsets.US_ASCII);
+			byte[] fromAscii = new byte[data.length];
+			assertEquals(data.length, HashUtils.fromHex(ascii, 2, len, fromAscii, 0));
+			assertArrayEquals(data, fromAscii);
+
+			ByteBuffer dst = ByteBuffer.allocate(data.length);
+			assertEquals(data.length, HashUtils.fromHex(ByteBuffer.wrap(ascii, 2, len), dst));
+			assertArrayEquals(data, dst.array());
+		}
+	}
+
+	/**
+	 * A bad weather test for characters that are not hexadecimal
+	 */
+	@Test
+	public void testFromHexInvalidCharacters() {
+		String[] invalid = { "0g", "g0", " 1", "+1", "-1", "\u00e90", "\u0660\u0661" };
+		for (String hex : invalid) {
+			boolean successfulCatch = false;
+			try {
+				HashUtils.fromHex(hex);
+			} catch (NumberFormatException e) {
+				successfulCatch = true;
+			}
+			assertTrue(hex, successfulCatch);
+		}
+	}
+
+	/**
+	 * A bad weather test for an odd number of characters and a target that is too small
+	 */
+	@Test
+	public void testFromHexBadRanges() {
+		boolean successfulCatch = false;
+		try {
+			HashUtils.fromHex("abc", 0, 3, new byte[2], 0);
+		} catch (IllegalArgumentException e) {
+			successfulCatch = true;
+		}
+		assertTrue(successfulCatch);
+
+		successfulCatch = false;
+		try {
+			HashUtils.fromHex("abcd", 0, 4, new byte[2], 1);
+		} catch (IndexOutOfBoundsException e) {
+			successfulCatch = true;
+		}
+		assertTrue(successfulCatch);
+	}
+
+	/**
+	 * Tests if hashing a buffer, a file and a stream gives the hash of their bytes
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testHashOverloads() throws IOException {
+		byte[] data = new byte[3 * 1024 * 1024 + 17];
+		new Random(5).nextBytes(data);
+		String expected = sha256(data);
+
+		ByteBuffer heap = ByteBuffer.wrap(data);
+		assertEquals(expected, HashUtils.hash(heap));
+		assertEquals(0, heap.remaining());
+		ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+		direct.put(data).flip();
+		assertEquals(expected, HashUtils.hash(direct));
+
+		File file = File.createTempFile("hash", ".bin");
+		file.deleteOnExit();
+		Files.write(file.toPath(), data);
+		assertEquals(expected, HashUtils.hash(file.toPath()));
+
+		assertEquals(expected, HashUtils.hash(new ByteArrayInputStream(data)));
+	}
+
+	/**
+	 * Tests if hashing an empty file gives the hash of no bytes
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testHashEmptyFile() throws IOException {
+		File file = File.createTempFile("hash", ".bin");
+		file.deleteOnExit();
+		assertEquals(sha256(new byte[0]), HashUtils.hash(file.toPath()));
+		assertEquals(HashUtils.hash(""), HashUtils.hash(file.toPath()));
+	}
+
+	private static String sha256(byte[] data) {
+		try {
+			return originalToHex(MessageDigest.getInstance("SHA-256").digest(data));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static byte[] randomBytes(Random random) {
+		byte[] data = new byte[1 + random.nextInt(64)];
+		random.nextBytes(data);
+		// Give leading zero bytes and nibbles a fair chance
+		if (random.nextInt(4) == 0) {
+			data[0] = (byte) random.nextInt(16);
+		}
+		if (random.nextInt(4) == 0) {
+			data[0] = 0;
+		}
+		return data;
+	}
+
+	private static byte[] copy(byte[] data, int off, int len) {
+		byte[] result = new byte[len];
+		System.arraycopy(data, off, result, 0, len);
+		return result;
+	}
+
+	/**
+	 * Tests the keyed hash against test case 2 of RFC 4231, also for a range of a larger array
+	 */
+	@Test
+	public void testHmac() {
+		byte[] key = "Jefe".getBytes(StandardCharsets.US_ASCII);
+		byte[] data = "what do ya want for nothing?".getBytes(StandardCharsets.US_ASCII);
+		String expected = "5bdcc146bf60754e6a042426089575c75a003f089d2739839dec58b964ec3843";
+		assertEquals(expected, HashUtils.toHex(HashUtils.hmac(key, data, 0, data.length)));
+
+		byte[] padded = new byte[data.length + 10];
+		System.arraycopy(data, 0, padded, 5, data.length);
+		assertEquals(expected, HashUtils.toHex(HashUtils.hmac(key, padded, 5, data.length)));
+	}
+
+	/**
+	 * The toHex of HashUtils before the lookup table
+	 */
+	private static String originalToHex(byte[] array) {
+		BigInteger bi = new BigInteger(1, array);
+		String hex = bi.toString(16);
+		int paddingLength = (array.length * 2) - hex.length();
+		if (paddingLength > 0) {
+			return String.format("%0" + paddingLength + "d", 0) + hex;
+		} else {
+			return hex;
+		}
+	}
+
+	/**
+	 * The fromHex of HashUtils before the lookup table
+	 */
+	private static byte[] originalFromHex(String hex) {
+		byte[] binary = new byte[hex.length() / 2];
+		for (int i = 0; i < binary.length; i++) {
+			binary[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+		}
+		return binary;
+	}
+
+}
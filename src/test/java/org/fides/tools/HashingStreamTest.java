@@ -0,0 +1,122 @@
+package org.fides.tools;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.apache.commons.io.IOUtils;
+import org.fides.components.virtualstream.VirtualInputStream;
+import org.fides.components.virtualstream.VirtualOutputStream;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link HashingInputStream} and the {@link HashingOutputStream}
+ * 
+ */
+public class HashingStreamTest {
+
+	/**
+	 * Tests if hashing while sending a file over a virtual stream and while receiving it gives the hash of the file
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testHashWhileStreaming() throws IOException {
+		byte[] data = new byte[500000];
+		new Random(1).nextBytes(data);
+		String expected = HashUtils.hash(new ByteArrayInputStream(data));
+
+		ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+		HashingOutputStream hashingOut = new HashingOutputStream(new VirtualOutputStream(byteOut));
+		hashingOut.write(data, 0, 1000);
+		hashingOut.write(data[1000]);
+		hashingOut.write(data, 1001, data.length - 1001);
+		hashingOut.close();
+		assertEquals(expected, hashingOut.getHexHash());
+
+		HashingInputStream hashingIn = new HashingInputStream(new VirtualInputStream(new ByteArrayInputStream(byteOut.toByteArray())));
+		byte[] received = IOUtils.toByteArray(hashingIn);
+		hashingIn.close();
+		assertArrayEquals(data, received);
+		assertEquals(expected, hashingIn.getHexHash());
+	}
+
+	/**
+	 * Tests if skipped bytes are part of the hash
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testSkipIsHashed() throws IOException {
+		byte[] data = new byte[100000];
+		new Random(2).nextBytes(data);
+		HashingInputStream hashingIn = new HashingInputStream(new ByteArrayInputStream(data));
+		assertEquals(10, hashingIn.read(new byte[10]));
+		assertEquals(50000, hashingIn.skip(50000));
+		assertEquals(data[50010] & 0xFF, hashingIn.read());
+		assertEquals(data.length - 50011, hashingIn.skip(Long.MAX_VALUE));
+		assertEquals(-1, hashingIn.read());
+		assertEquals(HashUtils.hash(new ByteArrayInputStream(data)), hashingIn.getHexHash());
+	}
+
+	/**
+	 * A bad weather test for writing after the hash has been computed
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testWriteAfterHash() throws IOException {
+		OutputStream hashingOut = new HashingOutputStream(new ByteArrayOutputStream());
+		hashingOut.write(1);
+		((HashingOutputStream) hashingOut).getHash();
+		boolean successfulCatch = false;
+		try {
+			hashingOut.write(2);
+		} catch (IllegalStateException e) {
+			successfulCatch = true;
+		}
+		assertTrue(successfulCatch);
+	}
+
+	/**
+	 * A bad weather test for reading after the hash has been computed, the underlying stream is not read
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testReadAfterHash() throws IOException {
+		ByteArrayInputStream byteIn = new ByteArrayInputStream(new byte[] { 1, 2, 3 });
+		HashingInputStream hashingIn = new HashingInputStream(byteIn);
+		hashingIn.read();
+		hashingIn.getHash();
+		boolean successfulCatch = false;
+		try {
+			hashingIn.read(new byte[2]);
+		} catch (IllegalStateException e) {
+			successfulCatch = true;
+		}
+		assertTrue(successfulCatch);
+		assertEquals(2, byteIn.available());
+	}
+
+	/**
+	 * Tests if asking for the hash twice gives the same hash
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testHashTwice() throws IOException {
+		InputStream in = new HashingInputStream(new ByteArrayInputStream(new byte[] { 1, 2, 3 }));
+		IOUtils.toByteArray(in);
+		HashingInputStream hashingIn = (HashingInputStream) in;
+		assertArrayEquals(hashingIn.getHash(), hashingIn.getHash());
+	}
+
+}
@@ -0,0 +1,143 @@
+package org.fides.tools;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for the {@link TreeHash}
+ * 
+ */
+public class TreeHashTest {
+
+	private static final int LEAF_SIZE = 4096;
+
+	/**
+	 * Tests if files, buffers and streams of sizes around the leaf boundaries give the tree of a simple sequential
+	 * implementation
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testMatchesSequentialTree() throws Exception {
+		int[] sizes = { 0, 1, LEAF_SIZE - 1, LEAF_SIZE, LEAF_SIZE + 1, 3 * LEAF_SIZE, 5 * LEAF_SIZE + 7, 4099 * LEAF_SIZE + 1 };
+		for (int size : sizes) {
+			byte[] data = testData(size);
+			List<byte[]> expectedLeaves = sequentialLeaves(data);
+			byte[] expectedRoot = sequentialRoot(expectedLeaves);
+
+			TreeHash fromFile = TreeHash.of(writeTempFile(data).toPath(), LEAF_SIZE);
+			TreeHash fromBuffer = TreeHash.of(ByteBuffer.wrap(data), LEAF_SIZE);
+			TreeHash fromStream = TreeHash.of(new ByteArrayInputStream(data), LEAF_SIZE);
+			for (TreeHash tree : new TreeHash[] { fromFile, fromBuffer, fromStream }) {
+				assertEquals(expectedLeaves.size(), tree.getLeafCount());
+				for (int i = 0; i < expectedLeaves.size(); i++) {
+					assertArrayEquals(expectedLeaves.get(i), tree.getLeafHash(i));
+				}
+				assertArrayEquals(expectedRoot, tree.getRoot());
+			}
+		}
+	}
+
+	/**
+	 * Tests if a single leaf is not hashed like the plain data, and a tree of the same data with another leaf size differs
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testDomainSeparation() throws IOException {
+		byte[] data = testData(3 * LEAF_SIZE);
+		File file = writeTempFile(data);
+		assertFalse(HashUtils.hash(file.toPath()).equals(TreeHash.of(file.toPath(), data.length).getHexRoot()));
+		assertFalse(TreeHash.of(file.toPath(), LEAF_SIZE).getHexRoot().equals(TreeHash.of(file.toPath(), 2 * LEAF_SIZE).getHexRoot()));
+	}
+
+	/**
+	 * Tests if leaves can be verified one by one and the root can be rebuilt from the leaf hashes
+	 */
+	@Test
+	public void testVerifyLeaves() {
+		byte[] data = testData(7 * LEAF_SIZE + 100);
+		TreeHash tree = TreeHash.of(ByteBuffer.wrap(data), LEAF_SIZE);
+		for (int i = 0; i < tree.getLeafCount(); i++) {
+			int length = Math.min(LEAF_SIZE, data.length - i * LEAF_SIZE);
+			assertTrue(tree.verifyLeaf(i, data, i * LEAF_SIZE, length));
+		}
+		data[3 * LEAF_SIZE + 5] ^= 1;
+		assertFalse(tree.verifyLeaf(3, data, 3 * LEAF_SIZE, LEAF_SIZE));
+		assertArrayEquals(tree.getRoot(), TreeHash.root(tree.getLeafHashes()));
+	}
+
+	/**
+	 * Tests if hashing a buffer leaves its position alone and HashUtils gives the same root
+	 */
+	@Test
+	public void testBufferPosition() {
+		ByteBuffer data = ByteBuffer.wrap(testData(3 * TreeHash.DEFAULT_LEAF_SIZE));
+		data.position(10);
+		String root = HashUtils.treeHash(data);
+		assertEquals(10, data.position());
+		assertEquals(TreeHash.of(data, TreeHash.DEFAULT_LEAF_SIZE).getHexRoot(), root);
+	}
+
+	private static List<byte[]> sequentialLeaves(byte[] data) throws NoSuchAlgorithmException {
+		List<byte[]> leaves = new ArrayList<>();
+		int offset = 0;
+		do {
+			int length = Math.min(LEAF_SIZE, data.length - offset);
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update((byte) 0);
+			digest.update(data, offset, length);
+			leaves.add(digest.digest());
+			offset += length;
+		} while (offset < data.length);
+		return leaves;
+	}
+
+	private static byte[] sequentialRoot(List<byte[]> leaves) throws NoSuchAlgorithmException {
+		if (leaves.size() == 1) {
+			return leaves.get(0);
+		}
+		List<byte[]> parents = new ArrayList<>();
+		for (int i = 0; i < leaves.size(); i += 2) {
+			if (i + 1 == leaves.size()) {
+				parents.add(leaves.get(i));
+			} else {
+				MessageDigest digest = MessageDigest.getInstance("SHA-256");
+				digest.update((byte) 1);
+				digest.update(leaves.get(i));
+				digest.update(leaves.get(i + 1));
+				parents.add(digest.digest());
+			}
+		}
+		return sequentialRoot(parents);
+	}
+
+	private static byte[] testData(int size) {
+		byte[] data = new byte[size];
+		new Random(size).nextBytes(data);
+		return data;
+	}
+
+	private static File writeTempFile(byte[] data) throws IOException {
+		File file = File.createTempFile("tree", ".bin");
+		file.deleteOnExit();
+		Files.write(file.toPath(), data);
+		return file;
+	}
+
+}